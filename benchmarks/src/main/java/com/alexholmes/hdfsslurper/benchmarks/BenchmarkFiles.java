@@ -0,0 +1,165 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper.benchmarks;
+
+import com.hadoop.compression.lzo.LzoCodec;
+import com.hadoop.compression.lzo.LzopCodec;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.io.compress.SnappyCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The source files and file systems which the benchmarks run against.
+ */
+public class BenchmarkFiles {
+
+  private static final int KB = 1024;
+  private static final int MB = 1024 * KB;
+
+  /**
+   * How the bytes in a run are split into files.  Every distribution adds up to 64MB, so that scores
+   * can be compared across them.
+   */
+  public enum Distribution {
+    /**
+     * 1024 files of 64KB.
+     */
+    SMALL(1024, 64 * KB),
+
+    /**
+     * 256 files of 64KB, 16 of 1MB and 2 of 16MB.
+     */
+    MIXED(256, 64 * KB, 16, MB, 2, 16 * MB),
+
+    /**
+     * A single file of 64MB.
+     */
+    LARGE(1, 64 * MB);
+
+    private final int[] countsAndSizes;
+
+    Distribution(int... countsAndSizes) {
+      this.countsAndSizes = countsAndSizes;
+    }
+
+    public List<Integer> getFileSizes() {
+      List<Integer> sizes = new ArrayList<Integer>();
+      for (int i = 0; i < countsAndSizes.length; i += 2) {
+        for (int j = 0; j < countsAndSizes[i]; j++) {
+          sizes.add(countsAndSizes[i + 1]);
+        }
+      }
+      return sizes;
+    }
+  }
+
+  public enum FileSystemType {
+    /**
+     * The checksummed local file system, which writes a .crc file alongside every file.
+     */
+    LOCAL,
+
+    /**
+     * The raw local file system, without checksums.
+     */
+    RAW;
+
+    public FileSystem get(Configuration conf) throws IOException {
+      if (this == LOCAL) {
+        return FileSystem.getLocal(conf);
+      }
+      RawLocalFileSystem fs = new RawLocalFileSystem();
+      fs.initialize(new File("/").toURI(), conf);
+      return fs;
+    }
+  }
+
+  public enum Codec {
+    NONE, GZIP, LZOP, SNAPPY;
+
+    /**
+     * @return the codec, or null for {@link #NONE}
+     * @throws IllegalStateException if the codec's native libraries can't be loaded
+     */
+    public CompressionCodec create(Configuration conf) {
+      switch (this) {
+        case GZIP:
+          return ReflectionUtils.newInstance(GzipCodec.class, conf);
+        case LZOP:
+          if (!LzoCodec.isNativeLzoLoaded(conf)) {
+            throw new IllegalStateException("The native LZO libraries aren't on java.library.path");
+          }
+          return ReflectionUtils.newInstance(LzopCodec.class, conf);
+        case SNAPPY:
+          if (!SnappyCodec.isNativeCodeLoaded()) {
+            throw new IllegalStateException("The native Snappy libraries aren't on java.library.path");
+          }
+          return ReflectionUtils.newInstance(SnappyCodec.class, conf);
+        default:
+          return null;
+      }
+    }
+  }
+
+  /**
+   * Writes the files for a distribution into a directory.  The contents look like log lines, so that
+   * the codecs have something realistic to compress, and are the same for every run.
+   */
+  public static List<Path> create(FileSystem fs, Path dir, Distribution distribution) throws IOException {
+    fs.delete(dir, true);
+    fs.mkdirs(dir);
+
+    Random random = new Random(0);
+    List<Path> files = new ArrayList<Path>();
+    for (int size : distribution.getFileSizes()) {
+      Path file = new Path(dir, "file-" + files.size());
+      OutputStream os = fs.create(file);
+      try {
+        long written = 0;
+        while (written < size) {
+          byte[] line = String.format("%d INFO host-%d GET /item/%d %d %dms%n", 1380000000000L + written,
+              random.nextInt(16), random.nextInt(100000), 200 + random.nextInt(4) * 100,
+              random.nextInt(1000)).getBytes("UTF-8");
+          int n = (int) Math.min(line.length, size - written);
+          os.write(line, 0, n);
+          written += n;
+        }
+      } finally {
+        os.close();
+      }
+      files.add(file);
+    }
+    return files;
+  }
+
+  public static Path getBaseDir(FileSystem fs, String name) {
+    return fs.makeQualified(new Path(System.getProperty("benchmark.data", System.getProperty("java.io.tmpdir")),
+        "slurper-benchmark-" + name));
+  }
+}
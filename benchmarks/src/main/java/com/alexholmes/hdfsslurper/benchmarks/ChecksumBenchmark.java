@@ -0,0 +1,115 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper.benchmarks;
+
+import org.apache.hadoop.util.PureJavaCrc32;
+import org.apache.hadoop.util.PureJavaCrc32C;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * Compares the checksum implementations which can be used to verify copies, fed with the same buffer
+ * sizes as the copy loop.  Each operation checksums 16MB.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ChecksumBenchmark {
+
+  private static final int DATA_SIZE = 16 * 1024 * 1024;
+
+  public enum Crc {
+    /**
+     * {@link CRC32}, which is what the slurper verifies copies with.
+     */
+    CRC32,
+
+    /**
+     * Hadoop's {@link PureJavaCrc32}.
+     */
+    PURE_JAVA_CRC32,
+
+    /**
+     * Hadoop's {@link PureJavaCrc32C}, the same polynomial HDFS uses for block checksums.
+     */
+    PURE_JAVA_CRC32C,
+
+    /**
+     * The JDK's CRC32C, which is intrinsified, and only exists on Java 9 and later.
+     */
+    JDK_CRC32C;
+
+    public Checksum create() throws Exception {
+      switch (this) {
+        case PURE_JAVA_CRC32:
+          return new PureJavaCrc32();
+        case PURE_JAVA_CRC32C:
+          return new PureJavaCrc32C();
+        case JDK_CRC32C:
+          try {
+            return (Checksum) Class.forName("java.util.zip.CRC32C").newInstance();
+          } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("java.util.zip.CRC32C requires Java 9 or later");
+          }
+        default:
+          return new java.util.zip.CRC32();
+      }
+    }
+  }
+
+  @Param({"CRC32", "PURE_JAVA_CRC32", "PURE_JAVA_CRC32C", "JDK_CRC32C"})
+  public Crc crc;
+
+  @Param({"4096", "65536", "1048576"})
+  public int bufferSize;
+
+  private Checksum checksum;
+  private byte[] data;
+
+  @Setup
+  public void setUp() throws Exception {
+    checksum = crc.create();
+    data = new byte[DATA_SIZE];
+    new Random(0).nextBytes(data);
+  }
+
+  @Benchmark
+  public long update() {
+    checksum.reset();
+    for (int offset = 0; offset < data.length; offset += bufferSize) {
+      checksum.update(data, offset, Math.min(bufferSize, data.length - offset));
+    }
+    return checksum.getValue();
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper.benchmarks;
+
+import com.alexholmes.hdfsslurper.CompressionStreamFactory;
+import com.alexholmes.hdfsslurper.Config;
+import com.alexholmes.hdfsslurper.CopyEngine;
+import com.alexholmes.hdfsslurper.WorkerThread;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Copies a distribution of files the same way a {@link WorkerThread} does: through the configured
+ * {@link CopyEngine} and compression stream, optionally followed by reading the destination back to
+ * compare CRC32s.  Each operation copies the whole distribution, which is 64MB.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class CopyBenchmark {
+
+  @Param({"NONE", "GZIP", "LZOP", "SNAPPY"})
+  public BenchmarkFiles.Codec codec;
+
+  @Param({"4096", "65536", "1048576"})
+  public int bufferSize;
+
+  @Param({"false", "true"})
+  public boolean verify;
+
+  @Param({"SMALL", "MIXED", "LARGE"})
+  public BenchmarkFiles.Distribution distribution;
+
+  @Param({"LOCAL", "RAW"})
+  public BenchmarkFiles.FileSystemType fileSystem;
+
+  @Param({"STREAM", "CHANNEL", "MMAP"})
+  public CopyEngine.Type engine;
+
+  private FileSystem fs;
+  private Path baseDir;
+  private Path destDir;
+  private List<Path> srcFiles;
+  private CompressionCodec compressionCodec;
+  private CompressionStreamFactory compressionStreamFactory;
+  private CopyEngine copyEngine;
+  private CRC32 crc = new CRC32();
+
+  @Setup
+  public void setUp() throws IOException {
+    Configuration conf = new Configuration();
+    fs = fileSystem.get(conf);
+    compressionCodec = codec.create(conf);
+
+    baseDir = BenchmarkFiles.getBaseDir(fs, "copy");
+    srcFiles = BenchmarkFiles.create(fs, new Path(baseDir, "src"), distribution);
+    destDir = new Path(baseDir, "dest");
+    fs.mkdirs(destDir);
+
+    Config config = new Config()
+        .setCodec(compressionCodec)
+        .setCopyBufferSize(bufferSize)
+        .setVerify(verify)
+        .setConfig(conf);
+    compressionStreamFactory = new CompressionStreamFactory(config);
+    copyEngine = CopyEngine.create(engine, new byte[bufferSize]);
+    if (!copyEngine.accept(fs, srcFiles.get(0))) {
+      throw new IllegalStateException("The " + engine + " engine can't read from " + fs.getUri());
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    fs.delete(baseDir, true);
+  }
+
+  @Benchmark
+  public long copy() throws IOException {
+    long total = 0;
+    for (Path src : srcFiles) {
+      Path dest = new Path(destDir, compressionCodec == null ?
+          src.getName() : src.getName() + compressionCodec.getDefaultExtension());
+
+      crc.reset();
+      OutputStream os = fs.create(dest, true);
+      try {
+        if (compressionCodec != null) {
+          os = compressionStreamFactory.createOutputStream(os);
+        }
+        total += copyEngine.copy(fs, src, os, verify ? crc : null);
+      } finally {
+        os.close();
+      }
+
+      if (verify) {
+        long destCRC = WorkerThread.hdfsFileCRC32(fs, compressionCodec, dest);
+        if (destCRC != crc.getValue()) {
+          throw new IOException("CRC's don't match for " + dest);
+        }
+      }
+    }
+    return total;
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper.benchmarks;
+
+import com.alexholmes.hdfsslurper.WorkerThread;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads destination files back through {@link WorkerThread#hdfsFileCRC32}, which is what the
+ * default verification costs on top of the copy.  Each operation reads the whole distribution.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class VerifyBenchmark {
+
+  @Param({"NONE", "GZIP", "LZOP", "SNAPPY"})
+  public BenchmarkFiles.Codec codec;
+
+  @Param({"SMALL", "MIXED", "LARGE"})
+  public BenchmarkFiles.Distribution distribution;
+
+  @Param({"LOCAL", "RAW"})
+  public BenchmarkFiles.FileSystemType fileSystem;
+
+  private FileSystem fs;
+  private Path baseDir;
+  private CompressionCodec compressionCodec;
+  private List<Path> destFiles = new ArrayList<Path>();
+
+  @Setup
+  public void setUp() throws IOException {
+    Configuration conf = new Configuration();
+    fs = fileSystem.get(conf);
+    compressionCodec = codec.create(conf);
+
+    baseDir = BenchmarkFiles.getBaseDir(fs, "verify");
+    List<Path> srcFiles = BenchmarkFiles.create(fs, new Path(baseDir, "src"), distribution);
+    if (compressionCodec == null) {
+      destFiles = srcFiles;
+      return;
+    }
+
+    for (Path src : srcFiles) {
+      Path dest = new Path(baseDir, "dest/" + src.getName() + compressionCodec.getDefaultExtension());
+      InputStream is = fs.open(src);
+      OutputStream os = compressionCodec.createOutputStream(fs.create(dest));
+      IOUtils.copyBytes(is, os, 65536, true);
+      destFiles.add(dest);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    fs.delete(baseDir, true);
+  }
+
+  @Benchmark
+  public long readBack() throws IOException {
+    long crcs = 0;
+    for (Path dest : destFiles) {
+      crcs += WorkerThread.hdfsFileCRC32(fs, compressionCodec, dest);
+    }
+    return crcs;
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alexholmes.hdfsslurper;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects two pipeline stages with a fixed ring of reusable buffers.  The producer writes into
+ * {@link #getOutputStream()}, which fills free buffers and passes them on, and the consumer takes the
+ * filled buffers and releases them once it's done with them.  No buffers are allocated once the pipe
+ * has been created, and the same pipe can be reused for any number of files.
+ * <p/>
+ * The time each side spends blocked on the other is recorded, which shows which side is the bottleneck.
+ */
+public class BufferPipe {
+
+  private static final long POLL_MILLIS = 100;
+
+  /**
+   * Marks the end of the data.
+   */
+  public static final Buffer EOF = new Buffer(new byte[0]);
+
+  private final Buffer[] buffers;
+  private final BlockingQueue<Buffer> free;
+  private final BlockingQueue<Buffer> full;
+  private final PipeOutputStream outputStream = new PipeOutputStream();
+  private volatile Throwable aborted;
+  private long producerStallNanos;
+  private long consumerStallNanos;
+
+  public BufferPipe(int numBuffers, int bufferSize) {
+    this.free = new ArrayBlockingQueue<Buffer>(numBuffers);
+    this.full = new ArrayBlockingQueue<Buffer>(numBuffers + 1);
+    this.buffers = new Buffer[numBuffers];
+    for (int i = 0; i < numBuffers; i++) {
+      buffers[i] = new Buffer(new byte[bufferSize]);
+      free.add(buffers[i]);
+    }
+  }
+
+  /**
+   * Prepares the pipe for another file.  Must only be called once both sides of the pipe are idle.  All the
+   * buffers are freed, including any which a side which failed was holding on to.
+   */
+  public void reset() {
+    full.clear();
+    free.clear();
+    for (Buffer b : buffers) {
+      b.length = 0;
+      free.add(b);
+    }
+    outputStream.current = null;
+    aborted = null;
+    producerStallNanos = 0;
+    consumerStallNanos = 0;
+  }
+
+  public OutputStream getOutputStream() {
+    return outputStream;
+  }
+
+  /**
+   * Takes the next buffer of data, waiting for the producer if necessary.
+   *
+   * @return the next buffer, or {@link #EOF} once the producer has closed the stream
+   * @throws IOException if the pipe was aborted
+   */
+  public Buffer take() throws IOException {
+    long start = System.nanoTime();
+    try {
+      return poll(full);
+    } finally {
+      consumerStallNanos += System.nanoTime() - start;
+    }
+  }
+
+  public void release(Buffer buffer) {
+    buffer.length = 0;
+    free.add(buffer);
+  }
+
+  /**
+   * Stops the pipe, any blocked or subsequent calls on either side fail with the supplied cause.
+   */
+  public void abort(Throwable cause) {
+    aborted = cause;
+  }
+
+  /**
+   * The time the producer spent waiting for the consumer to release a buffer.
+   */
+  public long getProducerStallNanos() {
+    return producerStallNanos;
+  }
+
+  /**
+   * The time the consumer spent waiting for the producer to fill a buffer.
+   */
+  public long getConsumerStallNanos() {
+    return consumerStallNanos;
+  }
+
+  private Buffer poll(BlockingQueue<Buffer> queue) throws IOException {
+    try {
+      while (true) {
+        if (aborted != null) {
+          throw new IOException("Pipeline aborted", aborted);
+        }
+        Buffer b = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (b != null) {
+          return b;
+        }
+      }
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while waiting on pipeline");
+    }
+  }
+
+  public static class Buffer {
+    private final byte[] data;
+    private int length;
+
+    private Buffer(byte[] data) {
+      this.data = data;
+    }
+
+    public byte[] getData() {
+      return data;
+    }
+
+    public int getLength() {
+      return length;
+    }
+  }
+
+  private class PipeOutputStream extends OutputStream {
+    private Buffer current;
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (current == null) {
+          long start = System.nanoTime();
+          try {
+            current = poll(free);
+          } finally {
+            producerStallNanos += System.nanoTime() - start;
+          }
+        }
+        int n = Math.min(len, current.data.length - current.length);
+        System.arraycopy(b, off, current.data, current.length, n);
+        current.length += n;
+        off += n;
+        len -= n;
+
+        if (current.length == current.data.length) {
+          full.add(current);
+          current = null;
+        }
+      }
+    }
+
+    @Override
+    public void flush() {
+      // buffers are only handed over once they are full, or the stream is closed
+    }
+
+    @Override
+    public void close() {
+      if (current != null) {
+        full.add(current);
+        current = null;
+      }
+      full.add(EOF);
+    }
+  }
+}
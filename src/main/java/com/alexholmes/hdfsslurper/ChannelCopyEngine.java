@@ -0,0 +1,77 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Checksum;
+
+/**
+ * Copies local files by reading them through a {@link FileChannel} into a direct buffer, which skips
+ * the layers of streams that the local Hadoop file system puts between us and the file.
+ */
+public class ChannelCopyEngine extends CopyEngine {
+
+  private final ByteBuffer direct;
+
+  public ChannelCopyEngine(byte[] buffer) {
+    super(buffer);
+    this.direct = ByteBuffer.allocateDirect(buffer.length);
+  }
+
+  @Override
+  public Type getType() {
+    return Type.CHANNEL;
+  }
+
+  @Override
+  public boolean accept(FileSystem srcFs, Path src) {
+    return isLocal(srcFs);
+  }
+
+  @Override
+  protected long doCopy(FileSystem srcFs, Path src, OutputStream out, Checksum checksum) throws IOException {
+    FileInputStream fis = null;
+    long total = 0;
+    try {
+      fis = new FileInputStream(toLocalFile(srcFs, src));
+      FileChannel channel = fis.getChannel();
+      direct.clear();
+      while (channel.read(direct) != -1) {
+        direct.flip();
+        int n = direct.remaining();
+        direct.get(buffer, 0, n);
+        direct.clear();
+
+        if (checksum != null) {
+          checksum.update(buffer, 0, n);
+        }
+        out.write(buffer, 0, n);
+        total += n;
+      }
+    } finally {
+      IOUtils.closeStream(fis);
+    }
+    return total;
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Checksum;
+
+/**
+ * Copies a single large file by splitting it into block-aligned ranges which are written
+ * in parallel to separate staging parts.  The parts are then joined together with
+ * {@link DistributedFileSystem#concat(Path, Path[])}, so a single file is no longer limited
+ * to the speed of a single DataNode write pipeline.
+ * <p/>
+ * The first part is written directly to the staging file, and the remaining parts are written
+ * alongside it in the staging directory, since HDFS requires all the files involved in a concat
+ * to share a parent directory.
+ */
+public class ChunkedUploader {
+  private static Log log = LogFactory.getLog(ChunkedUploader.class);
+
+  private final Config config;
+  private final Throttler throttler;
+  private final ExecutorService executor;
+
+  public ChunkedUploader(Config config, final String threadName) {
+    this(config, threadName, null);
+  }
+
+  /**
+   * @param throttler limits the bandwidth used by the parts, can be null
+   */
+  public ChunkedUploader(Config config, final String threadName, Throttler throttler) {
+    this.config = config;
+    this.throttler = throttler;
+    this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+      private int count;
+
+      @Override
+      public synchronized Thread newThread(Runnable r) {
+        Thread t = new Thread(r, threadName + "-part-" + (++count));
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Determines whether a file should be uploaded in parts.  Only uncompressed copies into HDFS of
+   * files which are at least {@link Config#getChunkedUploadThreshold()} bytes are split.
+   */
+  public boolean accept(FileStatus srcFileStatus, FileSystem destFs) {
+    return config.getCodec() == null &&
+        config.getChunkedUploadThreshold() > 0 &&
+        config.getChunkedUploadParts() > 1 &&
+        srcFileStatus.getLen() >= config.getChunkedUploadThreshold() &&
+        supportsConcat(destFs);
+  }
+
+  public static boolean supportsConcat(FileSystem fs) {
+    while (fs instanceof FilterFileSystem) {
+      fs = ((FilterFileSystem) fs).getRawFileSystem();
+    }
+    return fs instanceof DistributedFileSystem;
+  }
+
+  /**
+   * Uploads the source file into the staging file, verifying it if the VERIFY option is enabled.
+   */
+  public void upload(FileSystem srcFs, FileStatus srcFileStatus, FileSystem destFs, Path stagingFile)
+      throws IOException, InterruptedException {
+    upload(srcFs, srcFileStatus, destFs, stagingFile, config.isVerify());
+  }
+
+  /**
+   * Uploads the source file into the staging file.
+   *
+   * @param srcFs         the source file system
+   * @param srcFileStatus the source file
+   * @param destFs        the destination file system
+   * @param stagingFile   the staging file which will contain the entire file once the upload completes
+   * @param verify        whether to verify every part of the file
+   * @throws IOException          if any of the parts failed to upload or verify, or the concat failed
+   * @throws InterruptedException if the thread was interrupted while waiting for the parts
+   */
+  public void upload(FileSystem srcFs, FileStatus srcFileStatus, FileSystem destFs, Path stagingFile,
+                     boolean verify) throws IOException, InterruptedException {
+    long fileLen = srcFileStatus.getLen();
+    long blockSize = destFs.getDefaultBlockSize(stagingFile);
+    short replication = destFs.getDefaultReplication(stagingFile);
+
+    // every part apart from the last must end on a block boundary for the concat to succeed
+    //
+    long partLen = (fileLen + config.getChunkedUploadParts() - 1) / config.getChunkedUploadParts();
+    partLen = ((partLen + blockSize - 1) / blockSize) * blockSize;
+
+    List<Part> parts = new ArrayList<Part>();
+    for (long offset = 0; offset < fileLen; offset += partLen) {
+      Path partPath = parts.isEmpty() ? stagingFile :
+          new Path(stagingFile.getParent(), stagingFile.getName() + ".part-" + parts.size());
+      parts.add(new Part(partPath, offset, Math.min(partLen, fileLen - offset)));
+    }
+
+    log.info("Uploading " + fileLen + " bytes in " + parts.size() + " parts of up to " + partLen + " bytes");
+
+    // either compute the HDFS block checksums as we go, or read each part back
+    //
+    boolean checksumVerify = verify && config.getVerifyMode() == VerifyMode.CHECKSUM;
+
+    try {
+      List<Callable<Void>> uploads = new ArrayList<Callable<Void>>();
+      for (Part part : parts) {
+        part.checksum = checksumVerify ? CompositeCrcChecksum.forDestination(destFs, part.path) : new CRC32();
+        uploads.add(part.upload(srcFs, srcFileStatus.getPath(), destFs, blockSize, replication, throttler));
+      }
+      invokeAll(uploads);
+
+      if (verify && !checksumVerify) {
+        List<Callable<Void>> verifies = new ArrayList<Callable<Void>>();
+        for (Part part : parts) {
+          verifies.add(part.verify(destFs));
+        }
+        invokeAll(verifies);
+      }
+
+      if (parts.size() > 1) {
+        Path[] srcs = new Path[parts.size() - 1];
+        for (int i = 1; i < parts.size(); i++) {
+          srcs[i - 1] = parts.get(i).path;
+        }
+        log.info("Concatenating " + srcs.length + " parts into staging file '" + stagingFile + "'");
+        destFs.concat(stagingFile, srcs);
+      }
+
+      if (checksumVerify) {
+        List<CompositeCrcChecksum> checksums = new ArrayList<CompositeCrcChecksum>();
+        for (Part part : parts) {
+          checksums.add((CompositeCrcChecksum) part.checksum);
+        }
+        log.info("Verifying block checksums");
+        CompositeCrcChecksum.verify(destFs, stagingFile, CompositeCrcChecksum.combine(checksums));
+      }
+    } catch (IOException e) {
+      deleteParts(destFs, parts);
+      throw e;
+    } catch (InterruptedException e) {
+      deleteParts(destFs, parts);
+      throw e;
+    }
+  }
+
+  private void invokeAll(List<Callable<Void>> tasks) throws IOException, InterruptedException {
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    try {
+      for (Callable<Void> task : tasks) {
+        futures.add(executor.submit(task));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Part failed", e.getCause());
+    } finally {
+      for (Future<Void> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  private void deleteParts(FileSystem destFs, List<Part> parts) {
+    // the first part is the staging file, which is cleaned-up by the caller
+    //
+    for (Part part : parts.subList(1, parts.size())) {
+      try {
+        destFs.delete(part.path, false);
+      } catch (Throwable t) {
+        log.error("Failed to delete staging part " + part.path, t);
+      }
+    }
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private static class Part {
+    private final Path path;
+    private final long offset;
+    private final long length;
+    private Checksum checksum;
+
+    private Part(Path path, long offset, long length) {
+      this.path = path;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    private Callable<Void> upload(final FileSystem srcFs, final Path srcFile, final FileSystem destFs,
+                                  final long blockSize, final short replication, final Throttler throttler) {
+      return new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          FSDataInputStream in = null;
+          InputStream is = null;
+          OutputStream os = null;
+          try {
+            in = srcFs.open(srcFile);
+            in.seek(offset);
+            is = new CheckedInputStream(new BufferedInputStream(in), checksum);
+            os = destFs.create(path, true, 4096, replication, blockSize);
+            if (throttler != null) {
+              os = throttler.wrap(os, destFs);
+            }
+            IOUtils.copyBytes(is, os, length, false);
+          } finally {
+            IOUtils.closeStream(is);
+            IOUtils.closeStream(in);
+            IOUtils.closeStream(os);
+          }
+          log.debug("Uploaded part '" + path + "' at offset " + offset + " (" + length + " bytes)");
+          return null;
+        }
+      };
+    }
+
+    private Callable<Void> verify(final FileSystem destFs) {
+      return new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          CRC32 partCrc = new CRC32();
+          InputStream in = null;
+          try {
+            in = new CheckedInputStream(new BufferedInputStream(destFs.open(path)), partCrc);
+            IOUtils.copyBytes(in, new NullOutputStream(), 4096, false);
+          } finally {
+            IOUtils.closeStream(in);
+          }
+          if (checksum.getValue() != partCrc.getValue()) {
+            throw new IOException("CRC's don't match for part '" + path + "' at offset " + offset +
+                ", local file is " + checksum.getValue() + " HDFS file is " + partCrc.getValue());
+          }
+          return null;
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+/**
+ * The order in which inbound files are claimed from the source directory and handed to the
+ * worker threads.
+ */
+public enum ClaimPolicy {
+  /**
+   * Oldest modification time first.
+   */
+  FIFO,
+
+  /**
+   * Smallest file first, which keeps latency low for small files but can leave large files
+   * waiting for as long as small ones keep arriving.
+   */
+  SMALLEST_FIRST,
+
+  /**
+   * Earliest estimated completion first, where a file's estimated completion is its modification
+   * time plus the time it's expected to take to copy at the throughput seen so far.  Small files
+   * overtake large files which arrived shortly before them, but a large file is never overtaken by
+   * files which arrived more than its own copy time after it.
+   */
+  SHORTEST_COMPLETION,
+
+  /**
+   * Oldest modification time first, except that SMALL_FILE_THREADS of the threads only copy files
+   * of up to SMALL_FILE_BYTES, so small files keep moving while the other threads are busy with
+   * large ones.
+   */
+  MIXED
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.fs.FileStatus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The bounded queue of claimed files waiting for a worker thread, ordered by the {@link ClaimPolicy}.
+ * Files are kept in heaps, so the scanner can pick the best files out of a listing, and the workers
+ * can take the best claimed file, without sorting anything.
+ * <p/>
+ * With the {@link ClaimPolicy#MIXED} policy small files and large files are kept in separate heaps,
+ * each of which can hold CLAIM_QUEUE_DEPTH files, so a backlog of large files can't stop small files
+ * from being claimed.  Otherwise only the large heap is used.
+ */
+public class ClaimQueue {
+
+  /**
+   * The copy throughput assumed by {@link ClaimPolicy#SHORTEST_COMPLETION} until enough files have
+   * been copied to measure it.
+   */
+  static final double DEFAULT_BYTES_PER_MILLI = 10 * 1024;
+  private static final int MIN_COPIES_FOR_ESTIMATE = 10;
+
+  private final ClaimPolicy policy;
+  private final int capacity;
+  private final long smallFileBytes;
+  private final SlurperMetrics metrics;
+  private final PriorityQueue<Entry> small = new PriorityQueue<Entry>();
+  private final PriorityQueue<Entry> large = new PriorityQueue<Entry>();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private long sequence;
+
+  public ClaimQueue(Config config, SlurperMetrics metrics) {
+    this.policy = config.getClaimPolicy();
+    this.capacity = config.getClaimQueueDepth();
+    this.smallFileBytes = config.getSmallFileBytes();
+    this.metrics = metrics;
+  }
+
+  /**
+   * Whether a file belongs in the small heap, which is only the case with the MIXED policy.
+   */
+  public boolean isSmall(FileStatus fs) {
+    return policy == ClaimPolicy.MIXED && fs.getLen() <= smallFileBytes;
+  }
+
+  /**
+   * The position of a file in claim order, lowest first.
+   */
+  long rank(FileStatus fs) {
+    switch (policy) {
+      case SMALLEST_FIRST:
+        return fs.getLen();
+      case SHORTEST_COMPLETION:
+        return fs.getModificationTime() + (long) (fs.getLen() / getBytesPerMilli());
+      default:
+        return fs.getModificationTime();
+    }
+  }
+
+  /**
+   * The bytes a thread copies per millisecond, measured over the copies made so far.
+   */
+  private double getBytesPerMilli() {
+    LatencyHistogram copies = metrics.getHistogram(SlurperMetrics.Stage.COPY);
+    long count = copies.getCount();
+    double millis = copies.getMeanMillis() * count;
+    if (count < MIN_COPIES_FOR_ESTIMATE || millis <= 0) {
+      return DEFAULT_BYTES_PER_MILLI;
+    }
+    return Math.max(1, metrics.getBytes() / millis);
+  }
+
+  /**
+   * Picks the files which should be claimed next out of a listing, in claim order, using a heap which
+   * holds at most {@code max} files.
+   */
+  public List<FileStatus> select(List<FileStatus> candidates, int max) {
+    if (max <= 0) {
+      return Collections.emptyList();
+    }
+
+    // a max-heap of the best files seen so far, so the worst of them can be replaced
+    //
+    PriorityQueue<Entry> best = new PriorityQueue<Entry>(max, Collections.reverseOrder());
+    long seq = 0;
+    for (FileStatus fs : candidates) {
+      Entry entry = new Entry(fs, rank(fs), seq++);
+      if (best.size() < max) {
+        best.add(entry);
+      } else if (entry.compareTo(best.peek()) < 0) {
+        best.poll();
+        best.add(entry);
+      }
+    }
+
+    List<FileStatus> selected = new ArrayList<FileStatus>(best.size());
+    while (!best.isEmpty()) {
+      selected.add(best.poll().fs);
+    }
+    Collections.reverse(selected);
+    return selected;
+  }
+
+  /**
+   * The number of files which can be added to the heap that a file of this kind goes into.
+   */
+  public int remainingCapacity(boolean smallFile) {
+    lock.lock();
+    try {
+      return capacity - (smallFile ? small.size() : large.size());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Waits until there's room for at least {@code min} more files in either heap.
+   */
+  public void awaitCapacity(int min) throws InterruptedException {
+    lock.lock();
+    try {
+      while (capacity - large.size() < min && (policy != ClaimPolicy.MIXED || capacity - small.size() < min)) {
+        notFull.await();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Waits until there's room for a file of this kind.
+   */
+  public void awaitCapacity(boolean smallFile) throws InterruptedException {
+    lock.lock();
+    try {
+      while ((smallFile ? small.size() : large.size()) >= capacity) {
+        notFull.await();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Adds a claimed file, which may take the queue over its capacity if the caller didn't check for room first.
+   */
+  public void add(FileStatus fs) {
+    lock.lock();
+    try {
+      (isSmall(fs) ? small : large).add(new Entry(fs, rank(fs), sequence++));
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Takes the next file in claim order, waiting up to the timeout for one to be claimed.
+   *
+   * @param smallOnly only take files from the small heap
+   * @return the file, or null if the timeout elapsed
+   */
+  public FileStatus poll(long timeout, TimeUnit unit, boolean smallOnly) throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lock();
+    try {
+      PriorityQueue<Entry> heap;
+      while ((heap = next(smallOnly)) == null) {
+        if (nanos <= 0) {
+          return null;
+        }
+        nanos = notEmpty.awaitNanos(nanos);
+      }
+      FileStatus fs = heap.poll().fs;
+      notFull.signalAll();
+      return fs;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private PriorityQueue<Entry> next(boolean smallOnly) {
+    if (smallOnly || large.isEmpty()) {
+      return small.isEmpty() ? null : small;
+    }
+    if (small.isEmpty() || large.peek().compareTo(small.peek()) <= 0) {
+      return large;
+    }
+    return small;
+  }
+
+  public int size() {
+    lock.lock();
+    try {
+      return small.size() + large.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes every file which is waiting.
+   */
+  public List<FileStatus> drain() {
+    lock.lock();
+    try {
+      List<FileStatus> drained = new ArrayList<FileStatus>(small.size() + large.size());
+      for (Entry entry : small) {
+        drained.add(entry.fs);
+      }
+      for (Entry entry : large) {
+        drained.add(entry.fs);
+      }
+      small.clear();
+      large.clear();
+      notFull.signalAll();
+      return drained;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static class Entry implements Comparable<Entry> {
+    private final FileStatus fs;
+    private final long rank;
+    private final long seq;
+
+    private Entry(FileStatus fs, long rank, long seq) {
+      this.fs = fs;
+      this.rank = rank;
+      this.seq = seq;
+    }
+
+    @Override
+    public int compareTo(Entry other) {
+      if (rank != other.rank) {
+        return rank < other.rank ? -1 : 1;
+      }
+      return seq < other.seq ? -1 : (seq == other.seq ? 0 : 1);
+    }
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.MD5MD5CRC32CastagnoliFileChecksum;
+import org.apache.hadoop.fs.MD5MD5CRC32FileChecksum;
+import org.apache.hadoop.fs.MD5MD5CRC32GzipFileChecksum;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.util.DataChecksum;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Checksum;
+
+/**
+ * Computes the same MD5-of-MD5-of-CRC composite checksum that HDFS returns from
+ * {@link FileSystem#getFileChecksum(Path)}, over the bytes as they are copied.  This means a copy
+ * into HDFS can be verified by asking the DataNodes for their block checksums, rather than reading
+ * the whole file back.
+ * <p/>
+ * HDFS stores a CRC for every "bytes-per-checksum" chunk of a block, the DataNode returns the MD5 of
+ * a block's CRCs, and the client returns the MD5 of all the block MD5s.  We do the same here, so the
+ * bytes-per-checksum, checksum type and block size must match the ones used to write the file.
+ */
+public class CompositeCrcChecksum implements Checksum {
+  private static Log log = LogFactory.getLog(CompositeCrcChecksum.class);
+
+  private final DataChecksum.Type type;
+  private final int bytesPerChecksum;
+  private final long blockSize;
+  private final DataChecksum chunkCrc;
+  private final MessageDigest blockDigest;
+  private final byte[] crcBytes = new byte[4];
+  private final List<MD5Hash> blockMD5s = new ArrayList<MD5Hash>();
+  private int chunkOffset;
+  private long blockOffset;
+  private long length;
+
+  public CompositeCrcChecksum(DataChecksum.Type type, int bytesPerChecksum, long blockSize) {
+    this.type = type;
+    this.bytesPerChecksum = bytesPerChecksum;
+    this.blockSize = blockSize;
+    this.chunkCrc = DataChecksum.newDataChecksum(type, bytesPerChecksum);
+    try {
+      this.blockDigest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Creates a checksum which matches the one HDFS will compute for a file which is
+   * created with the default settings of the destination file system.
+   */
+  public static CompositeCrcChecksum forDestination(FileSystem destFs, Path path) {
+    Configuration conf = destFs.getConf();
+    DataChecksum.Type type = DataChecksum.Type.valueOf(
+        conf.get(DFSConfigKeys.DFS_CHECKSUM_TYPE_KEY, DFSConfigKeys.DFS_CHECKSUM_TYPE_DEFAULT));
+    int bytesPerChecksum = conf.getInt(DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY,
+        DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_DEFAULT);
+    return new CompositeCrcChecksum(type, bytesPerChecksum, destFs.getDefaultBlockSize(path));
+  }
+
+  /**
+   * Determines whether a file written to the file system can be verified against a composite checksum.
+   */
+  public static boolean isSupported(FileSystem fs) {
+    return ChunkedUploader.supportsConcat(fs);
+  }
+
+  /**
+   * Compares the expected checksum with the one HDFS computes from the DataNodes' block checksums.
+   *
+   * @throws IOException if the checksums don't match
+   */
+  public static void verify(FileSystem fs, Path path, MD5MD5CRC32FileChecksum expected) throws IOException {
+    FileChecksum actual = fs.getFileChecksum(path);
+    if (!expected.equals(actual)) {
+      throw new IOException("Checksums don't match, local file is " + expected + " HDFS file is " + actual);
+    }
+    log.info("Checksums match (" + expected + ")");
+  }
+
+  @Override
+  public void update(int b) {
+    update(new byte[]{(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void update(byte[] b, int off, int len) {
+    while (len > 0) {
+      int n = Math.min(len, bytesPerChecksum - chunkOffset);
+      chunkCrc.update(b, off, n);
+      chunkOffset += n;
+      blockOffset += n;
+      length += n;
+      off += n;
+      len -= n;
+
+      if (chunkOffset == bytesPerChecksum) {
+        finishChunk();
+      }
+      if (blockOffset == blockSize) {
+        finishBlock();
+      }
+    }
+  }
+
+  private void finishChunk() {
+    int crc = (int) chunkCrc.getValue();
+    crcBytes[0] = (byte) (crc >>> 24);
+    crcBytes[1] = (byte) (crc >>> 16);
+    crcBytes[2] = (byte) (crc >>> 8);
+    crcBytes[3] = (byte) crc;
+    blockDigest.update(crcBytes);
+    chunkCrc.reset();
+    chunkOffset = 0;
+  }
+
+  private void finishBlock() {
+    blockMD5s.add(new MD5Hash(blockDigest.digest()));
+    blockOffset = 0;
+  }
+
+  /**
+   * Returns the low 64 bits of the file checksum, see {@link #getFileChecksum()} for the full checksum.
+   */
+  @Override
+  public long getValue() {
+    byte[] digest = getFileChecksum().getBytes();
+    long value = 0;
+    for (int i = digest.length - 8; i < digest.length; i++) {
+      value = (value << 8) | (digest[i] & 0xff);
+    }
+    return value;
+  }
+
+  @Override
+  public void reset() {
+    chunkCrc.reset();
+    blockDigest.reset();
+    blockMD5s.clear();
+    chunkOffset = 0;
+    blockOffset = 0;
+    length = 0;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * The checksum of all the data seen so far, as HDFS would compute it if the file ended here.
+   */
+  public MD5MD5CRC32FileChecksum getFileChecksum() {
+    List<CompositeCrcChecksum> parts = new ArrayList<CompositeCrcChecksum>();
+    parts.add(this);
+    return combine(parts);
+  }
+
+  /**
+   * Computes the checksum of a file which is made up of a number of parts, such as those joined
+   * together with a concat.  Every part apart from the last must end on a block boundary.
+   */
+  public static MD5MD5CRC32FileChecksum combine(List<CompositeCrcChecksum> parts) {
+    CompositeCrcChecksum first = parts.get(0);
+    List<MD5Hash> md5s = new ArrayList<MD5Hash>();
+    for (CompositeCrcChecksum part : parts) {
+      if (part.bytesPerChecksum != first.bytesPerChecksum || part.blockSize != first.blockSize ||
+          part.type != first.type) {
+        throw new IllegalArgumentException("All parts must use the same checksum settings");
+      }
+      md5s.addAll(part.blockMD5s);
+      if (part.blockOffset > 0) {
+        if (part != parts.get(parts.size() - 1)) {
+          throw new IllegalArgumentException("Only the last part can end part way through a block");
+        }
+        md5s.add(part.partialBlockMD5());
+      }
+    }
+
+    // mirror DFSClient.getFileChecksum, which digests the whole of the buffer backing the
+    // block MD5s, so that we produce exactly the same bytes
+    //
+    DataOutputBuffer md5out = new DataOutputBuffer();
+    try {
+      for (MD5Hash md5 : md5s) {
+        md5.write(md5out);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    MD5Hash fileMD5 = MD5Hash.digest(md5out.getData());
+
+    if (md5s.isEmpty()) {
+      return new MD5MD5CRC32GzipFileChecksum(0, 0, fileMD5);
+    }
+    long crcPerBlock = md5s.size() > 1 ? first.blockSize / first.bytesPerChecksum : 0;
+    switch (first.type) {
+      case CRC32:
+        return new MD5MD5CRC32GzipFileChecksum(first.bytesPerChecksum, crcPerBlock, fileMD5);
+      case CRC32C:
+        return new MD5MD5CRC32CastagnoliFileChecksum(first.bytesPerChecksum, crcPerBlock, fileMD5);
+      default:
+        throw new IllegalArgumentException("Unsupported checksum type " + first.type);
+    }
+  }
+
+  private MD5Hash partialBlockMD5() {
+    // digest a copy so that more data can still be added to this checksum
+    //
+    try {
+      MessageDigest digest = (MessageDigest) blockDigest.clone();
+      if (chunkOffset > 0) {
+        int crc = (int) chunkCrc.getValue();
+        digest.update(new byte[]{(byte) (crc >>> 24), (byte) (crc >>> 16), (byte) (crc >>> 8), (byte) crc});
+      }
+      return new MD5Hash(digest.digest());
+    } catch (CloneNotSupportedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
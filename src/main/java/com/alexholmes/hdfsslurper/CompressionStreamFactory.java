@@ -0,0 +1,96 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alexholmes.hdfsslurper;
+
+import com.hadoop.compression.lzo.LzopCodec;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionInputStream;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.DecompressorStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Creates the compressed output streams for copies, compressing on several cores with a
+ * {@link ParallelCompressionOutputStream} when COMPRESSION_THREADS is greater than one and the codec
+ * supports it.
+ */
+public class CompressionStreamFactory {
+  private static Log log = LogFactory.getLog(CompressionStreamFactory.class);
+
+  private final CompressionCodec codec;
+  private final int threads;
+  private final int blockSize;
+  private final boolean parallel;
+
+  public CompressionStreamFactory(Config config) {
+    this.codec = config.getCodec();
+    this.threads = config.getCompressionThreads();
+    this.blockSize = config.getCompressionBlockSize();
+    this.parallel = codec != null && threads > 1 && isParallelizable(codec);
+  }
+
+  /**
+   * Determines whether a codec's output can be produced in independent blocks.  LZOP is rewritten
+   * into a single stream, and other codecs must have an input stream which reads concatenated
+   * streams, which Hadoop's {@link DecompressorStream} does.
+   */
+  public static boolean isParallelizable(CompressionCodec codec) {
+    if (codec instanceof LzopCodec) {
+      return true;
+    }
+    CompressionInputStream in = null;
+    Decompressor decompressor = null;
+    try {
+      decompressor = CodecPool.getDecompressor(codec);
+      in = codec.createInputStream(new ByteArrayInputStream(new byte[0]), decompressor);
+      if (in instanceof DecompressorStream) {
+        return true;
+      }
+    } catch (IOException e) {
+      // the codec reads a header up-front, so it's not one we know can be concatenated
+    } catch (RuntimeException e) {
+      // codecs such as Snappy and LZ4 throw if the native library isn't loaded
+      //
+      log.warn("Unable to create a decompressor for codec " + codec.getClass().getName(), e);
+    } finally {
+      IOUtils.closeStream(in);
+      if (decompressor != null) {
+        CodecPool.returnDecompressor(decompressor);
+      }
+    }
+    log.warn("Codec " + codec.getClass().getName() + " doesn't support concatenated streams, " +
+        "compressing on a single thread");
+    return false;
+  }
+
+  public boolean isParallel() {
+    return parallel;
+  }
+
+  public OutputStream createOutputStream(OutputStream out) throws IOException {
+    if (parallel) {
+      return new ParallelCompressionOutputStream(out, codec, threads, blockSize);
+    }
+    return codec.createOutputStream(out);
+  }
+}
@@ -21,6 +21,11 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.compress.CompressionCodec;
 
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 public class Config {
 
   private String datasource;
@@ -36,8 +41,54 @@ public class Config {
   private String workScript;
   private boolean remove;
   private boolean verify;
+  private VerifyMode verifyMode = VerifyMode.READBACK;
+  private VerificationPolicy.Level verifyPolicy = VerificationPolicy.Level.FULL;
+  private List<VerificationPolicy.Rule> verifyRules = Collections.emptyList();
+  private double verifySampleFraction = 0.1;
+  private int verifySpotChecks = 16;
+  private int verifySpotCheckBytes = 64 * 1024;
   private int numThreads;
+  private int minThreads;
+  private int maxThreads;
+  private long poolAdjustMillis = 30 * 1000;
+  private int weight = 1;
+  private int maxConcurrency;
   private long pollSleepPeriodMillis;
+  private boolean watchSrcDir;
+  private int claimBatchSize = 100;
+  private int claimQueueDepth = 100;
+  private ClaimPolicy claimPolicy = ClaimPolicy.FIFO;
+  private long smallFileBytes = 1024 * 1024;
+  private int smallFileThreads = 1;
+  private long chunkedUploadThreshold;
+  private int chunkedUploadParts = 4;
+  private long exportThreshold;
+  private int exportThreads = 4;
+  private boolean resumable;
+  private long checkpointBytes = 64 * 1024 * 1024;
+  private File journalDir;
+  private boolean journalSync;
+  private int finalizeThreads;
+  private int finalizeBatchSize = 100;
+  private File dedupeDir;
+  private int dedupeTtlHours = 7 * 24;
+  private int dedupeMaxEntries = 1000000;
+  private CopyEngine.Type copyEngine = CopyEngine.Type.STREAM;
+  private int copyBufferSize = 1024 * 1024;
+  private boolean pipeline;
+  private int pipelineBuffers = 4;
+  private int compressionThreads;
+  private int compressionBlockSize = 1024 * 1024;
+  private boolean scriptCoprocess;
+  private int dirCacheSize = 10000;
+  private long dirCacheTtlMillis = 5 * 60 * 1000;
+  private boolean pack;
+  private long packRollSize = 128 * 1024 * 1024;
+  private long packRollMillis = 60 * 1000;
+  private long packMaxFileSize = 1024 * 1024;
+  private long throttleBytesPerSec;
+  private Map<String, Long> throttleDestFsBytesPerSec = Collections.emptyMap();
+  private List<Throttler.Window> throttleSchedule = Collections.emptyList();
   FileSystem srcFs;
   FileSystem destFs;
   Configuration config;
@@ -160,6 +211,60 @@ public class Config {
     return this;
   }
 
+  public VerifyMode getVerifyMode() {
+    return verifyMode;
+  }
+
+  public Config setVerifyMode(VerifyMode verifyMode) {
+    this.verifyMode = verifyMode;
+    return this;
+  }
+
+  public VerificationPolicy.Level getVerifyPolicy() {
+    return verifyPolicy;
+  }
+
+  public Config setVerifyPolicy(VerificationPolicy.Level verifyPolicy) {
+    this.verifyPolicy = verifyPolicy;
+    return this;
+  }
+
+  public List<VerificationPolicy.Rule> getVerifyRules() {
+    return verifyRules;
+  }
+
+  public Config setVerifyRules(List<VerificationPolicy.Rule> verifyRules) {
+    this.verifyRules = verifyRules;
+    return this;
+  }
+
+  public double getVerifySampleFraction() {
+    return verifySampleFraction;
+  }
+
+  public Config setVerifySampleFraction(double verifySampleFraction) {
+    this.verifySampleFraction = verifySampleFraction;
+    return this;
+  }
+
+  public int getVerifySpotChecks() {
+    return verifySpotChecks;
+  }
+
+  public Config setVerifySpotChecks(int verifySpotChecks) {
+    this.verifySpotChecks = verifySpotChecks;
+    return this;
+  }
+
+  public int getVerifySpotCheckBytes() {
+    return verifySpotCheckBytes;
+  }
+
+  public Config setVerifySpotCheckBytes(int verifySpotCheckBytes) {
+    this.verifySpotCheckBytes = verifySpotCheckBytes;
+    return this;
+  }
+
   public int getNumThreads() {
     return numThreads;
   }
@@ -169,6 +274,61 @@ public class Config {
     return this;
   }
 
+  public int getMinThreads() {
+    return minThreads;
+  }
+
+  public Config setMinThreads(int minThreads) {
+    this.minThreads = minThreads;
+    return this;
+  }
+
+  public int getMaxThreads() {
+    return maxThreads;
+  }
+
+  public Config setMaxThreads(int maxThreads) {
+    this.maxThreads = maxThreads;
+    return this;
+  }
+
+  /**
+   * Whether the number of worker threads changes between MIN_THREADS and MAX_THREADS.
+   */
+  public boolean isElasticPool() {
+    return maxThreads > 0;
+  }
+
+  public int getWeight() {
+    return weight;
+  }
+
+  public Config setWeight(int weight) {
+    this.weight = weight;
+    return this;
+  }
+
+  /**
+   * The most files of this datasource which are copied at once in host mode, which defaults to THREADS.
+   */
+  public int getMaxConcurrency() {
+    return maxConcurrency > 0 ? maxConcurrency : numThreads;
+  }
+
+  public Config setMaxConcurrency(int maxConcurrency) {
+    this.maxConcurrency = maxConcurrency;
+    return this;
+  }
+
+  public long getPoolAdjustMillis() {
+    return poolAdjustMillis;
+  }
+
+  public Config setPoolAdjustMillis(long poolAdjustMillis) {
+    this.poolAdjustMillis = poolAdjustMillis;
+    return this;
+  }
+
   public long getPollSleepPeriodMillis() {
     return pollSleepPeriodMillis;
   }
@@ -178,6 +338,330 @@ public class Config {
     return this;
   }
 
+  public boolean isWatchSrcDir() {
+    return watchSrcDir;
+  }
+
+  public Config setWatchSrcDir(boolean watchSrcDir) {
+    this.watchSrcDir = watchSrcDir;
+    return this;
+  }
+
+  public int getClaimBatchSize() {
+    return claimBatchSize;
+  }
+
+  public Config setClaimBatchSize(int claimBatchSize) {
+    this.claimBatchSize = claimBatchSize;
+    return this;
+  }
+
+  public int getClaimQueueDepth() {
+    return claimQueueDepth;
+  }
+
+  public Config setClaimQueueDepth(int claimQueueDepth) {
+    this.claimQueueDepth = claimQueueDepth;
+    return this;
+  }
+
+  public ClaimPolicy getClaimPolicy() {
+    return claimPolicy;
+  }
+
+  public Config setClaimPolicy(ClaimPolicy claimPolicy) {
+    this.claimPolicy = claimPolicy;
+    return this;
+  }
+
+  public long getSmallFileBytes() {
+    return smallFileBytes;
+  }
+
+  public Config setSmallFileBytes(long smallFileBytes) {
+    this.smallFileBytes = smallFileBytes;
+    return this;
+  }
+
+  public int getSmallFileThreads() {
+    return smallFileThreads;
+  }
+
+  public Config setSmallFileThreads(int smallFileThreads) {
+    this.smallFileThreads = smallFileThreads;
+    return this;
+  }
+
+  public long getChunkedUploadThreshold() {
+    return chunkedUploadThreshold;
+  }
+
+  public Config setChunkedUploadThreshold(long chunkedUploadThreshold) {
+    this.chunkedUploadThreshold = chunkedUploadThreshold;
+    return this;
+  }
+
+  public int getChunkedUploadParts() {
+    return chunkedUploadParts;
+  }
+
+  public Config setChunkedUploadParts(int chunkedUploadParts) {
+    this.chunkedUploadParts = chunkedUploadParts;
+    return this;
+  }
+
+  /**
+   * The size from which files are copied out of HDFS onto local disk with parallel reads, or 0 if they never are.
+   */
+  public long getExportThreshold() {
+    return exportThreshold;
+  }
+
+  public Config setExportThreshold(long exportThreshold) {
+    this.exportThreshold = exportThreshold;
+    return this;
+  }
+
+  public int getExportThreads() {
+    return exportThreads;
+  }
+
+  public Config setExportThreads(int exportThreads) {
+    this.exportThreads = exportThreads;
+    return this;
+  }
+
+  public boolean isResumable() {
+    return resumable;
+  }
+
+  public Config setResumable(boolean resumable) {
+    this.resumable = resumable;
+    return this;
+  }
+
+  public long getCheckpointBytes() {
+    return checkpointBytes;
+  }
+
+  public Config setCheckpointBytes(long checkpointBytes) {
+    this.checkpointBytes = checkpointBytes;
+    return this;
+  }
+
+  /**
+   * The local directory which holds the journal, or null if files in flight aren't journaled.
+   */
+  public File getJournalDir() {
+    return journalDir;
+  }
+
+  public Config setJournalDir(File journalDir) {
+    this.journalDir = journalDir;
+    return this;
+  }
+
+  public boolean isJournalSync() {
+    return journalSync;
+  }
+
+  public Config setJournalSync(boolean journalSync) {
+    this.journalSync = journalSync;
+    return this;
+  }
+
+  public int getFinalizeThreads() {
+    return finalizeThreads;
+  }
+
+  public Config setFinalizeThreads(int finalizeThreads) {
+    this.finalizeThreads = finalizeThreads;
+    return this;
+  }
+
+  public int getFinalizeBatchSize() {
+    return finalizeBatchSize;
+  }
+
+  public Config setFinalizeBatchSize(int finalizeBatchSize) {
+    this.finalizeBatchSize = finalizeBatchSize;
+    return this;
+  }
+
+  /**
+   * The local directory which holds the index of content hashes, or null if files aren't deduplicated.
+   */
+  public File getDedupeDir() {
+    return dedupeDir;
+  }
+
+  public Config setDedupeDir(File dedupeDir) {
+    this.dedupeDir = dedupeDir;
+    return this;
+  }
+
+  public int getDedupeTtlHours() {
+    return dedupeTtlHours;
+  }
+
+  public Config setDedupeTtlHours(int dedupeTtlHours) {
+    this.dedupeTtlHours = dedupeTtlHours;
+    return this;
+  }
+
+  public int getDedupeMaxEntries() {
+    return dedupeMaxEntries;
+  }
+
+  public Config setDedupeMaxEntries(int dedupeMaxEntries) {
+    this.dedupeMaxEntries = dedupeMaxEntries;
+    return this;
+  }
+
+  public CopyEngine.Type getCopyEngine() {
+    return copyEngine;
+  }
+
+  public Config setCopyEngine(CopyEngine.Type copyEngine) {
+    this.copyEngine = copyEngine;
+    return this;
+  }
+
+  public int getCopyBufferSize() {
+    return copyBufferSize;
+  }
+
+  public Config setCopyBufferSize(int copyBufferSize) {
+    this.copyBufferSize = copyBufferSize;
+    return this;
+  }
+
+  public boolean isPipeline() {
+    return pipeline;
+  }
+
+  public Config setPipeline(boolean pipeline) {
+    this.pipeline = pipeline;
+    return this;
+  }
+
+  public int getPipelineBuffers() {
+    return pipelineBuffers;
+  }
+
+  public Config setPipelineBuffers(int pipelineBuffers) {
+    this.pipelineBuffers = pipelineBuffers;
+    return this;
+  }
+
+  public int getCompressionThreads() {
+    return compressionThreads;
+  }
+
+  public Config setCompressionThreads(int compressionThreads) {
+    this.compressionThreads = compressionThreads;
+    return this;
+  }
+
+  public int getCompressionBlockSize() {
+    return compressionBlockSize;
+  }
+
+  public Config setCompressionBlockSize(int compressionBlockSize) {
+    this.compressionBlockSize = compressionBlockSize;
+    return this;
+  }
+
+  public boolean isScriptCoprocess() {
+    return scriptCoprocess;
+  }
+
+  public Config setScriptCoprocess(boolean scriptCoprocess) {
+    this.scriptCoprocess = scriptCoprocess;
+    return this;
+  }
+
+  public int getDirCacheSize() {
+    return dirCacheSize;
+  }
+
+  public Config setDirCacheSize(int dirCacheSize) {
+    this.dirCacheSize = dirCacheSize;
+    return this;
+  }
+
+  public long getDirCacheTtlMillis() {
+    return dirCacheTtlMillis;
+  }
+
+  public Config setDirCacheTtlMillis(long dirCacheTtlMillis) {
+    this.dirCacheTtlMillis = dirCacheTtlMillis;
+    return this;
+  }
+
+  public boolean isPack() {
+    return pack;
+  }
+
+  public Config setPack(boolean pack) {
+    this.pack = pack;
+    return this;
+  }
+
+  public long getPackRollSize() {
+    return packRollSize;
+  }
+
+  public Config setPackRollSize(long packRollSize) {
+    this.packRollSize = packRollSize;
+    return this;
+  }
+
+  public long getPackRollMillis() {
+    return packRollMillis;
+  }
+
+  public Config setPackRollMillis(long packRollMillis) {
+    this.packRollMillis = packRollMillis;
+    return this;
+  }
+
+  public long getPackMaxFileSize() {
+    return packMaxFileSize;
+  }
+
+  public Config setPackMaxFileSize(long packMaxFileSize) {
+    this.packMaxFileSize = packMaxFileSize;
+    return this;
+  }
+
+  public long getThrottleBytesPerSec() {
+    return throttleBytesPerSec;
+  }
+
+  public Config setThrottleBytesPerSec(long throttleBytesPerSec) {
+    this.throttleBytesPerSec = throttleBytesPerSec;
+    return this;
+  }
+
+  public Map<String, Long> getThrottleDestFsBytesPerSec() {
+    return throttleDestFsBytesPerSec;
+  }
+
+  public Config setThrottleDestFsBytesPerSec(Map<String, Long> throttleDestFsBytesPerSec) {
+    this.throttleDestFsBytesPerSec = throttleDestFsBytesPerSec;
+    return this;
+  }
+
+  public List<Throttler.Window> getThrottleSchedule() {
+    return throttleSchedule;
+  }
+
+  public Config setThrottleSchedule(List<Throttler.Window> throttleSchedule) {
+    this.throttleSchedule = throttleSchedule;
+    return this;
+  }
+
   public FileSystem getSrcFs() {
     return srcFs;
   }
@@ -25,12 +25,14 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.util.ReflectionUtils;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
@@ -52,7 +54,53 @@ public class Configurator {
     SCRIPT,
     THREADS,
     WORK_SCRIPT,
-    POLL_MILLIS
+    POLL_MILLIS,
+    WATCH_SRC_DIR,
+    CLAIM_BATCH_SIZE,
+    CLAIM_QUEUE_DEPTH,
+    CLAIM_POLICY,
+    SMALL_FILE_BYTES,
+    SMALL_FILE_THREADS,
+    CHUNKED_UPLOAD_THRESHOLD,
+    CHUNKED_UPLOAD_PARTS,
+    EXPORT_THRESHOLD,
+    EXPORT_THREADS,
+    RESUMABLE,
+    CHECKPOINT_BYTES,
+    JOURNAL_DIR,
+    JOURNAL_SYNC,
+    FINALIZE_THREADS,
+    FINALIZE_BATCH_SIZE,
+    DEDUPE_DIR,
+    DEDUPE_TTL_HOURS,
+    DEDUPE_MAX_ENTRIES,
+    VERIFY_MODE,
+    VERIFY_POLICY,
+    VERIFY_RULES,
+    VERIFY_SAMPLE_FRACTION,
+    VERIFY_SPOT_CHECKS,
+    VERIFY_SPOT_CHECK_BYTES,
+    COPY_ENGINE,
+    COPY_BUFFER_SIZE,
+    PIPELINE,
+    PIPELINE_BUFFERS,
+    COMPRESSION_THREADS,
+    COMPRESSION_BLOCK_SIZE,
+    SCRIPT_COPROCESS,
+    DIR_CACHE_SIZE,
+    DIR_CACHE_TTL_MILLIS,
+    PACK,
+    PACK_ROLL_SIZE,
+    PACK_ROLL_MILLIS,
+    PACK_MAX_FILE_SIZE,
+    THROTTLE_BYTES_PER_SEC,
+    THROTTLE_DEST_FS_BYTES_PER_SEC,
+    THROTTLE_SCHEDULE,
+    MIN_THREADS,
+    MAX_THREADS,
+    POOL_ADJUST_MILLIS,
+    WEIGHT,
+    MAX_CONCURRENCY
   }
 
   private static Log log = LogFactory.getLog(Configurator.class);
@@ -75,7 +123,7 @@ public class Configurator {
     return c;
   }
 
-  public static Config load(Configuration config, Map<String, String> props) throws IOException, MissingRequiredConfigException, ClassNotFoundException {
+  public static Config load(Configuration config, Map<String, String> props) throws IOException, MissingRequiredConfigException, ClassNotFoundException, ConfigSettingException {
     Config c = new Config();
 
     // set the Hadoop config
@@ -115,13 +163,93 @@ public class Configurator {
     //
     c.setScript(getConfigValue(props, ConfigNames.SCRIPT));
     c.setWorkScript(getConfigValue(props, ConfigNames.WORK_SCRIPT));
+    c.setScriptCoprocess(isOptionEnabled(props, ConfigNames.SCRIPT_COPROCESS));
 
     // additional options
     //
     c.setRemove(isOptionEnabled(props, ConfigNames.REMOVE_AFTER_COPY));
     c.setVerify(isOptionEnabled(props, ConfigNames.VERIFY));
+    c.setVerifyMode(getConfigValueAsEnum(props, ConfigNames.VERIFY_MODE, VerifyMode.class, c.getVerifyMode()));
+    c.setVerifyPolicy(getConfigValueAsEnum(props, ConfigNames.VERIFY_POLICY, VerificationPolicy.Level.class,
+        c.getVerifyPolicy()));
+    String verifyRules = getConfigValue(props, ConfigNames.VERIFY_RULES);
+    if (verifyRules != null) {
+      try {
+        c.setVerifyRules(VerificationPolicy.Rule.parseList(verifyRules));
+      } catch (IllegalArgumentException e) {
+        throw new ConfigSettingException("Invalid " + ConfigNames.VERIFY_RULES.name() + ": " + e.getMessage());
+      }
+    }
+    String sampleFraction = getConfigValue(props, ConfigNames.VERIFY_SAMPLE_FRACTION);
+    if (sampleFraction != null) {
+      c.setVerifySampleFraction(Double.parseDouble(sampleFraction.trim()));
+    }
+    c.setVerifySpotChecks(getConfigValueAsInt(props, ConfigNames.VERIFY_SPOT_CHECKS, c.getVerifySpotChecks()));
+    c.setVerifySpotCheckBytes((int) getConfigValueAsBytes(props, ConfigNames.VERIFY_SPOT_CHECK_BYTES,
+        c.getVerifySpotCheckBytes()));
     c.setNumThreads(getConfigValueAsInt(props, ConfigNames.THREADS, 1));
+    c.setMinThreads(getConfigValueAsInt(props, ConfigNames.MIN_THREADS, c.getMinThreads()));
+    c.setMaxThreads(getConfigValueAsInt(props, ConfigNames.MAX_THREADS, c.getMaxThreads()));
+    c.setPoolAdjustMillis(getConfigValueAsInt(props, ConfigNames.POOL_ADJUST_MILLIS, (int) c.getPoolAdjustMillis()));
+    c.setWeight(getConfigValueAsInt(props, ConfigNames.WEIGHT, c.getWeight()));
+    c.setMaxConcurrency(getConfigValueAsInt(props, ConfigNames.MAX_CONCURRENCY, 0));
     c.setPollSleepPeriodMillis(getConfigValueAsInt(props, ConfigNames.POLL_MILLIS, 1000));
+    c.setWatchSrcDir(isOptionEnabled(props, ConfigNames.WATCH_SRC_DIR));
+    c.setClaimBatchSize(getConfigValueAsInt(props, ConfigNames.CLAIM_BATCH_SIZE, c.getClaimBatchSize()));
+    c.setClaimQueueDepth(getConfigValueAsInt(props, ConfigNames.CLAIM_QUEUE_DEPTH, c.getClaimQueueDepth()));
+    c.setClaimPolicy(getConfigValueAsEnum(props, ConfigNames.CLAIM_POLICY, ClaimPolicy.class, c.getClaimPolicy()));
+    c.setSmallFileBytes(getConfigValueAsBytes(props, ConfigNames.SMALL_FILE_BYTES, c.getSmallFileBytes()));
+    c.setSmallFileThreads(getConfigValueAsInt(props, ConfigNames.SMALL_FILE_THREADS, c.getSmallFileThreads()));
+    c.setChunkedUploadThreshold(getConfigValueAsBytes(props, ConfigNames.CHUNKED_UPLOAD_THRESHOLD, 0));
+    c.setChunkedUploadParts(getConfigValueAsInt(props, ConfigNames.CHUNKED_UPLOAD_PARTS, c.getChunkedUploadParts()));
+    c.setExportThreshold(getConfigValueAsBytes(props, ConfigNames.EXPORT_THRESHOLD, 0));
+    c.setExportThreads(getConfigValueAsInt(props, ConfigNames.EXPORT_THREADS, c.getExportThreads()));
+    c.setResumable(isOptionEnabled(props, ConfigNames.RESUMABLE));
+    c.setCheckpointBytes(getConfigValueAsBytes(props, ConfigNames.CHECKPOINT_BYTES, c.getCheckpointBytes()));
+    String journalDir = getConfigValue(props, ConfigNames.JOURNAL_DIR);
+    if (journalDir != null) {
+      c.setJournalDir(new File(journalDir));
+    }
+    c.setJournalSync(isOptionEnabled(props, ConfigNames.JOURNAL_SYNC));
+    c.setFinalizeThreads(getConfigValueAsInt(props, ConfigNames.FINALIZE_THREADS, c.getFinalizeThreads()));
+    c.setFinalizeBatchSize(getConfigValueAsInt(props, ConfigNames.FINALIZE_BATCH_SIZE, c.getFinalizeBatchSize()));
+    String dedupeDir = getConfigValue(props, ConfigNames.DEDUPE_DIR);
+    if (dedupeDir != null) {
+      c.setDedupeDir(new File(dedupeDir));
+    }
+    c.setDedupeTtlHours(getConfigValueAsInt(props, ConfigNames.DEDUPE_TTL_HOURS, c.getDedupeTtlHours()));
+    c.setDedupeMaxEntries(getConfigValueAsInt(props, ConfigNames.DEDUPE_MAX_ENTRIES, c.getDedupeMaxEntries()));
+    c.setCopyEngine(getConfigValueAsEnum(props, ConfigNames.COPY_ENGINE, CopyEngine.Type.class, c.getCopyEngine()));
+    c.setCopyBufferSize((int) getConfigValueAsBytes(props, ConfigNames.COPY_BUFFER_SIZE, c.getCopyBufferSize()));
+    c.setPipeline(isOptionEnabled(props, ConfigNames.PIPELINE));
+    c.setPipelineBuffers(getConfigValueAsInt(props, ConfigNames.PIPELINE_BUFFERS, c.getPipelineBuffers()));
+    c.setCompressionThreads(getConfigValueAsInt(props, ConfigNames.COMPRESSION_THREADS, c.getCompressionThreads()));
+    c.setCompressionBlockSize((int) getConfigValueAsBytes(props, ConfigNames.COMPRESSION_BLOCK_SIZE,
+        c.getCompressionBlockSize()));
+    c.setDirCacheSize(getConfigValueAsInt(props, ConfigNames.DIR_CACHE_SIZE, c.getDirCacheSize()));
+    c.setDirCacheTtlMillis(getConfigValueAsInt(props, ConfigNames.DIR_CACHE_TTL_MILLIS,
+        (int) c.getDirCacheTtlMillis()));
+    c.setPack(isOptionEnabled(props, ConfigNames.PACK));
+    c.setPackRollSize(getConfigValueAsBytes(props, ConfigNames.PACK_ROLL_SIZE, c.getPackRollSize()));
+    c.setPackRollMillis(getConfigValueAsInt(props, ConfigNames.PACK_ROLL_MILLIS, (int) c.getPackRollMillis()));
+    c.setPackMaxFileSize(getConfigValueAsBytes(props, ConfigNames.PACK_MAX_FILE_SIZE, c.getPackMaxFileSize()));
+
+    // bandwidth throttling
+    //
+    c.setThrottleBytesPerSec(getConfigValueAsBytes(props, ConfigNames.THROTTLE_BYTES_PER_SEC,
+        c.getThrottleBytesPerSec()));
+    String destFsLimits = getConfigValue(props, ConfigNames.THROTTLE_DEST_FS_BYTES_PER_SEC);
+    if (destFsLimits != null) {
+      c.setThrottleDestFsBytesPerSec(parseDestFsLimits(destFsLimits));
+    }
+    String schedule = getConfigValue(props, ConfigNames.THROTTLE_SCHEDULE);
+    if (schedule != null) {
+      try {
+        c.setThrottleSchedule(Throttler.Window.parseList(schedule));
+      } catch (IllegalArgumentException e) {
+        throw new ConfigSettingException("Invalid " + ConfigNames.THROTTLE_SCHEDULE.name() + ": " + e.getMessage());
+      }
+    }
 
     return c;
   }
@@ -155,6 +283,80 @@ public class Configurator {
       checkScheme(c.getCompleteDir(), ConfigNames.COMPLETE_DIR);
     }
 
+    // the WatchService can only watch directories on the local file system
+    //
+    if (c.isWatchSrcDir() && !"file".equals(c.getSrcDir().toUri().getScheme())) {
+      throw new ConfigSettingException("The " + ConfigNames.WATCH_SRC_DIR.name() + " option can only be used when " +
+          ConfigNames.SRC_DIR.name() + " is on the local file system, e.g. 'file:/tmp'");
+    }
+
+    // packed containers are always written into the destination directory
+    //
+    if (c.isPack() && c.getDestDir() == null) {
+      throw new ConfigSettingException("The " + ConfigNames.PACK.name() + " option requires " +
+          ConfigNames.DEST_DIR.name() + " to be set");
+    }
+    if (c.isPack() && c.getPackMaxFileSize() > Integer.MAX_VALUE) {
+      throw new ConfigSettingException("The " + ConfigNames.PACK_MAX_FILE_SIZE.name() + " option must be under 2g");
+    }
+
+    if (c.isElasticPool() && (c.getMinThreads() < 1 || c.getMinThreads() > c.getMaxThreads())) {
+      throw new ConfigSettingException("The " + ConfigNames.MIN_THREADS.name() + " option must be between 1 and " +
+          ConfigNames.MAX_THREADS.name());
+    }
+
+    // the MIXED policy needs at least one thread which isn't reserved for small files
+    //
+    int fewestThreads = c.isElasticPool() ? c.getMinThreads() : c.getNumThreads();
+    if (c.getClaimPolicy() == ClaimPolicy.MIXED &&
+        (c.getSmallFileThreads() < 1 || c.getSmallFileThreads() >= fewestThreads)) {
+      throw new ConfigSettingException("The " + ConfigNames.SMALL_FILE_THREADS.name() + " option must be at least 1 " +
+          "and less than " + (c.isElasticPool() ? ConfigNames.MIN_THREADS.name() : ConfigNames.THREADS.name()) +
+          " when " + ConfigNames.CLAIM_POLICY.name() + " is " + ClaimPolicy.MIXED);
+    }
+
+    // the journal is written with java.io, so it has to be on local disk
+    //
+    if (c.getJournalDir() != null) {
+      testCreateDir(new Path(c.getJournalDir().getAbsoluteFile().toURI()), c.getConfig());
+    }
+
+    if (c.getFinalizeThreads() < 0 || c.getFinalizeBatchSize() < 1) {
+      throw new ConfigSettingException("The " + ConfigNames.FINALIZE_THREADS.name() + " option can't be negative, " +
+          "and " + ConfigNames.FINALIZE_BATCH_SIZE.name() + " must be at least 1");
+    }
+
+    // the dedupe index is also written with java.io
+    //
+    if (c.getDedupeDir() != null) {
+      testCreateDir(new Path(c.getDedupeDir().getAbsoluteFile().toURI()), c.getConfig());
+      if (c.getDedupeTtlHours() < 1 || c.getDedupeMaxEntries() < 1) {
+        throw new ConfigSettingException("The " + ConfigNames.DEDUPE_TTL_HOURS.name() + " and " +
+            ConfigNames.DEDUPE_MAX_ENTRIES.name() + " options must be positive");
+      }
+    }
+
+    if (c.getExportThreshold() > 0 && c.getExportThreads() < 2) {
+      throw new ConfigSettingException("The " + ConfigNames.EXPORT_THREADS.name() + " option must be at least 2");
+    }
+
+    if (c.isResumable() && c.getCheckpointBytes() < 1) {
+      throw new ConfigSettingException("The " + ConfigNames.CHECKPOINT_BYTES.name() + " option must be positive");
+    }
+
+    if (c.getVerifySampleFraction() < 0 || c.getVerifySampleFraction() > 1) {
+      throw new ConfigSettingException("The " + ConfigNames.VERIFY_SAMPLE_FRACTION.name() +
+          " option must be between 0 and 1");
+    }
+    if (c.getVerifySpotChecks() < 1 || c.getVerifySpotCheckBytes() < 1) {
+      throw new ConfigSettingException("The " + ConfigNames.VERIFY_SPOT_CHECKS.name() + " and " +
+          ConfigNames.VERIFY_SPOT_CHECK_BYTES.name() + " options must be positive");
+    }
+
+    if (c.getWeight() < 1) {
+      throw new ConfigSettingException("The " + ConfigNames.WEIGHT.name() + " option must be at least 1");
+    }
+
     // validate that the source directories are all on the same file system
     //
     validateSameFileSystem(c.getSrcDir(), c.getWorkDir(), c.getConfig());
@@ -275,6 +477,52 @@ public class Configurator {
     return defaultValue;
   }
 
+  /**
+   * Parses a comma-separated list of file system URIs and their limits, e.g. "hdfs://nn1:8020=20m".
+   */
+  private static Map<String, Long> parseDestFsLimits(String value) throws ConfigSettingException {
+    Map<String, Long> limits = new HashMap<String, Long>();
+    for (String part : value.split(",")) {
+      int idx = part.lastIndexOf('=');
+      if (idx <= 0) {
+        throw new ConfigSettingException("Invalid " + ConfigNames.THROTTLE_DEST_FS_BYTES_PER_SEC.name() +
+            ": expected uri=rate, got '" + part.trim() + "'");
+      }
+      Path fs = new Path(part.substring(0, idx).trim());
+      if (fs.toUri().getScheme() == null) {
+        throw new ConfigSettingException("The file system in " + ConfigNames.THROTTLE_DEST_FS_BYTES_PER_SEC.name() +
+            " must be a URI with a scheme: '" + fs + "'");
+      }
+      limits.put(fs.toUri().toString(),
+          org.apache.hadoop.util.StringUtils.TraditionalBinaryPrefix.string2long(part.substring(idx + 1).trim()));
+    }
+    return limits;
+  }
+
+  /**
+   * Reads a size in bytes, which may use a binary prefix such as "64m" or "1g".
+   */
+  public static long getConfigValueAsBytes(Map<String, String> props, ConfigNames key, long defaultValue) {
+    String val = getConfigValue(props, key);
+    if (val != null) {
+      return org.apache.hadoop.util.StringUtils.TraditionalBinaryPrefix.string2long(val.trim());
+    }
+    return defaultValue;
+  }
+
+  public static <E extends Enum<E>> E getConfigValueAsEnum(Map<String, String> props, ConfigNames key, Class<E> type, E defaultValue) throws ConfigSettingException {
+    String val = getConfigValue(props, key);
+    if (val == null) {
+      return defaultValue;
+    }
+    try {
+      return Enum.valueOf(type, val.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new ConfigSettingException("Invalid value for " + key.name() + ": '" + val + "'. Valid values are " +
+          Arrays.toString(type.getEnumConstants()));
+    }
+  }
+
   public static String getRequiredConfigValue(Map<String, String> props, ConfigNames key) throws MissingRequiredConfigException {
     String val = getConfigValue(props, key);
     if (val == null) {
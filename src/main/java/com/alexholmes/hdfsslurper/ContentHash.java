@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.MD5Hash;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Checksum;
+
+/**
+ * The MD5 of a file's contents, which identifies files with the same contents for the {@link DedupeIndex}.
+ * It's a {@link Checksum} so that it can be handed to a {@link CopyEngine} and calculated from the same read
+ * as the copy, and it passes every byte on to another checksum, so that the copy can still be verified.
+ */
+public class ContentHash implements Checksum {
+
+  private final MessageDigest digest;
+  private final Checksum next;
+
+  /**
+   * @param next also updated with every byte, can be null
+   */
+  public ContentHash(Checksum next) {
+    try {
+      this.digest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("MD5 isn't supported", e);
+    }
+    this.next = next;
+  }
+
+  /**
+   * Reads a file and hashes its contents.
+   *
+   * @param buffer used to read the file
+   */
+  public static String of(FileSystem fs, Path path, byte[] buffer) throws IOException {
+    ContentHash hash = new ContentHash(null);
+    InputStream in = fs.open(path);
+    try {
+      int n;
+      while ((n = in.read(buffer)) != -1) {
+        hash.update(buffer, 0, n);
+      }
+    } finally {
+      IOUtils.closeStream(in);
+    }
+    return hash.toHex();
+  }
+
+  @Override
+  public void update(int b) {
+    digest.update((byte) b);
+    if (next != null) {
+      next.update(b);
+    }
+  }
+
+  @Override
+  public void update(byte[] b, int off, int len) {
+    digest.update(b, off, len);
+    if (next != null) {
+      next.update(b, off, len);
+    }
+  }
+
+  /**
+   * @return the value of the checksum which bytes are passed on to, or 0 if there isn't one
+   */
+  @Override
+  public long getValue() {
+    return next != null ? next.getValue() : 0;
+  }
+
+  @Override
+  public void reset() {
+    digest.reset();
+    if (next != null) {
+      next.reset();
+    }
+  }
+
+  /**
+   * Finishes the hash, after which the digest starts over.
+   */
+  public String toHex() {
+    return new MD5Hash(digest.digest()).toString();
+  }
+}
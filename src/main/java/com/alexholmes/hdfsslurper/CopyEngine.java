@@ -0,0 +1,188 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Checksum;
+
+/**
+ * Copies the contents of a source file into an output stream.  Each worker thread owns its engines,
+ * and the engines share a single transfer buffer which is allocated once and reused for every file.
+ * <p/>
+ * Throughput is tracked separately for each type of engine, so that they can be compared.
+ */
+public abstract class CopyEngine {
+  private static Log log = LogFactory.getLog(CopyEngine.class);
+
+  public enum Type {
+    /**
+     * Reads through the source {@link FileSystem}'s input stream, works with any file system.
+     */
+    STREAM,
+
+    /**
+     * Reads local files through a {@link java.nio.channels.FileChannel} into a direct buffer.
+     */
+    CHANNEL,
+
+    /**
+     * Reads local files by memory-mapping them.
+     */
+    MMAP
+  }
+
+  private static final Map<Type, Stats> STATS = new EnumMap<Type, Stats>(Type.class);
+
+  static {
+    for (Type type : Type.values()) {
+      STATS.put(type, new Stats());
+    }
+  }
+
+  protected final byte[] buffer;
+
+  protected CopyEngine(byte[] buffer) {
+    this.buffer = buffer;
+  }
+
+  public static CopyEngine create(Type type, byte[] buffer) {
+    switch (type) {
+      case CHANNEL:
+        return new ChannelCopyEngine(buffer);
+      case MMAP:
+        return new MappedCopyEngine(buffer);
+      default:
+        return new StreamCopyEngine(buffer);
+    }
+  }
+
+  public abstract Type getType();
+
+  /**
+   * Determines whether this engine is able to read the source file.
+   */
+  public abstract boolean accept(FileSystem srcFs, Path src);
+
+  /**
+   * Copies the whole source file into the output stream.  The output stream isn't closed.
+   *
+   * @param srcFs    the source file system
+   * @param src      the source file
+   * @param out      where the file's contents are written
+   * @param checksum updated with every byte which is read, can be null
+   * @return the number of bytes copied
+   * @throws IOException if the copy fails
+   */
+  public long copy(FileSystem srcFs, Path src, OutputStream out, Checksum checksum) throws IOException {
+    long start = System.nanoTime();
+    long bytes = doCopy(srcFs, src, out, checksum);
+    long nanos = System.nanoTime() - start;
+
+    Stats stats = STATS.get(getType());
+    stats.record(bytes, nanos);
+
+    log.info("Copied " + bytes + " bytes in " + TimeUnit.NANOSECONDS.toMillis(nanos) + "ms (" +
+        Stats.toMBPerSecond(bytes, nanos) + " MB/s) with the " + getType() + " engine");
+    return bytes;
+  }
+
+  protected abstract long doCopy(FileSystem srcFs, Path src, OutputStream out, Checksum checksum)
+      throws IOException;
+
+  protected static boolean isLocal(FileSystem fs) {
+    return fs instanceof LocalFileSystem || fs instanceof RawLocalFileSystem;
+  }
+
+  protected static File toLocalFile(FileSystem fs, Path src) {
+    if (fs instanceof LocalFileSystem) {
+      return ((LocalFileSystem) fs).pathToFile(src);
+    }
+    return ((RawLocalFileSystem) fs).pathToFile(src);
+  }
+
+  public static Stats getStats(Type type) {
+    return STATS.get(type);
+  }
+
+  /**
+   * Logs the throughput of every engine which has copied at least one file.
+   */
+  public static void logStats() {
+    for (Type type : Type.values()) {
+      Stats stats = STATS.get(type);
+      if (stats.getFiles() > 0) {
+        log.info(type + " engine copied " + stats.getFiles() + " files, " + stats.getBytes() + " bytes at " +
+            stats.getMBPerSecond() + " MB/s");
+      }
+    }
+  }
+
+  public static class Stats {
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+
+    private void record(long bytes, long nanos) {
+      this.files.incrementAndGet();
+      this.bytes.addAndGet(bytes);
+      this.nanos.addAndGet(nanos);
+    }
+
+    public long getFiles() {
+      return files.get();
+    }
+
+    public long getBytes() {
+      return bytes.get();
+    }
+
+    public long getNanos() {
+      return nanos.get();
+    }
+
+    /**
+     * The throughput while copying, which excludes the time spent between copies.
+     */
+    public long getBytesPerSecond() {
+      long n = nanos.get();
+      return n == 0 ? 0 : (long) (bytes.get() * (double) TimeUnit.SECONDS.toNanos(1) / n);
+    }
+
+    public String getMBPerSecond() {
+      return toMBPerSecond(bytes.get(), nanos.get());
+    }
+
+    private static String toMBPerSecond(long bytes, long nanos) {
+      if (nanos == 0) {
+        return "0.0";
+      }
+      return String.format("%.1f", bytes / (1024.0 * 1024.0) / (nanos / (double) TimeUnit.SECONDS.toNanos(1)));
+    }
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.log4j.MDC;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs several datasources in one process, on a single pool of threads which is shared between them
+ * by a {@link DatasourceScheduler}.  Each datasource keeps its own scanner, metrics, directory cache,
+ * throttle and packer, and since the configurations share a Hadoop {@code Configuration} they also
+ * share the cached {@code FileSystem} clients.  The THROTTLE_DEST_FS_BYTES_PER_SEC limits are shared by
+ * all the datasources, so they hold for the process as a whole.
+ * <p/>
+ * The files are copied by workers which are never started, but which hold a datasource's copy buffer,
+ * engines, thread pools and scripts.  A shared thread borrows a worker for the datasource it's copying
+ * from and gives it back afterwards.  No more idle workers are kept than there are threads or datasources,
+ * whichever is more, so the number of workers grows with the number of threads plus the number of
+ * datasources, rather than with their product.
+ * <p/>
+ * The SMALL_FILE_THREADS of the datasources with the MIXED claim policy are added up, and that many of the
+ * shared threads only copy small files from those datasources, leaving at least one thread for large files.
+ */
+public class DatasourceHost {
+  private static Log log = LogFactory.getLog(DatasourceHost.class);
+
+  private static final long POLL_MILLIS = 100;
+
+  private final List<Config> configs;
+  private final int numThreads;
+  private final List<DatasourceScheduler.Datasource> datasources = new ArrayList<DatasourceScheduler.Datasource>();
+  private final List<HostThread> threads = new ArrayList<HostThread>();
+  private final CountDownLatch terminated = new CountDownLatch(1);
+  private final LinkedList<IdleWorker> idleWorkers = new LinkedList<IdleWorker>();
+  private final AtomicInteger workerCount = new AtomicInteger();
+  private DatasourceScheduler scheduler;
+
+  private static class IdleWorker {
+    private final DatasourceScheduler.Datasource datasource;
+    private final WorkerThread worker;
+
+    private IdleWorker(DatasourceScheduler.Datasource datasource, WorkerThread worker) {
+      this.datasource = datasource;
+      this.worker = worker;
+    }
+  }
+
+  /**
+   * @param numThreads the number of shared threads, or 0 for the sum of the datasources' THREADS
+   */
+  public DatasourceHost(List<Config> configs, int numThreads) {
+    this.configs = configs;
+    if (numThreads <= 0) {
+      for (Config config : configs) {
+        numThreads += config.getNumThreads();
+      }
+    }
+    this.numThreads = numThreads;
+  }
+
+  public void start() throws IOException, InterruptedException {
+    // the destination file system limits are for the process, rather than for each datasource
+    //
+    Map<String, TokenBucket> destFsBuckets = Throttler.createDestFsBuckets(configs);
+
+    for (Config config : configs) {
+      if (config.isElasticPool()) {
+        log.warn("Ignoring MAX_THREADS for datasource " + config.getDatasource() + " in host mode");
+      }
+
+      FileSystemManager fileSystemManager = new FileSystemManager(config, destFsBuckets);
+
+      log.info("Recovering any files left in the work directory for datasource " + config.getDatasource());
+      fileSystemManager.recoverWorkFiles();
+      fileSystemManager.getMetrics().register();
+      fileSystemManager.start();
+
+      SequenceFilePacker packer = config.isPack() ? new SequenceFilePacker(config, fileSystemManager) : null;
+      datasources.add(new DatasourceScheduler.Datasource(config, fileSystemManager, packer));
+    }
+
+    scheduler = new DatasourceScheduler(datasources);
+
+    // the lowest numbered threads are the ones reserved for small files
+    //
+    int smallFileThreads = 0;
+    for (Config config : configs) {
+      if (config.getClaimPolicy() == ClaimPolicy.MIXED) {
+        smallFileThreads += config.getSmallFileThreads();
+      }
+    }
+    if (smallFileThreads >= numThreads) {
+      log.warn("Reserving " + (numThreads - 1) + " of the " + numThreads + " threads for small files rather than " +
+          smallFileThreads + ", so that large files can still be copied");
+      smallFileThreads = numThreads - 1;
+    }
+
+    log.info("Starting " + numThreads + " threads for " + datasources.size() + " datasources, " +
+        smallFileThreads + " of which only copy small files");
+    for (int i = 1; i <= numThreads; i++) {
+      HostThread thread = new HostThread(i, i <= smallFileThreads);
+      thread.start();
+      threads.add(thread);
+    }
+  }
+
+  /**
+   * Stops claiming files for every datasource, and waits for the threads to finish copying the files
+   * they're working on.
+   */
+  public void shutdown() throws IOException, InterruptedException {
+    for (DatasourceScheduler.Datasource datasource : datasources) {
+      datasource.getFileSystemManager().shutdown();
+    }
+    for (HostThread thread : threads) {
+      thread.shutdown();
+    }
+    log.info("Threads dead");
+    synchronized (idleWorkers) {
+      for (IdleWorker idle : idleWorkers) {
+        idle.worker.close();
+      }
+      idleWorkers.clear();
+    }
+    for (DatasourceScheduler.Datasource datasource : datasources) {
+      if (datasource.getPacker() != null) {
+        log.info("Committing the last container for datasource " + datasource.getName());
+        datasource.getPacker().close();
+      }
+      datasource.getFileSystemManager().close();
+    }
+    terminated.countDown();
+  }
+
+  public void awaitTermination() throws InterruptedException {
+    terminated.await();
+  }
+
+  public List<DatasourceScheduler.Datasource> getDatasources() {
+    return datasources;
+  }
+
+  /**
+   * The number of workers which have been created, including any which have since been closed.
+   */
+  int getWorkersCreated() {
+    return workerCount.get();
+  }
+
+  /**
+   * Takes the most recently used idle worker for the datasource, or creates one if there isn't one.
+   */
+  private WorkerThread borrowWorker(DatasourceScheduler.Datasource datasource) {
+    synchronized (idleWorkers) {
+      Iterator<IdleWorker> it = idleWorkers.descendingIterator();
+      while (it.hasNext()) {
+        IdleWorker idle = it.next();
+        if (idle.datasource == datasource) {
+          it.remove();
+          return idle.worker;
+        }
+      }
+    }
+    log.info("Creating a worker for datasource " + datasource.getName());
+    return new WorkerThread(datasource.getConfig(), datasource.getFileSystemManager(), TimeUnit.MILLISECONDS,
+        workerCount.incrementAndGet(), datasource.getPacker());
+  }
+
+  /**
+   * Gives a worker back once it's finished copying, closing the least recently used idle worker if
+   * there are too many idle workers.
+   */
+  private void returnWorker(DatasourceScheduler.Datasource datasource, WorkerThread worker) {
+    IdleWorker evicted = null;
+    synchronized (idleWorkers) {
+      idleWorkers.addLast(new IdleWorker(datasource, worker));
+      if (idleWorkers.size() > Math.max(numThreads, datasources.size())) {
+        evicted = idleWorkers.removeFirst();
+      }
+    }
+    if (evicted != null) {
+      log.info("Closing an idle worker for datasource " + evicted.datasource.getName());
+      evicted.worker.close();
+    }
+  }
+
+  private class HostThread extends Thread {
+    private final AtomicBoolean shuttingDown = new AtomicBoolean(false);
+    private final boolean smallFilesOnly;
+
+    private HostThread(int index, boolean smallFilesOnly) {
+      this.smallFilesOnly = smallFilesOnly;
+      setDaemon(true);
+      setName(HostThread.class.getSimpleName() + "-" + index);
+    }
+
+    @Override
+    public void run() {
+      MDC.put("threadName", getName());
+      try {
+        while (!shuttingDown.get() && !interrupted()) {
+          DatasourceScheduler.Claim claim = scheduler.take(POLL_MILLIS, smallFilesOnly);
+          MDC.put("datasource", claim.getDatasource().getName());
+          WorkerThread worker = null;
+          try {
+            worker = borrowWorker(claim.getDatasource());
+            worker.copy(claim.getFile());
+          } catch (InterruptedException e) {
+            throw e;
+          } catch (Throwable t) {
+            log.warn("Caught exception copying " + claim.getFile().getPath(), t);
+          } finally {
+            if (worker != null) {
+              returnWorker(claim.getDatasource(), worker);
+            }
+            scheduler.release(claim);
+            MDC.remove("datasource");
+          }
+        }
+      } catch (InterruptedException e) {
+        log.warn("Caught interrupted exception, exiting");
+      }
+      log.info("Thread exiting");
+    }
+
+    private void shutdown() throws InterruptedException {
+      if (!shuttingDown.getAndSet(true)) {
+        interrupt();
+        join();
+      }
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.fs.FileStatus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Shares worker threads fairly between datasources in host mode, using start-time fair queuing on
+ * the bytes copied.  Each datasource gets a share of the bytes in proportion to its WEIGHT while
+ * it has files waiting, and never more than MAX_CONCURRENCY files are copied from it at once.
+ * A datasource which was idle rejoins at the current virtual time, so it can't build up credit
+ * while it had nothing to copy.  Threads which are reserved for small files only take files from
+ * datasources with the MIXED claim policy, and only ones of up to their SMALL_FILE_BYTES.
+ */
+public class DatasourceScheduler {
+
+  /**
+   * Small files are charged at least this much, since the per-file overhead dominates their copy time.
+   */
+  static final long MIN_COST_BYTES = 64 * 1024;
+
+  public static class Datasource {
+    private final Config config;
+    private final FileSystemManager fileSystemManager;
+    private final SequenceFilePacker packer;
+    private int inFlight;
+    private double finishTag;
+
+    public Datasource(Config config, FileSystemManager fileSystemManager, SequenceFilePacker packer) {
+      this.config = config;
+      this.fileSystemManager = fileSystemManager;
+      this.packer = packer;
+    }
+
+    public Config getConfig() {
+      return config;
+    }
+
+    public FileSystemManager getFileSystemManager() {
+      return fileSystemManager;
+    }
+
+    public SequenceFilePacker getPacker() {
+      return packer;
+    }
+
+    public String getName() {
+      return config.getDatasource();
+    }
+  }
+
+  /**
+   * A file claimed from a datasource, which must be released once it's been copied.
+   */
+  public static class Claim {
+    private final Datasource datasource;
+    private final FileStatus file;
+
+    private Claim(Datasource datasource, FileStatus file) {
+      this.datasource = datasource;
+      this.file = file;
+    }
+
+    public Datasource getDatasource() {
+      return datasource;
+    }
+
+    public FileStatus getFile() {
+      return file;
+    }
+  }
+
+  private final List<Datasource> datasources;
+  private double virtualTime;
+
+  public DatasourceScheduler(List<Datasource> datasources) {
+    this.datasources = new ArrayList<Datasource>(datasources);
+  }
+
+  /**
+   * Waits for a file from the datasource which is furthest behind its share, out of those which
+   * have files waiting and are below their concurrency limit.
+   *
+   * @param pollMillis how often to look for new files while there are none
+   */
+  public Claim take(long pollMillis) throws InterruptedException {
+    return take(pollMillis, false);
+  }
+
+  /**
+   * @param smallOnly only take small files from datasources with the MIXED claim policy
+   */
+  public Claim take(long pollMillis, boolean smallOnly) throws InterruptedException {
+    while (true) {
+      Claim claim = poll(smallOnly);
+      if (claim != null) {
+        return claim;
+      }
+      synchronized (this) {
+        wait(pollMillis);
+      }
+    }
+  }
+
+  /**
+   * @return a file, or null if no datasource which is allowed to copy has one waiting
+   */
+  public Claim poll() throws InterruptedException {
+    return poll(false);
+  }
+
+  /**
+   * @param smallOnly only take small files from datasources with the MIXED claim policy
+   * @return a file, or null if no datasource which is allowed to copy has one waiting
+   */
+  public synchronized Claim poll(boolean smallOnly) throws InterruptedException {
+    List<Datasource> candidates = new ArrayList<Datasource>(datasources);
+    Collections.sort(candidates, new Comparator<Datasource>() {
+      @Override
+      public int compare(Datasource a, Datasource b) {
+        return Double.compare(startTag(a), startTag(b));
+      }
+    });
+
+    for (Datasource datasource : candidates) {
+      if (datasource.inFlight >= datasource.config.getMaxConcurrency() ||
+          (smallOnly && datasource.config.getClaimPolicy() != ClaimPolicy.MIXED)) {
+        continue;
+      }
+      FileStatus file = datasource.fileSystemManager.pollForInboundFile(smallOnly);
+      if (file != null) {
+        double start = startTag(datasource);
+        virtualTime = start;
+        datasource.finishTag = start + Math.max(MIN_COST_BYTES, file.getLen()) / (double) datasource.config.getWeight();
+        datasource.inFlight++;
+        return new Claim(datasource, file);
+      }
+    }
+    return null;
+  }
+
+  public synchronized void release(Claim claim) {
+    claim.datasource.inFlight--;
+    notifyAll();
+  }
+
+  public synchronized int getInFlight(Datasource datasource) {
+    return datasource.inFlight;
+  }
+
+  private double startTag(Datasource datasource) {
+    return Math.max(datasource.finishTag, virtualTime);
+  }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.bloom.BloomFilter;
+import org.apache.hadoop.util.bloom.Key;
+import org.apache.hadoop.util.hash.Hash;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A persistent index of the content hashes of recently copied files, so that a file which is dropped into the
+ * source directory again, and which would be copied to the same destination, can be finalized without copying it.
+ * A file with the same contents going somewhere else is still copied, since the copy which was made is only
+ * reachable under its own destination.
+ * <p/>
+ * The entries are kept on local disk in DEDUPE_DIR, spread over 256 bucket files by the first byte of their
+ * hash, so a lookup only reads one small file.  Two Bloom filters sit in front of the buckets: one of the
+ * hashes, so that a bucket is only read for a likely duplicate, and one of the file lengths, so that a file
+ * which is a different length from every file in the index isn't even hashed before it's copied.  Both are
+ * rebuilt from the buckets on startup.
+ * <p/>
+ * Entries expire after DEDUPE_TTL_HOURS, and each bucket holds at most its share of DEDUPE_MAX_ENTRIES, past
+ * which the oldest entries are dropped.  Expired entries are dropped whenever a bucket is rewritten.  Each
+ * entry is a line of {@code hash\tlength\tmillis\tdest}.
+ * <p/>
+ * Datasources which share a DEDUPE_DIR share one instance, since each instance keeps its own locks and
+ * bucket counts, and two of them appending to the same buckets would lose entries when a bucket is rewritten.
+ */
+public class DedupeIndex {
+  private static Log log = LogFactory.getLog(DedupeIndex.class);
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final int BUCKETS = 256;
+
+  /**
+   * Around 10 bits and 7 hash functions per entry gives a false positive rate of about 1%.
+   */
+  private static final int BITS_PER_ENTRY = 10;
+  private static final int BLOOM_HASHES = 7;
+
+  /**
+   * The instances which are open, keyed by their canonical directory.
+   */
+  private static final Map<File, DedupeIndex> OPEN = new HashMap<File, DedupeIndex>();
+
+  private final File dir;
+  private final long ttlMillis;
+  private final int maxEntriesPerBucket;
+  private final BloomFilter hashes;
+  private final BloomFilter lengths;
+  private final int[] counts = new int[BUCKETS];
+  private final Object[] locks = new Object[BUCKETS];
+  private File key;
+  private int refs;
+
+  public static class Entry {
+    private final String hash;
+    private final long length;
+    private final long millis;
+    private final Path dest;
+
+    public Entry(String hash, long length, long millis, Path dest) {
+      this.hash = hash;
+      this.length = length;
+      this.millis = millis;
+      this.dest = dest;
+    }
+
+    public String getHash() {
+      return hash;
+    }
+
+    public long getLength() {
+      return length;
+    }
+
+    /**
+     * When the file was copied.
+     */
+    public long getMillis() {
+      return millis;
+    }
+
+    /**
+     * Where the file was copied to.
+     */
+    public Path getDest() {
+      return dest;
+    }
+
+    private String toLine() {
+      return hash + "\t" + length + "\t" + millis + "\t" + dest + "\n";
+    }
+
+    private static Entry parse(String line) {
+      String[] parts = line.split("\t");
+      if (parts.length != 4) {
+        return null;
+      }
+      try {
+        return new Entry(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2]), new Path(parts[3]));
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+    }
+  }
+
+  public DedupeIndex(File dir, long ttlMillis, int maxEntries) {
+    this.dir = dir;
+    this.ttlMillis = ttlMillis;
+    this.maxEntriesPerBucket = Math.max(1, maxEntries / BUCKETS);
+    int vectorSize = Math.max(1024, maxEntries * BITS_PER_ENTRY);
+    this.hashes = new BloomFilter(vectorSize, BLOOM_HASHES, Hash.MURMUR_HASH);
+    this.lengths = new BloomFilter(vectorSize, BLOOM_HASHES, Hash.MURMUR_HASH);
+    for (int i = 0; i < BUCKETS; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  /**
+   * Opens the index in DEDUPE_DIR, or returns the instance which is already open on that directory, which
+   * keeps the TTL and size it was opened with.  Each index which is returned should be closed.
+   *
+   * @return the index in DEDUPE_DIR, which has been loaded, or null if DEDUPE_DIR isn't set
+   */
+  public static DedupeIndex create(Config config) throws IOException {
+    if (config.getDedupeDir() == null) {
+      return null;
+    }
+    long ttlMillis = TimeUnit.HOURS.toMillis(config.getDedupeTtlHours());
+    File key = config.getDedupeDir().getCanonicalFile();
+    synchronized (OPEN) {
+      DedupeIndex index = OPEN.get(key);
+      if (index == null) {
+        index = new DedupeIndex(config.getDedupeDir(), ttlMillis, config.getDedupeMaxEntries());
+        index.load();
+        index.key = key;
+        OPEN.put(key, index);
+      } else if (index.ttlMillis != ttlMillis ||
+          index.maxEntriesPerBucket != Math.max(1, config.getDedupeMaxEntries() / BUCKETS)) {
+        log.warn("Dedupe index " + key + " is already open with a different TTL or size, which " +
+            config.getDatasource() + " will share");
+      }
+      index.refs++;
+      return index;
+    }
+  }
+
+  /**
+   * Releases an index returned by {@link #create(Config)}, which is closed once every datasource sharing it
+   * has released it.
+   */
+  public void close() {
+    synchronized (OPEN) {
+      if (key != null && --refs == 0) {
+        OPEN.remove(key);
+        key = null;
+      }
+    }
+  }
+
+  /**
+   * Reads all the buckets, dropping the entries which have expired, and fills the Bloom filters.
+   */
+  public void load() throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Failed to create dedupe directory " + dir);
+    }
+    int total = 0;
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      synchronized (locks[bucket]) {
+        List<Entry> entries = compact(bucket);
+        for (Entry entry : entries) {
+          addToFilters(entry.getHash(), entry.getLength());
+        }
+        total += entries.size();
+      }
+    }
+    log.info("Loaded " + total + " content hashes from dedupe index " + dir);
+  }
+
+  /**
+   * @return false if no file of this length is in the index, in which case there's no point hashing a file
+   *         before copying it
+   */
+  public boolean mightContainLength(long length) {
+    synchronized (lengths) {
+      return lengths.membershipTest(lengthKey(length));
+    }
+  }
+
+  /**
+   * @return the entry for a file with the same contents which was copied to {@code dest} within the TTL, or null
+   */
+  public Entry lookup(String hash, long length, Path dest) throws IOException {
+    boolean maybe;
+    synchronized (hashes) {
+      maybe = hashes.membershipTest(hashKey(hash, length));
+    }
+    if (!maybe) {
+      return null;
+    }
+
+    int bucket = bucket(hash);
+    long oldest = System.currentTimeMillis() - ttlMillis;
+    synchronized (locks[bucket]) {
+      Entry found = null;
+      for (Entry entry : read(bucket)) {
+        if (entry.getHash().equals(hash) && entry.getLength() == length && entry.getMillis() >= oldest &&
+            entry.getDest().equals(dest)) {
+          found = entry;
+        }
+      }
+      return found;
+    }
+  }
+
+  /**
+   * Adds a file which has been copied.
+   */
+  public void add(String hash, long length, Path dest) throws IOException {
+    Entry entry = new Entry(hash, length, System.currentTimeMillis(), dest);
+    int bucket = bucket(hash);
+    synchronized (locks[bucket]) {
+      Writer writer = new OutputStreamWriter(new FileOutputStream(bucketFile(bucket), true), UTF8);
+      try {
+        writer.write(entry.toLine());
+      } finally {
+        writer.close();
+      }
+      if (++counts[bucket] > maxEntriesPerBucket) {
+        compact(bucket);
+      }
+    }
+    addToFilters(hash, length);
+  }
+
+  private void addToFilters(String hash, long length) {
+    synchronized (hashes) {
+      hashes.add(hashKey(hash, length));
+    }
+    synchronized (lengths) {
+      lengths.add(lengthKey(length));
+    }
+  }
+
+  /**
+   * Rewrites a bucket without the expired entries, and without the oldest entries if it's over its limit, and
+   * replaces the old bucket in a single rename.  The Bloom filters can't forget entries, so ones which are
+   * dropped only cost a bucket read until the next restart.
+   *
+   * @return the entries which were kept
+   */
+  private List<Entry> compact(int bucket) throws IOException {
+    long oldest = System.currentTimeMillis() - ttlMillis;
+    List<Entry> entries = read(bucket);
+    List<Entry> kept = new ArrayList<Entry>();
+    for (Entry entry : entries) {
+      if (entry.getMillis() >= oldest) {
+        kept.add(entry);
+      }
+    }
+
+    // entries are appended as files are copied, so the oldest ones are at the start
+    //
+    if (kept.size() > maxEntriesPerBucket) {
+      kept = new ArrayList<Entry>(kept.subList(kept.size() - maxEntriesPerBucket, kept.size()));
+    }
+
+    if (kept.size() < entries.size()) {
+      File file = bucketFile(bucket);
+      File tmp = new File(file.getPath() + ".tmp");
+      Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), UTF8);
+      try {
+        for (Entry entry : kept) {
+          writer.write(entry.toLine());
+        }
+      } finally {
+        writer.close();
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    counts[bucket] = kept.size();
+    return kept;
+  }
+
+  private List<Entry> read(int bucket) throws IOException {
+    List<Entry> entries = new ArrayList<Entry>();
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(bucketFile(bucket)), UTF8));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        Entry entry = Entry.parse(line);
+
+        // the last entry can be torn if the process died while it was being written
+        //
+        if (entry != null) {
+          entries.add(entry);
+        }
+      }
+    } catch (FileNotFoundException e) {
+      // nothing has been added to this bucket yet
+    } finally {
+      IOUtils.closeStream(reader);
+    }
+    return entries;
+  }
+
+  private File bucketFile(int bucket) {
+    return new File(dir, String.format("%02x.dedupe", bucket));
+  }
+
+  private static int bucket(String hash) {
+    return Integer.parseInt(hash.substring(0, 2), 16);
+  }
+
+  private static Key hashKey(String hash, long length) {
+    return new Key((hash + ":" + length).getBytes(UTF8));
+  }
+
+  private static Key lengthKey(long length) {
+    return new Key(Long.toString(length).getBytes(UTF8));
+  }
+}
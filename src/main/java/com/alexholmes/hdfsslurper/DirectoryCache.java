@@ -0,0 +1,96 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers destination directories which are known to exist, so that the worker threads don't need
+ * to ask the NameNode about the same directories for every file.  Entries expire after a TTL, so that
+ * directories which are removed behind our back are eventually re-created, and the least recently used
+ * entries are evicted once the cache is full.  The cache is shared by all the worker threads.
+ */
+public class DirectoryCache {
+  private static Log log = LogFactory.getLog(DirectoryCache.class);
+
+  private final long ttlMillis;
+  private final Map<Path, Long> expiries;
+  private long hits;
+  private long misses;
+
+  public DirectoryCache(final int maxEntries, long ttlMillis) {
+    this.ttlMillis = ttlMillis;
+    this.expiries = new LinkedHashMap<Path, Long>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Path, Long> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Makes sure a directory exists, creating it if it isn't in the cache.  Creating a directory which
+   * already exists succeeds, so a cache miss costs a single call to the file system.
+   *
+   * @throws IOException if the directory couldn't be created
+   */
+  public void mkdirs(FileSystem fs, Path dir) throws IOException {
+    Path key = fs.makeQualified(dir);
+    if (contains(key)) {
+      return;
+    }
+    if (!fs.mkdirs(dir)) {
+      throw new IOException("Failed to create directory: " + dir.toUri());
+    }
+    log.debug("Created or found directory " + dir.toUri());
+    synchronized (this) {
+      expiries.put(key, System.currentTimeMillis() + ttlMillis);
+    }
+  }
+
+  private synchronized boolean contains(Path key) {
+    Long expiry = expiries.get(key);
+    if (expiry != null && expiry > System.currentTimeMillis()) {
+      hits++;
+      return true;
+    }
+    expiries.remove(key);
+    misses++;
+    return false;
+  }
+
+  /**
+   * Forgets a directory, for when a write into it fails because it has been removed.
+   */
+  public synchronized void invalidate(FileSystem fs, Path dir) {
+    expiries.remove(fs.makeQualified(dir));
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+}
@@ -20,59 +20,191 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MD5Hash;
 
 import java.io.IOException;
-import java.util.Random;
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class FileSystemManager {
     private static Log log = LogFactory.getLog(FileSystemManager.class);
 
     private final Config config;
 
-    private final ReentrantLock inboundDirLock = new ReentrantLock();
+    private final InboundScanner scanner;
+
+    private final DirectoryCache directoryCache;
+
+    private final SlurperMetrics metrics;
+
+    private final Throttler throttler;
+
+    private final Journal journal;
+
+    private final SourceFinalizer finalizer;
+
+    private final DedupeIndex dedupeIndex;
 
     public FileSystemManager(Config config) throws IOException {
+      this(config, Throttler.createDestFsBuckets(Collections.singletonList(config)));
+    }
+
+    /**
+     * @param destFsBuckets the bandwidth limits for the destination file systems, which are shared by all
+     *                      the datasources in host mode
+     */
+    public FileSystemManager(Config config, Map<String, TokenBucket> destFsBuckets) throws IOException {
       this.config = config;
+      this.metrics = new SlurperMetrics(config.getDatasource());
+      this.journal = Journal.create(config);
+      this.scanner = new InboundScanner(config, metrics, journal);
+      this.directoryCache = new DirectoryCache(config.getDirCacheSize(), config.getDirCacheTtlMillis());
+      this.throttler = new Throttler(config, metrics, destFsBuckets);
+      this.finalizer = new SourceFinalizer(config, this, journal, metrics);
+      this.dedupeIndex = DedupeIndex.create(config);
+    }
+
+    /**
+     * Starts discovering inbound files.  This should only be called once any files
+     * left over in the work directory have been dealt with.
+     */
+    public void start() {
+        scanner.start();
+        finalizer.start();
+    }
+
+    public void shutdown() throws IOException, InterruptedException {
+        scanner.shutdown();
+    }
+
+    /**
+     * Finalizes any source files which are still queued, and closes the journal and dedupe index, once the threads have
+     * finished with their files.
+     */
+    public void close() throws InterruptedException {
+        try {
+            finalizer.shutdown();
+        } finally {
+            journal.close();
+            if (dedupeIndex != null) {
+                dedupeIndex.close();
+            }
+        }
     }
 
     public FileStatus pollForInboundFile(TimeUnit unit, long period) throws IOException, InterruptedException {
+        return pollForInboundFile(unit, period, new AtomicBoolean(false));
+    }
+
+    /**
+     * Takes an inbound file which has already been claimed, without waiting.
+     *
+     * @return the file, or null if none are waiting
+     */
+    public FileStatus pollForInboundFile() throws InterruptedException {
+        return pollForInboundFile(false);
+    }
+
+    /**
+     * Takes an inbound file which has already been claimed, without waiting.
+     *
+     * @param smallOnly only take files which are small enough for the threads reserved by the MIXED
+     *                  claim policy
+     * @return the file, or null if none are waiting
+     */
+    public FileStatus pollForInboundFile(boolean smallOnly) throws InterruptedException {
+        return scanner.poll(0, TimeUnit.MILLISECONDS, smallOnly);
+    }
+
+    /**
+     * Waits for an inbound file until one is claimed, or until {@code stop} is set.
+     *
+     * @return the file, or null if {@code stop} was set before a file was claimed
+     */
+    public FileStatus pollForInboundFile(TimeUnit unit, long period, AtomicBoolean stop)
+        throws IOException, InterruptedException {
+        return pollForInboundFile(unit, period, stop, false);
+    }
+
+    /**
+     * Waits for an inbound file until one is claimed, or until {@code stop} is set.
+     *
+     * @param smallOnly only take files which are small enough for the threads reserved by the MIXED
+     *                  claim policy
+     * @return the file, or null if {@code stop} was set before a file was claimed
+     */
+    public FileStatus pollForInboundFile(TimeUnit unit, long period, AtomicBoolean stop, boolean smallOnly)
+        throws IOException, InterruptedException {
         FileStatus fs;
-        // we should optimize fo the case where the FileSystem is a local file sytem,
-        // in which case we could use Java 7's WatchService
-        //
-        while ((fs = getInboundFile()) == null) {
-            unit.sleep(period);
+        while ((fs = scanner.poll(period, unit, smallOnly)) == null) {
+            // nothing claimed yet, keep waiting
+            if (stop.get()) {
+                return null;
+            }
         }
         return fs;
     }
 
-    public FileStatus getInboundFile() throws IOException, InterruptedException {
-        try {
-            inboundDirLock.lockInterruptibly();
-            for (FileStatus fs : config.getSrcFs().listStatus(config.getSrcDir())) {
-                if (!fs.isDir()) {
-                    if (fs.getPath().getName().startsWith(".")) {
-                        log.debug("Ignoring hidden file '" + fs.getPath() + "'");
-                        continue;
-                    }
+    /**
+     * The metrics for this datasource, which aren't published until they're registered.
+     */
+    public SlurperMetrics getMetrics() {
+        return metrics;
+    }
 
-                    // move file into work directory
-                    //
-                    Path workPath = new Path(config.getWorkDir(), fs.getPath().getName());
-                  config.getSrcFs().rename(fs.getPath(), workPath);
+    /**
+     * The destination directories which are known to exist, shared by all the worker threads.
+     */
+    public DirectoryCache getDirectoryCache() {
+        return directoryCache;
+    }
 
-                    return config.getSrcFs().getFileStatus(workPath);
-                }
-            }
-            return null;
-        } finally {
-            inboundDirLock.unlock();
-        }
+    /**
+     * The bandwidth limits for writing to the destination, shared by all the worker threads.
+     */
+    public Throttler getThrottler() {
+        return throttler;
+    }
+
+    /**
+     * The journal of files in flight, which doesn't record anything unless JOURNAL_DIR is set.
+     */
+    public Journal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Moves source files into the complete or error directory, shared by all the worker threads.
+     */
+    public SourceFinalizer getSourceFinalizer() {
+        return finalizer;
+    }
+
+    /**
+     * The content hashes of the files which have been copied, or null if DEDUPE_DIR isn't set.
+     */
+    public DedupeIndex getDedupeIndex() {
+        return dedupeIndex;
+    }
+
+    public int getClaimQueueDepth() {
+        return scanner.getQueueDepth();
     }
 
     public boolean fileCopyComplete(FileStatus fs) throws IOException {
+        boolean success = moveToComplete(fs);
+        if (success) {
+            journal.record(Journal.State.FINALIZED, fs.getPath());
+        }
+        return success;
+    }
+
+    /**
+     * Removes a source file which was copied, or moves it into the complete directory, without journaling it.
+     */
+    boolean moveToComplete(FileStatus fs) throws IOException {
         boolean success;
         if (config.isRemove()) {
             log.info("File copy successful, deleting source " + fs.getPath());
@@ -92,11 +224,50 @@ public class FileSystemManager {
     }
 
     public boolean fileCopyError(FileStatus fs) throws IOException, InterruptedException {
+        journal.record(Journal.State.FAILED, fs.getPath());
+        return moveToError(fs);
+    }
+
+    /**
+     * Moves a source file which couldn't be copied into the error directory, without journaling it.
+     */
+    boolean moveToError(FileStatus fs) throws IOException {
         Path errorPath = new Path(config.getErrorDir(), fs.getPath().getName());
         log.info("Found file in work directory, moving " + fs.getPath() + " to error file " + errorPath);
         return config.getSrcFs().rename(fs.getPath(), errorPath);
     }
 
+    /**
+     * Moves a file from the work directory back into the source directory, so that it's copied again.
+     */
+    public boolean returnWorkFile(FileStatus fs) throws IOException {
+        Path srcPath = new Path(config.getSrcDir(), fs.getPath().getName());
+        log.info("Moving work file " + fs.getPath() + " back to source file " + srcPath);
+        if (!config.getSrcFs().rename(fs.getPath(), srcPath)) {
+            log.warn("Failed to move work file " + fs.getPath() + " back to the source directory");
+            return false;
+        }
+        journal.record(Journal.State.RETURNED, fs.getPath());
+        return true;
+    }
+
+    /**
+     * Deals with the files which were left in the work directory when the Slurper last stopped, by
+     * replaying the journal if JOURNAL_DIR is set, or otherwise by moving them into the error directory.
+     */
+    public void recoverWorkFiles() throws IOException, InterruptedException {
+        if (journal.isEnabled()) {
+            new JournalRecovery(config, this).run(journal.open());
+        } else {
+            moveWorkFilesToError();
+        }
+    }
+
+    /**
+     * Moves files which were left in the work directory when the Slurper last stopped into the error
+     * directory, apart from resumable copies which had saved a checkpoint, which go back into the
+     * source directory so that they're picked up again and carry on from the checkpoint.
+     */
     public void moveWorkFilesToError() throws IOException, InterruptedException {
         for (FileStatus fs : config.getSrcFs().listStatus(config.getWorkDir())) {
             if (!fs.isDir()) {
@@ -105,13 +276,25 @@ public class FileSystemManager {
                     continue;
                 }
 
+                if (config.isResumable() && TransferCheckpoint.exists(config.getSrcFs(), fs.getPath())) {
+                    log.info("Found interrupted copy in work directory, it will be resumed");
+                    if (returnWorkFile(fs)) {
+                        continue;
+                    }
+                    TransferCheckpoint.delete(config.getSrcFs(), fs.getPath());
+                }
+
                 fileCopyError(fs);
             }
         }
     }
 
+    /**
+     * The staging file for a copy, which is named after the source and destination files so that an
+     * interrupted copy of the same file uses the same staging file, and can be resumed or overwritten.
+     */
     public Path getStagingFile(FileStatus srcFileStatus, Path destFile) {
-        int hash = Math.abs((srcFileStatus.getPath().toString() + destFile.toString()).hashCode() + new Random().nextInt());
-        return new Path(config.getDestStagingDir(), String.valueOf(hash));
+        String hash = MD5Hash.digest(srcFileStatus.getPath().toString() + " " + destFile.toString()).toString();
+        return new Path(config.getDestStagingDir(), hash);
     }
 }
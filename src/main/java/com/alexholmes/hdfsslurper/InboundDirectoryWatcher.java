@@ -0,0 +1,136 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uses Java 7's {@link WatchService} to be notified of files which are created in, or moved into,
+ * a local source directory.  The names of these files are queued up for the worker threads.
+ * <p/>
+ * A {@link #RESCAN} marker is queued when the watcher starts, and whenever the watch service
+ * overflows, to tell the consumer that events may have been lost and a full directory listing
+ * is required.
+ */
+public class InboundDirectoryWatcher extends Thread {
+  private static Log log = LogFactory.getLog(InboundDirectoryWatcher.class);
+
+  /**
+   * Marker which is returned by {@link #poll(long, java.util.concurrent.TimeUnit)} when a full listing of
+   * the directory is required.  A filename can never contain a slash, so this can't clash with a real file.
+   */
+  public static final String RESCAN = "/";
+
+  private final java.nio.file.Path dir;
+  private final WatchService watchService;
+  private final BlockingQueue<String> events = new LinkedBlockingQueue<String>();
+
+  public InboundDirectoryWatcher(Path srcDir) throws IOException {
+    this.dir = new File(srcDir.toUri().getPath()).toPath();
+    this.watchService = FileSystems.getDefault().newWatchService();
+    this.dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+    this.setDaemon(true);
+    this.setName(InboundDirectoryWatcher.class.getSimpleName());
+
+    // we may have missed files which landed before we registered the watch
+    //
+    requestRescan();
+  }
+
+  @Override
+  public void run() {
+    log.info("Watching directory '" + dir + "' for inbound files");
+    try {
+      while (true) {
+        WatchKey key = watchService.take();
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            log.info("Watch service overflowed, falling back to a full directory listing");
+            requestRescan();
+            continue;
+          }
+
+          String name = event.context().toString();
+          if (name.startsWith(".")) {
+            log.debug("Ignoring hidden file '" + name + "'");
+            continue;
+          }
+          events.add(name);
+        }
+
+        if (!key.reset()) {
+          log.error("Watch on directory '" + dir + "' is no longer valid, reverting to polling");
+          requestRescan();
+          break;
+        }
+      }
+    } catch (ClosedWatchServiceException e) {
+      log.info("Watch service closed");
+    } catch (InterruptedException e) {
+      log.warn("Caught interrupted exception, exiting");
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * Waits for the next inbound filename.
+   *
+   * @param timeout how long to wait before giving up
+   * @param unit    the unit of the timeout
+   * @return the name of the inbound file, {@link #RESCAN} if a full directory listing is required,
+   *         or null if the timeout elapsed
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public String poll(long timeout, TimeUnit unit) throws InterruptedException {
+    return events.poll(timeout, unit);
+  }
+
+  /**
+   * The number of events which haven't been taken yet, which is roughly the number of inbound files which
+   * are waiting to be claimed.
+   */
+  public int getPendingEvents() {
+    return events.size();
+  }
+
+  public void requestRescan() {
+    events.add(RESCAN);
+  }
+
+  public void close() {
+    try {
+      watchService.close();
+    } catch (IOException e) {
+      log.warn("Failed to close watch service", e);
+    }
+  }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.MDC;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The single thread which discovers inbound files.  It lists the source directory once, moves a
+ * batch of files into the work directory, and hands them to the worker threads through a bounded
+ * {@link ClaimQueue}, which orders them by the CLAIM_POLICY.  When the queue is full the scanner waits
+ * until it's half empty before claiming the next batch from the same listing, so at most one batch is
+ * ever claimed ahead of the workers, and the directory is only listed again once the files picked out of
+ * the listing are used up.
+ * <p/>
+ * If the source directory is being watched then the scanner only lists the directory on startup
+ * and when the watcher asks for a rescan, otherwise it claims files as their events arrive.
+ */
+public class InboundScanner extends Thread {
+  private static Log log = LogFactory.getLog(InboundScanner.class);
+
+  /**
+   * How many batches are picked out of each listing, so a large listing isn't sorted in full.
+   */
+  private static final int BATCHES_PER_LISTING = 10;
+
+  private final Config config;
+  private final SlurperMetrics metrics;
+  private final Journal journal;
+  private final InboundDirectoryWatcher watcher;
+  private final ClaimQueue claimed;
+  private volatile boolean shuttingDown;
+
+  // what's left of the last listing, in claim order
+  //
+  private Iterator<FileStatus> pendingSmall;
+  private Iterator<FileStatus> pendingLarge;
+  private int pending;
+
+  /**
+   * @param journal records the files which are claimed and returned
+   */
+  public InboundScanner(Config config, SlurperMetrics metrics, Journal journal) throws IOException {
+    this.config = config;
+    this.metrics = metrics;
+    this.journal = journal;
+    this.claimed = new ClaimQueue(config, metrics);
+    if (config.isWatchSrcDir()) {
+      this.watcher = new InboundDirectoryWatcher(config.getSrcDir());
+    } else {
+      this.watcher = null;
+    }
+    this.setDaemon(true);
+    this.setName(InboundScanner.class.getSimpleName());
+  }
+
+  @Override
+  public void run() {
+    if (config.getDatasource() != null) {
+      MDC.put("datasource", config.getDatasource());
+    }
+    if (watcher != null) {
+      watcher.start();
+    }
+    try {
+      while (!shuttingDown && !interrupted()) {
+        try {
+          if (watcher != null && watcher.isAlive()) {
+            waitForEvent();
+          } else if (!scan()) {
+            // the listing was drained, so wait before listing again
+            //
+            TimeUnit.MILLISECONDS.sleep(config.getPollSleepPeriodMillis());
+          }
+        } catch (IOException e) {
+          log.warn("Caught exception scanning for inbound files", e);
+          TimeUnit.MILLISECONDS.sleep(config.getPollSleepPeriodMillis());
+        }
+      }
+    } catch (InterruptedException e) {
+      log.info("Caught interrupted exception, exiting");
+    } finally {
+      if (watcher != null) {
+        watcher.close();
+      }
+    }
+    log.info("Thread exiting");
+  }
+
+  private void waitForEvent() throws IOException, InterruptedException {
+    String name = watcher.poll(config.getPollSleepPeriodMillis(), TimeUnit.MILLISECONDS);
+    if (name == null) {
+      metrics.setBacklog(pending);
+      return;
+    }
+    if (InboundDirectoryWatcher.RESCAN.equals(name)) {
+      // events were dropped, so whatever's left of the last listing may be missing files
+      //
+      pendingSmall = pendingLarge = null;
+      while (scan()) {
+        // keep going until the listing comes up short, at which point the
+        // watcher will tell us about anything new
+      }
+    } else {
+      FileStatus fs;
+      try {
+        fs = config.getSrcFs().getFileStatus(new Path(config.getSrcDir(), name));
+      } catch (FileNotFoundException e) {
+        log.debug("Inbound file '" + name + "' no longer exists, it was probably picked up by a listing");
+        return;
+      }
+      // the files which haven't been claimed yet are the ones whose events are still waiting, including
+      // this one while it waits for room in the claim queue
+      //
+      if (!fs.isDir()) {
+        metrics.setBacklog(pending + watcher.getPendingEvents() + 1);
+        claimed.awaitCapacity(claimed.isSmall(fs));
+        enqueue(claim(fs));
+      }
+      metrics.setBacklog(pending + watcher.getPendingEvents());
+    }
+  }
+
+  /**
+   * Claims up to a batch of files, in claim order, from what's left of the files picked out of the last
+   * listing of the source directory, and only lists the directory again once those have been used up.  With
+   * the MIXED policy up to a batch of small files and a batch of large files are claimed.
+   *
+   * @return true if files were left behind because the batch or the claim queue was full, or because only
+   *         some of the listing was picked
+   */
+  private boolean scan() throws IOException, InterruptedException {
+    claimed.awaitCapacity(Math.max(1, Math.min(config.getClaimBatchSize(), config.getClaimQueueDepth() / 2)));
+
+    if (!hasPending()) {
+      list();
+    }
+
+    int count = 0;
+    count += claimBatch(pendingSmall, Math.min(config.getClaimBatchSize(), claimed.remainingCapacity(true)));
+    count += claimBatch(pendingLarge, Math.min(config.getClaimBatchSize(), claimed.remainingCapacity(false)));
+
+    metrics.setBacklog(pending);
+
+    if (count > 0) {
+      log.info("Claimed " + count + " files, " + pending + " listed files are still to be claimed, " +
+          "claim queue depth is " + claimed.size());
+    }
+    return pending > 0;
+  }
+
+  private boolean hasPending() {
+    return pendingSmall != null && (pendingSmall.hasNext() || pendingLarge.hasNext());
+  }
+
+  /**
+   * Lists the source directory, and picks the first BATCHES_PER_LISTING batches of the files it finds, in
+   * claim order, with a heap which is no bigger than that.  The rest are picked up by the next listing.
+   */
+  private void list() throws IOException {
+    long listStart = System.nanoTime();
+    FileStatus[] listing = config.getSrcFs().listStatus(config.getSrcDir());
+    metrics.record(SlurperMetrics.Stage.LIST, listStart);
+
+    List<FileStatus> small = new ArrayList<FileStatus>();
+    List<FileStatus> large = new ArrayList<FileStatus>();
+    for (FileStatus fs : listing) {
+      if (fs.isDir()) {
+        continue;
+      }
+      if (fs.getPath().getName().startsWith(".")) {
+        log.debug("Ignoring hidden file '" + fs.getPath() + "'");
+        continue;
+      }
+      (claimed.isSmall(fs) ? small : large).add(fs);
+    }
+
+    int max = config.getClaimBatchSize() * BATCHES_PER_LISTING;
+    pendingSmall = claimed.select(small, Math.min(max, small.size())).iterator();
+    pendingLarge = claimed.select(large, Math.min(max, large.size())).iterator();
+    pending = small.size() + large.size();
+  }
+
+  private int claimBatch(Iterator<FileStatus> files, int limit) throws IOException {
+    int count = 0;
+    for (int i = 0; i < limit && files.hasNext(); i++) {
+      FileStatus fs = files.next();
+      pending--;
+      count += enqueue(claim(fs));
+    }
+    return count;
+  }
+
+  private int enqueue(FileStatus fs) {
+    if (fs == null) {
+      return 0;
+    }
+    claimed.add(fs);
+    metrics.setClaimQueueDepth(claimed.size());
+    return 1;
+  }
+
+  /**
+   * Moves a file from the source directory into the work directory.
+   *
+   * @return the status of the file in the work directory, or null if it couldn't be moved
+   */
+  private FileStatus claim(FileStatus fs) throws IOException {
+    // qualified, so that it's journaled under the same path as it's listed under on recovery
+    //
+    Path workPath = config.getSrcFs().makeQualified(new Path(config.getWorkDir(), fs.getPath().getName()));
+    if (!config.getSrcFs().rename(fs.getPath(), workPath)) {
+      log.warn("Failed to move inbound file " + fs.getPath() + " to work file " + workPath);
+      return null;
+    }
+    journal.record(Journal.State.CLAIMED, workPath);
+
+    // a rename doesn't change any of the file's attributes, so save ourselves a round-trip
+    //
+    return new FileStatus(fs.getLen(), fs.isDir(), fs.getReplication(), fs.getBlockSize(),
+        fs.getModificationTime(), workPath);
+  }
+
+  private void unclaim(FileStatus fs) throws IOException {
+    Path srcPath = new Path(config.getSrcDir(), fs.getPath().getName());
+    log.info("Returning unprocessed work file " + fs.getPath() + " to source file " + srcPath);
+    if (!config.getSrcFs().rename(fs.getPath(), srcPath)) {
+      log.warn("Failed to return work file " + fs.getPath() + " to the source directory");
+    } else {
+      journal.record(Journal.State.RETURNED, fs.getPath());
+    }
+  }
+
+  /**
+   * Waits for the next claimed file.
+   *
+   * @param smallOnly only take files which are small enough for the threads reserved by the MIXED policy
+   * @return the claimed file, which has already been moved into the work directory, or null
+   *         if the timeout elapsed
+   */
+  public FileStatus poll(long timeout, TimeUnit unit, boolean smallOnly) throws InterruptedException {
+    FileStatus fs = claimed.poll(timeout, unit, smallOnly);
+    metrics.setClaimQueueDepth(claimed.size());
+    return fs;
+  }
+
+  public int getQueueDepth() {
+    return claimed.size();
+  }
+
+  /**
+   * Stops the scanner, and moves any claimed files which haven't been picked up by a
+   * worker back into the source directory.
+   */
+  public void shutdown() throws InterruptedException, IOException {
+    shuttingDown = true;
+    this.interrupt();
+    this.join();
+
+    for (FileStatus fs : claimed.drain()) {
+      unclaim(fs);
+    }
+  }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An append-only file on local disk which records each claimed file's progress through the copy, so
+ * that a restart knows exactly which files landed.  Every record is a line holding the file's new
+ * {@link State} and its paths, and is flushed to the operating system before the file moves on, so
+ * the journal survives the process being killed.  With JOURNAL_SYNC the records are also synced to disk,
+ * so they survive the machine crashing.
+ * <p/>
+ * The journal is rewritten with only the files which are still in flight whenever it has doubled in
+ * size since it was last rewritten, so it stays small however long the Slurper runs.
+ */
+public class Journal {
+  private static Log log = LogFactory.getLog(Journal.class);
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String NONE = "-";
+  private static final long MIN_COMPACT_BYTES = 16 * 1024 * 1024;
+
+  public enum State {
+    /**
+     * Moved into the work directory.
+     */
+    CLAIMED(false),
+
+    /**
+     * Copied into the staging file.
+     */
+    STAGED(false),
+
+    /**
+     * The staging file was verified against the source file.
+     */
+    VERIFIED(false),
+
+    /**
+     * Moved into the destination, or packed into a committed container.
+     */
+    COMMITTED(false),
+
+    /**
+     * The source file was moved into the complete directory, or removed.
+     */
+    FINALIZED(true),
+
+    /**
+     * The source file was moved into the error directory.
+     */
+    FAILED(true),
+
+    /**
+     * The source file was moved back into the source directory, to be copied again.
+     */
+    RETURNED(true);
+
+    private final boolean terminal;
+
+    State(boolean terminal) {
+      this.terminal = terminal;
+    }
+
+    /**
+     * Whether the file is no longer in flight.
+     */
+    public boolean isTerminal() {
+      return terminal;
+    }
+  }
+
+  /**
+   * The last state recorded for a file.
+   */
+  public static class Entry {
+    private final State state;
+    private final Path src;
+    private final Path staging;
+    private final Path dest;
+
+    public Entry(State state, Path src, Path staging, Path dest) {
+      this.state = state;
+      this.src = src;
+      this.staging = staging;
+      this.dest = dest;
+    }
+
+    public State getState() {
+      return state;
+    }
+
+    public Path getSrc() {
+      return src;
+    }
+
+    /**
+     * The staging file, which is only recorded from {@link State#STAGED} onwards.
+     */
+    public Path getStaging() {
+      return staging;
+    }
+
+    public Path getDest() {
+      return dest;
+    }
+
+    private String toLine() {
+      return state + "\t" + src + "\t" + (staging == null ? NONE : staging) + "\t" +
+          (dest == null ? NONE : dest) + "\n";
+    }
+
+    private static Entry parse(String line) {
+      String[] fields = line.split("\t");
+      if (fields.length != 4) {
+        return null;
+      }
+      try {
+        return new Entry(State.valueOf(fields[0]), new Path(fields[1]),
+            NONE.equals(fields[2]) ? null : new Path(fields[2]),
+            NONE.equals(fields[3]) ? null : new Path(fields[3]));
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+    }
+  }
+
+  private final File file;
+  private final boolean sync;
+  private final Map<Path, Entry> inFlight = new LinkedHashMap<Path, Entry>();
+  private FileOutputStream out;
+  private Writer writer;
+  private long size;
+  private long compactBytes = MIN_COMPACT_BYTES;
+  private boolean closed;
+
+  /**
+   * @param file the journal file, or null if nothing should be journaled
+   * @param sync whether each record is synced to disk
+   */
+  public Journal(File file, boolean sync) {
+    this.file = file;
+    this.sync = sync;
+  }
+
+  public static Journal create(Config config) {
+    if (config.getJournalDir() == null) {
+      return new Journal(null, false);
+    }
+    return new Journal(new File(config.getJournalDir(), config.getDatasource() + ".journal"), config.isJournalSync());
+  }
+
+  public boolean isEnabled() {
+    return file != null;
+  }
+
+  /**
+   * Reads the journal which was left behind when the Slurper last stopped, and opens it for appending.
+   *
+   * @return the last entry for every file which was still in flight, in the order they were claimed
+   */
+  public synchronized List<Entry> open() throws IOException {
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        Entry entry = Entry.parse(line);
+        if (entry == null) {
+          // the last record can be torn if the process died while it was being written
+          //
+          log.warn("Ignoring unreadable journal record '" + line + "'");
+          continue;
+        }
+        track(entry);
+      }
+    } catch (FileNotFoundException e) {
+      // a new journal
+    } finally {
+      IOUtils.closeStream(reader);
+    }
+
+    List<Entry> entries = new ArrayList<Entry>(inFlight.values());
+    compact();
+    return entries;
+  }
+
+  public void record(State state, Path src) {
+    record(state, src, null, null);
+  }
+
+  /**
+   * Records a file's new state.  Failures are logged rather than thrown, since they shouldn't stop the
+   * copy, and only mean the file is treated as unfinished if the Slurper is restarted.
+   *
+   * @throws IllegalStateException if the journal isn't open, or couldn't be reopened after it was rewritten
+   */
+  public synchronized void record(State state, Path src, Path staging, Path dest) {
+    write(Collections.singletonList(new Entry(state, src, staging, dest)));
+  }
+
+  /**
+   * Records the same new state for several files, with a single flush, and a single sync if JOURNAL_SYNC
+   * is enabled.
+   */
+  public synchronized void recordAll(State state, List<Path> srcs) {
+    List<Entry> entries = new ArrayList<Entry>(srcs.size());
+    for (Path src : srcs) {
+      entries.add(new Entry(state, src, null, null));
+    }
+    write(entries);
+  }
+
+  private void write(List<Entry> entries) {
+    if (file == null || entries.isEmpty()) {
+      return;
+    }
+    if (writer == null) {
+      if (!closed) {
+        throw new IllegalStateException("Journal " + file + " isn't open");
+      }
+      log.warn("Journal is closed, not recording " + entries.get(0).getState() + " for " +
+          (entries.size() == 1 ? entries.get(0).getSrc() : entries.size() + " files"));
+      return;
+    }
+    try {
+      for (Entry entry : entries) {
+        String line = entry.toLine();
+        writer.write(line);
+        size += line.length();
+      }
+      writer.flush();
+      if (sync) {
+        out.getFD().sync();
+      }
+      for (Entry entry : entries) {
+        track(entry);
+      }
+    } catch (IOException e) {
+      log.error("Failed to write to journal " + file, e);
+    }
+
+    if (size >= compactBytes) {
+      try {
+        compact();
+      } catch (IOException e) {
+        // the journal is still appended to, it just isn't rewritten until it's doubled in size again
+        //
+        log.error("Failed to compact journal " + file, e);
+        compactBytes = 2 * size;
+      }
+    }
+  }
+
+  private void track(Entry entry) {
+    if (entry.getState().isTerminal()) {
+      inFlight.remove(entry.getSrc());
+    } else {
+      inFlight.put(entry.getSrc(), entry);
+    }
+  }
+
+  /**
+   * Rewrites the journal with just the files which are in flight, and replaces the old journal in a single
+   * rename.  The journal is always reopened for appending, and if it can't be every later record fails,
+   * rather than being dropped.
+   */
+  private void compact() throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    FileOutputStream tmpOut = new FileOutputStream(tmp);
+    long written = 0;
+    try {
+      Writer tmpWriter = new OutputStreamWriter(tmpOut, UTF8);
+      for (Entry entry : inFlight.values()) {
+        String line = entry.toLine();
+        tmpWriter.write(line);
+        written += line.length();
+      }
+      tmpWriter.flush();
+      tmpOut.getFD().sync();
+    } finally {
+      tmpOut.close();
+    }
+
+    closeWriter();
+    try {
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      size = written;
+      compactBytes = Math.max(MIN_COMPACT_BYTES, 2 * written);
+    } finally {
+      out = new FileOutputStream(file, true);
+      writer = new OutputStreamWriter(out, UTF8);
+    }
+  }
+
+  /**
+   * The number of files which are in flight.
+   */
+  public synchronized int getInFlight() {
+    return inFlight.size();
+  }
+
+  public synchronized void close() {
+    closed = true;
+    closeWriter();
+  }
+
+  private void closeWriter() {
+    if (writer != null) {
+      IOUtils.closeStream(writer);
+      writer = null;
+      out = null;
+    }
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import com.hadoop.compression.lzo.LzoIndex;
+import com.hadoop.compression.lzo.LzoIndexer;
+import com.hadoop.compression.lzo.LzopCodec;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.MDC;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Replays the {@link Journal} on startup, and finishes off each file which was in flight when the
+ * Slurper stopped according to how far it got:
+ * <ul>
+ * <li>files which were committed are indexed if LZOP indexing is enabled and the index isn't in place yet,
+ * and are finalized</li>
+ * <li>files which were staged are verified again by comparing the CRC32 of the staging file with
+ * the source, and if they match are committed and finalized without being copied again.  A staging file
+ * which is gone, and whose destination matches the source, was committed just before the process died</li>
+ * <li>everything else is moved back into the source directory to be copied again</li>
+ * </ul>
+ * Files are recovered in parallel on THREADS threads, since each one costs a few round-trips to the
+ * destination, and staged files are read in full.  Files in the work directory which the journal
+ * doesn't know about are moved to the error directory, as they are without a journal.
+ */
+public class JournalRecovery {
+  private static Log log = LogFactory.getLog(JournalRecovery.class);
+
+  public enum Outcome {
+    FINALIZED, COMMITTED, RETURNED, FAILED
+  }
+
+  private final Config config;
+  private final FileSystemManager fileSystemManager;
+  private final Journal journal;
+
+  public JournalRecovery(Config config, FileSystemManager fileSystemManager) {
+    this.config = config;
+    this.fileSystemManager = fileSystemManager;
+    this.journal = fileSystemManager.getJournal();
+  }
+
+  /**
+   * Recovers every file which was in flight.
+   *
+   * @return the number of files with each outcome
+   */
+  public Map<Outcome, Integer> run(List<Journal.Entry> entries) throws IOException, InterruptedException {
+    Set<Path> journaled = new HashSet<Path>();
+    for (Journal.Entry entry : entries) {
+      journaled.add(entry.getSrc());
+    }
+    for (FileStatus fs : config.getSrcFs().listStatus(config.getWorkDir())) {
+      if (!fs.isDir() && !fs.getPath().getName().startsWith(".") && !journaled.contains(fs.getPath())) {
+        fileSystemManager.fileCopyError(fs);
+      }
+    }
+
+    Map<Outcome, Integer> outcomes = new EnumMap<Outcome, Integer>(Outcome.class);
+    for (Outcome outcome : Outcome.values()) {
+      outcomes.put(outcome, 0);
+    }
+    if (entries.isEmpty()) {
+      return outcomes;
+    }
+
+    log.info("Recovering " + entries.size() + " files from the journal");
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, config.getNumThreads()), new ThreadFactory() {
+      private int count;
+
+      @Override
+      public synchronized Thread newThread(Runnable r) {
+        Thread t = new Thread(r, JournalRecovery.class.getSimpleName() + "-" + (++count));
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    try {
+      List<Future<Outcome>> futures = new ArrayList<Future<Outcome>>();
+      for (final Journal.Entry entry : entries) {
+        futures.add(executor.submit(new Callable<Outcome>() {
+          @Override
+          public Outcome call() throws Exception {
+            if (config.getDatasource() != null) {
+              MDC.put("datasource", config.getDatasource());
+            }
+            return recover(entry);
+          }
+        }));
+      }
+      for (Future<Outcome> future : futures) {
+        Outcome outcome;
+        try {
+          outcome = future.get();
+        } catch (ExecutionException e) {
+          log.warn("Failed to recover file", e.getCause());
+          outcome = Outcome.FAILED;
+        }
+        outcomes.put(outcome, outcomes.get(outcome) + 1);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    log.info("Recovered files from the journal: " + outcomes);
+    return outcomes;
+  }
+
+  private Outcome recover(Journal.Entry entry) throws IOException, InterruptedException {
+    FileSystem srcFs = entry.getSrc().getFileSystem(config.getConfig());
+    FileStatus src;
+    try {
+      src = srcFs.getFileStatus(entry.getSrc());
+    } catch (FileNotFoundException e) {
+      // the file was finalized, and the process died before it was recorded
+      //
+      log.info("Source file " + entry.getSrc() + " no longer exists, it was already " +
+          (entry.getState() == Journal.State.COMMITTED ? "finalized" : "moved"));
+      journal.record(Journal.State.FINALIZED, entry.getSrc());
+      return Outcome.FINALIZED;
+    }
+
+    switch (entry.getState()) {
+      case COMMITTED:
+        FileSystem destFs = entry.getDest().getFileSystem(config.getConfig());
+        if (destFs.exists(entry.getDest())) {
+          log.info("File " + src.getPath() + " was committed to " + entry.getDest() + ", finalizing");
+          index(destFs, entry.getStaging(), entry.getDest());
+          return finalize(src);
+        }
+        log.warn("Committed destination " + entry.getDest() + " no longer exists");
+        return redo(src);
+
+      case STAGED:
+      case VERIFIED:
+        if (commitStaged(srcFs, src, entry)) {
+          return finalize(src) == Outcome.FINALIZED ? Outcome.COMMITTED : Outcome.FAILED;
+        }
+        return redo(src);
+
+      default:
+        return redo(src);
+    }
+  }
+
+  private Outcome finalize(FileStatus src) throws IOException {
+    return fileSystemManager.fileCopyComplete(src) ? Outcome.FINALIZED : Outcome.FAILED;
+  }
+
+  /**
+   * Verifies the staging file against the source, and moves it into the destination if it matches.
+   *
+   * @return true if the staging file was committed
+   */
+  private boolean commitStaged(FileSystem srcFs, FileStatus src, Journal.Entry entry) throws IOException {
+    Path staging = entry.getStaging();
+    Path dest = entry.getDest();
+    FileSystem destFs = dest.getFileSystem(config.getConfig());
+    if (!destFs.exists(staging)) {
+      // the process died after the rename, and before the file was recorded as committed
+      //
+      if (isCommitted(srcFs, src, destFs, dest)) {
+        log.info("Staging file " + staging + " was already moved to destination " + dest);
+        index(destFs, staging, dest);
+        journal.record(Journal.State.COMMITTED, src.getPath(), staging, dest);
+        return true;
+      }
+      log.warn("Staging file " + staging + " for " + src.getPath() + " no longer exists");
+      return false;
+    }
+
+    long srcCrc = WorkerThread.hdfsFileCRC32(srcFs, null, src.getPath());
+    long stagingCrc = WorkerThread.hdfsFileCRC32(destFs, config.getCodec(), staging);
+    if (srcCrc != stagingCrc) {
+      log.warn("Staging file " + staging + " doesn't match " + src.getPath() + ", local file is " + srcCrc +
+          " staging file is " + stagingCrc);
+      destFs.delete(staging, false);
+      return false;
+    }
+    journal.record(Journal.State.VERIFIED, src.getPath(), staging, dest);
+
+    log.info("Staging file " + staging + " matches " + src.getPath() + ", moving it to destination " + dest);
+    fileSystemManager.getDirectoryCache().mkdirs(destFs, dest.getParent());
+    if (!destFs.rename(staging, dest)) {
+      if (!destFs.delete(dest, false) || !destFs.rename(staging, dest)) {
+        throw new IOException("Failed to rename " + staging + " to " + dest);
+      }
+    }
+
+    journal.record(Journal.State.COMMITTED, src.getPath(), staging, dest);
+    index(destFs, staging, dest);
+    return true;
+  }
+
+  /**
+   * Whether a staging file which no longer exists was moved into the destination.  An uncompressed file is
+   * checked against the source's length, and a compressed file is decompressed and compared with the source's
+   * CRC32, since its length isn't known.
+   */
+  private boolean isCommitted(FileSystem srcFs, FileStatus src, FileSystem destFs, Path dest) throws IOException {
+    if (!destFs.exists(dest)) {
+      return false;
+    }
+    if (config.getCodec() == null) {
+      return destFs.getFileStatus(dest).getLen() == src.getLen();
+    }
+    return WorkerThread.hdfsFileCRC32(srcFs, null, src.getPath()) ==
+        WorkerThread.hdfsFileCRC32(destFs, config.getCodec(), dest);
+  }
+
+  /**
+   * Makes sure a committed LZOP file is indexed, since the process can die between the rename and the index
+   * being moved into place.  The index which was built as the staging file was written is used if it's
+   * still there, otherwise the file is read back and indexed.
+   */
+  private void index(FileSystem destFs, Path staging, Path dest) throws IOException {
+    if (!config.isCreateLzopIndex() || !dest.getName().endsWith(new LzopCodec().getDefaultExtension())) {
+      return;
+    }
+    Path index = new Path(dest.toString() + LzoIndex.LZO_INDEX_SUFFIX);
+    Path stagingIndex = staging == null ? null : LzoIndexingOutputStream.getStagingIndex(staging);
+    if (isIndexOf(destFs, index, dest)) {
+      if (stagingIndex != null) {
+        destFs.delete(stagingIndex, false);
+      }
+    } else if (stagingIndex != null && isIndexOf(destFs, stagingIndex, dest)) {
+      LzoIndexingOutputStream.commitIndex(destFs, stagingIndex, dest);
+    } else {
+      if (stagingIndex != null) {
+        destFs.delete(stagingIndex, false);
+      }
+      destFs.delete(index, false);
+      new LzoIndexer(config.getConfig()).index(dest);
+    }
+  }
+
+  /**
+   * An index which was built as the staging file was written is written after the staging file was closed,
+   * so one which is older than the file is left over from an earlier attempt.
+   */
+  private static boolean isIndexOf(FileSystem fs, Path index, Path file) throws IOException {
+    return fs.exists(index) &&
+        fs.getFileStatus(index).getModificationTime() >= fs.getFileStatus(file).getModificationTime();
+  }
+
+  /**
+   * Moves a file back into the source directory so that it's copied again, or into the error directory
+   * if it isn't in the work directory, which is the case for files written by a WORK_SCRIPT.
+   */
+  private Outcome redo(FileStatus src) throws IOException, InterruptedException {
+    Path workDir = config.getSrcFs().makeQualified(config.getWorkDir());
+    if (workDir.equals(src.getPath().getParent()) && fileSystemManager.returnWorkFile(src)) {
+      return Outcome.RETURNED;
+    }
+    fileSystemManager.fileCopyError(src);
+    return Outcome.FAILED;
+  }
+}
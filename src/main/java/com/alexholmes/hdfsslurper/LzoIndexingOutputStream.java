@@ -0,0 +1,290 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import com.hadoop.compression.lzo.LzoIndex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IOUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Sits underneath an lzop compression stream and records the offset of every compressed block as it's
+ * written, so that the index which hadoop-lzo's {@code LzoIndexer} would create by reading the file back
+ * can be written straight from memory.  Everything written is passed through unchanged.
+ * <p/>
+ * The lzop framing is followed as it goes past: the header is parsed for the flags which say how many
+ * checksums follow each block's lengths, and the compressed data is skipped over.  If the stream turns out
+ * not to be a well-formed lzop stream then {@link #isComplete()} returns false, and the caller should fall
+ * back to indexing the file from the destination.
+ */
+public class LzoIndexingOutputStream extends FilterOutputStream {
+  private static Log log = LogFactory.getLog(LzoIndexingOutputStream.class);
+
+  private static final byte[] LZOP_MAGIC = {(byte) 0x89, 'L', 'Z', 'O', 0x00, '\r', '\n', 0x1a, '\n'};
+
+  /**
+   * The version from which the header has the version-needed, level and high mtime fields.
+   */
+  private static final int LZOP_FULL_HEADER_VERSION = 0x0940;
+
+  private static final int F_ADLER32_D = 0x00000001;
+  private static final int F_ADLER32_C = 0x00000002;
+  private static final int F_H_EXTRA_FIELD = 0x00000040;
+  private static final int F_CRC32_D = 0x00000100;
+  private static final int F_CRC32_C = 0x00000200;
+  private static final int F_H_FILTER = 0x00000800;
+
+  private enum State {
+    HEADER, BLOCKS, END, INVALID
+  }
+
+  private State state = State.HEADER;
+  private ByteArrayOutputStream header = new ByteArrayOutputStream();
+  private int decompressedChecksums;
+  private int compressedChecksums;
+
+  private long position;
+  private long blockStart;
+  private final byte[] lengths = new byte[8];
+  private int lengthsRead;
+  private long skip;
+
+  private final DataOutputBuffer index = new DataOutputBuffer();
+
+  public LzoIndexingOutputStream(OutputStream out) {
+    super(out);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[]{(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    out.write(b, off, len);
+    scan(b, off, len);
+  }
+
+  /**
+   * Unlike {@link FilterOutputStream#close()}, doesn't swallow an exception from the flush.
+   */
+  @Override
+  public void close() throws IOException {
+    flush();
+    out.close();
+  }
+
+  private void scan(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      int n;
+      switch (state) {
+        case HEADER:
+          n = scanHeader(b, off, len);
+          break;
+        case BLOCKS:
+          n = scanBlocks(b, off, len);
+          break;
+        case END:
+          log.warn("Data written after the end of the lzop stream, the index will be built from the file");
+          state = State.INVALID;
+          return;
+        default:
+          return;
+      }
+      position += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * @return the number of bytes consumed by the header, which is all of them until the header is complete
+   */
+  private int scanHeader(byte[] b, int off, int len) {
+    int buffered = header.size();
+    header.write(b, off, len);
+    int headerLength = parseHeader(header.toByteArray());
+    if (headerLength < 0) {
+      return len;
+    }
+    state = State.BLOCKS;
+    header = null;
+    return headerLength - buffered;
+  }
+
+  /**
+   * Parses the lzop header, and takes note of the checksum flags.
+   *
+   * @return the length of the header, or -1 if more bytes are needed or the header isn't valid, in which
+   *         case the state is set to INVALID
+   */
+  private int parseHeader(byte[] h) {
+    int p = 0;
+    if (h.length < LZOP_MAGIC.length + 2) {
+      return -1;
+    }
+    for (; p < LZOP_MAGIC.length; p++) {
+      if (h[p] != LZOP_MAGIC[p]) {
+        log.warn("Not an lzop stream, the index will be built from the file");
+        state = State.INVALID;
+        return -1;
+      }
+    }
+    int version = readShort(h, p);
+    boolean full = version >= LZOP_FULL_HEADER_VERSION;
+
+    // version, library version, [version needed], method, [level]
+    //
+    p += 2 + 2 + (full ? 2 : 0) + 1 + (full ? 1 : 0);
+    if (h.length < p + 4) {
+      return -1;
+    }
+    int flags = readInt(h, p);
+    p += 4;
+
+    // [filter], mode, mtime, [mtime high]
+    //
+    p += ((flags & F_H_FILTER) != 0 ? 4 : 0) + 4 + 4 + (full ? 4 : 0);
+    if (h.length < p + 1) {
+      return -1;
+    }
+
+    // the file name, and the header checksum
+    //
+    p += 1 + (h[p] & 0xff) + 4;
+    if ((flags & F_H_EXTRA_FIELD) != 0) {
+      if (h.length < p + 4) {
+        return -1;
+      }
+      p += 4 + readInt(h, p) + 4;
+    }
+    if (h.length < p) {
+      return -1;
+    }
+
+    decompressedChecksums = Integer.bitCount(flags & (F_ADLER32_D | F_CRC32_D));
+    compressedChecksums = Integer.bitCount(flags & (F_ADLER32_C | F_CRC32_C));
+    return p;
+  }
+
+  /**
+   * Each block starts with its uncompressed and compressed lengths, followed by checksums of the uncompressed
+   * data, and of the compressed data if it's smaller than the uncompressed data, and then the compressed data.
+   * An uncompressed length of zero marks the end of the stream.
+   *
+   * @return the number of bytes consumed
+   */
+  private int scanBlocks(byte[] b, int off, int len) throws IOException {
+    if (skip > 0) {
+      int n = (int) Math.min(skip, len);
+      skip -= n;
+      return n;
+    }
+
+    if (lengthsRead == 0) {
+      blockStart = position;
+    }
+    int n = Math.min(len, (lengthsRead < 4 ? 4 : 8) - lengthsRead);
+    System.arraycopy(b, off, lengths, lengthsRead, n);
+    lengthsRead += n;
+
+    if (lengthsRead == 4) {
+      int uncompressed = readInt(lengths, 0);
+      if (uncompressed == 0) {
+        state = State.END;
+        lengthsRead = 0;
+      }
+    } else if (lengthsRead == 8) {
+      int uncompressed = readInt(lengths, 0);
+      int compressed = readInt(lengths, 4);
+      index.writeLong(blockStart);
+      skip = 4L * decompressedChecksums + (compressed < uncompressed ? 4L * compressedChecksums : 0) + compressed;
+      lengthsRead = 0;
+    }
+    return n;
+  }
+
+  private static int readShort(byte[] b, int p) {
+    return ((b[p] & 0xff) << 8) | (b[p + 1] & 0xff);
+  }
+
+  private static int readInt(byte[] b, int p) {
+    return ((b[p] & 0xff) << 24) | ((b[p + 1] & 0xff) << 16) | ((b[p + 2] & 0xff) << 8) | (b[p + 3] & 0xff);
+  }
+
+  /**
+   * @return true if a whole lzop stream, up to and including the end-of-stream marker, was written
+   */
+  public boolean isComplete() {
+    return state == State.END;
+  }
+
+  /**
+   * @return the number of compressed blocks seen so far
+   */
+  public int getBlockCount() {
+    return index.getLength() / 8;
+  }
+
+  /**
+   * Writes the index in the same format as hadoop-lzo's {@code LzoIndexer}, which is the offset of each
+   * block as a long.
+   */
+  public void writeIndex(FileSystem fs, Path path) throws IOException {
+    if (!isComplete()) {
+      throw new IOException("Can't index an incomplete lzop stream");
+    }
+    FSDataOutputStream os = fs.create(path, true);
+    try {
+      os.write(index.getData(), 0, index.getLength());
+      os.close();
+      os = null;
+    } finally {
+      IOUtils.closeStream(os);
+    }
+  }
+
+  /**
+   * @return where the index for a staging file is written, until it's moved next to the destination file
+   */
+  public static Path getStagingIndex(Path stagingFile) {
+    return new Path(stagingFile.toString() + LzoIndex.LZO_INDEX_SUFFIX);
+  }
+
+  /**
+   * Moves a staged index next to the destination file, replacing any existing index.
+   */
+  public static void commitIndex(FileSystem fs, Path stagingIndex, Path destFile) throws IOException {
+    Path destIndex = new Path(destFile.toString() + LzoIndex.LZO_INDEX_SUFFIX);
+    if (fs.delete(destIndex, false)) {
+      log.info("Deleted index file as it already existed");
+    }
+    if (!fs.rename(stagingIndex, destIndex)) {
+      throw new IOException("Failed to rename index file " + stagingIndex + " to " + destIndex);
+    }
+  }
+}
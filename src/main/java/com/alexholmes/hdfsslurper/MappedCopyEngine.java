@@ -0,0 +1,83 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Checksum;
+
+/**
+ * Copies local files by memory-mapping them, so that data is copied straight out of the page cache.
+ * <p/>
+ * Files are mapped in windows rather than all at once, since mappings are only released when they are
+ * garbage collected, and a large file could otherwise exhaust the address space of a 32-bit JVM.
+ */
+public class MappedCopyEngine extends CopyEngine {
+
+  private static final long MIN_WINDOW_SIZE = 64L * 1024 * 1024;
+
+  private final long windowSize;
+
+  public MappedCopyEngine(byte[] buffer) {
+    super(buffer);
+    this.windowSize = Math.max(MIN_WINDOW_SIZE, buffer.length);
+  }
+
+  @Override
+  public Type getType() {
+    return Type.MMAP;
+  }
+
+  @Override
+  public boolean accept(FileSystem srcFs, Path src) {
+    return isLocal(srcFs);
+  }
+
+  @Override
+  protected long doCopy(FileSystem srcFs, Path src, OutputStream out, Checksum checksum) throws IOException {
+    FileInputStream fis = null;
+    long total = 0;
+    try {
+      fis = new FileInputStream(toLocalFile(srcFs, src));
+      FileChannel channel = fis.getChannel();
+      long size = channel.size();
+      for (long position = 0; position < size; position += windowSize) {
+        MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+            Math.min(windowSize, size - position));
+        while (window.hasRemaining()) {
+          int n = Math.min(buffer.length, window.remaining());
+          window.get(buffer, 0, n);
+
+          if (checksum != null) {
+            checksum.update(buffer, 0, n);
+          }
+          out.write(buffer, 0, n);
+          total += n;
+        }
+      }
+    } finally {
+      IOUtils.closeStream(fis);
+    }
+    return total;
+  }
+}
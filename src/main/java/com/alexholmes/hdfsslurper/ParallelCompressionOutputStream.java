@@ -0,0 +1,240 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alexholmes.hdfsslurper;
+
+import com.hadoop.compression.lzo.LzopCodec;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Compresses data on several cores by splitting it into fixed-size blocks which are compressed
+ * independently on a shared {@link ForkJoinPool}, in the same way as pigz.  Compressed blocks are
+ * written out in order, and the number of blocks in flight is bounded so that memory use doesn't
+ * depend on how fast the destination is.
+ * <p/>
+ * The output is a single stream which the codec's own input stream can read:
+ * <ul>
+ * <li>For LZOP every block is compressed as a complete lzop stream, and the header and end-of-stream
+ * marker are stripped from all of them, so the blocks join into one lzop file which can be indexed.</li>
+ * <li>For other codecs the blocks are concatenated, which is only valid for codecs whose input stream
+ * reads concatenated members, such as gzip, see {@link CompressionStreamFactory}.</li>
+ * </ul>
+ */
+public class ParallelCompressionOutputStream extends CompressionOutputStream {
+
+  /**
+   * The size of the end-of-stream marker which terminates an lzop stream.
+   */
+  private static final int LZOP_TRAILER_LENGTH = 4;
+
+  private static ForkJoinPool sharedPool;
+
+  private final CompressionCodec codec;
+  private final ForkJoinPool pool;
+  private final int blockSize;
+  private final int maxInFlight;
+  private final boolean lzop;
+  private final int lzopHeaderLength;
+  private final Deque<Future<byte[]>> inFlight = new ArrayDeque<Future<byte[]>>();
+  private final BlockingQueue<byte[]> freeBlocks;
+  private byte[] block;
+  private int blockLength;
+  private boolean headerWritten;
+  private boolean empty = true;
+  private boolean finished;
+
+  public ParallelCompressionOutputStream(OutputStream out, CompressionCodec codec, int threads, int blockSize)
+      throws IOException {
+    super(out);
+    this.codec = codec;
+    this.pool = getSharedPool(threads);
+    this.blockSize = blockSize;
+    this.maxInFlight = threads * 2;
+    this.freeBlocks = new ArrayBlockingQueue<byte[]>(maxInFlight + 1);
+    this.lzop = codec instanceof LzopCodec;
+
+    // an empty lzop stream consists of just the header and the end-of-stream marker
+    //
+    this.lzopHeaderLength = lzop ? compress(codec, new byte[0], 0).length - LZOP_TRAILER_LENGTH : 0;
+  }
+
+  /**
+   * All the streams share a single pool, so that the number of threads compressing across all the
+   * workers is bounded.  The pool is sized by the first caller.
+   */
+  private static synchronized ForkJoinPool getSharedPool(int threads) {
+    if (sharedPool == null) {
+      sharedPool = new ForkJoinPool(threads);
+    }
+    return sharedPool;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[]{(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      if (block == null) {
+        block = freeBlocks.poll();
+        if (block == null) {
+          block = new byte[blockSize];
+        }
+      }
+      int n = Math.min(len, blockSize - blockLength);
+      System.arraycopy(b, off, block, blockLength, n);
+      blockLength += n;
+      off += n;
+      len -= n;
+
+      if (blockLength == blockSize) {
+        submitBlock();
+      }
+    }
+  }
+
+  private void submitBlock() throws IOException {
+    while (inFlight.size() >= maxInFlight) {
+      writeCompressed(inFlight.removeFirst());
+    }
+
+    final byte[] data = block == null ? new byte[0] : block;
+    final int length = blockLength;
+    block = null;
+    blockLength = 0;
+    empty = false;
+
+    inFlight.addLast(pool.submit(new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws IOException {
+        try {
+          return compress(codec, data, length);
+        } finally {
+          if (data.length == blockSize) {
+            freeBlocks.offer(data);
+          }
+        }
+      }
+    }));
+  }
+
+  private static byte[] compress(CompressionCodec codec, byte[] data, int length) throws IOException {
+    Compressor compressor = CodecPool.getCompressor(codec);
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream(length / 2 + 64);
+      CompressionOutputStream cos = codec.createOutputStream(bos, compressor);
+      cos.write(data, 0, length);
+      cos.close();
+      return bos.toByteArray();
+    } finally {
+      CodecPool.returnCompressor(compressor);
+    }
+  }
+
+  private void writeCompressed(Future<byte[]> future) throws IOException {
+    byte[] compressed;
+    try {
+      compressed = future.get();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while waiting for block compression");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Block compression failed", e.getCause());
+    }
+
+    if (!lzop) {
+      out.write(compressed);
+      return;
+    }
+    if (!headerWritten) {
+      out.write(compressed, 0, lzopHeaderLength);
+      headerWritten = true;
+    }
+    out.write(compressed, lzopHeaderLength, compressed.length - lzopHeaderLength - LZOP_TRAILER_LENGTH);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    // a partial block is only compressed once it's full, or the stream is finished
+    //
+    while (!inFlight.isEmpty()) {
+      writeCompressed(inFlight.removeFirst());
+    }
+    out.flush();
+  }
+
+  @Override
+  public void finish() throws IOException {
+    if (finished) {
+      return;
+    }
+    // an empty input still needs to produce a valid, empty, compressed stream
+    //
+    if (blockLength > 0 || empty) {
+      submitBlock();
+    }
+    while (!inFlight.isEmpty()) {
+      writeCompressed(inFlight.removeFirst());
+    }
+    if (lzop) {
+      out.write(new byte[LZOP_TRAILER_LENGTH]);
+    }
+    finished = true;
+  }
+
+  @Override
+  public void resetState() throws IOException {
+    block = null;
+    blockLength = 0;
+    headerWritten = false;
+    empty = true;
+    finished = false;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      finish();
+    } finally {
+      // discard any blocks still being compressed if the stream failed
+      //
+      for (Future<byte[]> future : inFlight) {
+        future.cancel(false);
+      }
+      inFlight.clear();
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+/**
+ * Copies a single large file out of HDFS onto local disk by reading its blocks in parallel, so that
+ * an export is no longer limited to the speed of reading from one DataNode at a time.
+ * <p/>
+ * The file is opened once, and each range is fetched with a positional read on the shared stream,
+ * which HDFS allows from many threads at once.  The ranges never cross a block boundary, and they're
+ * handed out in turn from the DataNodes which hold each block, so the reads which run at the same time
+ * are spread across the cluster.  The staging file is sized up front, and each range is written at its
+ * own offset through a {@link FileChannel}.
+ */
+public class ParallelExporter {
+  private static Log log = LogFactory.getLog(ParallelExporter.class);
+
+  private final Config config;
+  private final Throttler throttler;
+  private final ExecutorService executor;
+
+  /**
+   * @param throttler limits the bandwidth used to write the ranges, can be null
+   */
+  public ParallelExporter(Config config, final String threadName, Throttler throttler) {
+    this.config = config;
+    this.throttler = throttler;
+    this.executor = Executors.newFixedThreadPool(config.getExportThreads(), new ThreadFactory() {
+      private int count;
+
+      @Override
+      public synchronized Thread newThread(Runnable r) {
+        Thread t = new Thread(r, threadName + "-export-" + (++count));
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Determines whether a file should be exported in parallel.  Only uncompressed copies from a remote
+   * file system onto local disk of files which are at least {@link Config#getExportThreshold()} bytes
+   * are.
+   */
+  public boolean accept(FileStatus srcFileStatus, FileSystem srcFs, FileSystem destFs) {
+    return config.getCodec() == null &&
+        config.getExportThreshold() > 0 &&
+        config.getExportThreads() > 1 &&
+        srcFileStatus.getLen() >= config.getExportThreshold() &&
+        !isLocal(srcFs) &&
+        isLocal(destFs);
+  }
+
+  private static boolean isLocal(FileSystem fs) {
+    return "file".equals(fs.getUri().getScheme());
+  }
+
+  /**
+   * Exports the source file into the staging file.
+   *
+   * @param srcFs         the source file system
+   * @param srcFileStatus the source file
+   * @param destFs        the local destination file system
+   * @param stagingFile   the staging file which will contain the entire file once the export completes
+   * @param verify        whether to read each range back and compare its CRC with what was read
+   * @throws IOException          if any of the ranges failed to copy or verify
+   * @throws InterruptedException if the thread was interrupted while waiting for the ranges
+   */
+  public void export(FileSystem srcFs, FileStatus srcFileStatus, FileSystem destFs, Path stagingFile,
+                     boolean verify) throws IOException, InterruptedException {
+    long fileLen = srcFileStatus.getLen();
+    List<Range> ranges = split(srcFs.getFileBlockLocations(srcFileStatus, 0, fileLen), fileLen,
+        config.getExportThreads());
+
+    log.info("Exporting " + fileLen + " bytes in " + ranges.size() + " ranges on " +
+        config.getExportThreads() + " threads");
+
+    // clear out any staging file, and its checksum file, which was left behind by an earlier attempt
+    //
+    destFs.delete(stagingFile, false);
+    File file = new File(stagingFile.toUri().getPath());
+
+    FSDataInputStream in = null;
+    RandomAccessFile raf = null;
+    try {
+      in = srcFs.open(srcFileStatus.getPath());
+      raf = new RandomAccessFile(file, "rw");
+      raf.setLength(fileLen);
+      FileChannel channel = raf.getChannel();
+
+      List<Callable<Void>> copies = new ArrayList<Callable<Void>>();
+      for (Range range : ranges) {
+        copies.add(range.copy(in, channel, destFs, throttler, config.getCopyBufferSize()));
+      }
+      invokeAll(copies);
+
+      if (verify) {
+        List<Callable<Void>> verifies = new ArrayList<Callable<Void>>();
+        for (Range range : ranges) {
+          verifies.add(range.verify(channel, config.getCopyBufferSize()));
+        }
+        invokeAll(verifies);
+      }
+
+      raf.close();
+      raf = null;
+    } finally {
+      IOUtils.closeStream(in);
+      IOUtils.closeStream(raf);
+    }
+  }
+
+  /**
+   * Splits the file into ranges so that every thread has something to read, without any range crossing
+   * a block boundary, and orders them so that consecutive ranges come from different DataNodes where
+   * possible.
+   */
+  static List<Range> split(BlockLocation[] blocks, long fileLen, int threads) throws IOException {
+    long maxRangeLen = Math.max(1, (fileLen + threads - 1) / threads);
+    Map<String, LinkedList<Range>> byHost = new LinkedHashMap<String, LinkedList<Range>>();
+    int count = 0;
+    long covered = 0;
+    for (BlockLocation block : blocks) {
+      String[] hosts = block.getHosts();
+      String host = hosts.length > 0 ? hosts[0] : "";
+      LinkedList<Range> hostRanges = byHost.get(host);
+      if (hostRanges == null) {
+        hostRanges = new LinkedList<Range>();
+        byHost.put(host, hostRanges);
+      }
+      long end = Math.min(block.getOffset() + block.getLength(), fileLen);
+      for (long offset = block.getOffset(); offset < end; offset += maxRangeLen) {
+        hostRanges.add(new Range(offset, Math.min(maxRangeLen, end - offset)));
+        count++;
+      }
+      covered += Math.max(0, end - block.getOffset());
+    }
+    if (covered != fileLen) {
+      throw new IOException("The blocks cover " + covered + " bytes of a " + fileLen + " byte file");
+    }
+
+    List<Range> ranges = new ArrayList<Range>(count);
+    while (ranges.size() < count) {
+      for (LinkedList<Range> hostRanges : byHost.values()) {
+        if (!hostRanges.isEmpty()) {
+          ranges.add(hostRanges.removeFirst());
+        }
+      }
+    }
+    return ranges;
+  }
+
+  private void invokeAll(List<Callable<Void>> tasks) throws IOException, InterruptedException {
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    try {
+      for (Callable<Void> task : tasks) {
+        futures.add(executor.submit(task));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Range failed", e.getCause());
+    } finally {
+      for (Future<Void> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  static class Range {
+    private final long offset;
+    private final long length;
+    private final CRC32 checksum = new CRC32();
+
+    Range(long offset, long length) {
+      this.offset = offset;
+      this.length = length;
+    }
+
+    long getOffset() {
+      return offset;
+    }
+
+    long getLength() {
+      return length;
+    }
+
+    private Callable<Void> copy(final FSDataInputStream in, final FileChannel channel, final FileSystem destFs,
+                                final Throttler throttler, final int bufferSize) {
+      return new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          OutputStream os = new ChannelRangeOutputStream(channel, offset);
+          if (throttler != null) {
+            os = throttler.wrap(os, destFs);
+          }
+          byte[] buffer = new byte[(int) Math.min(bufferSize, length)];
+          long position = offset;
+          long end = offset + length;
+          while (position < end) {
+            int n = in.read(position, buffer, 0, (int) Math.min(buffer.length, end - position));
+            if (n < 0) {
+              throw new EOFException("Source file ended at offset " + position + ", expected " + end + " bytes");
+            }
+            checksum.update(buffer, 0, n);
+            os.write(buffer, 0, n);
+            position += n;
+          }
+          log.debug("Exported range at offset " + offset + " (" + length + " bytes)");
+          return null;
+        }
+      };
+    }
+
+    private Callable<Void> verify(final FileChannel channel, final int bufferSize) {
+      return new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          CRC32 rangeCrc = new CRC32();
+          ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(bufferSize, length));
+          long position = offset;
+          long end = offset + length;
+          while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+              throw new EOFException("Staging file ended at offset " + position);
+            }
+            rangeCrc.update(buffer.array(), 0, n);
+            position += n;
+          }
+          if (checksum.getValue() != rangeCrc.getValue()) {
+            throw new IOException("CRC's don't match for range at offset " + offset + ", source is " +
+                checksum.getValue() + " local file is " + rangeCrc.getValue());
+          }
+          return null;
+        }
+      };
+    }
+  }
+
+  /**
+   * Writes to a file channel from an offset onwards, leaving the channel's own position alone so that
+   * many ranges can be written at once.
+   */
+  private static class ChannelRangeOutputStream extends OutputStream {
+    private final FileChannel channel;
+    private long position;
+
+    private ChannelRangeOutputStream(FileChannel channel, long position) {
+      this.channel = channel;
+      this.position = position;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+      while (buffer.hasRemaining()) {
+        position += channel.write(buffer, position);
+      }
+    }
+  }
+}
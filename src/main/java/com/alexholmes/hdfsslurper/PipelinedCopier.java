@@ -0,0 +1,265 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Checksum;
+
+/**
+ * Copies and compresses a file in three overlapping stages, so that reading the source, compressing
+ * and writing to the destination all run at the same time:
+ * <pre>
+ *   reader --[raw pipe]--> compressor --[compressed pipe]--> writer
+ * </pre>
+ * The reader and writer run on threads owned by this copier, and the compressor runs on the calling
+ * worker thread.  The stages are connected by {@link BufferPipe}s, so a file is copied at the speed of
+ * its slowest stage, and the time each stage spends waiting on its neighbours is logged to show which
+ * stage that is.
+ */
+public class PipelinedCopier {
+  private static Log log = LogFactory.getLog(PipelinedCopier.class);
+
+  private static final AtomicLong files = new AtomicLong();
+  private static final AtomicLong readStallNanos = new AtomicLong();
+  private static final AtomicLong compressStallNanos = new AtomicLong();
+  private static final AtomicLong writeStallNanos = new AtomicLong();
+
+  private final CompressionStreamFactory compressionStreamFactory;
+  private final BufferPipe rawPipe;
+  private final BufferPipe compressedPipe;
+  private final ExecutorService executor;
+  private volatile long readNanos;
+  private volatile long writeNanos;
+
+  public PipelinedCopier(Config config, CompressionStreamFactory compressionStreamFactory,
+                         final String threadName) {
+    this.compressionStreamFactory = compressionStreamFactory;
+    this.rawPipe = new BufferPipe(config.getPipelineBuffers(), config.getCopyBufferSize());
+    this.compressedPipe = new BufferPipe(config.getPipelineBuffers(), config.getCopyBufferSize());
+    this.executor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+      private int count;
+
+      @Override
+      public synchronized Thread newThread(Runnable r) {
+        Thread t = new Thread(r, threadName + "-pipeline-" + (++count));
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Copies the source file into the output stream, compressing it along the way.  The output stream
+   * isn't closed.
+   *
+   * @param engine   reads the source file, its buffer mustn't be used by the caller until the copy returns
+   * @param srcFs    the source file system
+   * @param src      the source file
+   * @param out      where the compressed data is written
+   * @param checksum updated with every byte which is read from the source, can be null
+   * @return the number of bytes read from the source
+   * @throws IOException if any of the stages fail
+   */
+  public long copy(final CopyEngine engine, final FileSystem srcFs, final Path src, final OutputStream out,
+                   final Checksum checksum) throws IOException {
+    rawPipe.reset();
+    compressedPipe.reset();
+    final long start = System.nanoTime();
+
+    Future<Long> reader = executor.submit(new Callable<Long>() {
+      @Override
+      public Long call() throws IOException {
+        try {
+          long bytes = engine.copy(srcFs, src, rawPipe.getOutputStream(), checksum);
+          rawPipe.getOutputStream().close();
+          readNanos = System.nanoTime() - start;
+          return bytes;
+        } catch (IOException e) {
+          rawPipe.abort(e);
+          throw e;
+        } catch (RuntimeException e) {
+          rawPipe.abort(e);
+          throw e;
+        }
+      }
+    });
+
+    Future<Long> writer = executor.submit(new Callable<Long>() {
+      @Override
+      public Long call() throws IOException {
+        try {
+          long bytes = 0;
+          BufferPipe.Buffer buffer;
+          while ((buffer = compressedPipe.take()) != BufferPipe.EOF) {
+            out.write(buffer.getData(), 0, buffer.getLength());
+            bytes += buffer.getLength();
+            compressedPipe.release(buffer);
+          }
+          writeNanos = System.nanoTime() - start;
+          return bytes;
+        } catch (IOException e) {
+          compressedPipe.abort(e);
+          throw e;
+        } catch (RuntimeException e) {
+          compressedPipe.abort(e);
+          throw e;
+        }
+      }
+    });
+
+    try {
+      compress();
+      long compressNanos = System.nanoTime() - start;
+      long bytesRead = get(reader);
+      long bytesWritten = get(writer);
+      logStalls(bytesRead, bytesWritten, compressNanos);
+      return bytesRead;
+    } catch (IOException e) {
+      rawPipe.abort(e);
+      compressedPipe.abort(e);
+      throw e;
+    } catch (RuntimeException e) {
+      rawPipe.abort(e);
+      compressedPipe.abort(e);
+      throw e;
+    } finally {
+      // wait for both stages to stop, so the pipes and the engine's buffer can safely be reused
+      //
+      await(reader);
+      await(writer);
+    }
+  }
+
+  private void compress() throws IOException {
+    OutputStream cos = compressionStreamFactory.createOutputStream(compressedPipe.getOutputStream());
+    try {
+      BufferPipe.Buffer buffer;
+      while ((buffer = rawPipe.take()) != BufferPipe.EOF) {
+        cos.write(buffer.getData(), 0, buffer.getLength());
+        rawPipe.release(buffer);
+      }
+    } catch (IOException e) {
+      rawPipe.abort(e);
+      throw e;
+    }
+    // closing the codec stream flushes the trailer and closes the compressed pipe
+    //
+    cos.close();
+  }
+
+  private static long get(Future<Long> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while waiting for pipeline stage");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Pipeline stage failed", e.getCause());
+    }
+  }
+
+  private static void await(Future<?> future) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        future.get();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      } catch (ExecutionException e) {
+        break;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void logStalls(long bytesRead, long bytesWritten, long compressNanos) {
+    // the reader waits on the compressor for free buffers, the compressor waits on the reader for data
+    // and on the writer for free buffers, and the writer waits on the compressor for data
+    //
+    long readStall = rawPipe.getProducerStallNanos();
+    long compressStall = rawPipe.getConsumerStallNanos() + compressedPipe.getProducerStallNanos();
+    long writeStall = compressedPipe.getConsumerStallNanos();
+
+    files.incrementAndGet();
+    readStallNanos.addAndGet(readStall);
+    compressStallNanos.addAndGet(compressStall);
+    writeStallNanos.addAndGet(writeStall);
+
+    log.info("Pipeline compressed " + bytesRead + " bytes to " + bytesWritten + " bytes, stalls: read " +
+        TimeUnit.NANOSECONDS.toMillis(readStall) + "ms, compress " +
+        TimeUnit.NANOSECONDS.toMillis(compressStall) + "ms, write " +
+        TimeUnit.NANOSECONDS.toMillis(writeStall) + "ms, bottleneck is " +
+        bottleneck(readNanos - readStall, compressNanos - compressStall, writeNanos - writeStall));
+  }
+
+  /**
+   * The slowest stage is the one which spent the most time working rather than waiting.
+   */
+  private static String bottleneck(long readBusy, long compressBusy, long writeBusy) {
+    if (readBusy >= compressBusy && readBusy >= writeBusy) {
+      return "read";
+    }
+    return compressBusy >= writeBusy ? "compress" : "write";
+  }
+
+  public static long getReadStallNanos() {
+    return readStallNanos.get();
+  }
+
+  public static long getCompressStallNanos() {
+    return compressStallNanos.get();
+  }
+
+  public static long getWriteStallNanos() {
+    return writeStallNanos.get();
+  }
+
+  /**
+   * Logs the total stall time of each stage across all the pipelined copies.
+   */
+  public static void logStats() {
+    if (files.get() > 0) {
+      log.info("Pipeline copied " + files.get() + " files, total stalls: read " +
+          TimeUnit.NANOSECONDS.toMillis(readStallNanos.get()) + "ms, compress " +
+          TimeUnit.NANOSECONDS.toMillis(compressStallNanos.get()) + "ms, write " +
+          TimeUnit.NANOSECONDS.toMillis(writeStallNanos.get()) + "ms");
+    }
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+}
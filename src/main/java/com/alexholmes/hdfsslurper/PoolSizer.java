@@ -0,0 +1,92 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Decides how the number of worker threads should change, by hill climbing on the measured bytes
+ * copied per second.  A thread is added while files are waiting and the backlog isn't shrinking, and
+ * is kept as long as it raised throughput by at least {@link #MIN_GAIN}.  A thread which didn't help
+ * is retired, and the sizer then holds for a few rounds before probing upwards again, so that it
+ * doesn't keep flapping around the best size.  Threads are also retired when nothing is waiting.
+ */
+public class PoolSizer {
+  private static Log log = LogFactory.getLog(PoolSizer.class);
+
+  static final double MIN_GAIN = 0.05;
+  static final int HOLD_ROUNDS = 5;
+
+  private final int minThreads;
+  private final int maxThreads;
+  private int lastStep;
+  private double lastBytesPerSecond = -1;
+  private long lastBacklog;
+  private int hold;
+
+  public PoolSizer(int minThreads, int maxThreads) {
+    this.minThreads = minThreads;
+    this.maxThreads = maxThreads;
+  }
+
+  /**
+   * Called once per adjustment period with what was measured over that period.
+   *
+   * @param threads        the current number of threads
+   * @param backlog        the number of files waiting to be copied
+   * @param bytesPerSecond the throughput since the last call
+   * @return the number of threads to add, or remove if negative
+   */
+  public int adjust(int threads, long backlog, double bytesPerSecond) {
+    int step;
+    String reason;
+    if (backlog == 0) {
+      step = -1;
+      reason = "nothing is waiting";
+    } else if (lastStep > 0 && bytesPerSecond < lastBytesPerSecond * (1 + MIN_GAIN)) {
+      step = -1;
+      hold = HOLD_ROUNDS;
+      reason = "the last thread added didn't raise throughput";
+    } else if (lastStep < 0 && bytesPerSecond < lastBytesPerSecond * (1 - MIN_GAIN)) {
+      step = 1;
+      hold = HOLD_ROUNDS;
+      reason = "throughput dropped after retiring a thread";
+    } else if (hold > 0) {
+      hold--;
+      step = 0;
+      reason = "holding";
+    } else if (backlog >= lastBacklog) {
+      step = 1;
+      reason = "the backlog isn't shrinking";
+    } else {
+      step = 0;
+      reason = "the backlog is shrinking";
+    }
+
+    step = Math.max(minThreads, Math.min(maxThreads, threads + step)) - threads;
+    if (step != 0) {
+      log.info((step > 0 ? "Adding" : "Retiring") + " a thread, " + reason + " (threads = " + threads +
+          ", backlog = " + backlog + ", bytes/sec = " + (long) bytesPerSecond + ")");
+    }
+
+    lastStep = step;
+    lastBytesPerSecond = bytesPerSecond;
+    lastBacklog = backlog;
+    return step;
+  }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.io.IOUtils;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Copies uncompressed files so that a copy which is interrupted, for example by the process being
+ * killed, can carry on where it left off the next time the file is copied.
+ * <p/>
+ * Every CHECKPOINT_BYTES the staging file is synced and a {@link TransferCheckpoint} is saved with the
+ * number of bytes copied and their CRC32.  When a copy starts and there's a checkpoint for the same
+ * version of the source file, any bytes which reached the staging file after the checkpoint are
+ * compared with the source, and the copy appends to the staging file from the last byte which matched.
+ * The CRC32 of the bytes which were copied before is combined with the CRC32 of the rest, so the whole
+ * file can still be verified without reading the source twice.
+ */
+public class ResumableCopier {
+  private static Log log = LogFactory.getLog(ResumableCopier.class);
+
+  private static final int LEASE_RECOVERY_ATTEMPTS = 60;
+  private static final long LEASE_RECOVERY_SLEEP_MILLIS = 1000;
+
+  private final Config config;
+  private final byte[] buffer;
+  private final Throttler throttler;
+
+  /**
+   * @param buffer    the transfer buffer, which is shared with the thread's other copy engines
+   * @param throttler limits the bandwidth used to write to the destination
+   */
+  public ResumableCopier(Config config, byte[] buffer, Throttler throttler) {
+    this.config = config;
+    this.buffer = buffer;
+    this.throttler = throttler;
+  }
+
+  /**
+   * Only uncompressed copies can be resumed, since a compressed stream can't be appended to.  Files which
+   * are no larger than CHECKPOINT_BYTES never save a checkpoint before they're copied, so they're left to
+   * the normal copy, rather than paying for the checkpoint's round-trips and losing the COPY_ENGINE.
+   */
+  public boolean accept(FileStatus src) {
+    return config.isResumable() && config.getCodec() == null && src.getLen() > config.getCheckpointBytes();
+  }
+
+  /**
+   * Copies the source file into the staging file, resuming an earlier copy if possible.  The checkpoint
+   * is left in place once the copy completes, so that a restart before the staging file is moved to its
+   * destination doesn't have to copy anything, and must be removed with {@link #discard} once the source
+   * file has been dealt with.
+   *
+   * @return the CRC32 of the whole source file
+   */
+  public long copy(FileSystem srcFs, FileStatus src, FileSystem destFs, Path stagingFile)
+      throws IOException, InterruptedException {
+    TransferCheckpoint start = null;
+    TransferCheckpoint saved = TransferCheckpoint.load(srcFs, src.getPath());
+    if (saved != null && saved.matches(src, stagingFile)) {
+      start = resumePoint(srcFs, src, destFs, saved);
+    }
+
+    FSDataOutputStream raw = null;
+    if (start != null) {
+      try {
+        raw = destFs.append(stagingFile);
+        log.info("Resuming copy into staging file '" + stagingFile + "' at offset " + start.getOffset() +
+            " of " + src.getLen());
+      } catch (IOException e) {
+        log.warn("Unable to append to staging file '" + stagingFile + "', starting the copy over", e);
+      }
+    }
+    if (raw == null) {
+      start = new TransferCheckpoint(src, stagingFile, 0, 0);
+      raw = destFs.create(stagingFile, true);
+    }
+
+    FSDataInputStream is = null;
+    OutputStream os = throttler.wrap(raw, destFs);
+    CRC32 crc = new CRC32();
+    long copied = 0;
+    try {
+      is = srcFs.open(src.getPath(), buffer.length);
+      is.seek(start.getOffset());
+
+      long sinceCheckpoint = 0;
+      int n;
+      while ((n = is.read(buffer)) != -1) {
+        crc.update(buffer, 0, n);
+        os.write(buffer, 0, n);
+        copied += n;
+        sinceCheckpoint += n;
+
+        if (sinceCheckpoint >= config.getCheckpointBytes()) {
+          os.flush();
+          raw.hsync();
+          checkpoint(srcFs, src, stagingFile, start, crc, copied);
+          sinceCheckpoint = 0;
+        }
+      }
+      os.close();
+      os = null;
+    } finally {
+      IOUtils.closeStream(is);
+      IOUtils.closeStream(os);
+    }
+
+    long total = start.getOffset() + copied;
+    if (total != src.getLen()) {
+      throw new IOException("File sizes don't match, source = " + src.getLen() + ", dest = " + total);
+    }
+    return checkpoint(srcFs, src, stagingFile, start, crc, copied).getCrc();
+  }
+
+  private TransferCheckpoint checkpoint(FileSystem srcFs, FileStatus src, Path stagingFile, TransferCheckpoint start,
+                                        CRC32 crc, long copied) throws IOException {
+    TransferCheckpoint checkpoint = new TransferCheckpoint(src, stagingFile, start.getOffset() + copied,
+        TransferCheckpoint.crc32Combine(start.getCrc(), crc.getValue(), copied));
+    checkpoint.save(srcFs, src.getPath());
+    return checkpoint;
+  }
+
+  /**
+   * Works out where a copy can carry on from, by comparing whatever reached the staging file after the
+   * checkpoint with the source file.
+   *
+   * @return the checkpoint to resume from, or null if the copy has to start over
+   */
+  private TransferCheckpoint resumePoint(FileSystem srcFs, FileStatus src, FileSystem destFs,
+                                         TransferCheckpoint checkpoint) throws IOException, InterruptedException {
+    Path stagingFile = checkpoint.getStagingFile();
+    if (!recoverLease(destFs, stagingFile)) {
+      log.warn("Unable to recover the lease on staging file '" + stagingFile + "', starting the copy over");
+      return null;
+    }
+
+    long stagingLen;
+    try {
+      stagingLen = destFs.getFileStatus(stagingFile).getLen();
+    } catch (FileNotFoundException e) {
+      log.info("Staging file '" + stagingFile + "' no longer exists, starting the copy over");
+      return null;
+    }
+    if (stagingLen < checkpoint.getOffset() || stagingLen > src.getLen()) {
+      log.warn("Staging file '" + stagingFile + "' is " + stagingLen + " bytes, which doesn't match the checkpoint " +
+          "at " + checkpoint.getOffset() + ", starting the copy over");
+      return null;
+    }
+    if (stagingLen == checkpoint.getOffset()) {
+      return checkpoint;
+    }
+
+    // bytes which were written after the last checkpoint have to match the source before they can be kept
+    //
+    FSDataInputStream srcIn = null;
+    FSDataInputStream stagingIn = null;
+    CRC32 crc = new CRC32();
+    byte[] stagingBuffer = new byte[buffer.length];
+    try {
+      srcIn = srcFs.open(src.getPath(), buffer.length);
+      stagingIn = destFs.open(stagingFile, buffer.length);
+      srcIn.seek(checkpoint.getOffset());
+      stagingIn.seek(checkpoint.getOffset());
+      long remaining = stagingLen - checkpoint.getOffset();
+      while (remaining > 0) {
+        int n = (int) Math.min(buffer.length, remaining);
+        srcIn.readFully(buffer, 0, n);
+        stagingIn.readFully(stagingBuffer, 0, n);
+        if (!rangeEquals(buffer, stagingBuffer, n)) {
+          log.warn("Staging file '" + stagingFile + "' doesn't match the source after offset " +
+              checkpoint.getOffset() + ", starting the copy over");
+          return null;
+        }
+        crc.update(buffer, 0, n);
+        remaining -= n;
+      }
+    } finally {
+      IOUtils.closeStream(srcIn);
+      IOUtils.closeStream(stagingIn);
+    }
+
+    long verified = stagingLen - checkpoint.getOffset();
+    return new TransferCheckpoint(src, stagingFile, stagingLen,
+        TransferCheckpoint.crc32Combine(checkpoint.getCrc(), crc.getValue(), verified));
+  }
+
+  private static boolean rangeEquals(byte[] a, byte[] b, int len) {
+    for (int i = 0; i < len; i++) {
+      if (a[i] != b[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * HDFS files stay open for writing by the process which was killed until their lease expires, and they
+   * can't be appended to until the lease has been recovered.
+   */
+  private static boolean recoverLease(FileSystem fs, Path path) throws IOException, InterruptedException {
+    while (fs instanceof FilterFileSystem) {
+      fs = ((FilterFileSystem) fs).getRawFileSystem();
+    }
+    if (!(fs instanceof DistributedFileSystem)) {
+      return true;
+    }
+    DistributedFileSystem dfs = (DistributedFileSystem) fs;
+    try {
+      for (int i = 0; i < LEASE_RECOVERY_ATTEMPTS; i++) {
+        if (dfs.recoverLease(path)) {
+          return true;
+        }
+        TimeUnit.MILLISECONDS.sleep(LEASE_RECOVERY_SLEEP_MILLIS);
+      }
+    } catch (FileNotFoundException e) {
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Removes the checkpoint for a source file once it's been moved out of the work directory, or has failed.
+   */
+  public static void discard(FileSystem srcFs, Path src) {
+    try {
+      TransferCheckpoint.delete(srcFs, src);
+    } catch (IOException e) {
+      log.warn("Failed to delete checkpoint for " + src, e);
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.util.Progressable;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the calls made to a file system which result in a NameNode RPC when the file system is HDFS.
+ * A new instance wraps the shared destination file system for each file, so that the number of calls
+ * each copy makes can be logged.
+ */
+public class RpcCountingFileSystem extends FilterFileSystem {
+  private final AtomicInteger calls = new AtomicInteger();
+
+  public RpcCountingFileSystem(FileSystem fs) {
+    super(fs);
+  }
+
+  public int getCalls() {
+    return calls.get();
+  }
+
+  @Override
+  public FSDataInputStream open(Path f, int bufferSize) throws IOException {
+    calls.incrementAndGet();
+    return super.open(f, bufferSize);
+  }
+
+  @Override
+  public FSDataOutputStream create(Path f, FsPermission permission, boolean overwrite, int bufferSize,
+                                   short replication, long blockSize, Progressable progress) throws IOException {
+    calls.incrementAndGet();
+    return super.create(f, permission, overwrite, bufferSize, replication, blockSize, progress);
+  }
+
+  @Override
+  public FSDataOutputStream append(Path f, int bufferSize, Progressable progress) throws IOException {
+    calls.incrementAndGet();
+    return super.append(f, bufferSize, progress);
+  }
+
+  @Override
+  public void concat(Path f, Path[] psrcs) throws IOException {
+    calls.incrementAndGet();
+    super.concat(f, psrcs);
+  }
+
+  @Override
+  public boolean rename(Path src, Path dst) throws IOException {
+    calls.incrementAndGet();
+    return super.rename(src, dst);
+  }
+
+  @Override
+  public boolean delete(Path f, boolean recursive) throws IOException {
+    calls.incrementAndGet();
+    return super.delete(f, recursive);
+  }
+
+  @Override
+  public FileStatus[] listStatus(Path f) throws IOException {
+    calls.incrementAndGet();
+    return super.listStatus(f);
+  }
+
+  @Override
+  public boolean mkdirs(Path f, FsPermission permission) throws IOException {
+    calls.incrementAndGet();
+    return super.mkdirs(f, permission);
+  }
+
+  @Override
+  public FileStatus getFileStatus(Path f) throws IOException {
+    calls.incrementAndGet();
+    return super.getFileStatus(f);
+  }
+
+  @Override
+  public FileChecksum getFileChecksum(Path f) throws IOException {
+    calls.incrementAndGet();
+    return super.getFileChecksum(f);
+  }
+}
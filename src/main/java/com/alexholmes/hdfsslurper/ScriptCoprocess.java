@@ -0,0 +1,201 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.IOUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a script as a long-lived co-process, rather than launching it for every file as
+ * {@link ScriptExecutor} does.  Each request is written to the script's standard input as a single
+ * line, and the script must write exactly one line to its standard output for each request, in
+ * order, and flush it.  Several requests can be sent together with {@link #execute(List, long, TimeUnit)}.
+ * <p/>
+ * The script is started on the first request.  If it exits, or a request times out, the script is
+ * killed and the request fails, and a new script is started for the next request.
+ */
+public class ScriptCoprocess {
+  private static Log log = LogFactory.getLog(ScriptCoprocess.class);
+
+  /**
+   * Queued by the stdout reader when the script closes its standard output.
+   */
+  private static final String EOF = new String("EOF");
+
+  private final String script;
+  private final String name;
+  private Process process;
+  private Writer stdin;
+  private BlockingQueue<String> responses;
+  private int starts;
+
+  public ScriptCoprocess(String script, String name) {
+    this.script = script;
+    this.name = name;
+  }
+
+  /**
+   * Sends a single request to the script.
+   *
+   * @return the line the script wrote in response, trimmed
+   * @throws IOException if the script couldn't be started, exited, timed out or responded with a blank line
+   */
+  public String execute(String request, long timeout, TimeUnit timeoutUnit) throws IOException {
+    return execute(Collections.singletonList(request), timeout, timeoutUnit).get(0);
+  }
+
+  /**
+   * Sends a batch of requests to the script in one go, and waits for all the responses.
+   *
+   * @param timeout the timeout for each request, the whole batch can take up to this times the number of requests
+   * @return the responses, in the same order as the requests
+   * @throws IOException if the script couldn't be started, exited, timed out or responded with a blank line
+   */
+  public synchronized List<String> execute(List<String> requests, long timeout, TimeUnit timeoutUnit)
+      throws IOException {
+    ensureStarted();
+
+    try {
+      for (String request : requests) {
+        if (request.indexOf('\n') != -1) {
+          throw new IOException("Requests can't contain newlines: '" + request + "'");
+        }
+        log.debug("Sending '" + request + "' to script '" + script + "'");
+        stdin.write(request);
+        stdin.write('\n');
+      }
+      stdin.flush();
+
+      long deadline = System.nanoTime() + timeoutUnit.toNanos(timeout) * requests.size();
+      List<String> results = new ArrayList<String>(requests.size());
+      for (String request : requests) {
+        String response = responses.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (response == null) {
+          throw new IOException("Timed out waiting for script '" + script + "' to respond to '" + request + "'");
+        }
+        if (response == EOF) {
+          throw new IOException("Script '" + script + "' exited while processing '" + request + "'");
+        }
+        response = StringUtils.trim(response);
+        if (StringUtils.isBlank(response)) {
+          throw new IOException("Received empty stdout from script for '" + request + "'");
+        }
+        results.add(response);
+      }
+      return results;
+    } catch (IOException e) {
+      destroy();
+      throw e;
+    } catch (InterruptedException e) {
+      destroy();
+      throw new InterruptedIOException("Interrupted while waiting for script '" + script + "'");
+    }
+  }
+
+  private void ensureStarted() throws IOException {
+    if (process != null) {
+      try {
+        int exitValue = process.exitValue();
+        log.warn("Script '" + script + "' exited with code " + exitValue + ", restarting it");
+        destroy();
+      } catch (IllegalThreadStateException e) {
+        // still running
+        return;
+      }
+    }
+
+    log.info("Launching co-process script '" + script + "'");
+    process = new ProcessBuilder(Arrays.asList(ScriptExecutor.splitArgs(script))).start();
+    stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), "UTF-8"));
+    responses = new LinkedBlockingQueue<String>();
+    starts++;
+
+    final BufferedReader stdout = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+    final BufferedReader stderr = new BufferedReader(new InputStreamReader(process.getErrorStream(), "UTF-8"));
+    final BlockingQueue<String> queue = responses;
+
+    Thread stdoutReader = new Thread(name + "-script-stdout-" + starts) {
+      @Override
+      public void run() {
+        try {
+          String line;
+          while ((line = stdout.readLine()) != null) {
+            queue.add(line);
+          }
+        } catch (IOException e) {
+          log.debug("Failed to read script stdout", e);
+        } finally {
+          IOUtils.closeStream(stdout);
+          queue.add(EOF);
+        }
+      }
+    };
+
+    Thread stderrReader = new Thread(name + "-script-stderr-" + starts) {
+      @Override
+      public void run() {
+        try {
+          String line;
+          while ((line = stderr.readLine()) != null) {
+            log.warn("Script stderr: " + line);
+          }
+        } catch (IOException e) {
+          log.debug("Failed to read script stderr", e);
+        } finally {
+          IOUtils.closeStream(stderr);
+        }
+      }
+    };
+
+    stdoutReader.setDaemon(true);
+    stderrReader.setDaemon(true);
+    stdoutReader.start();
+    stderrReader.start();
+  }
+
+  private void destroy() {
+    if (process != null) {
+      IOUtils.closeStream(stdin);
+      process.destroy();
+      process = null;
+      stdin = null;
+    }
+  }
+
+  /**
+   * Closes the script's standard input, which tells it to exit, and kills it.
+   */
+  public synchronized void close() {
+    destroy();
+  }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.log4j.MDC;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Packs small files into block-compressed {@link SequenceFile} containers, rather than creating an HDFS
+ * file for each of them.  Each record's key is the inbound path of the file, and the value is the
+ * file's contents.
+ * <p/>
+ * A container is written into the staging directory, and is committed into the destination directory
+ * once it reaches PACK_ROLL_SIZE bytes or is PACK_ROLL_MILLIS old.  The source files stay in the
+ * work directory until their container commits, at which point they are completed, or moved to the
+ * error directory if the container couldn't be committed.  A single packer is shared by all the
+ * worker threads, so that they fill the same container.  A container is swapped for a new one when it's
+ * rolled, and is closed, verified and committed outside the lock, so the other threads carry on packing.
+ */
+public class SequenceFilePacker {
+  private static Log log = LogFactory.getLog(SequenceFilePacker.class);
+
+  private final Config config;
+  private final FileSystemManager fileSystemManager;
+  private final CompressionCodec codec;
+  private final ScheduledExecutorService roller;
+  private final Random random = new Random();
+  private final Text key = new Text();
+  private final BytesWritable value = new BytesWritable();
+  private Container current;
+
+  /**
+   * A container which is being filled or committed, along with the files which were appended to it.
+   */
+  private static class Container {
+    private final FileSystem destFs;
+    private final Path stagingFile;
+    private final SequenceFile.Writer writer;
+    private final long openedMillis = System.currentTimeMillis();
+    private final List<FileStatus> pending = new ArrayList<FileStatus>();
+    private final List<Long> pendingCRCs = new ArrayList<Long>();
+    private long bytesPacked;
+
+    private Container(FileSystem destFs, Path stagingFile, SequenceFile.Writer writer) {
+      this.destFs = destFs;
+      this.stagingFile = stagingFile;
+      this.writer = writer;
+    }
+
+    private void add(FileStatus srcFileStatus, long crc, int length) {
+      pending.add(srcFileStatus);
+      pendingCRCs.add(crc);
+      bytesPacked += length;
+    }
+  }
+
+  public SequenceFilePacker(final Config config, FileSystemManager fileSystemManager) {
+    this.config = config;
+    this.fileSystemManager = fileSystemManager;
+    this.codec = config.getCodec() != null ? config.getCodec() :
+        ReflectionUtils.newInstance(DefaultCodec.class, config.getConfig());
+
+    // roll containers by age even when no more files arrive
+    //
+    this.roller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "SequenceFilePacker-roller");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    long checkMillis = Math.max(1, Math.min(1000, config.getPackRollMillis() / 4));
+    roller.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        if (config.getDatasource() != null) {
+          MDC.put("datasource", config.getDatasource());
+        }
+        try {
+          rollIfExpired();
+        } catch (Throwable t) {
+          log.error("Failed to roll container", t);
+        }
+      }
+    }, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Determines whether a file is small enough to be packed, larger files are copied as usual.
+   */
+  public boolean accept(FileStatus srcFileStatus) {
+    return srcFileStatus.getLen() < config.getPackMaxFileSize();
+  }
+
+  /**
+   * Appends a file to the current container.  The file is completed, or moved to the error directory,
+   * once the container has been committed.
+   *
+   * @throws IOException if the file couldn't be read, in which case the container is unaffected
+   */
+  public void pack(FileSystem srcFs, FileStatus srcFileStatus) throws IOException, InterruptedException {
+    // read the whole file before touching the container, so that a bad file doesn't spoil it
+    //
+    byte[] data = new byte[(int) srcFileStatus.getLen()];
+    FSDataInputStream in = srcFs.open(srcFileStatus.getPath());
+    try {
+      in.readFully(0, data);
+    } finally {
+      IOUtils.closeStream(in);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(data);
+
+    // only the append happens under the lock, a full container is swapped out for a new one and committed
+    // by this thread, so that the other threads can carry on packing into the new container
+    //
+    Container failed = null;
+    Container full = null;
+    try {
+      synchronized (this) {
+        try {
+          if (current == null) {
+            current = open();
+          }
+          key.set(new Path(config.getSrcDir(), srcFileStatus.getPath().getName()).toString());
+          value.set(data, 0, data.length);
+          current.writer.append(key, value);
+        } catch (IOException e) {
+          // the container can't be trusted once an append fails, the caller deals with this file
+          //
+          failed = current;
+          current = null;
+          throw e;
+        }
+        current.add(srcFileStatus, crc.getValue(), data.length);
+
+        if (current.bytesPacked >= config.getPackRollSize()) {
+          full = current;
+          current = null;
+        }
+      }
+    } finally {
+      if (failed != null) {
+        abort(failed);
+      }
+    }
+
+    if (full != null) {
+      try {
+        commit(full);
+      } catch (IOException e) {
+        // already logged, and the container's files, including this one, are in the error directory
+      }
+    }
+  }
+
+  private Container open() throws IOException {
+    FileSystem destFs = config.getDestDir().getFileSystem(config.getConfig());
+    Path stagingFile = new Path(config.getDestStagingDir(), "pack-" + Math.abs(random.nextLong()));
+    fileSystemManager.getDirectoryCache().mkdirs(destFs, stagingFile.getParent());
+
+    SequenceFile.Metadata metadata = new SequenceFile.Metadata();
+    metadata.set(new Text("datasource"), new Text(String.valueOf(config.getDatasource())));
+
+    log.info("Opening container '" + stagingFile + "'");
+    SequenceFile.Writer writer = SequenceFile.createWriter(config.getConfig(),
+        SequenceFile.Writer.file(destFs.makeQualified(stagingFile)),
+        SequenceFile.Writer.keyClass(Text.class),
+        SequenceFile.Writer.valueClass(BytesWritable.class),
+        SequenceFile.Writer.compression(SequenceFile.CompressionType.BLOCK, codec),
+        SequenceFile.Writer.metadata(metadata));
+    return new Container(destFs, stagingFile, writer);
+  }
+
+  private void rollIfExpired() throws IOException, InterruptedException {
+    Container expired;
+    synchronized (this) {
+      if (current == null || System.currentTimeMillis() - current.openedMillis < config.getPackRollMillis()) {
+        return;
+      }
+      expired = current;
+      current = null;
+    }
+    commit(expired);
+  }
+
+  /**
+   * Commits the current container into the destination directory, and then completes all the source
+   * files it contains.  The next file which is packed goes into a new container.
+   */
+  public void roll() throws IOException, InterruptedException {
+    Container rolled;
+    synchronized (this) {
+      rolled = current;
+      current = null;
+    }
+    if (rolled != null) {
+      commit(rolled);
+    }
+  }
+
+  /**
+   * Closes, verifies and renames a container which has been swapped out, so no other thread is using it.
+   */
+  private void commit(Container container) throws IOException, InterruptedException {
+    Path destFile = new Path(config.getDestDir(), container.stagingFile.getName() + ".seq");
+    try {
+      container.writer.close();
+
+      if (config.isVerify()) {
+        verify(container);
+      }
+
+      fileSystemManager.getDirectoryCache().mkdirs(container.destFs, destFile.getParent());
+      log.info("Moving container '" + container.stagingFile + "' with " + container.pending.size() + " files (" +
+          container.bytesPacked + " bytes) to destination '" + destFile + "'");
+      if (!container.destFs.rename(container.stagingFile, destFile)) {
+        throw new IOException("Failed to rename container");
+      }
+    } catch (IOException e) {
+      log.warn("Failed to commit container " + container.stagingFile, e);
+      abort(container);
+      throw e;
+    }
+
+    for (FileStatus srcFileStatus : container.pending) {
+      fileSystemManager.getJournal().record(Journal.State.COMMITTED, srcFileStatus.getPath(), null, destFile);
+    }
+    // the files only count as copied once their container is in the destination, since it can still fail
+    //
+    for (FileStatus srcFileStatus : container.pending) {
+      fileSystemManager.getMetrics().fileCopied(srcFileStatus.getLen());
+      fileSystemManager.getSourceFinalizer().complete(srcFileStatus);
+    }
+  }
+
+  /**
+   * Reads the container back, and checks every record against the CRC of the file which was appended.
+   */
+  private void verify(Container container) throws IOException {
+    log.info("Verifying container '" + container.stagingFile + "'");
+    SequenceFile.Reader reader = new SequenceFile.Reader(config.getConfig(),
+        SequenceFile.Reader.file(container.destFs.makeQualified(container.stagingFile)));
+    try {
+      Text readKey = new Text();
+      BytesWritable readValue = new BytesWritable();
+      List<Long> pendingCRCs = container.pendingCRCs;
+      int record = 0;
+      while (reader.next(readKey, readValue)) {
+        if (record >= pendingCRCs.size()) {
+          throw new IOException("Container has more records than were appended");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(readValue.getBytes(), 0, readValue.getLength());
+        if (crc.getValue() != pendingCRCs.get(record)) {
+          throw new IOException("CRC's don't match for record '" + readKey + "', local file is " +
+              pendingCRCs.get(record) + " container record is " + crc.getValue());
+        }
+        record++;
+      }
+      if (record != pendingCRCs.size()) {
+        throw new IOException("Container has " + record + " records, expected " + pendingCRCs.size());
+      }
+    } finally {
+      IOUtils.closeStream(reader);
+    }
+  }
+
+  private void abort(Container container) throws InterruptedException {
+    IOUtils.closeStream(container.writer);
+    try {
+      container.destFs.delete(container.stagingFile, false);
+    } catch (Throwable t) {
+      log.error("Failed to delete container " + container.stagingFile, t);
+    }
+    for (FileStatus srcFileStatus : container.pending) {
+      fileSystemManager.getMetrics().fileFailed();
+      try {
+        fileSystemManager.getSourceFinalizer().fail(srcFileStatus);
+      } catch (IOException e) {
+        log.error("Failed to move " + srcFileStatus.getPath() + " to the error directory", e);
+      }
+    }
+  }
+
+  /**
+   * Commits the current container, this should be called once the worker threads have stopped.
+   */
+  public void close() throws IOException, InterruptedException {
+    // let a roll which is in progress finish, since containers are committed outside the lock
+    //
+    roller.shutdown();
+    roller.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    roll();
+  }
+}
@@ -24,23 +24,49 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Appender;
+import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
+import org.apache.log4j.RollingFileAppender;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
 
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Slurper extends Configured implements Tool {
   private static Log log = LogFactory.getLog(Slurper.class);
   public static final String ARGS_CONFIG_FILE = "config-file";
   public static final String ARGS_LOG4J_FILE = "log4j-file";
+  public static final String ARGS_CONFIG_DIR = "config-dir";
+  public static final String ARGS_THREADS = "threads";
 
   private Config config;
+  private DatasourceHost host;
+  private FileSystemManager fileSystemManager;
+  private SequenceFilePacker packer;
+  private WorkerPool workerPool;
+
+  public Slurper() {
+  }
+
+  /**
+   * Creates a slurper with a configuration which has already been loaded, so that it can be run
+   * within another process with {@link #start()} and {@link #shutdown()}.
+   */
+  public Slurper(Config config) {
+    this.config = config;
+  }
 
   private void printUsageAndExit(Options options, int exitCode) {
     HelpFormatter formatter = new HelpFormatter();
@@ -61,6 +87,10 @@ public class Slurper extends Configured implements Tool {
     Options options = new Options();
     options.addOption("o", ARGS_CONFIG_FILE, true, "The configuration file (required). ");
     options.addOption("o", ARGS_LOG4J_FILE, true, "The log4j file (required). ");
+    options.addOption("o", ARGS_CONFIG_DIR, true, "A directory of configuration files ending in .conf, one for " +
+        "each datasource, which are all run in this process (instead of " + ARGS_CONFIG_FILE + "). ");
+    options.addOption("o", ARGS_THREADS, true, "The number of threads shared by the datasources in " +
+        ARGS_CONFIG_DIR + ", which defaults to the sum of their THREADS. ");
 
     CommandLine commandLine;
     try {
@@ -73,10 +103,15 @@ public class Slurper extends Configured implements Tool {
     }
 
     String path = commandLine.getOptionValue(ARGS_CONFIG_FILE);
-    if (path == null) {
+    String dir = commandLine.getOptionValue(ARGS_CONFIG_DIR);
+    if (path == null && dir == null) {
       System.err.println("Missing required argument " + ARGS_CONFIG_FILE);
       printUsageAndExit(options, 2);
     }
+    if (path != null && dir != null) {
+      System.err.println("Only one of " + ARGS_CONFIG_FILE + " and " + ARGS_CONFIG_DIR + " can be used");
+      printUsageAndExit(options, 4);
+    }
 
     String log4jPath = commandLine.getOptionValue(ARGS_LOG4J_FILE);
     if (log4jPath == null) {
@@ -86,8 +121,38 @@ public class Slurper extends Configured implements Tool {
 
     System.out.println("Conf = " + getConf());
 
+    List<String> paths = new ArrayList<String>();
+    if (dir != null) {
+      File[] files = new File(dir).listFiles(new FilenameFilter() {
+        @Override
+        public boolean accept(File d, String name) {
+          return name.endsWith(".conf");
+        }
+      });
+      if (files == null || files.length == 0) {
+        printErrorAndExit("No .conf files found in " + dir, 15);
+        return;
+      }
+      Arrays.sort(files);
+      for (File file : files) {
+        paths.add(file.getPath());
+      }
+    } else {
+      paths.add(path);
+    }
+
+    // all the datasources share the same Hadoop configuration, and so the same cached file systems
+    //
+    List<Config> configs = new ArrayList<Config>();
+    Set<String> datasources = new HashSet<String>();
     try {
-      config = Configurator.loadAndVerify(getConf(), path);
+      for (String p : paths) {
+        config = Configurator.loadAndVerify(getConf(), p);
+        if (!datasources.add(config.getDatasource())) {
+          printErrorAndExit("Duplicate DATASOURCE_NAME " + config.getDatasource() + " in " + p, 16);
+        }
+        configs.add(config);
+      }
     } catch (Configurator.MissingRequiredConfigException e) {
       printErrorAndExit("Missing required option in config file: " + e.getKey(), 10);
     } catch (Configurator.MutuallyExclusiveConfigsExist e2) {
@@ -102,7 +167,15 @@ public class Slurper extends Configured implements Tool {
           ", " + e4.getKey2(), 14);
     }
 
-    setupLog4j(log4jPath, config.getDatasource());
+    if (dir != null) {
+      host = new DatasourceHost(configs, Integer.parseInt(commandLine.getOptionValue(ARGS_THREADS, "0")));
+      setupLog4j(log4jPath, new File(dir).getName());
+      for (Config c : configs) {
+        addDatasourceLog(c.getDatasource());
+      }
+    } else {
+      setupLog4j(log4jPath, config.getDatasource());
+    }
   }
 
   private void setupLog4j(String log4jPath, String datasourceName) throws IOException {
@@ -118,20 +191,97 @@ public class Slurper extends Configured implements Tool {
     }
   }
 
-  private void run() throws IOException, InterruptedException {
+  /**
+   * In host mode the log file is named after the config directory, so each datasource also gets its
+   * own log file, which mirrors the "logfile" appender but only has the datasource's events in it.
+   */
+  private void addDatasourceLog(String datasourceName) throws IOException {
+    Appender appender = Logger.getRootLogger().getAppender("logfile");
+    if (!(appender instanceof RollingFileAppender)) {
+      return;
+    }
+    RollingFileAppender template = (RollingFileAppender) appender;
+    RollingFileAppender datasourceLog = new RollingFileAppender(template.getLayout(),
+        new File(new File(template.getFile()).getParentFile(), datasourceName + ".log").getPath());
+    datasourceLog.setName("logfile-" + datasourceName);
+    datasourceLog.setMaximumFileSize(template.getMaximumFileSize());
+    datasourceLog.setMaxBackupIndex(template.getMaxBackupIndex());
+    datasourceLog.addFilter(new DatasourceFilter(datasourceName));
+    Logger.getRootLogger().addAppender(datasourceLog);
+  }
+
+  /**
+   * Only lets through the events which were logged while working on a datasource.
+   */
+  private static class DatasourceFilter extends Filter {
+    private final String datasourceName;
+
+    private DatasourceFilter(String datasourceName) {
+      this.datasourceName = datasourceName;
+    }
+
+    @Override
+    public int decide(LoggingEvent event) {
+      return datasourceName.equals(event.getMDC("datasource")) ? Filter.NEUTRAL : Filter.DENY;
+    }
+  }
+
+  /**
+   * Starts scanning for inbound files and the worker threads which copy them, and returns immediately.
+   */
+  public void start() throws IOException, InterruptedException {
+
+    if (host != null) {
+      host.start();
+      return;
+    }
+
+    fileSystemManager = new FileSystemManager(config);
+
+    log.info("Recovering any files left in the work directory");
+
+    fileSystemManager.recoverWorkFiles();
 
-    FileSystemManager fileSystemManager = new FileSystemManager(config);
+    fileSystemManager.getMetrics().register();
 
-    log.info("Moving any files in work directory to error directory");
+    fileSystemManager.start();
 
-    fileSystemManager.moveWorkFilesToError();
+    packer = config.isPack() ? new SequenceFilePacker(config, fileSystemManager) : null;
 
-    final List<WorkerThread> workerThreads = new ArrayList<WorkerThread>();
-    for (int i = 1; i <= config.getNumThreads(); i++) {
-      WorkerThread t = new WorkerThread(config, fileSystemManager, TimeUnit.MILLISECONDS, i);
-      t.start();
-      workerThreads.add(t);
+    workerPool = new WorkerPool(config, fileSystemManager, packer);
+    workerPool.start();
+  }
+
+  /**
+   * Stops claiming files, and waits for the threads to finish copying the files they're working on.
+   */
+  public void shutdown() throws IOException, InterruptedException {
+    if (host != null) {
+      host.shutdown();
+      CopyEngine.logStats();
+      PipelinedCopier.logStats();
+      return;
+    }
+
+    fileSystemManager.shutdown();
+    workerPool.shutdown();
+    log.info("Threads dead");
+    if (packer != null) {
+      log.info("Committing the last container");
+      packer.close();
     }
+    fileSystemManager.close();
+    CopyEngine.logStats();
+    PipelinedCopier.logStats();
+  }
+
+  public FileSystemManager getFileSystemManager() {
+    return fileSystemManager;
+  }
+
+  private void run() throws IOException, InterruptedException {
+
+    start();
 
     final AtomicBoolean programmaticShutdown = new AtomicBoolean(false);
 
@@ -144,10 +294,7 @@ public class Slurper extends Configured implements Tool {
             log.info("External process signalled JVM shutdown, shutting down threads.");
             log.info("This may take a few minutes until we let the threads complete ");
             log.info("the current file being copied.");
-            for (WorkerThread workerThread : workerThreads) {
-              workerThread.shutdown();
-            }
-            log.info("Threads dead");
+            shutdown();
           }
         } catch (Throwable t) {
           log.error("Hit snag in shutdown hook", t);
@@ -158,8 +305,10 @@ public class Slurper extends Configured implements Tool {
 
     log.info("Running");
 
-    for (WorkerThread workerThread : workerThreads) {
-      workerThread.join();
+    if (host != null) {
+      host.awaitTermination();
+    } else {
+      workerPool.awaitTermination();
     }
     programmaticShutdown.set(true);
   }
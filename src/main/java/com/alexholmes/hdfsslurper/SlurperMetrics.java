@@ -0,0 +1,252 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsInfo;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.Interns;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Slurper's metrics, published through Hadoop metrics2, which also makes them visible over JMX
+ * as {@code Hadoop:service=Slurper,name=Slurper-<datasource>}.  The record is tagged with the
+ * DATASOURCE_NAME.
+ * <p/>
+ * The counters and histograms are updated without allocating or locking, and the rates are
+ * calculated from the counters whenever the metrics system takes a snapshot.
+ */
+public class SlurperMetrics implements MetricsSource {
+
+  /**
+   * The stages that a file goes through, each of which has a latency histogram.
+   */
+  public enum Stage {
+    LIST("List", "Listing the source directory"),
+    SCRIPT("Script", "Running the destination script"),
+    WORK_SCRIPT("WorkScript", "Running the work script"),
+    COPY("Copy", "Copying the file to the staging file"),
+    VERIFY("Verify", "Verifying the staging file"),
+    RENAME("Rename", "Moving the staging file to the destination"),
+    LZO_INDEX("LzoIndex", "Indexing the LZOP destination file"),
+    COMPLETE("Complete", "Moving or removing the source file");
+
+    private final MetricsInfo numOps;
+    private final MetricsInfo avg;
+    private final MetricsInfo p50;
+    private final MetricsInfo p95;
+    private final MetricsInfo p99;
+    private final MetricsInfo max;
+
+    Stage(String name, String description) {
+      this.numOps = Interns.info(name + "NumOps", "Number of times: " + description);
+      this.avg = Interns.info(name + "AvgTimeMillis", "Average time: " + description);
+      this.p50 = Interns.info(name + "P50Millis", "50th percentile time: " + description);
+      this.p95 = Interns.info(name + "P95Millis", "95th percentile time: " + description);
+      this.p99 = Interns.info(name + "P99Millis", "99th percentile time: " + description);
+      this.max = Interns.info(name + "MaxMillis", "Maximum time: " + description);
+    }
+  }
+
+  private static final MetricsInfo RECORD = Interns.info("Slurper", "HDFS File Slurper");
+  private static final MetricsInfo DATASOURCE = Interns.info("Datasource", "The DATASOURCE_NAME");
+  private static final MetricsInfo FILES = Interns.info("FilesCopied", "Files copied");
+  private static final MetricsInfo BYTES = Interns.info("BytesCopied", "Source bytes copied");
+  private static final MetricsInfo DEDUPED = Interns.info("FilesDeduplicated",
+      "Files which had already been copied, and were finalized without copying them again");
+  private static final MetricsInfo ERRORS = Interns.info("Errors", "Files moved to the error directory");
+  private static final MetricsInfo FILES_RATE = Interns.info("FilesPerSecond", "Files copied per second");
+  private static final MetricsInfo BYTES_RATE = Interns.info("BytesPerSecond", "Source bytes copied per second");
+  private static final MetricsInfo IN_FLIGHT = Interns.info("InFlight", "Files currently being copied");
+  private static final MetricsInfo BACKLOG = Interns.info("Backlog", "Files waiting in the source directory");
+  private static final MetricsInfo CLAIM_QUEUE = Interns.info("ClaimQueueDepth",
+      "Files claimed into the work directory, waiting for a worker");
+  private static final MetricsInfo FINALIZE_QUEUE = Interns.info("FinalizeQueueDepth",
+      "Source files waiting to be moved to the complete or error directory");
+  private static final MetricsInfo WORKERS = Interns.info("Workers", "Worker threads");
+  private static final MetricsInfo THROTTLE_WAIT = Interns.info("ThrottleWaitMillis",
+      "Time spent waiting for the bandwidth throttle");
+
+  private final String datasource;
+  private final AtomicLong files = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicLong deduplicated = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicLong backlog = new AtomicLong();
+  private final AtomicInteger claimQueueDepth = new AtomicInteger();
+  private final AtomicInteger finalizeQueueDepth = new AtomicInteger();
+  private final AtomicLong throttleWaitNanos = new AtomicLong();
+  private final AtomicInteger workers = new AtomicInteger();
+  private final Map<Stage, LatencyHistogram> histograms = new EnumMap<Stage, LatencyHistogram>(Stage.class);
+
+  private long lastSnapshotNanos = System.nanoTime();
+  private long lastFiles;
+  private long lastBytes;
+
+  public SlurperMetrics(String datasource) {
+    this.datasource = datasource;
+    for (Stage stage : Stage.values()) {
+      histograms.put(stage, new LatencyHistogram());
+    }
+  }
+
+  /**
+   * Registers the metrics with the process-wide metrics system, which also publishes them over JMX.
+   */
+  public SlurperMetrics register() {
+    DefaultMetricsSystem.initialize("Slurper");
+    DefaultMetricsSystem.instance().register("Slurper-" + datasource, "HDFS File Slurper", this);
+    return this;
+  }
+
+  public void fileCopied(long bytes) {
+    this.files.incrementAndGet();
+    this.bytes.addAndGet(bytes);
+  }
+
+  public void fileDeduplicated() {
+    deduplicated.incrementAndGet();
+  }
+
+  public void fileFailed() {
+    errors.incrementAndGet();
+  }
+
+  public void copyStarted() {
+    inFlight.incrementAndGet();
+  }
+
+  public void copyFinished() {
+    inFlight.decrementAndGet();
+  }
+
+  public void setBacklog(long backlog) {
+    this.backlog.set(backlog);
+  }
+
+  public void setClaimQueueDepth(int depth) {
+    this.claimQueueDepth.set(depth);
+  }
+
+  public void setFinalizeQueueDepth(int depth) {
+    this.finalizeQueueDepth.set(depth);
+  }
+
+  public void setWorkers(int workers) {
+    this.workers.set(workers);
+  }
+
+  public void throttled(long waitNanos) {
+    throttleWaitNanos.addAndGet(waitNanos);
+  }
+
+  public LatencyHistogram getHistogram(Stage stage) {
+    return histograms.get(stage);
+  }
+
+  /**
+   * Records the time a stage took, given its start time from {@link System#nanoTime()}.
+   */
+  public void record(Stage stage, long startNanos) {
+    histograms.get(stage).recordSince(startNanos);
+  }
+
+  public long getFiles() {
+    return files.get();
+  }
+
+  public long getBytes() {
+    return bytes.get();
+  }
+
+  public long getDeduplicated() {
+    return deduplicated.get();
+  }
+
+  public long getErrors() {
+    return errors.get();
+  }
+
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  public long getBacklog() {
+    return backlog.get();
+  }
+
+  public int getClaimQueueDepth() {
+    return claimQueueDepth.get();
+  }
+
+  public int getFinalizeQueueDepth() {
+    return finalizeQueueDepth.get();
+  }
+
+  public int getWorkers() {
+    return workers.get();
+  }
+
+  public long getThrottleWaitNanos() {
+    return throttleWaitNanos.get();
+  }
+
+  @Override
+  public synchronized void getMetrics(MetricsCollector collector, boolean all) {
+    long now = System.nanoTime();
+    long currentFiles = files.get();
+    long currentBytes = bytes.get();
+    double seconds = Math.max(1, now - lastSnapshotNanos) / 1000000000.0;
+    double filesRate = (currentFiles - lastFiles) / seconds;
+    double bytesRate = (currentBytes - lastBytes) / seconds;
+    lastSnapshotNanos = now;
+    lastFiles = currentFiles;
+    lastBytes = currentBytes;
+
+    MetricsRecordBuilder builder = collector.addRecord(RECORD)
+        .setContext("slurper")
+        .tag(DATASOURCE, datasource)
+        .addCounter(FILES, currentFiles)
+        .addCounter(BYTES, currentBytes)
+        .addCounter(DEDUPED, deduplicated.get())
+        .addCounter(ERRORS, errors.get())
+        .addGauge(FILES_RATE, filesRate)
+        .addGauge(BYTES_RATE, bytesRate)
+        .addGauge(IN_FLIGHT, inFlight.get())
+        .addGauge(BACKLOG, backlog.get())
+        .addGauge(CLAIM_QUEUE, claimQueueDepth.get())
+        .addGauge(FINALIZE_QUEUE, finalizeQueueDepth.get())
+        .addGauge(WORKERS, workers.get())
+        .addCounter(THROTTLE_WAIT, throttleWaitNanos.get() / 1000000);
+
+    for (Stage stage : Stage.values()) {
+      LatencyHistogram histogram = histograms.get(stage);
+      builder.addCounter(stage.numOps, histogram.getCount())
+          .addGauge(stage.avg, histogram.getMeanMillis())
+          .addGauge(stage.p50, histogram.getPercentileMillis(50))
+          .addGauge(stage.p95, histogram.getPercentileMillis(95))
+          .addGauge(stage.p99, histogram.getPercentileMillis(99))
+          .addGauge(stage.max, histogram.getMaxMillis());
+    }
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.MDC;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves source files into the complete or error directory once they've been dealt with, or removes them.
+ * <p/>
+ * If FINALIZE_THREADS is set the workers hand their files over and carry on with the next file, rather
+ * than waiting for a round-trip to the source file system for every file.  The finalizer threads take up to
+ * FINALIZE_BATCH_SIZE files off the queue at a time, and journal each batch with a single flush.
+ * <p/>
+ * Files are only handed over once they've been committed to the destination and journaled as such, so a
+ * source file is never finalized before its destination file is in place.  Files which are still queued
+ * when the Slurper dies are left in the work directory, and are finalized when the journal is replayed.
+ * On shutdown the queue is drained before the journal is closed.
+ */
+public class SourceFinalizer {
+  private static Log log = LogFactory.getLog(SourceFinalizer.class);
+
+  private static final long POLL_MILLIS = 100;
+
+  private final Config config;
+  private final FileSystemManager fileSystemManager;
+  private final Journal journal;
+  private final SlurperMetrics metrics;
+  private final BlockingQueue<Task> queue = new LinkedBlockingQueue<Task>();
+  private final List<Thread> threads = new ArrayList<Thread>();
+  private volatile boolean shuttingDown;
+
+  private static class Task {
+    private final FileStatus fs;
+    private final boolean success;
+
+    private Task(FileStatus fs, boolean success) {
+      this.fs = fs;
+      this.success = success;
+    }
+  }
+
+  public SourceFinalizer(Config config, FileSystemManager fileSystemManager, Journal journal,
+                         SlurperMetrics metrics) {
+    this.config = config;
+    this.fileSystemManager = fileSystemManager;
+    this.journal = journal;
+    this.metrics = metrics;
+  }
+
+  public boolean isAsync() {
+    return config.getFinalizeThreads() > 0;
+  }
+
+  public void start() {
+    for (int i = 0; i < config.getFinalizeThreads(); i++) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          SourceFinalizer.this.run();
+        }
+      }, SourceFinalizer.class.getSimpleName() + "-" + (i + 1));
+      thread.setDaemon(true);
+      thread.start();
+      threads.add(thread);
+    }
+  }
+
+  /**
+   * Finalizes a file which was copied.  Must only be called once the file has been committed to the destination.
+   */
+  public void complete(FileStatus fs) throws IOException {
+    if (isAsync()) {
+      enqueue(new Task(fs, true));
+    } else {
+      fileSystemManager.fileCopyComplete(fs);
+    }
+  }
+
+  /**
+   * Finalizes a file which couldn't be copied.
+   */
+  public void fail(FileStatus fs) throws IOException, InterruptedException {
+    if (isAsync()) {
+      enqueue(new Task(fs, false));
+    } else {
+      fileSystemManager.fileCopyError(fs);
+    }
+  }
+
+  private void enqueue(Task task) {
+    queue.add(task);
+    metrics.setFinalizeQueueDepth(queue.size());
+  }
+
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  /**
+   * Finalizes the files which are still queued, and stops the threads.
+   */
+  public void shutdown() throws InterruptedException {
+    shuttingDown = true;
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    threads.clear();
+  }
+
+  private void run() {
+    if (config.getDatasource() != null) {
+      MDC.put("datasource", config.getDatasource());
+    }
+    List<Task> batch = new ArrayList<Task>(config.getFinalizeBatchSize());
+    try {
+      while (true) {
+        Task task = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (task == null) {
+          if (shuttingDown) {
+            break;
+          }
+          continue;
+        }
+        batch.add(task);
+        queue.drainTo(batch, config.getFinalizeBatchSize() - 1);
+        metrics.setFinalizeQueueDepth(queue.size());
+        finalizeBatch(batch);
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      log.info("Caught interrupted exception, exiting");
+    }
+    log.info("Thread exiting");
+  }
+
+  private void finalizeBatch(List<Task> batch) throws InterruptedException {
+    long start = System.nanoTime();
+
+    // failures are journaled before they're moved, as they are when they're finalized inline
+    //
+    List<Path> failed = new ArrayList<Path>();
+    for (Task task : batch) {
+      if (!task.success) {
+        failed.add(task.fs.getPath());
+      }
+    }
+    journal.recordAll(Journal.State.FAILED, failed);
+
+    List<Path> finalized = new ArrayList<Path>();
+    for (Task task : batch) {
+      try {
+        if (!task.success) {
+          fileSystemManager.moveToError(task.fs);
+        } else if (fileSystemManager.moveToComplete(task.fs)) {
+          finalized.add(task.fs.getPath());
+        }
+      } catch (IOException e) {
+        log.error("Failed to finalize " + task.fs.getPath() + ", it will be left in the work directory", e);
+      }
+    }
+    journal.recordAll(Journal.State.FINALIZED, finalized);
+
+    log.debug("Finalized " + batch.size() + " files in " +
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+  }
+}
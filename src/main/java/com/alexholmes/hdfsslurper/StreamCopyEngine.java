@@ -0,0 +1,65 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Checksum;
+
+/**
+ * Copies by reading the source file system's input stream, which works for any file system.
+ */
+public class StreamCopyEngine extends CopyEngine {
+
+  public StreamCopyEngine(byte[] buffer) {
+    super(buffer);
+  }
+
+  @Override
+  public Type getType() {
+    return Type.STREAM;
+  }
+
+  @Override
+  public boolean accept(FileSystem srcFs, Path src) {
+    return true;
+  }
+
+  @Override
+  protected long doCopy(FileSystem srcFs, Path src, OutputStream out, Checksum checksum) throws IOException {
+    InputStream is = null;
+    long total = 0;
+    try {
+      is = srcFs.open(src, buffer.length);
+      int n;
+      while ((n = is.read(buffer)) != -1) {
+        if (checksum != null) {
+          checksum.update(buffer, 0, n);
+        }
+        out.write(buffer, 0, n);
+        total += n;
+      }
+    } finally {
+      IOUtils.closeStream(is);
+    }
+    return total;
+  }
+}
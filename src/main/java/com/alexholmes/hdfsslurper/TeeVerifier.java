@@ -0,0 +1,242 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.compress.CompressionCodec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Verifies a compressed copy as it's written, rather than reading the staged file back once the copy is done.
+ * The compressed bytes on their way to the destination are teed into a {@link BufferPipe}, and a thread
+ * owned by the verifier decompresses them with the codec and calculates the CRC32 of the result.  Once the
+ * teed stream is closed the CRC32 is ready to be compared with the source's, which proves that the
+ * compressed data round-trips through the codec.
+ * <p/>
+ * The writer only waits on the verifier when all the pipe's buffers are full, and that time is logged, so
+ * decompression which is slower than the destination shows up as a stall.
+ */
+public class TeeVerifier {
+  private static Log log = LogFactory.getLog(TeeVerifier.class);
+
+  private final CompressionCodec codec;
+  private final BufferPipe pipe;
+  private final ExecutorService executor;
+  private Future<Long> consumer;
+
+  public TeeVerifier(Config config, final String threadName) {
+    this.codec = config.getCodec();
+    this.pipe = new BufferPipe(config.getPipelineBuffers(), config.getCopyBufferSize());
+    this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, threadName + "-verify");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Starts verifying a file.  {@link #finish()} must be called once the returned stream has been closed,
+   * and {@link #cancel()} if the copy fails.
+   *
+   * @param out where the compressed data is written
+   * @return a stream which writes to {@code out}, and also to the verifier
+   */
+  public OutputStream tee(OutputStream out) {
+    cancel();
+    pipe.reset();
+    consumer = executor.submit(new Callable<Long>() {
+      @Override
+      public Long call() throws IOException {
+        try {
+          CRC32 crc = new CRC32();
+          PipeInputStream pis = new PipeInputStream();
+          InputStream in = new CheckedInputStream(codec.createInputStream(pis), crc);
+          org.apache.commons.io.IOUtils.copy(in, new NullOutputStream());
+
+          // anything after the end of the compressed stream wouldn't be read back either, but the
+          // writer mustn't be left waiting for buffers
+          //
+          pis.drain();
+          return crc.getValue();
+        } catch (IOException e) {
+          pipe.abort(e);
+          throw e;
+        } catch (RuntimeException e) {
+          pipe.abort(e);
+          throw e;
+        }
+      }
+    });
+    return new TeeOutputStream(out);
+  }
+
+  /**
+   * Waits for the verifier to catch up with the closed stream.
+   *
+   * @return the CRC32 of the decompressed data
+   * @throws IOException if the data couldn't be decompressed
+   */
+  public long finish() throws IOException {
+    try {
+      long crc = consumer.get();
+      log.info("Verified the compressed output as it was written, the writer waited " +
+          TimeUnit.NANOSECONDS.toMillis(pipe.getProducerStallNanos()) + "ms for the verifier");
+      return crc;
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while waiting for the verifier");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Verifier failed", e.getCause());
+    } finally {
+      consumer = null;
+    }
+  }
+
+  /**
+   * Stops verifying the current file, if there is one, and waits for the verifier to stop so that the
+   * pipe can be reused.
+   */
+  public void cancel() {
+    if (consumer == null) {
+      return;
+    }
+    pipe.abort(new IOException("Verification cancelled"));
+    boolean interrupted = false;
+    while (true) {
+      try {
+        consumer.get();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      } catch (ExecutionException e) {
+        break;
+      }
+    }
+    consumer = null;
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Writes to the destination and the pipe.  The pipe is closed along with the destination, even if
+   * closing the destination fails, so the verifier always sees the end of the data.
+   */
+  private class TeeOutputStream extends OutputStream {
+    private final OutputStream out;
+
+    private TeeOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      pipe.getOutputStream().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        out.close();
+      } finally {
+        pipe.getOutputStream().close();
+      }
+    }
+  }
+
+  /**
+   * Reads the buffers coming out of the pipe.
+   */
+  private class PipeInputStream extends InputStream {
+    private BufferPipe.Buffer current;
+    private int pos;
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      while (current == null || pos == current.getLength()) {
+        if (current == BufferPipe.EOF) {
+          return -1;
+        }
+        if (current != null) {
+          pipe.release(current);
+        }
+        current = pipe.take();
+        pos = 0;
+      }
+      int n = Math.min(len, current.getLength() - pos);
+      System.arraycopy(current.getData(), pos, b, off, n);
+      pos += n;
+      return n;
+    }
+
+    /**
+     * Skips whatever the codec didn't read.
+     */
+    private void drain() throws IOException {
+      while (current != BufferPipe.EOF) {
+        if (current != null) {
+          pipe.release(current);
+        }
+        current = pipe.take();
+      }
+    }
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.util.StringUtils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the bandwidth used to write to the destination, shared by all the worker threads.  There's
+ * a limit for the datasource as a whole, which can change with the time of day, and optional limits
+ * for individual destination file systems.  Writes are throttled in small slices, so that the
+ * traffic is spread out evenly rather than in bursts followed by long sleeps.
+ * <p/>
+ * In host mode the destination file system limits apply to the whole process, so every datasource's
+ * throttler is given the same buckets, see {@link #createDestFsBuckets(Collection)}.
+ */
+public class Throttler {
+  private static Log log = LogFactory.getLog(Throttler.class);
+
+  private static final int SLICE_SIZE = 64 * 1024;
+  private static final long SCHEDULE_CHECK_MILLIS = 10 * 1000;
+
+  private final long defaultBytesPerSecond;
+  private final List<Window> schedule;
+  private final TokenBucket datasourceBucket;
+  private final Map<String, TokenBucket> destFsBuckets;
+  private final SlurperMetrics metrics;
+  private volatile long nextScheduleCheckMillis;
+
+  public Throttler(Config config, SlurperMetrics metrics) {
+    this(config, metrics, createDestFsBuckets(Collections.singletonList(config)));
+  }
+
+  /**
+   * @param destFsBuckets the buckets which limit each destination file system, which may be shared with
+   *                      the throttlers of other datasources
+   */
+  public Throttler(Config config, SlurperMetrics metrics, Map<String, TokenBucket> destFsBuckets) {
+    this.metrics = metrics;
+    this.defaultBytesPerSecond = config.getThrottleBytesPerSec();
+    this.schedule = config.getThrottleSchedule();
+    this.datasourceBucket = new TokenBucket(getScheduledBytesPerSecond(Calendar.getInstance()));
+    this.destFsBuckets = destFsBuckets;
+  }
+
+  /**
+   * Creates a bucket for each destination file system which is limited by any of the configurations.
+   * If they set different limits for the same file system the lowest one is used.
+   */
+  public static Map<String, TokenBucket> createDestFsBuckets(Collection<Config> configs) {
+    Map<String, Long> limits = new HashMap<String, Long>();
+    for (Config config : configs) {
+      for (Map.Entry<String, Long> entry : config.getThrottleDestFsBytesPerSec().entrySet()) {
+        String key = toKey(URI.create(entry.getKey()));
+        Long limit = limits.get(key);
+        if (limit != null && !limit.equals(entry.getValue())) {
+          log.warn("Datasources have different limits for " + key + ", using the lowest");
+        }
+        limits.put(key, limit == null ? entry.getValue() : Math.min(limit, entry.getValue()));
+      }
+    }
+
+    Map<String, TokenBucket> buckets = new HashMap<String, TokenBucket>();
+    for (Map.Entry<String, Long> entry : limits.entrySet()) {
+      buckets.put(entry.getKey(), new TokenBucket(entry.getValue()));
+    }
+    return buckets;
+  }
+
+  public boolean isEnabled() {
+    return defaultBytesPerSecond > 0 || !schedule.isEmpty() || !destFsBuckets.isEmpty();
+  }
+
+  /**
+   * Wraps a stream which writes to the destination file system, or returns it as-is if there's
+   * nothing to throttle.
+   */
+  public OutputStream wrap(OutputStream out, FileSystem destFs) {
+    if (!isEnabled()) {
+      return out;
+    }
+    return new ThrottledOutputStream(out, getDestFsBucket(destFs));
+  }
+
+  /**
+   * The bucket which limits a destination file system, or null if it isn't limited on its own.
+   */
+  TokenBucket getDestFsBucket(FileSystem destFs) {
+    return destFsBuckets.get(toKey(destFs.getUri()));
+  }
+
+  /**
+   * Takes the bytes from the buckets.
+   *
+   * @return how long in nanoseconds the caller needs to wait before writing the bytes
+   */
+  long reserve(TokenBucket destFsBucket, long bytes) {
+    checkSchedule();
+    long waitNanos = datasourceBucket.reserve(bytes);
+    if (destFsBucket != null) {
+      waitNanos = Math.max(waitNanos, destFsBucket.reserve(bytes));
+    }
+    return waitNanos;
+  }
+
+  /**
+   * Waits until the bytes can be written.
+   */
+  void acquire(TokenBucket destFsBucket, long bytes) throws InterruptedIOException {
+    long waitNanos = reserve(destFsBucket, bytes);
+    if (waitNanos > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while throttled");
+      }
+      metrics.throttled(waitNanos);
+    }
+  }
+
+  private void checkSchedule() {
+    long now = System.currentTimeMillis();
+    if (schedule.isEmpty() || now < nextScheduleCheckMillis) {
+      return;
+    }
+    nextScheduleCheckMillis = now + SCHEDULE_CHECK_MILLIS;
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(now);
+    long bytesPerSecond = getScheduledBytesPerSecond(calendar);
+    if (bytesPerSecond != datasourceBucket.getBytesPerSecond()) {
+      log.info("Throttling to " + (bytesPerSecond == 0 ? "unlimited" : bytesPerSecond + " bytes/sec"));
+      datasourceBucket.setBytesPerSecond(bytesPerSecond);
+    }
+  }
+
+  long getScheduledBytesPerSecond(Calendar now) {
+    int minute = now.get(Calendar.HOUR_OF_DAY) * 60 + now.get(Calendar.MINUTE);
+    for (Window window : schedule) {
+      if (window.contains(minute)) {
+        return window.bytesPerSecond;
+      }
+    }
+    return defaultBytesPerSecond;
+  }
+
+  private static String toKey(URI uri) {
+    return uri.getScheme() + "://" + (uri.getAuthority() == null ? "" : uri.getAuthority());
+  }
+
+  /**
+   * A time of day range with its own limit, e.g. "09:00-18:00=10m".  The range can wrap around
+   * midnight, and a limit of 0 is unlimited.
+   */
+  public static class Window {
+    private final int startMinute;
+    private final int endMinute;
+    private final long bytesPerSecond;
+
+    public Window(int startMinute, int endMinute, long bytesPerSecond) {
+      this.startMinute = startMinute;
+      this.endMinute = endMinute;
+      this.bytesPerSecond = bytesPerSecond;
+    }
+
+    boolean contains(int minute) {
+      if (startMinute <= endMinute) {
+        return minute >= startMinute && minute < endMinute;
+      }
+      return minute >= startMinute || minute < endMinute;
+    }
+
+    /**
+     * Parses a comma-separated list of windows.
+     *
+     * @throws IllegalArgumentException if a window isn't in the HH:MM-HH:MM=rate form
+     */
+    public static List<Window> parseList(String value) {
+      List<Window> windows = new ArrayList<Window>();
+      for (String part : value.split(",")) {
+        String[] rangeAndRate = part.trim().split("=");
+        String[] range = rangeAndRate[0].trim().split("-");
+        if (rangeAndRate.length != 2 || range.length != 2) {
+          throw new IllegalArgumentException("Expected HH:MM-HH:MM=rate, got '" + part.trim() + "'");
+        }
+        windows.add(new Window(parseMinute(range[0]), parseMinute(range[1]),
+            StringUtils.TraditionalBinaryPrefix.string2long(rangeAndRate[1].trim())));
+      }
+      return windows;
+    }
+
+    private static int parseMinute(String time) {
+      String[] hoursAndMinutes = time.trim().split(":");
+      int hours = Integer.parseInt(hoursAndMinutes[0]);
+      int minutes = hoursAndMinutes.length > 1 ? Integer.parseInt(hoursAndMinutes[1]) : 0;
+      if (hoursAndMinutes.length > 2 || hours < 0 || hours > 24 || minutes < 0 || minutes > 59) {
+        throw new IllegalArgumentException("Invalid time of day '" + time.trim() + "'");
+      }
+      return hours * 60 + minutes;
+    }
+  }
+
+  private class ThrottledOutputStream extends FilterOutputStream {
+    private final TokenBucket destFsBucket;
+
+    private ThrottledOutputStream(OutputStream out, TokenBucket destFsBucket) {
+      super(out);
+      this.destFsBucket = destFsBucket;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      acquire(destFsBucket, 1);
+      out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        int n = Math.min(len, SLICE_SIZE);
+        acquire(destFsBucket, n);
+        out.write(b, off, n);
+        off += n;
+        len -= n;
+      }
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits a rate of bytes.  Callers reserve bytes and are told how long to wait, and a caller which
+ * takes more than the bucket holds goes into debt which the callers behind it wait for, so each
+ * caller waits in proportion to what it took rather than everyone stalling for a whole refill.
+ * <p/>
+ * The bucket only holds up to a tenth of a second's worth of bytes, so an idle bucket doesn't allow
+ * a large burst.  A rate of 0 means unlimited.
+ */
+public class TokenBucket {
+
+  private static final double BURST_SECONDS = 0.1;
+
+  private long bytesPerSecond;
+  private double available;
+  private long lastRefillNanos = System.nanoTime();
+
+  public TokenBucket(long bytesPerSecond) {
+    setBytesPerSecond(bytesPerSecond);
+  }
+
+  /**
+   * Changes the rate, keeping any debt which has already been taken on.
+   */
+  public synchronized void setBytesPerSecond(long bytesPerSecond) {
+    refill(System.nanoTime());
+    this.bytesPerSecond = bytesPerSecond;
+    available = Math.min(available, getCapacity());
+  }
+
+  public synchronized long getBytesPerSecond() {
+    return bytesPerSecond;
+  }
+
+  /**
+   * Takes bytes from the bucket.
+   *
+   * @return how long in nanoseconds the caller needs to wait before using the bytes
+   */
+  public synchronized long reserve(long bytes) {
+    if (bytesPerSecond <= 0) {
+      return 0;
+    }
+    refill(System.nanoTime());
+    available -= bytes;
+    if (available >= 0) {
+      return 0;
+    }
+    return (long) (-available * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond);
+  }
+
+  private void refill(long now) {
+    if (bytesPerSecond > 0) {
+      available = Math.min(getCapacity(),
+          available + (now - lastRefillNanos) * bytesPerSecond / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+    lastRefillNanos = now;
+  }
+
+  private double getCapacity() {
+    return bytesPerSecond * BURST_SECONDS;
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * How far a resumable copy got, which is saved as a hidden file next to the source file in the work
+ * directory.  A checkpoint records the number of bytes which are durable in the staging file and the
+ * CRC32 of those bytes, along with the length and modification time of the source file, so a
+ * checkpoint for a different version of the file is never used.
+ */
+public class TransferCheckpoint {
+  private static Log log = LogFactory.getLog(TransferCheckpoint.class);
+
+  private static final String SUFFIX = ".checkpoint";
+  private static final String STAGING = "staging";
+  private static final String OFFSET = "offset";
+  private static final String CRC = "crc";
+  private static final String SRC_LEN = "srcLen";
+  private static final String SRC_MTIME = "srcMtime";
+
+  private final Path stagingFile;
+  private final long offset;
+  private final long crc;
+  private final long srcLen;
+  private final long srcMtime;
+
+  public TransferCheckpoint(FileStatus src, Path stagingFile, long offset, long crc) {
+    this(stagingFile, offset, crc, src.getLen(), src.getModificationTime());
+  }
+
+  private TransferCheckpoint(Path stagingFile, long offset, long crc, long srcLen, long srcMtime) {
+    this.stagingFile = stagingFile;
+    this.offset = offset;
+    this.crc = crc;
+    this.srcLen = srcLen;
+    this.srcMtime = srcMtime;
+  }
+
+  public Path getStagingFile() {
+    return stagingFile;
+  }
+
+  /**
+   * The number of bytes at the start of the staging file which match the source file.
+   */
+  public long getOffset() {
+    return offset;
+  }
+
+  /**
+   * The CRC32 of the first {@link #getOffset()} bytes of the source file.
+   */
+  public long getCrc() {
+    return crc;
+  }
+
+  /**
+   * Whether this checkpoint was taken while copying this version of the source file into this staging file.
+   */
+  public boolean matches(FileStatus src, Path stagingFile) {
+    return src.getLen() == srcLen && src.getModificationTime() == srcMtime && stagingFile.equals(this.stagingFile);
+  }
+
+  public static Path getPath(Path src) {
+    return new Path(src.getParent(), "." + src.getName() + SUFFIX);
+  }
+
+  public static boolean exists(FileSystem fs, Path src) throws IOException {
+    return fs.exists(getPath(src));
+  }
+
+  /**
+   * Reads the checkpoint for a source file.
+   *
+   * @return the checkpoint, or null if there isn't one or it can't be read
+   */
+  public static TransferCheckpoint load(FileSystem fs, Path src) throws IOException {
+    Properties props = new Properties();
+    InputStream is = null;
+    try {
+      is = fs.open(getPath(src));
+      props.load(is);
+    } catch (FileNotFoundException e) {
+      return null;
+    } finally {
+      IOUtils.closeStream(is);
+    }
+
+    try {
+      return new TransferCheckpoint(new Path(props.getProperty(STAGING)),
+          Long.parseLong(props.getProperty(OFFSET)),
+          Long.parseLong(props.getProperty(CRC)),
+          Long.parseLong(props.getProperty(SRC_LEN)),
+          Long.parseLong(props.getProperty(SRC_MTIME)));
+    } catch (RuntimeException e) {
+      // a checkpoint which was only partly written when the process died
+      //
+      log.warn("Ignoring unreadable checkpoint " + getPath(src) + ": " + e);
+      return null;
+    }
+  }
+
+  /**
+   * Replaces the checkpoint for a source file.  The checkpoint is written to a temporary file which is
+   * then renamed, so a crash never leaves a half-written checkpoint behind.
+   */
+  public void save(FileSystem fs, Path src) throws IOException {
+    Properties props = new Properties();
+    props.setProperty(STAGING, stagingFile.toString());
+    props.setProperty(OFFSET, String.valueOf(offset));
+    props.setProperty(CRC, String.valueOf(crc));
+    props.setProperty(SRC_LEN, String.valueOf(srcLen));
+    props.setProperty(SRC_MTIME, String.valueOf(srcMtime));
+
+    Path path = getPath(src);
+    Path tmp = new Path(path.getParent(), path.getName() + ".tmp");
+    OutputStream os = fs.create(tmp, true);
+    try {
+      props.store(os, null);
+      os.close();
+      os = null;
+    } finally {
+      IOUtils.closeStream(os);
+    }
+    if (!fs.rename(tmp, path)) {
+      fs.delete(path, false);
+      if (!fs.rename(tmp, path)) {
+        throw new IOException("Failed to rename checkpoint " + tmp + " to " + path);
+      }
+    }
+  }
+
+  public static void delete(FileSystem fs, Path src) throws IOException {
+    fs.delete(getPath(src), false);
+  }
+
+  /**
+   * Combines the CRC32 of two consecutive ranges of bytes into the CRC32 of the whole, without the
+   * bytes of either range.  This is zlib's crc32_combine, which multiplies the first CRC by the
+   * operator for {@code len2} zero bytes over GF(2).
+   *
+   * @param crc1 the CRC32 of the first range
+   * @param crc2 the CRC32 of the second range
+   * @param len2 the length of the second range
+   */
+  public static long crc32Combine(long crc1, long crc2, long len2) {
+    if (len2 <= 0) {
+      return crc1;
+    }
+
+    // the operator for a single zero bit, then for two and four zero bits
+    //
+    long[] odd = new long[32];
+    long[] even = new long[32];
+    odd[0] = 0xedb88320L;
+    long row = 1;
+    for (int n = 1; n < 32; n++) {
+      odd[n] = row;
+      row <<= 1;
+    }
+    gf2MatrixSquare(even, odd);
+    gf2MatrixSquare(odd, even);
+
+    // apply the operator for each set bit of len2, squaring it each time to get the next power of two
+    //
+    do {
+      gf2MatrixSquare(even, odd);
+      if ((len2 & 1) != 0) {
+        crc1 = gf2MatrixTimes(even, crc1);
+      }
+      len2 >>= 1;
+      if (len2 == 0) {
+        break;
+      }
+      gf2MatrixSquare(odd, even);
+      if ((len2 & 1) != 0) {
+        crc1 = gf2MatrixTimes(odd, crc1);
+      }
+      len2 >>= 1;
+    } while (len2 != 0);
+
+    return crc1 ^ crc2;
+  }
+
+  private static long gf2MatrixTimes(long[] mat, long vec) {
+    long sum = 0;
+    for (int i = 0; vec != 0; i++, vec >>>= 1) {
+      if ((vec & 1) != 0) {
+        sum ^= mat[i];
+      }
+    }
+    return sum;
+  }
+
+  private static void gf2MatrixSquare(long[] square, long[] mat) {
+    for (int n = 0; n < 32; n++) {
+      square[n] = gf2MatrixTimes(mat, mat[n]);
+    }
+  }
+}
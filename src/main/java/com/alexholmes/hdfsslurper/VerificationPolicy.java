@@ -0,0 +1,245 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.GlobPattern;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.StringUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Decides how thoroughly each file is verified when the VERIFY option is enabled.  Files are matched against
+ * the VERIFY_RULES in order, by name or by size, and the first rule which matches sets the level, otherwise
+ * the VERIFY_POLICY level is used.  That way critical feeds can be verified in full while bulk logs only get
+ * their sizes checked, or a sample of them is verified.
+ */
+public class VerificationPolicy {
+  private static Log log = LogFactory.getLog(VerificationPolicy.class);
+
+  public enum Level {
+    /**
+     * Verify every byte, in the way set by VERIFY_MODE.
+     */
+    FULL,
+
+    /**
+     * Only check that the staged file is the size it should be.
+     */
+    SIZE,
+
+    /**
+     * Verify a VERIFY_SAMPLE_FRACTION of the files in full, and only check the size of the rest.
+     */
+    SAMPLE,
+
+    /**
+     * Check the size, and compare VERIFY_SPOT_CHECKS random ranges of the staged file with the source.  Byte
+     * ranges can't be compared once the data has been compressed, so compressed files are verified in full.
+     */
+    SPOT
+  }
+
+  private final Config config;
+  private final Random random;
+
+  public VerificationPolicy(Config config) {
+    this(config, new Random());
+  }
+
+  VerificationPolicy(Config config, Random random) {
+    this.config = config;
+    this.random = random;
+  }
+
+  /**
+   * @return how the file should be verified, which is never {@link Level#SAMPLE}, since whether a file
+   *         is in the sample is decided here
+   */
+  public Level choose(FileStatus src) {
+    Level level = config.getVerifyPolicy();
+    for (Rule rule : config.getVerifyRules()) {
+      if (rule.matches(src)) {
+        level = rule.level;
+        break;
+      }
+    }
+
+    if (level == Level.SAMPLE) {
+      level = random.nextDouble() < config.getVerifySampleFraction() ? Level.FULL : Level.SIZE;
+    } else if (level == Level.SPOT && config.getCodec() != null) {
+      level = Level.FULL;
+    }
+    return level;
+  }
+
+  /**
+   * Checks the length of the staged file with the destination, rather than trusting the number of bytes
+   * which were written to it.
+   */
+  public void verifySize(FileSystem destFs, Path staging, long expected) throws IOException {
+    long len = destFs.getFileStatus(staging).getLen();
+    if (len != expected) {
+      throw new IOException("Staging file is " + len + " bytes, expected " + expected);
+    }
+    log.info("Staging file size matches (" + len + ")");
+  }
+
+  /**
+   * Compares random ranges of the staged file with the same ranges of the source, using positional reads.
+   * Files which are no bigger than all the ranges put together are compared in full.
+   */
+  public void verifySpots(FileSystem srcFs, Path src, FileSystem destFs, Path staging, long len)
+      throws IOException {
+    int rangeBytes = (int) Math.min(config.getVerifySpotCheckBytes(), Math.max(len, 1));
+    long[] offsets;
+    if (len <= (long) config.getVerifySpotChecks() * rangeBytes) {
+      offsets = new long[(int) ((len + rangeBytes - 1) / rangeBytes)];
+      for (int i = 0; i < offsets.length; i++) {
+        offsets[i] = (long) i * rangeBytes;
+      }
+    } else {
+      offsets = new long[config.getVerifySpotChecks()];
+      for (int i = 0; i < offsets.length; i++) {
+        offsets[i] = (long) (random.nextDouble() * (len - rangeBytes + 1));
+      }
+      Arrays.sort(offsets);
+    }
+
+    byte[] srcBytes = new byte[rangeBytes];
+    byte[] destBytes = new byte[rangeBytes];
+    FSDataInputStream srcIn = null;
+    FSDataInputStream destIn = null;
+    try {
+      srcIn = srcFs.open(src);
+      destIn = destFs.open(staging);
+      for (long offset : offsets) {
+        int n = (int) Math.min(rangeBytes, len - offset);
+        srcIn.readFully(offset, srcBytes, 0, n);
+        destIn.readFully(offset, destBytes, 0, n);
+        for (int i = 0; i < n; i++) {
+          if (srcBytes[i] != destBytes[i]) {
+            throw new IOException("Staging file differs from the source at offset " + (offset + i));
+          }
+        }
+      }
+    } finally {
+      IOUtils.closeStream(srcIn);
+      IOUtils.closeStream(destIn);
+    }
+    log.info("Spot checked " + offsets.length + " ranges of " + rangeBytes + " bytes");
+  }
+
+  /**
+   * Picks the files a level applies to, either by a glob on the file name, such as "*.csv", or by the file's
+   * size, such as "<1m" or ">=1g".
+   */
+  public static class Rule {
+    private final GlobPattern glob;
+    private final long minBytes;
+    private final long maxBytes;
+    private final Level level;
+
+    private Rule(GlobPattern glob, long minBytes, long maxBytes, Level level) {
+      this.glob = glob;
+      this.minBytes = minBytes;
+      this.maxBytes = maxBytes;
+      this.level = level;
+    }
+
+    public static Rule forName(String glob, Level level) {
+      return new Rule(new GlobPattern(glob), 0, Long.MAX_VALUE, level);
+    }
+
+    /**
+     * @param minBytes the smallest size which matches
+     * @param maxBytes the largest size which matches
+     */
+    public static Rule forSize(long minBytes, long maxBytes, Level level) {
+      return new Rule(null, minBytes, maxBytes, level);
+    }
+
+    boolean matches(FileStatus fs) {
+      if (glob != null) {
+        return glob.matches(fs.getPath().getName());
+      }
+      return fs.getLen() >= minBytes && fs.getLen() <= maxBytes;
+    }
+
+    public Level getLevel() {
+      return level;
+    }
+
+    /**
+     * Parses a comma-separated list of rules, e.g. "*.csv=FULL, >=1g=SPOT, <1m=SAMPLE".
+     *
+     * @throws IllegalArgumentException if a rule isn't in the pattern=level form
+     */
+    public static List<Rule> parseList(String value) {
+      List<Rule> rules = new ArrayList<Rule>();
+      for (String part : value.split(",")) {
+        int idx = part.lastIndexOf('=');
+        if (idx <= 0) {
+          throw new IllegalArgumentException("Expected pattern=level, got '" + part.trim() + "'");
+        }
+        String pattern = part.substring(0, idx).trim();
+        Level level;
+        try {
+          level = Level.valueOf(part.substring(idx + 1).trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+          throw new IllegalArgumentException("Invalid level in '" + part.trim() + "', valid levels are " +
+              Arrays.toString(Level.values()));
+        }
+        rules.add(parse(pattern, level));
+      }
+      return rules;
+    }
+
+    private static Rule parse(String pattern, Level level) {
+      // a size rule's '=' belongs to the comparison, so ">=1g=SPOT" is split at the last '='
+      //
+      if (pattern.startsWith(">=")) {
+        return forSize(parseBytes(pattern.substring(2)), Long.MAX_VALUE, level);
+      } else if (pattern.startsWith(">")) {
+        return forSize(parseBytes(pattern.substring(1)) + 1, Long.MAX_VALUE, level);
+      } else if (pattern.startsWith("<=")) {
+        return forSize(0, parseBytes(pattern.substring(2)), level);
+      } else if (pattern.startsWith("<")) {
+        return forSize(0, parseBytes(pattern.substring(1)) - 1, level);
+      }
+      return forName(pattern, level);
+    }
+
+    private static long parseBytes(String size) {
+      try {
+        return StringUtils.TraditionalBinaryPrefix.string2long(size.trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid size '" + size.trim() + "'");
+      }
+    }
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+/**
+ * How a copy is verified when the VERIFY option is enabled.
+ */
+public enum VerifyMode {
+  /**
+   * Read the staged file back from the destination, decompressing it if necessary, and compare
+   * its CRC32 with the CRC32 of the source file.
+   */
+  READBACK,
+
+  /**
+   * Compute the HDFS composite block checksum locally while copying, and compare it with the checksum
+   * the DataNodes report for the staged file, so that no data is read back.  Only used for
+   * uncompressed copies into HDFS, other copies fall back to {@link #READBACK}.
+   */
+  CHECKSUM,
+
+  /**
+   * Decompress the compressed data on another thread as it's written, and compare the CRC32 of the result with
+   * the CRC32 of the source file, so that no data is read back.  Only used for compressed copies, uncompressed
+   * copies fall back to {@link #READBACK}.
+   */
+  TEE
+}
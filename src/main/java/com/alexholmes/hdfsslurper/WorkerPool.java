@@ -0,0 +1,170 @@
+/*
+ * Copyright 2011 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The worker threads.  The pool has a fixed size of THREADS, unless MAX_THREADS is set, in which case
+ * a {@link PoolSizer} periodically grows or shrinks it based on the backlog and throughput.
+ */
+public class WorkerPool {
+  private static Log log = LogFactory.getLog(WorkerPool.class);
+
+  private final Config config;
+  private final FileSystemManager fileSystemManager;
+  private final SequenceFilePacker packer;
+  private final SlurperMetrics metrics;
+  private final List<WorkerThread> workers = new ArrayList<WorkerThread>();
+  private final List<WorkerThread> retired = new ArrayList<WorkerThread>();
+  private final CountDownLatch terminated = new CountDownLatch(1);
+  private Thread sizerThread;
+  private int nextIndex = 1;
+  private boolean shutdown;
+
+  /**
+   * @param packer packs small files into containers, can be null
+   */
+  public WorkerPool(Config config, FileSystemManager fileSystemManager, SequenceFilePacker packer) {
+    this.config = config;
+    this.fileSystemManager = fileSystemManager;
+    this.packer = packer;
+    this.metrics = fileSystemManager.getMetrics();
+  }
+
+  public synchronized void start() {
+    int initial = config.getNumThreads();
+    if (config.isElasticPool()) {
+      initial = Math.max(config.getMinThreads(), Math.min(config.getMaxThreads(), initial));
+    }
+    for (int i = 0; i < initial; i++) {
+      addWorker();
+    }
+
+    if (config.isElasticPool()) {
+      sizerThread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          runSizer();
+        }
+      }, "PoolSizer");
+      sizerThread.setDaemon(true);
+      sizerThread.start();
+    }
+  }
+
+  private void runSizer() {
+    PoolSizer sizer = new PoolSizer(config.getMinThreads(), config.getMaxThreads());
+    long lastBytes = metrics.getBytes();
+    long lastNanos = System.nanoTime();
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        Thread.sleep(config.getPoolAdjustMillis());
+
+        long bytes = metrics.getBytes();
+        long now = System.nanoTime();
+        double bytesPerSecond = (bytes - lastBytes) / ((now - lastNanos) / (double) TimeUnit.SECONDS.toNanos(1));
+        lastBytes = bytes;
+        lastNanos = now;
+
+        long backlog = metrics.getBacklog() + metrics.getClaimQueueDepth();
+        int step = sizer.adjust(size(), backlog, bytesPerSecond);
+        if (step > 0) {
+          grow();
+        } else if (step < 0) {
+          shrink();
+        }
+      }
+    } catch (InterruptedException e) {
+      // shutting down
+    }
+  }
+
+  private synchronized void grow() {
+    if (!shutdown) {
+      addWorker();
+    }
+  }
+
+  /**
+   * Retires the most recently added thread, which finishes its current file before it exits.  The threads
+   * reserved for small files by the MIXED claim policy are the first ones added, and are never retired.
+   */
+  private synchronized void shrink() {
+    int reserved = config.getClaimPolicy() == ClaimPolicy.MIXED ? config.getSmallFileThreads() : 0;
+    if (!shutdown && workers.size() > Math.max(1, reserved + 1)) {
+      WorkerThread worker = workers.remove(workers.size() - 1);
+      worker.retire();
+      retired.add(worker);
+      metrics.setWorkers(workers.size());
+    }
+  }
+
+  private void addWorker() {
+    WorkerThread worker = new WorkerThread(config, fileSystemManager, TimeUnit.MILLISECONDS, nextIndex++, packer);
+    worker.start();
+    workers.add(worker);
+    metrics.setWorkers(workers.size());
+
+    // forget the retired threads which have exited
+    //
+    for (Iterator<WorkerThread> it = retired.iterator(); it.hasNext(); ) {
+      if (!it.next().isAlive()) {
+        it.remove();
+      }
+    }
+  }
+
+  public synchronized int size() {
+    return workers.size();
+  }
+
+  /**
+   * Stops resizing the pool, and waits for every thread, including retired ones which are still
+   * finishing their files, to exit.
+   */
+  public void shutdown() throws InterruptedException {
+    List<WorkerThread> all;
+    synchronized (this) {
+      shutdown = true;
+      all = new ArrayList<WorkerThread>(workers);
+      all.addAll(retired);
+    }
+    if (sizerThread != null) {
+      sizerThread.interrupt();
+      sizerThread.join();
+    }
+    for (WorkerThread worker : all) {
+      worker.shutdown();
+    }
+    terminated.countDown();
+  }
+
+  /**
+   * Waits until the pool has been shut down.
+   */
+  public void awaitTermination() throws InterruptedException {
+    terminated.await();
+  }
+}
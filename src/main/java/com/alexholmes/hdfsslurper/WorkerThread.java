@@ -19,6 +19,7 @@ package com.alexholmes.hdfsslurper;
 import com.hadoop.compression.lzo.LzoIndex;
 import com.hadoop.compression.lzo.LzoIndexer;
 import com.hadoop.compression.lzo.LzopCodec;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -26,59 +27,152 @@ import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.log4j.MDC;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Date;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedInputStream;
+import java.util.zip.Checksum;
 
 public class WorkerThread extends Thread {
   private static Log log = LogFactory.getLog(WorkerThread.class);
   private AtomicBoolean shuttingDown = new AtomicBoolean(false);
+  private final AtomicBoolean retiring = new AtomicBoolean(false);
   private final Config config;
   private final FileSystemManager fileSystemManager;
   private final TimeUnit pollSleepUnit;
   private final LzoIndexer indexer;
   private String lzopExt;
+  private final ChunkedUploader chunkedUploader;
+  private final ParallelExporter exporter;
+  private final ResumableCopier resumableCopier;
+  private final CopyEngine copyEngine;
+  private final CopyEngine streamCopyEngine;
+  private final PipelinedCopier pipelinedCopier;
+  private final TeeVerifier teeVerifier;
+  private final VerificationPolicy verificationPolicy;
+  private final CompressionStreamFactory compressionStreamFactory;
+  private final ScriptCoprocess scriptCoprocess;
+  private final ScriptCoprocess workScriptCoprocess;
+  private final SequenceFilePacker packer;
+  private final SlurperMetrics metrics;
+  private final Journal journal;
+  private final boolean smallFilesOnly;
+  private final byte[] copyBuffer;
 
   public WorkerThread(Config config,
                       FileSystemManager fileSystemManager,
                       TimeUnit pollSleepUnit,
                       int threadIndex) {
+    this(config, fileSystemManager, pollSleepUnit, threadIndex, null);
+  }
+
+  /**
+   * @param packer packs small files into containers, shared with the other threads, can be null
+   */
+  public WorkerThread(Config config,
+                      FileSystemManager fileSystemManager,
+                      TimeUnit pollSleepUnit,
+                      int threadIndex,
+                      SequenceFilePacker packer) {
     this.config = config;
+    this.packer = packer;
+    this.metrics = fileSystemManager.getMetrics();
+    this.journal = fileSystemManager.getJournal();
     this.fileSystemManager = fileSystemManager;
     this.pollSleepUnit = pollSleepUnit;
     this.setDaemon(true);
     this.setName(WorkerThread.class.getSimpleName() + "-" + threadIndex);
+
+    // the lowest numbered threads are the ones reserved for small files
+    //
+    this.smallFilesOnly = config.getClaimPolicy() == ClaimPolicy.MIXED && threadIndex <= config.getSmallFileThreads();
     if (config.isCreateLzopIndex()) {
       this.indexer = new LzoIndexer(config.getConfig());
       this.lzopExt = new LzopCodec().getDefaultExtension();
     } else {
       this.indexer = null;
     }
+
+    // all the engines share the same buffer, which is reused for every file this thread copies
+    //
+    this.copyBuffer = new byte[config.getCopyBufferSize()];
+    this.copyEngine = CopyEngine.create(config.getCopyEngine(), copyBuffer);
+    this.streamCopyEngine = copyEngine.getType() == CopyEngine.Type.STREAM ?
+        copyEngine : CopyEngine.create(CopyEngine.Type.STREAM, copyBuffer);
+    this.resumableCopier = new ResumableCopier(config, copyBuffer, fileSystemManager.getThrottler());
+
+    if (config.getChunkedUploadThreshold() > 0) {
+      this.chunkedUploader = new ChunkedUploader(config, this.getName(), fileSystemManager.getThrottler());
+    } else {
+      this.chunkedUploader = null;
+    }
+
+    if (config.getExportThreshold() > 0) {
+      this.exporter = new ParallelExporter(config, this.getName(), fileSystemManager.getThrottler());
+    } else {
+      this.exporter = null;
+    }
+
+    // each thread has its own long-lived copy of the scripts
+    //
+    if (config.isScriptCoprocess() && config.getScript() != null) {
+      this.scriptCoprocess = new ScriptCoprocess(config.getScript(), this.getName());
+    } else {
+      this.scriptCoprocess = null;
+    }
+    if (config.isScriptCoprocess() && config.getWorkScript() != null) {
+      this.workScriptCoprocess = new ScriptCoprocess(config.getWorkScript(), this.getName());
+    } else {
+      this.workScriptCoprocess = null;
+    }
+
+    this.compressionStreamFactory = new CompressionStreamFactory(config);
+    if (config.isPipeline() && config.getCodec() != null) {
+      this.pipelinedCopier = new PipelinedCopier(config, compressionStreamFactory, this.getName());
+    } else {
+      this.pipelinedCopier = null;
+    }
+    if (config.isVerify() && config.getVerifyMode() == VerifyMode.TEE && config.getCodec() != null) {
+      this.teeVerifier = new TeeVerifier(config, this.getName());
+    } else {
+      this.teeVerifier = null;
+    }
+    this.verificationPolicy = new VerificationPolicy(config);
   }
 
   @Override
   public void run() {
     MDC.put("threadName", this.getName());
+    if (config.getDatasource() != null) {
+      MDC.put("datasource", config.getDatasource());
+    }
     try {
-      while (!shuttingDown.get() && !interrupted()) {
+      while (!shuttingDown.get() && !retiring.get() && !interrupted()) {
         doWork();
       }
     } catch (InterruptedException t) {
       log.warn("Caught interrupted exception, exiting");
+    } finally {
+      close();
     }
     log.info("Thread exiting");
   }
 
   protected void doWork() throws InterruptedException {
     try {
-      copyFile(fileSystemManager.pollForInboundFile(pollSleepUnit, config.getPollSleepPeriodMillis()));
+      FileStatus fs = fileSystemManager.pollForInboundFile(pollSleepUnit, config.getPollSleepPeriodMillis(), retiring,
+          smallFilesOnly);
+      if (fs != null) {
+        copyFile(fs);
+      }
     } catch (InterruptedException ie) {
       throw ie;
     } catch (Throwable t) {
@@ -86,16 +180,59 @@ public class WorkerThread extends Thread {
     }
   }
 
+  /**
+   * Copies a file which has already been claimed on the calling thread, which is how the shared
+   * threads in host mode use workers which are never started.
+   */
+  void copy(FileStatus fs) throws IOException, InterruptedException {
+    copyFile(fs);
+  }
+
+  /**
+   * Releases the resources which belong to this worker.
+   */
+  void close() {
+    if (chunkedUploader != null) {
+      chunkedUploader.shutdown();
+    }
+    if (exporter != null) {
+      exporter.shutdown();
+    }
+    if (pipelinedCopier != null) {
+      pipelinedCopier.shutdown();
+    }
+    if (teeVerifier != null) {
+      teeVerifier.shutdown();
+    }
+    if (scriptCoprocess != null) {
+      scriptCoprocess.close();
+    }
+    if (workScriptCoprocess != null) {
+      workScriptCoprocess.close();
+    }
+  }
+
+  /**
+   * Runs on this worker's own thread, or on a host thread which borrowed it, so the interrupt flag is checked
+   * without clearing it, which would swallow a host thread's shutdown.
+   */
   private synchronized void copyFile(FileStatus fs) throws IOException, InterruptedException {
-    if (!shuttingDown.get() && !interrupted()) {
-      process(fs);
+    if (!shuttingDown.get() && !Thread.currentThread().isInterrupted()) {
+      metrics.copyStarted();
+      try {
+        process(fs);
+      } finally {
+        metrics.copyFinished();
+      }
     }
   }
 
   private void process(FileStatus srcFileStatus) throws IOException, InterruptedException {
 
     Path stagingFile = null;
-    FileSystem destFs = null;
+    Path stagingIndex = null;
+    Path destFile = null;
+    RpcCountingFileSystem destFs = null;
 
     try {
       FileSystem srcFs = srcFileStatus.getPath().getFileSystem(config.getConfig());
@@ -103,15 +240,27 @@ public class WorkerThread extends Thread {
       // run a script which can change the name of the file as well as write out a new version of the file
       //
       if (config.getWorkScript() != null) {
+        long start = System.nanoTime();
         Path newSrcFile = stageSource(srcFileStatus);
         srcFileStatus = srcFileStatus.getPath().getFileSystem(config.getConfig()).getFileStatus(newSrcFile);
+        metrics.record(SlurperMetrics.Stage.WORK_SCRIPT, start);
       }
 
       Path srcFile = srcFileStatus.getPath();
 
+      // small files are appended to a shared container rather than copied into their own file
+      //
+      if (packer != null && packer.accept(srcFileStatus)) {
+        log.info("Packing source file '" + srcFile + "'");
+        long start = System.nanoTime();
+        packer.pack(srcFs, srcFileStatus);
+        metrics.record(SlurperMetrics.Stage.COPY, start);
+        return;
+      }
+
       // get the target HDFS file
       //
-      Path destFile = getHdfsTargetPath(srcFileStatus);
+      destFile = getHdfsTargetPath(srcFileStatus);
 
       if (config.getCodec() != null) {
         String ext = config.getCodec().getDefaultExtension();
@@ -120,7 +269,27 @@ public class WorkerThread extends Thread {
         }
       }
 
-      destFs = destFile.getFileSystem(config.getConfig());
+      // a file with the same contents as one which has already been copied to the same destination is finalized
+      // without touching the destination, and it's only hashed before it's copied if a file of the same length
+      // has been seen
+      //
+      DedupeIndex dedupeIndex = fileSystemManager.getDedupeIndex();
+      String contentHash = null;
+      if (dedupeIndex != null && dedupeIndex.mightContainLength(srcFileStatus.getLen())) {
+        contentHash = ContentHash.of(srcFs, srcFile, copyBuffer);
+        DedupeIndex.Entry duplicate = dedupeIndex.lookup(contentHash, srcFileStatus.getLen(), destFile);
+        if (duplicate != null) {
+          log.info("Source file '" + srcFile + "' has the same contents as the file copied to '" +
+              duplicate.getDest() + "' at " + new Date(duplicate.getMillis()) + ", so it won't be copied again");
+          fileSystemManager.getSourceFinalizer().complete(srcFileStatus);
+          metrics.fileDeduplicated();
+          return;
+        }
+      }
+
+      // count the calls made for this file to the shared file system instance
+      //
+      destFs = new RpcCountingFileSystem(destFile.getFileSystem(config.getConfig()));
 
       // get the staging HDFS file
       //
@@ -128,101 +297,245 @@ public class WorkerThread extends Thread {
 
       log.info("Copying source file '" + srcFile + "' to staging destination '" + stagingFile + "'");
 
-      // if the directory of the target file doesn't exist, attempt to create it
+      // make sure the target and staging directories exist, which only costs an RPC the first time
+      // we see a directory
       //
-      Path destParentDir = destFile.getParent();
-      if (!destFs.exists(destParentDir)) {
-        log.info("Attempting creation of target directory: " + destParentDir.toUri());
-        if (!destFs.mkdirs(destParentDir)) {
-          throw new IOException("Failed to create target directory: " + destParentDir.toUri());
-        }
-      }
+      DirectoryCache directoryCache = fileSystemManager.getDirectoryCache();
+      directoryCache.mkdirs(destFs, destFile.getParent());
+      directoryCache.mkdirs(destFs, stagingFile.getParent());
 
-      // if the staging directory doesn't exist, attempt to create it
+      // copy the file, splitting it into parts which are uploaded in parallel if it's large enough
       //
-      Path destStagingParentDir = stagingFile.getParent();
-      if (!destFs.exists(destStagingParentDir)) {
-        log.info("Attempting creation of staging directory: " + destStagingParentDir.toUri());
-        if (!destFs.mkdirs(destStagingParentDir)) {
-          throw new IOException("Failed to create staging directory: " + destParentDir.toUri());
-        }
-      }
-
-      // copy the file
+      long copyStart = System.nanoTime();
+      boolean chunked = chunkedUploader != null && chunkedUploader.accept(srcFileStatus, destFs);
+      boolean exported = !chunked && exporter != null && exporter.accept(srcFileStatus, srcFs, destFs);
+      boolean resumable = !chunked && !exported && resumableCopier.accept(srcFileStatus);
+      // how thoroughly the copy is verified is decided up front, since a full verification may be done as
+      // the file is copied
       //
-      InputStream is = null;
-      OutputStream os = null;
-      CRC32 crc = new CRC32();
-      try {
-        is = new BufferedInputStream(srcFs.open(srcFile));
-        if (config.isVerify()) {
-          is = new CheckedInputStream(is, crc);
+      VerificationPolicy.Level verifyLevel = config.isVerify() ? verificationPolicy.choose(srcFileStatus) : null;
+      boolean fullVerify = verifyLevel == VerificationPolicy.Level.FULL;
+      boolean checksumVerify = fullVerify && !resumable && isChecksumVerifiable(destFs);
+      boolean lzoIndexed = config.isCreateLzopIndex() && destFile.getName().endsWith(lzopExt);
+      Checksum checksum = checksumVerify ?
+          CompositeCrcChecksum.forDestination(destFs, stagingFile) : new CRC32();
+      long srcFileSize;
+      long destFileSize;
+      long resumableCrc = 0;
+      boolean teeVerify = false;
+      long teeCrc = 0;
+      if (chunked) {
+        chunkedUploader.upload(srcFs, srcFileStatus, destFs, stagingFile, fullVerify);
+        srcFileSize = destFileSize = srcFileStatus.getLen();
+      } else if (exported) {
+        exporter.export(srcFs, srcFileStatus, destFs, stagingFile, fullVerify);
+        srcFileSize = destFileSize = srcFileStatus.getLen();
+      } else if (resumable) {
+        resumableCrc = resumableCopier.copy(srcFs, srcFileStatus, destFs, stagingFile);
+        srcFileSize = destFileSize = srcFileStatus.getLen();
+      } else {
+        // fall back to streaming if the configured engine can't read the source
+        //
+        CopyEngine engine = copyEngine.accept(srcFs, srcFile) ? copyEngine : streamCopyEngine;
+
+        // hash the contents from the same read as the copy, passing the bytes on to the verification checksum
+        //
+        ContentHash streamHash = dedupeIndex != null && contentHash == null ?
+            new ContentHash(fullVerify ? checksum : null) : null;
+        Checksum engineChecksum = streamHash != null ? streamHash : fullVerify ? checksum : null;
+        CountingOutputStream cos = null;
+        LzoIndexingOutputStream indexingStream = null;
+        OutputStream os = null;
+        try {
+          // throttle what goes over the wire, which is after compression
+          //
+          os = cos = new CountingOutputStream(
+              fileSystemManager.getThrottler().wrap(destFs.create(stagingFile), destFs));
+
+          // decompress and checksum what's written as it goes, rather than reading it back afterwards
+          //
+          if (teeVerifier != null && fullVerify) {
+            os = teeVerifier.tee(os);
+            teeVerify = true;
+          }
+
+          // note where each compressed block starts as it's written, rather than reading the file back
+          // to index it
+          //
+          if (lzoIndexed) {
+            os = indexingStream = new LzoIndexingOutputStream(os);
+          }
+
+          if (pipelinedCopier != null) {
+            srcFileSize = pipelinedCopier.copy(engine, srcFs, srcFile, os, engineChecksum);
+          } else {
+            if (config.getCodec() != null) {
+              os = compressionStreamFactory.createOutputStream(os);
+            }
+
+            srcFileSize = engine.copy(srcFs, srcFile, os, engineChecksum);
+          }
+          os.close();
+          os = null;
+          if (teeVerify) {
+            teeCrc = teeVerifier.finish();
+          }
+        } finally {
+          IOUtils.closeStream(os);
+          if (teeVerify) {
+            teeVerifier.cancel();
+          }
         }
-        os = destFs.create(stagingFile);
 
-        if (config.getCodec() != null) {
-          os = config.getCodec().createOutputStream(os);
+        if (streamHash != null) {
+          contentHash = streamHash.toHex();
         }
 
-        IOUtils.copyBytes(is, os, 4096, false);
-      } finally {
-        IOUtils.closeStream(is);
-        IOUtils.closeStream(os);
+        // the number of bytes written through to the destination, rather than asking the NameNode
+        //
+        destFileSize = cos.getByteCount();
+
+        if (indexingStream != null && indexingStream.isComplete()) {
+          long start = System.nanoTime();
+          stagingIndex = LzoIndexingOutputStream.getStagingIndex(stagingFile);
+          indexingStream.writeIndex(destFs, stagingIndex);
+          metrics.record(SlurperMetrics.Stage.LZO_INDEX, start);
+        }
       }
 
-      long srcFileSize = srcFs.getFileStatus(srcFile).getLen();
-      long destFileSize = destFs.getFileStatus(stagingFile).getLen();
-      if (config.getCodec() == null && srcFileSize != destFileSize) {
-        throw new IOException("File sizes don't match, source = " + srcFileSize + ", dest = " + destFileSize);
+      metrics.record(SlurperMetrics.Stage.COPY, copyStart);
+
+      // the sizes are both counted as the file is copied, so they're checked against the length the source was
+      // listed with, otherwise a short read would be written out and pass
+      //
+      if (srcFileSize != srcFileStatus.getLen()) {
+        throw new IOException("Read " + srcFileSize + " bytes from the source, expected " + srcFileStatus.getLen());
+      }
+      if (config.getCodec() == null && destFileSize != srcFileStatus.getLen()) {
+        throw new IOException("File sizes don't match, source = " + srcFileStatus.getLen() +
+            ", dest = " + destFileSize);
       }
 
       log.info("Local file size = " + srcFileSize + ", HDFS file size = " + destFileSize);
+      journal.record(Journal.State.STAGED, srcFileStatus.getPath(), stagingFile, destFile);
 
-      if (config.isVerify()) {
-        verify(stagingFile, crc.getValue());
+      // the chunked uploader and the exporter fully verify each part as they go
+      //
+      if (verifyLevel == VerificationPolicy.Level.SIZE || verifyLevel == VerificationPolicy.Level.SPOT) {
+        // an uncompressed file is checked against the source's length, rather than against what this copy
+        // counted, and a compressed file can only be checked against the bytes which were written
+        //
+        long start = System.nanoTime();
+        verificationPolicy.verifySize(destFs, stagingFile,
+            config.getCodec() == null ? srcFileStatus.getLen() : destFileSize);
+        if (verifyLevel == VerificationPolicy.Level.SPOT) {
+          verificationPolicy.verifySpots(srcFs, srcFile, destFs, stagingFile, srcFileStatus.getLen());
+        }
+        metrics.record(SlurperMetrics.Stage.VERIFY, start);
+      } else if (fullVerify && !chunked && !exported) {
+        long start = System.nanoTime();
+        if (checksumVerify) {
+          log.info("Verifying block checksums");
+          CompositeCrcChecksum.verify(destFs, stagingFile, ((CompositeCrcChecksum) checksum).getFileChecksum());
+        } else if (teeVerify) {
+          log.info("Comparing the CRC of the decompressed output");
+          compareCRCs(checksum.getValue(), teeCrc);
+        } else {
+          verify(destFs, stagingFile, resumable ? resumableCrc : checksum.getValue());
+        }
+        metrics.record(SlurperMetrics.Stage.VERIFY, start);
       }
-
-      if (destFs.exists(destFile)) {
-        destFs.delete(destFile, false);
+      if (verifyLevel != null) {
+        journal.record(Journal.State.VERIFIED, srcFileStatus.getPath(), stagingFile, destFile);
       }
 
+      // rename first, and only delete an existing destination file if that fails, since files are
+      // rarely overwritten
+      //
       log.info("Moving staging file '" + stagingFile + "' to destination '" + destFile + "'");
+      long renameStart = System.nanoTime();
       if (!destFs.rename(stagingFile, destFile)) {
-        throw new IOException("Failed to rename file");
+        if (!destFs.delete(destFile, false) || !destFs.rename(stagingFile, destFile)) {
+          throw new IOException("Failed to rename file");
+        }
       }
+      metrics.record(SlurperMetrics.Stage.RENAME, renameStart);
 
+      // the file is in the destination from here on, so it's recorded before it's indexed, and the recovery
+      // builds the index if the process dies before it's in place
+      //
+      journal.record(Journal.State.COMMITTED, srcFileStatus.getPath(), stagingFile, destFile);
 
-      if (config.isCreateLzopIndex() && destFile.getName().endsWith(lzopExt)) {
+      // the index which was built as the file was written is moved next to it, and if the stream
+      // couldn't be followed the file is read back and indexed
+      //
+      if (stagingIndex != null) {
+        LzoIndexingOutputStream.commitIndex(destFs, stagingIndex, destFile);
+      } else if (lzoIndexed) {
+        long start = System.nanoTime();
         Path lzoIndexPath = new Path(destFile.toString() + LzoIndex.LZO_INDEX_SUFFIX);
-        if (destFs.exists(lzoIndexPath)) {
-          log.info("Deleting index file as it already exists");
-          destFs.delete(lzoIndexPath, false);
+        if (destFs.delete(lzoIndexPath, false)) {
+          log.info("Deleted index file as it already existed");
         }
         indexer.index(destFile);
+        metrics.record(SlurperMetrics.Stage.LZO_INDEX, start);
+      }
+
+      // the chunked, exported and resumable copies read the file in pieces, so the file is read again to hash it
+      //
+      if (dedupeIndex != null) {
+        try {
+          if (contentHash == null) {
+            contentHash = ContentHash.of(srcFs, srcFile, copyBuffer);
+          }
+          dedupeIndex.add(contentHash, srcFileStatus.getLen(), destFile);
+        } catch (IOException e) {
+          log.warn("Failed to add '" + srcFile + "' to the dedupe index", e);
+        }
+      }
+
+      long completeStart = System.nanoTime();
+      fileSystemManager.getSourceFinalizer().complete(srcFileStatus);
+      if (resumable) {
+        ResumableCopier.discard(srcFs, srcFileStatus.getPath());
       }
+      metrics.record(SlurperMetrics.Stage.COMPLETE, completeStart);
+      metrics.fileCopied(srcFileSize);
 
-      fileSystemManager.fileCopyComplete(srcFileStatus);
+      log.info("Made " + destFs.getCalls() + " calls to the destination file system");
 
     } catch (Throwable t) {
       log.warn("Caught exception working on file " + srcFileStatus.getPath(), t);
+      metrics.fileFailed();
 
-      // delete the staging file if it still exists
+      // delete the staging file if it still exists, and forget the directories in case they were
+      // removed from under us
       //
       try {
-        if(destFs != null && destFs.exists(stagingFile)) {
+        if (destFs != null) {
           destFs.delete(stagingFile, false);
+          if (stagingIndex != null) {
+            destFs.delete(stagingIndex, false);
+          }
+          fileSystemManager.getDirectoryCache().invalidate(destFs, stagingFile.getParent());
+          if (destFile != null) {
+            fileSystemManager.getDirectoryCache().invalidate(destFs, destFile.getParent());
+          }
         }
       } catch(Throwable t2) {
         log.error("Failed to delete staging file " + stagingFile, t2);
       }
+      if (resumableCopier.accept(srcFileStatus)) {
+        ResumableCopier.discard(srcFileStatus.getPath().getFileSystem(config.getConfig()), srcFileStatus.getPath());
+      }
 
-      fileSystemManager.fileCopyError(srcFileStatus);
+      fileSystemManager.getSourceFinalizer().fail(srcFileStatus);
     }
 
   }
 
   private Path stageSource(FileStatus srcFile) throws IOException {
-    Path p = new Path(ScriptExecutor.getStdOutFromScript(config.getWorkScript(), srcFile.getPath().toString(), 60, TimeUnit.SECONDS));
+    Path p = new Path(runScript(workScriptCoprocess, config.getWorkScript(), srcFile.getPath().toString()));
     if (p.toUri().getScheme() == null) {
       throw new IOException("Work path from script must be a URI with a scheme: '" + p + "'");
     }
@@ -230,23 +543,34 @@ public class WorkerThread extends Thread {
     return p;
   }
 
-  private void verify(Path hdfs, long localFileCRC) throws IOException {
+  private boolean isChecksumVerifiable(FileSystem destFs) {
+    return config.getVerifyMode() == VerifyMode.CHECKSUM &&
+        config.getCodec() == null &&
+        CompositeCrcChecksum.isSupported(destFs);
+  }
+
+  private void verify(FileSystem destFs, Path hdfs, long localFileCRC) throws IOException {
     log.info("Verifying files");
-    long hdfsCRC = hdfsFileCRC32(hdfs);
+    compareCRCs(localFileCRC, hdfsFileCRC32(destFs, config.getCodec(), hdfs));
+  }
 
+  private static void compareCRCs(long localFileCRC, long hdfsCRC) throws IOException {
     if (localFileCRC != hdfsCRC) {
       throw new IOException("CRC's don't match, local file is " + localFileCRC + " HDFS file is " + hdfsCRC);
     }
     log.info("CRC's match (" + localFileCRC + ")");
   }
 
-  private long hdfsFileCRC32(Path path) throws IOException {
+  /**
+   * Reads back a file and calculates the CRC32 of its contents, decompressing it first if a codec is supplied.
+   */
+  public static long hdfsFileCRC32(FileSystem fs, CompressionCodec codec, Path path) throws IOException {
     InputStream in = null;
     CRC32 crc = new CRC32();
     try {
-      InputStream is = new BufferedInputStream(path.getFileSystem(config.getConfig()).open(path));
-      if (config.getCodec() != null) {
-        is = config.getCodec().createInputStream(is);
+      InputStream is = new BufferedInputStream(fs.open(path));
+      if (codec != null) {
+        is = codec.createInputStream(is);
       }
       in = new CheckedInputStream(is, crc);
       org.apache.commons.io.IOUtils.copy(in, new NullOutputStream());
@@ -269,13 +593,31 @@ public class WorkerThread extends Thread {
   }
 
   private Path getDestPathFromScript(FileStatus srcFile) throws IOException {
-    Path p = new Path(ScriptExecutor.getStdOutFromScript(config.getScript(), srcFile.getPath().toString(), 60, TimeUnit.SECONDS));
+    long start = System.nanoTime();
+    Path p = new Path(runScript(scriptCoprocess, config.getScript(), srcFile.getPath().toString()));
+    metrics.record(SlurperMetrics.Stage.SCRIPT, start);
     if (p.toUri().getScheme() == null) {
       throw new IOException("Destination path from script must be a URI with a scheme: '" + p + "'");
     }
     return p;
   }
 
+  private String runScript(ScriptCoprocess coprocess, String script, String stdInLine) throws IOException {
+    if (coprocess != null) {
+      return coprocess.execute(stdInLine, 60, TimeUnit.SECONDS);
+    }
+    return ScriptExecutor.getStdOutFromScript(script, stdInLine, 60, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Asks the thread to exit once it's finished the file it's copying, without interrupting the copy.
+   * This returns immediately, and the thread exits within a poll period if it's idle.
+   */
+  public void retire() {
+    log.info("Retiring: " + this.getName());
+    retiring.set(true);
+  }
+
   public synchronized void shutdown() throws InterruptedException {
     if (!shuttingDown.getAndSet(true)) {
       log.info("Interrupting: " + this.getName());
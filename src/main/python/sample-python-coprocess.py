@@ -0,0 +1,28 @@
+#!/usr/bin/python
+
+import sys, os, re
+
+# the co-process version of sample-python.py, which is started once and
+# reads a local file from each line of standard input until it's closed
+while True:
+  input_file=sys.stdin.readline()
+  if not input_file:
+    break
+
+  # extract the filename from the file
+  filename = os.path.basename(input_file.strip())
+
+  # extract the date from the filename
+  match=re.search(r'([0-9]{4})([0-9]{2})([0-9]{2})', filename)
+
+  year=match.group(1)
+  mon=match.group(2)
+  day=match.group(3)
+
+  # construct our destination HDFS file
+  hdfs_dest="hdfs:/data/%s/%s/%s/%s" % (year, mon, day, filename)
+
+  # write it to standard output as a single line, and flush it so that the
+  # slurper receives it straight away
+  sys.stdout.write(hdfs_dest + "\n")
+  sys.stdout.flush()
@@ -0,0 +1,114 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class ChunkedUploaderTest {
+
+  private static String TEST_ROOT_DIR =
+      new Path(System.getProperty("test.build.data", "/tmp")).toString().replace(' ', '+');
+
+  private static final int BLOCK_SIZE = 64 * 1024;
+
+  private MiniDFSCluster cluster;
+  private FileSystem localFs;
+  private FileSystem dfs;
+  private Path localDir;
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, 0);
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    dfs = cluster.getFileSystem();
+    localFs = FileSystem.getLocal(conf);
+    localDir = localFs.makeQualified(new Path(TEST_ROOT_DIR, "test-slurper-chunked"));
+    localFs.delete(localDir, true);
+    localFs.mkdirs(localDir);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private Config newConfig() {
+    return new Config()
+        .setChunkedUploadThreshold(BLOCK_SIZE)
+        .setChunkedUploadParts(4)
+        .setVerify(true)
+        .setConfig(dfs.getConf());
+  }
+
+  @Test
+  public void testUploadInParts() throws Exception {
+    // a size which doesn't divide evenly into parts or blocks
+    //
+    Path src = new Path(localDir, "large-file");
+    WorkerThreadTest.TestFile inFile = new WorkerThreadTest.TestFile(localFs, src, 5 * BLOCK_SIZE + 123);
+
+    Path staging = dfs.makeQualified(new Path("/stage/large-file"));
+    dfs.mkdirs(staging.getParent());
+
+    ChunkedUploader uploader = new ChunkedUploader(newConfig(), "test");
+    FileStatus srcStatus = localFs.getFileStatus(src);
+    assertTrue(uploader.accept(srcStatus, dfs));
+
+    uploader.upload(localFs, srcStatus, dfs, staging);
+    uploader.shutdown();
+
+    assertEquals(srcStatus.getLen(), dfs.getFileStatus(staging).getLen());
+    assertEquals(inFile.getCRC32(), WorkerThreadTest.hdfsFileCRC32(dfs, null, staging));
+
+    // the parts should have been concatenated into the staging file
+    //
+    assertEquals(1, dfs.listStatus(staging.getParent()).length);
+  }
+
+  @Test
+  public void testUploadInPartsWithChecksumVerification() throws Exception {
+    Path src = new Path(localDir, "large-file");
+    WorkerThreadTest.TestFile inFile = new WorkerThreadTest.TestFile(localFs, src, 7 * BLOCK_SIZE + 5);
+
+    Path staging = dfs.makeQualified(new Path("/stage/large-file"));
+    dfs.mkdirs(staging.getParent());
+
+    ChunkedUploader uploader = new ChunkedUploader(newConfig().setVerifyMode(VerifyMode.CHECKSUM), "test");
+    uploader.upload(localFs, localFs.getFileStatus(src), dfs, staging);
+    uploader.shutdown();
+
+    assertEquals(inFile.getCRC32(), WorkerThreadTest.hdfsFileCRC32(dfs, null, staging));
+  }
+
+  @Test
+  public void testSmallFilesAndCompressionAreNotChunked() throws Exception {
+    Path src = new Path(localDir, "small-file");
+    new WorkerThreadTest.TestFile(localFs, src);
+    FileStatus srcStatus = localFs.getFileStatus(src);
+
+    assertFalse(new ChunkedUploader(newConfig(), "test").accept(srcStatus, dfs));
+
+    Path large = new Path(localDir, "large-file");
+    new WorkerThreadTest.TestFile(localFs, large, 2 * BLOCK_SIZE);
+    FileStatus largeStatus = localFs.getFileStatus(large);
+
+    assertTrue(new ChunkedUploader(newConfig(), "test").accept(largeStatus, dfs));
+    assertFalse(new ChunkedUploader(newConfig(), "test").accept(largeStatus, localFs));
+    assertFalse(new ChunkedUploader(newConfig().setCodec(new org.apache.hadoop.io.compress.GzipCodec()), "test")
+        .accept(largeStatus, dfs));
+  }
+}
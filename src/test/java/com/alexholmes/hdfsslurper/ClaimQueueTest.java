@@ -0,0 +1,102 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class ClaimQueueTest {
+
+  private static FileStatus file(String name, long len, long mtime) {
+    return new FileStatus(len, false, 1, 64 * 1024 * 1024, mtime, new Path("file:/tmp/work/" + name));
+  }
+
+  private static ClaimQueue queue(ClaimPolicy policy) {
+    return new ClaimQueue(new Config().setClaimPolicy(policy).setSmallFileBytes(1024), new SlurperMetrics("test"));
+  }
+
+  private static List<String> names(List<FileStatus> files) {
+    List<String> names = new ArrayList<String>();
+    for (FileStatus fs : files) {
+      names.add(fs.getPath().getName());
+    }
+    return names;
+  }
+
+  private static List<String> drainInOrder(ClaimQueue queue, boolean smallOnly) throws InterruptedException {
+    List<FileStatus> files = new ArrayList<FileStatus>();
+    FileStatus fs;
+    while ((fs = queue.poll(0, TimeUnit.MILLISECONDS, smallOnly)) != null) {
+      files.add(fs);
+    }
+    return names(files);
+  }
+
+  private static final List<FileStatus> LISTING = Arrays.asList(
+      file("huge", 1024L * 1024 * 1024, 1000),
+      file("medium", 10L * 1024 * 1024, 2000),
+      file("tiny", 100, 3000),
+      file("small", 1000, 4000));
+
+  @Test
+  public void testSelectKeepsTheBestFiles() {
+    ClaimQueue queue = queue(ClaimPolicy.SMALLEST_FIRST);
+    assertEquals(Arrays.asList("tiny", "small"), names(queue.select(LISTING, 2)));
+    assertEquals(Arrays.asList("tiny", "small", "medium", "huge"), names(queue.select(LISTING, 10)));
+    assertTrue(queue.select(LISTING, 0).isEmpty());
+
+    queue = queue(ClaimPolicy.FIFO);
+    assertEquals(Arrays.asList("huge", "medium", "small"), names(queue.select(
+        Arrays.asList(LISTING.get(3), LISTING.get(1), LISTING.get(0)), 3)));
+  }
+
+  @Test
+  public void testShortestCompletion() throws Exception {
+    // at the default 10KB/ms the huge file takes over 100 seconds, and the medium file 1 second
+    //
+    ClaimQueue queue = queue(ClaimPolicy.SHORTEST_COMPLETION);
+    for (FileStatus fs : LISTING) {
+      queue.add(fs);
+    }
+    queue.add(file("late", 100, 200000));
+    assertEquals(Arrays.asList("tiny", "medium", "small", "huge", "late"), drainInOrder(queue, false));
+  }
+
+  @Test
+  public void testMixedReservesSmallFiles() throws Exception {
+    ClaimQueue queue = queue(ClaimPolicy.MIXED);
+    for (FileStatus fs : LISTING) {
+      queue.add(fs);
+    }
+    assertTrue(queue.isSmall(LISTING.get(3)));
+    assertFalse(queue.isSmall(LISTING.get(1)));
+    assertEquals(4, queue.size());
+
+    assertEquals(Arrays.asList("tiny", "small"), drainInOrder(queue, true));
+    assertEquals(Arrays.asList("huge", "medium"), drainInOrder(queue, false));
+  }
+
+  @Test
+  public void testCapacity() throws Exception {
+    ClaimQueue queue = new ClaimQueue(new Config().setClaimQueueDepth(2), new SlurperMetrics("test"));
+    queue.add(LISTING.get(0));
+    queue.add(LISTING.get(1));
+    assertEquals(0, queue.remainingCapacity(false));
+
+    assertEquals("huge", queue.poll(10, TimeUnit.MILLISECONDS, false).getPath().getName());
+    queue.awaitCapacity(1);
+    assertEquals(1, queue.remainingCapacity(false));
+
+    assertEquals(1, queue.drain().size());
+    assertNull(queue.poll(10, TimeUnit.MILLISECONDS, false));
+  }
+}
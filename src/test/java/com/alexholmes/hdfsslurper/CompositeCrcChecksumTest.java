@@ -0,0 +1,80 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+
+public class CompositeCrcChecksumTest {
+
+  private static final int BLOCK_SIZE = 16 * 1024;
+
+  private static MiniDFSCluster cluster;
+  private static FileSystem dfs;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, 0);
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    dfs = cluster.getFileSystem();
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private void assertMatchesHdfs(int size) throws Exception {
+    byte[] data = new byte[size];
+    new Random(size).nextBytes(data);
+
+    Path path = new Path("/checksum/file-" + size);
+    FSDataOutputStream out = dfs.create(path);
+    out.write(data);
+    out.close();
+
+    CompositeCrcChecksum checksum = CompositeCrcChecksum.forDestination(dfs, path);
+
+    // feed the data in awkward sizes to make sure chunk and block boundaries are handled
+    //
+    for (int off = 0; off < size; off += 1000) {
+      checksum.update(data, off, Math.min(1000, size - off));
+    }
+
+    assertEquals(size, checksum.getLength());
+    assertEquals(dfs.getFileChecksum(path), checksum.getFileChecksum());
+  }
+
+  @Test
+  public void testEmptyFile() throws Exception {
+    assertMatchesHdfs(0);
+  }
+
+  @Test
+  public void testPartialChunk() throws Exception {
+    assertMatchesHdfs(100);
+  }
+
+  @Test
+  public void testSingleBlock() throws Exception {
+    assertMatchesHdfs(BLOCK_SIZE);
+  }
+
+  @Test
+  public void testMultipleBlocks() throws Exception {
+    assertMatchesHdfs(3 * BLOCK_SIZE + 700);
+  }
+}
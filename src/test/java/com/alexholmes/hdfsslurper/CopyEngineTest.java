@@ -0,0 +1,49 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.CRC32;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class CopyEngineTest {
+
+  private static String TEST_ROOT_DIR =
+      new Path(System.getProperty("test.build.data", "/tmp")).toString().replace(' ', '+');
+
+  @Test
+  public void testEnginesCopyIdentically() throws Exception {
+    FileSystem fs = FileSystem.getLocal(new Configuration());
+    Path src = fs.makeQualified(new Path(TEST_ROOT_DIR, "test-slurper-engine/src"));
+
+    // larger than the buffer, and not a multiple of it
+    //
+    WorkerThreadTest.TestFile inFile = new WorkerThreadTest.TestFile(fs, src, 10 * 1024 + 17);
+
+    for (CopyEngine.Type type : CopyEngine.Type.values()) {
+      CopyEngine engine = CopyEngine.create(type, new byte[4096]);
+      assertTrue(engine.accept(fs, src));
+
+      // the stats are shared by every copy in the process, so only look at what this copy added
+      //
+      long bytesBefore = CopyEngine.getStats(type).getBytes();
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      CRC32 crc = new CRC32();
+      long bytes = engine.copy(fs, src, out, crc);
+
+      assertEquals(type.name(), 10 * 1024 + 17, bytes);
+      assertEquals(type.name(), inFile.getCRC32(), crc.getValue());
+
+      CRC32 outCrc = new CRC32();
+      outCrc.update(out.toByteArray());
+      assertEquals(type.name(), inFile.getCRC32(), outCrc.getValue());
+      assertEquals(type.name(), bytes, CopyEngine.getStats(type).getBytes() - bytesBefore);
+    }
+  }
+}
@@ -0,0 +1,192 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class DatasourceHostTest {
+
+  private static String TEST_ROOT_DIR =
+      new Path(System.getProperty("test.build.data", "/tmp")).toString().replace(' ', '+');
+
+  private FileSystem fs;
+  private Path baseDir;
+  private List<FileSystemManager> managers = new ArrayList<FileSystemManager>();
+
+  @Before
+  public void setUp() throws Exception {
+    fs = FileSystem.getLocal(new Configuration());
+    baseDir = fs.makeQualified(new Path(TEST_ROOT_DIR, "test-slurper-host"));
+    fs.delete(baseDir, true);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    for (FileSystemManager fsm : managers) {
+      fsm.shutdown();
+    }
+  }
+
+  private Config newConfig(String name, int files) throws Exception {
+    Path dir = new Path(baseDir, name);
+    fs.mkdirs(new Path(dir, "in"));
+    fs.mkdirs(new Path(dir, "work"));
+    fs.mkdirs(new Path(dir, "complete"));
+    for (int i = 0; i < files; i++) {
+      new WorkerThreadTest.TestFile(fs, new Path(dir, "landing/file-" + i), 1024);
+      fs.rename(new Path(dir, "landing/file-" + i), new Path(dir, "in/file-" + i));
+    }
+    return new Config()
+        .setDatasource(name)
+        .setSrcDir(new Path(dir, "in"))
+        .setWorkDir(new Path(dir, "work"))
+        .setErrorDir(new Path(dir, "error"))
+        .setCompleteDir(new Path(dir, "complete"))
+        .setDestDir(new Path(dir, "dest"))
+        .setDestStagingDir(new Path(dir, "stage"))
+        .setPollSleepPeriodMillis(100)
+        .setNumThreads(1)
+        .setSrcFs(fs)
+        .setDestFs(fs)
+        .setConfig(fs.getConf());
+  }
+
+  private DatasourceScheduler.Datasource start(Config config, int claimed) throws Exception {
+    FileSystemManager fsm = new FileSystemManager(config);
+    managers.add(fsm);
+    fsm.start();
+    for (int i = 0; i < 100 && fsm.getMetrics().getClaimQueueDepth() < claimed; i++) {
+      Thread.sleep(50);
+    }
+    return new DatasourceScheduler.Datasource(config, fsm, null);
+  }
+
+  @Test
+  public void testWeightedShares() throws Exception {
+    DatasourceScheduler.Datasource heavy = start(newConfig("heavy", 50).setWeight(2).setMaxConcurrency(10), 50);
+    DatasourceScheduler.Datasource light = start(newConfig("light", 50).setMaxConcurrency(10), 50);
+    DatasourceScheduler scheduler = new DatasourceScheduler(Arrays.asList(heavy, light));
+
+    Map<String, Integer> counts = new HashMap<String, Integer>();
+    for (int i = 0; i < 30; i++) {
+      DatasourceScheduler.Claim claim = scheduler.take(10);
+      String name = claim.getDatasource().getName();
+      counts.put(name, counts.containsKey(name) ? counts.get(name) + 1 : 1);
+      scheduler.release(claim);
+    }
+
+    assertEquals(20, (int) counts.get("heavy"));
+    assertEquals(10, (int) counts.get("light"));
+  }
+
+  @Test
+  public void testMaxConcurrency() throws Exception {
+    DatasourceScheduler.Datasource a = start(newConfig("a", 5).setMaxConcurrency(1), 5);
+    DatasourceScheduler.Datasource b = start(newConfig("b", 1), 1);
+    DatasourceScheduler scheduler = new DatasourceScheduler(Arrays.asList(a, b));
+
+    DatasourceScheduler.Claim first = scheduler.poll();
+    DatasourceScheduler.Claim second = scheduler.poll();
+    assertEquals("a", first.getDatasource().getName());
+    assertEquals("b", second.getDatasource().getName());
+
+    // a is at its limit and b has nothing left
+    //
+    assertNull(scheduler.poll());
+
+    scheduler.release(first);
+    assertEquals("a", scheduler.poll().getDatasource().getName());
+  }
+
+  @Test
+  public void testSmallFilesOnly() throws Exception {
+    DatasourceScheduler.Datasource fifo = start(newConfig("fifo", 2), 2);
+    DatasourceScheduler.Datasource large = start(newConfig("large", 2)
+        .setClaimPolicy(ClaimPolicy.MIXED).setSmallFileBytes(512), 2);
+    DatasourceScheduler.Datasource small = start(newConfig("small", 1)
+        .setClaimPolicy(ClaimPolicy.MIXED).setSmallFileBytes(2048), 1);
+    DatasourceScheduler scheduler = new DatasourceScheduler(Arrays.asList(fifo, large, small));
+
+    // only the MIXED datasource with files under its SMALL_FILE_BYTES has anything for a small file thread
+    //
+    assertEquals("small", scheduler.poll(true).getDatasource().getName());
+    assertNull(scheduler.poll(true));
+    assertNotNull(scheduler.poll(false));
+  }
+
+  @Test
+  public void testHostCopiesEveryDatasource() throws Exception {
+    List<Config> configs = Arrays.asList(newConfig("ds1", 10), newConfig("ds2", 10));
+    DatasourceHost host = new DatasourceHost(configs, 2);
+    host.start();
+    try {
+      for (int i = 0; i < 100 && !(completed("ds1") == 10 && completed("ds2") == 10); i++) {
+        Thread.sleep(100);
+      }
+      assertEquals(10, completed("ds1"));
+      assertEquals(10, completed("ds2"));
+      assertTrue(fs.exists(new Path(baseDir, "ds1/dest/file-0")));
+      assertTrue(fs.exists(new Path(baseDir, "ds2/dest/file-9")));
+
+      // each datasource has its own metrics
+      //
+      assertEquals(10, host.getDatasources().get(0).getFileSystemManager().getMetrics().getFiles());
+      assertEquals(10, host.getDatasources().get(1).getFileSystemManager().getMetrics().getFiles());
+    } finally {
+      host.shutdown();
+      DefaultMetricsSystem.shutdown();
+    }
+  }
+
+  @Test
+  public void testWorkersAreSharedByThreads() throws Exception {
+    List<Config> configs = new ArrayList<Config>();
+    for (int i = 0; i < 4; i++) {
+      configs.add(newConfig("ds" + i, 10).setMaxConcurrency(1));
+    }
+    DatasourceHost host = new DatasourceHost(configs, 4);
+    host.start();
+    try {
+      for (int i = 0; i < 100 && !allCompleted(configs, 10); i++) {
+        Thread.sleep(100);
+      }
+      assertTrue(allCompleted(configs, 10));
+
+      // each datasource copies one file at a time, so the threads take turns with a single worker for
+      // each of them, rather than each thread creating a worker for every datasource
+      //
+      assertEquals(4, host.getWorkersCreated());
+    } finally {
+      host.shutdown();
+      DefaultMetricsSystem.shutdown();
+    }
+  }
+
+  private boolean allCompleted(List<Config> configs, int files) throws Exception {
+    for (Config config : configs) {
+      if (completed(config.getDatasource()) != files) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int completed(String name) throws Exception {
+    return fs.listStatus(new Path(baseDir, name + "/complete")).length;
+  }
+}
@@ -0,0 +1,155 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.FileUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class DedupeIndexTest {
+
+  private static String TEST_ROOT_DIR =
+      new Path(System.getProperty("test.build.data", "/tmp")).toString().replace(' ', '+');
+
+  private File dir;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = new File(new Path(TEST_ROOT_DIR, "test-slurper-dedupe").toUri().getPath());
+    FileUtil.fullyDelete(dir);
+  }
+
+  private static String hash(String contents) throws Exception {
+    ContentHash hash = new ContentHash(null);
+    byte[] b = contents.getBytes("UTF-8");
+    hash.update(b, 0, b.length);
+    return hash.toHex();
+  }
+
+  @Test
+  public void testLookup() throws Exception {
+    DedupeIndex index = new DedupeIndex(dir, TimeUnit.HOURS.toMillis(1), 1000);
+    index.load();
+    String a = hash("a");
+    assertFalse(index.mightContainLength(1));
+    assertNull(index.lookup(a, 1, new Path("/dest/a")));
+
+    index.add(a, 1, new Path("/dest/a"));
+    assertTrue(index.mightContainLength(1));
+    DedupeIndex.Entry entry = index.lookup(a, 1, new Path("/dest/a"));
+    assertNotNull(entry);
+    assertEquals(new Path("/dest/a"), entry.getDest());
+
+    // the length has to match as well as the hash
+    //
+    assertNull(index.lookup(a, 2, new Path("/dest/a")));
+    assertNull(index.lookup(hash("b"), 1, new Path("/dest/a")));
+
+    // and so does the destination, since the copy can only be found there
+    //
+    assertNull(index.lookup(a, 1, new Path("/dest/b")));
+
+    // the entries are loaded again after a restart
+    //
+    index = new DedupeIndex(dir, TimeUnit.HOURS.toMillis(1), 1000);
+    index.load();
+    assertTrue(index.mightContainLength(1));
+    assertEquals(new Path("/dest/a"), index.lookup(a, 1, new Path("/dest/a")).getDest());
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    DedupeIndex index = new DedupeIndex(dir, 50, 1000);
+    index.load();
+    String a = hash("a");
+    index.add(a, 1, new Path("/dest/a"));
+    assertNotNull(index.lookup(a, 1, new Path("/dest/a")));
+    Thread.sleep(100);
+    assertNull(index.lookup(a, 1, new Path("/dest/a")));
+
+    // expired entries aren't loaded
+    //
+    index.load();
+    File bucket = new File(dir, a.substring(0, 2) + ".dedupe");
+    assertEquals(0, bucket.length());
+  }
+
+  @Test
+  public void testBucketLimit() throws Exception {
+    // a single entry per bucket
+    //
+    DedupeIndex index = new DedupeIndex(dir, TimeUnit.HOURS.toMillis(1), 1);
+    index.load();
+
+    // two hashes in the same bucket, the oldest of which is dropped
+    //
+    String first = "ab" + hash("first").substring(2);
+    String second = "ab" + hash("second").substring(2);
+    index.add(first, 5, new Path("/dest/first"));
+    index.add(second, 6, new Path("/dest/second"));
+    assertNull(index.lookup(first, 5, new Path("/dest/first")));
+    assertNotNull(index.lookup(second, 6, new Path("/dest/second")));
+  }
+
+  @Test
+  public void testTornEntry() throws Exception {
+    DedupeIndex index = new DedupeIndex(dir, TimeUnit.HOURS.toMillis(1), 1000);
+    index.load();
+    String a = hash("a");
+    index.add(a, 1, new Path("/dest/a"));
+
+    FileWriter writer = new FileWriter(new File(dir, a.substring(0, 2) + ".dedupe"), true);
+    writer.write(a + "\t1\t12");
+    writer.close();
+
+    index = new DedupeIndex(dir, TimeUnit.HOURS.toMillis(1), 1000);
+    index.load();
+    assertEquals(new Path("/dest/a"), index.lookup(a, 1, new Path("/dest/a")).getDest());
+  }
+
+  @Test
+  public void testSharedDirectory() throws Exception {
+    Config config = new Config().setDedupeDir(dir).setDedupeTtlHours(1).setDedupeMaxEntries(1000);
+    DedupeIndex first = DedupeIndex.create(config);
+    DedupeIndex second = DedupeIndex.create(config.setDedupeDir(new File(dir, "../" + dir.getName())));
+    assertSame(first, second);
+
+    // the instance stays open until every user has closed it
+    //
+    first.close();
+    assertSame(second, DedupeIndex.create(config));
+    second.close();
+    second.close();
+    DedupeIndex third = DedupeIndex.create(config);
+    assertNotSame(first, third);
+    third.close();
+  }
+
+  @Test
+  public void testContentHash() throws Exception {
+    FileSystem fs = FileSystem.getLocal(new Configuration());
+    Path file = new Path(dir.getPath(), "file");
+    FSDataOutputStream out = fs.create(file);
+    out.write("some contents".getBytes("UTF-8"));
+    out.close();
+
+    // the hash doesn't depend on the size of the buffer it's read with
+    //
+    assertEquals(hash("some contents"), ContentHash.of(fs, file, new byte[3]));
+    assertEquals(hash("some contents"), ContentHash.of(fs, file, new byte[4096]));
+  }
+}
@@ -0,0 +1,64 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class DirectoryCacheTest {
+
+  private static String TEST_ROOT_DIR =
+      new Path(System.getProperty("test.build.data", "/tmp")).toString().replace(' ', '+');
+
+  @Test
+  public void testCachedDirectoriesAreNotRecreated() throws Exception {
+    FileSystem localFs = FileSystem.getLocal(new Configuration());
+    Path baseDir = localFs.makeQualified(new Path(TEST_ROOT_DIR, "test-slurper-dircache"));
+    localFs.delete(baseDir, true);
+    Path dir = new Path(baseDir, "a/b");
+
+    RpcCountingFileSystem fs = new RpcCountingFileSystem(localFs);
+    DirectoryCache cache = new DirectoryCache(10, 60 * 1000);
+
+    cache.mkdirs(fs, dir);
+    assertTrue(localFs.exists(dir));
+    assertEquals(1, fs.getCalls());
+
+    cache.mkdirs(fs, dir);
+    assertEquals(1, fs.getCalls());
+    assertEquals(1, cache.getHits());
+
+    // forgetting the directory means it's created again, in case it was removed
+    //
+    localFs.delete(dir, true);
+    cache.invalidate(fs, dir);
+    cache.mkdirs(fs, dir);
+    assertTrue(localFs.exists(dir));
+    assertEquals(2, fs.getCalls());
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    FileSystem localFs = FileSystem.getLocal(new Configuration());
+    Path baseDir = localFs.makeQualified(new Path(TEST_ROOT_DIR, "test-slurper-dircache"));
+    RpcCountingFileSystem fs = new RpcCountingFileSystem(localFs);
+
+    // expired entries are checked again
+    //
+    DirectoryCache expiring = new DirectoryCache(10, 0);
+    expiring.mkdirs(fs, baseDir);
+    expiring.mkdirs(fs, baseDir);
+    assertEquals(2, fs.getCalls());
+
+    // as are the least recently used entries once the cache is full
+    //
+    DirectoryCache small = new DirectoryCache(1, 60 * 1000);
+    small.mkdirs(fs, new Path(baseDir, "x"));
+    small.mkdirs(fs, new Path(baseDir, "y"));
+    small.mkdirs(fs, new Path(baseDir, "x"));
+    assertEquals(5, fs.getCalls());
+  }
+}
@@ -0,0 +1,191 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+public class FileSystemManagerTest {
+
+  private static String TEST_ROOT_DIR =
+      new Path(System.getProperty("test.build.data", "/tmp")).toString().replace(' ', '+');
+
+  private FileSystem fs;
+  private Path inDir;
+  private Path workDir;
+  private Config config;
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration conf = new Configuration();
+    fs = FileSystem.getLocal(conf);
+
+    Path baseDir = fs.makeQualified(new Path(TEST_ROOT_DIR, "test-slurper-fsm"));
+    fs.delete(baseDir, true);
+
+    inDir = new Path(baseDir, "in");
+    workDir = new Path(baseDir, "work");
+    fs.mkdirs(inDir);
+    fs.mkdirs(workDir);
+
+    config = new Config()
+        .setSrcDir(inDir)
+        .setWorkDir(workDir)
+        .setPollSleepPeriodMillis(100)
+        .setSrcFs(fs)
+        .setConfig(conf);
+  }
+
+  @Test
+  public void testWatchPicksUpExistingFiles() throws Exception {
+    fs.create(new Path(inDir, "existing")).close();
+
+    config.setWatchSrcDir(true);
+    FileSystemManager fsm = new FileSystemManager(config);
+    fsm.start();
+
+    FileStatus status = fsm.pollForInboundFile(TimeUnit.MILLISECONDS, config.getPollSleepPeriodMillis());
+
+    assertEquals("existing", status.getPath().getName());
+    assertTrue(fs.exists(new Path(workDir, "existing")));
+    assertFalse(fs.exists(new Path(inDir, "existing")));
+
+    fsm.shutdown();
+  }
+
+  @Test
+  public void testWatchPicksUpNewFiles() throws Exception {
+    config.setWatchSrcDir(true);
+    FileSystemManager fsm = new FileSystemManager(config);
+    fsm.start();
+
+    // a hidden file which is renamed once it's written, as recommended in the README
+    //
+    Path hidden = new Path(inDir, ".landing");
+    fs.create(hidden).close();
+    fs.rename(hidden, new Path(inDir, "landed"));
+
+    FileStatus status = fsm.pollForInboundFile(TimeUnit.MILLISECONDS, config.getPollSleepPeriodMillis());
+
+    assertEquals("landed", status.getPath().getName());
+    assertTrue(fs.exists(new Path(workDir, "landed")));
+
+    fsm.shutdown();
+  }
+
+  @Test
+  public void testWatchUpdatesBacklog() throws Exception {
+    fs.create(new Path(inDir, "file-0")).close();
+    config.setWatchSrcDir(true).setClaimQueueDepth(1);
+    FileSystemManager fsm = new FileSystemManager(config);
+    fsm.start();
+    for (int i = 0; i < 100 && fsm.getMetrics().getClaimQueueDepth() != 1; i++) {
+      Thread.sleep(50);
+    }
+
+    // the claim queue is full, so the files which land now wait in the source directory
+    //
+    Path landing = new Path(inDir.getParent(), "landing");
+    for (int i = 1; i < 3; i++) {
+      fs.create(new Path(landing, "file-" + i)).close();
+      fs.rename(new Path(landing, "file-" + i), new Path(inDir, "file-" + i));
+    }
+    for (int i = 0; i < 100 && fsm.getMetrics().getBacklog() == 0; i++) {
+      Thread.sleep(50);
+    }
+    assertTrue(fsm.getMetrics().getBacklog() > 0);
+
+    for (int i = 0; i < 3; i++) {
+      assertNotNull(fsm.pollForInboundFile(TimeUnit.MILLISECONDS, config.getPollSleepPeriodMillis()));
+    }
+    for (int i = 0; i < 100 && fsm.getMetrics().getBacklog() != 0; i++) {
+      Thread.sleep(50);
+    }
+    assertEquals(0, fsm.getMetrics().getBacklog());
+
+    fsm.shutdown();
+  }
+
+  @Test
+  public void testScannerClaimsInBatches() throws Exception {
+    for (int i = 0; i < 5; i++) {
+      fs.create(new Path(inDir, "file-" + i)).close();
+    }
+
+    // a long poll period, so that the drained directory isn't listed again before we check
+    //
+    config.setClaimBatchSize(2).setClaimQueueDepth(1).setPollSleepPeriodMillis(5000);
+    FileSystemManager fsm = new FileSystemManager(config);
+    fsm.start();
+
+    for (int i = 0; i < 5; i++) {
+      FileStatus status = fsm.pollForInboundFile(TimeUnit.MILLISECONDS, config.getPollSleepPeriodMillis());
+      assertEquals(workDir, status.getPath().getParent());
+      assertTrue(fs.exists(status.getPath()));
+    }
+    assertEquals(0, fs.listStatus(inDir).length);
+
+    // every batch was claimed from the same listing
+    //
+    assertEquals(1, fsm.getMetrics().getHistogram(SlurperMetrics.Stage.LIST).getCount());
+
+    fsm.shutdown();
+  }
+
+  @Test
+  public void testLargeListingIsPickedInWindows() throws Exception {
+    // the smallest files are the last ones by name
+    //
+    for (int i = 0; i < 15; i++) {
+      FSDataOutputStream out = fs.create(new Path(inDir, "file-" + i));
+      out.write(new byte[15 - i]);
+      out.close();
+    }
+
+    config.setClaimPolicy(ClaimPolicy.SMALLEST_FIRST).setClaimBatchSize(1).setClaimQueueDepth(1)
+        .setPollSleepPeriodMillis(5000);
+    FileSystemManager fsm = new FileSystemManager(config);
+    fsm.start();
+
+    // only ten files are picked from the first listing, and they're still the smallest ones
+    //
+    for (int i = 14; i >= 0; i--) {
+      FileStatus status = fsm.pollForInboundFile(TimeUnit.MILLISECONDS, config.getPollSleepPeriodMillis());
+      assertEquals("file-" + i, status.getPath().getName());
+    }
+    assertEquals(2, fsm.getMetrics().getHistogram(SlurperMetrics.Stage.LIST).getCount());
+
+    fsm.shutdown();
+  }
+
+  @Test
+  public void testShutdownReturnsUnprocessedFiles() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      fs.create(new Path(inDir, "file-" + i)).close();
+    }
+
+    config.setClaimBatchSize(10).setClaimQueueDepth(10);
+    FileSystemManager fsm = new FileSystemManager(config);
+    fsm.start();
+
+    while (fsm.getClaimQueueDepth() < 3) {
+      Thread.sleep(10);
+    }
+    fsm.shutdown();
+
+    assertEquals(0, fs.listStatus(workDir).length);
+    for (int i = 0; i < 3; i++) {
+      assertTrue(fs.exists(new Path(inDir, "file-" + i)));
+    }
+  }
+}
@@ -0,0 +1,386 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.StringUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the full slurper against a {@link MiniDFSCluster} with a synthetic workload, and reports the
+ * sustained throughput and the latency from a file arriving in the source directory to it landing
+ * in HDFS.
+ * <p/>
+ * Run it with the test classpath, e.g.
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.alexholmes.hdfsslurper.IngestHarness \
+ *     -Dexec.args="--files 2000 --sizes 64k:90,4m:10 --rate 200 --threads 4"
+ * </pre>
+ */
+public class IngestHarness {
+  private static Log log = LogFactory.getLog(IngestHarness.class);
+
+  private static String TEST_ROOT_DIR =
+      new Path(System.getProperty("test.build.data", "/tmp")).toString().replace(' ', '+');
+
+  private static final long LANDED_POLL_MILLIS = 10;
+
+  /**
+   * The files which are dropped into the source directory.
+   */
+  public static class Workload {
+    private int files = 1000;
+    private long[] sizes = {64 * 1024};
+    private int[] weights = {1};
+    private double filesPerSecond;
+
+    public Workload setFiles(int files) {
+      this.files = files;
+      return this;
+    }
+
+    /**
+     * @param spec comma-separated size:weight pairs, e.g. "64k:90,4m:10" for 90% 64KB files and 10% 4MB files
+     */
+    public Workload setSizes(String spec) {
+      String[] parts = spec.split(",");
+      sizes = new long[parts.length];
+      weights = new int[parts.length];
+      for (int i = 0; i < parts.length; i++) {
+        String[] sizeAndWeight = parts[i].trim().split(":");
+        sizes[i] = StringUtils.TraditionalBinaryPrefix.string2long(sizeAndWeight[0]);
+        weights[i] = sizeAndWeight.length > 1 ? Integer.parseInt(sizeAndWeight[1]) : 1;
+      }
+      return this;
+    }
+
+    /**
+     * @param filesPerSecond the arrival rate, 0 drops all the files in at once
+     */
+    public Workload setFilesPerSecond(double filesPerSecond) {
+      this.filesPerSecond = filesPerSecond;
+      return this;
+    }
+
+    /**
+     * The file sizes, spread according to the weights and shuffled, and the same for every run.
+     */
+    private long[] getFileSizes() {
+      int totalWeight = 0;
+      for (int weight : weights) {
+        totalWeight += weight;
+      }
+      Random random = new Random(0);
+      long[] fileSizes = new long[files];
+      for (int i = 0; i < files; i++) {
+        int r = random.nextInt(totalWeight);
+        int j = 0;
+        while (r >= weights[j]) {
+          r -= weights[j++];
+        }
+        fileSizes[i] = sizes[j];
+      }
+      return fileSizes;
+    }
+  }
+
+  public static class Result {
+    private final int files;
+    private final int failed;
+    private final long bytes;
+    private final long elapsedNanos;
+    private final long[] latencyNanos;
+
+    private Result(int files, int failed, long bytes, long elapsedNanos, long[] latencyNanos) {
+      this.files = files;
+      this.failed = failed;
+      this.bytes = bytes;
+      this.elapsedNanos = elapsedNanos;
+      this.latencyNanos = latencyNanos;
+      Arrays.sort(this.latencyNanos);
+    }
+
+    public int getFiles() {
+      return files;
+    }
+
+    public int getFailed() {
+      return failed;
+    }
+
+    public double getFilesPerSecond() {
+      return files / toSeconds(elapsedNanos);
+    }
+
+    public double getMBPerSecond() {
+      return bytes / (1024.0 * 1024.0) / toSeconds(elapsedNanos);
+    }
+
+    public double getLatencyPercentileMillis(double percentile) {
+      if (latencyNanos.length == 0) {
+        return 0;
+      }
+      int index = (int) Math.ceil(percentile / 100 * latencyNanos.length) - 1;
+      return latencyNanos[Math.max(0, index)] / 1000000.0;
+    }
+
+    private static double toSeconds(long nanos) {
+      return Math.max(1, nanos) / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Files:        %d landed, %d failed%n" +
+          "Bytes:        %d%n" +
+          "Elapsed:      %.1fs%n" +
+          "Files/sec:    %.1f%n" +
+          "MB/sec:       %.1f%n" +
+          "Latency (ms): p50=%.0f p95=%.0f p99=%.0f max=%.0f",
+          files, failed, bytes, toSeconds(elapsedNanos), getFilesPerSecond(), getMBPerSecond(),
+          getLatencyPercentileMillis(50), getLatencyPercentileMillis(95), getLatencyPercentileMillis(99),
+          getLatencyPercentileMillis(100));
+    }
+  }
+
+  private int dataNodes = 1;
+  private int threads = 1;
+  private CompressionCodec codec;
+  private boolean verify;
+  private boolean watchSrcDir;
+  private long timeoutMillis = TimeUnit.MINUTES.toMillis(30);
+
+  public IngestHarness setDataNodes(int dataNodes) {
+    this.dataNodes = dataNodes;
+    return this;
+  }
+
+  public IngestHarness setThreads(int threads) {
+    this.threads = threads;
+    return this;
+  }
+
+  public IngestHarness setCodec(CompressionCodec codec) {
+    this.codec = codec;
+    return this;
+  }
+
+  public IngestHarness setVerify(boolean verify) {
+    this.verify = verify;
+    return this;
+  }
+
+  public IngestHarness setWatchSrcDir(boolean watchSrcDir) {
+    this.watchSrcDir = watchSrcDir;
+    return this;
+  }
+
+  public IngestHarness setTimeoutMillis(long timeoutMillis) {
+    this.timeoutMillis = timeoutMillis;
+    return this;
+  }
+
+  public Result run(Workload workload) throws Exception {
+    Configuration conf = new Configuration();
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(dataNodes).build();
+    Slurper slurper = null;
+    try {
+      FileSystem dfs = cluster.getFileSystem();
+      FileSystem localFs = FileSystem.getLocal(conf);
+
+      File baseDir = new File(TEST_ROOT_DIR, "slurper-ingest-harness");
+      org.apache.commons.io.FileUtils.deleteQuietly(baseDir);
+      File landingDir = new File(baseDir, "landing");
+      File inDir = new File(baseDir, "in");
+      File completeDir = new File(baseDir, "complete");
+      File errorDir = new File(baseDir, "error");
+      for (File dir : Arrays.asList(landingDir, inDir, completeDir, errorDir, new File(baseDir, "work"))) {
+        if (!dir.mkdirs()) {
+          throw new IOException("Failed to create " + dir);
+        }
+      }
+
+      Config config = new Config()
+          .setDatasource("harness")
+          .setSrcDir(localFs.makeQualified(new Path(inDir.getAbsolutePath())))
+          .setWorkDir(localFs.makeQualified(new Path(baseDir.getAbsolutePath(), "work")))
+          .setCompleteDir(localFs.makeQualified(new Path(completeDir.getAbsolutePath())))
+          .setErrorDir(localFs.makeQualified(new Path(errorDir.getAbsolutePath())))
+          .setDestDir(dfs.makeQualified(new Path("/harness/dest")))
+          .setDestStagingDir(dfs.makeQualified(new Path("/harness/stage")))
+          .setNumThreads(threads)
+          .setPollSleepPeriodMillis(100)
+          .setWatchSrcDir(watchSrcDir)
+          .setCodec(codec)
+          .setVerify(verify)
+          .setSrcFs(localFs)
+          .setDestFs(dfs)
+          .setConfig(conf);
+
+      slurper = new Slurper(config);
+      slurper.start();
+
+      Map<String, Long> arrivals = new ConcurrentHashMap<String, Long>();
+      Thread generator = startGenerator(workload, landingDir, inDir, arrivals);
+
+      // a file has landed once the slurper moves it into the complete directory, which happens
+      // right after it's been renamed into its final place in HDFS
+      //
+      List<Long> latencies = new ArrayList<Long>();
+      Set<String> landed = new HashSet<String>();
+      long firstArrival = 0;
+      long lastLanded = 0;
+      int failed = 0;
+      long deadline = System.currentTimeMillis() + timeoutMillis;
+      while (landed.size() + failed < workload.files) {
+        if (System.currentTimeMillis() > deadline) {
+          throw new IOException("Timed out with " + landed.size() + " of " + workload.files + " files landed");
+        }
+        Thread.sleep(LANDED_POLL_MILLIS);
+        long now = System.nanoTime();
+        for (String name : completeDir.list()) {
+          if (landed.add(name)) {
+            latencies.add(now - arrivals.get(name));
+            lastLanded = now;
+          }
+        }
+        failed = errorDir.list().length;
+      }
+      generator.join();
+
+      long bytes = 0;
+      for (File file : completeDir.listFiles()) {
+        bytes += file.length();
+      }
+      for (long arrival : arrivals.values()) {
+        firstArrival = firstArrival == 0 ? arrival : Math.min(firstArrival, arrival);
+      }
+
+      long[] latencyNanos = new long[latencies.size()];
+      for (int i = 0; i < latencyNanos.length; i++) {
+        latencyNanos[i] = latencies.get(i);
+      }
+      return new Result(landed.size(), failed, bytes, lastLanded - firstArrival, latencyNanos);
+
+    } finally {
+      if (slurper != null) {
+        slurper.shutdown();
+      }
+      DefaultMetricsSystem.shutdown();
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Writes each file outside of the source directory and then moves it in at the workload's
+   * arrival rate, recording when it arrived.
+   */
+  private Thread startGenerator(final Workload workload, final File landingDir, final File inDir,
+                                final Map<String, Long> arrivals) {
+    Thread generator = new Thread("IngestHarness-generator") {
+      @Override
+      public void run() {
+        try {
+          byte[] buffer = new byte[64 * 1024];
+          new Random(0).nextBytes(buffer);
+          long[] fileSizes = workload.getFileSizes();
+          long start = System.nanoTime();
+          for (int i = 0; i < fileSizes.length; i++) {
+            String name = "file-" + i;
+            File file = new File(landingDir, name);
+            OutputStream os = new FileOutputStream(file);
+            try {
+              for (long written = 0; written < fileSizes[i]; written += buffer.length) {
+                os.write(buffer, 0, (int) Math.min(buffer.length, fileSizes[i] - written));
+              }
+            } finally {
+              os.close();
+            }
+
+            if (workload.filesPerSecond > 0) {
+              long due = start + (long) (i * TimeUnit.SECONDS.toNanos(1) / workload.filesPerSecond);
+              long wait = due - System.nanoTime();
+              if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+              }
+            }
+
+            arrivals.put(name, System.nanoTime());
+            if (!file.renameTo(new File(inDir, name))) {
+              throw new IOException("Failed to move " + file + " into " + inDir);
+            }
+          }
+        } catch (Exception e) {
+          log.error("Failed to generate the workload", e);
+        }
+      }
+    };
+    generator.setDaemon(true);
+    generator.start();
+    return generator;
+  }
+
+  public static void main(String... args) throws Exception {
+    Options options = new Options();
+    options.addOption(null, "files", true, "The number of files (default 1000)");
+    options.addOption(null, "sizes", true, "Comma-separated size:weight pairs, e.g. 64k:90,4m:10 (default 64k)");
+    options.addOption(null, "rate", true, "Arrival rate in files per second, 0 drops them in all at once (default 0)");
+    options.addOption(null, "threads", true, "The number of slurper threads (default 1)");
+    options.addOption(null, "datanodes", true, "The number of data nodes (default 1)");
+    options.addOption(null, "codec", true, "The compression codec class (default none)");
+    options.addOption(null, "verify", false, "Verify copies");
+    options.addOption(null, "watch", false, "Watch the source directory for events rather than polling it");
+
+    CommandLine commandLine;
+    try {
+      commandLine = new PosixParser().parse(options, args, false);
+    } catch (ParseException e) {
+      System.err.println(e.getMessage());
+      new HelpFormatter().printHelp("IngestHarness", options, true);
+      System.exit(1);
+      return;
+    }
+
+    Workload workload = new Workload()
+        .setFiles(Integer.parseInt(commandLine.getOptionValue("files", "1000")))
+        .setSizes(commandLine.getOptionValue("sizes", "64k"))
+        .setFilesPerSecond(Double.parseDouble(commandLine.getOptionValue("rate", "0")));
+
+    IngestHarness harness = new IngestHarness()
+        .setThreads(Integer.parseInt(commandLine.getOptionValue("threads", "1")))
+        .setDataNodes(Integer.parseInt(commandLine.getOptionValue("datanodes", "1")))
+        .setVerify(commandLine.hasOption("verify"))
+        .setWatchSrcDir(commandLine.hasOption("watch"));
+    if (commandLine.hasOption("codec")) {
+      harness.setCodec((CompressionCodec) ReflectionUtils.newInstance(
+          Class.forName(commandLine.getOptionValue("codec")), new Configuration()));
+    }
+
+    System.out.println(harness.run(workload));
+    System.exit(0);
+  }
+}
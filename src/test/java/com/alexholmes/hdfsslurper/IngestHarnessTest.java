@@ -0,0 +1,27 @@
+package com.alexholmes.hdfsslurper;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class IngestHarnessTest {
+
+  @Test
+  public void testSmallWorkload() throws Exception {
+    IngestHarness.Result result = new IngestHarness()
+        .setThreads(2)
+        .setVerify(true)
+        .setTimeoutMillis(60 * 1000)
+        .run(new IngestHarness.Workload()
+            .setFiles(20)
+            .setSizes("1k:3,100k:1")
+            .setFilesPerSecond(50));
+
+    assertEquals(20, result.getFiles());
+    assertEquals(0, result.getFailed());
+    assertTrue(result.getFilesPerSecond() > 0);
+    assertTrue(result.getLatencyPercentileMillis(50) > 0);
+    assertTrue(result.getLatencyPercentileMillis(100) >= result.getLatencyPercentileMillis(99));
+  }
+}
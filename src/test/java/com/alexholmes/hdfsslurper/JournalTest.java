@@ -0,0 +1,213 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class JournalTest {
+
+  private static String TEST_ROOT_DIR =
+      new Path(System.getProperty("test.build.data", "/tmp")).toString().replace(' ', '+');
+
+  private FileSystem fs;
+  private Path baseDir;
+  private File journalDir;
+  private Config config;
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration conf = new Configuration();
+    fs = FileSystem.getLocal(conf);
+    baseDir = fs.makeQualified(new Path(TEST_ROOT_DIR, "test-slurper-journal"));
+    fs.delete(baseDir, true);
+    for (String dir : new String[]{"in", "work", "complete", "error", "stage", "dest"}) {
+      fs.mkdirs(new Path(baseDir, dir));
+    }
+    journalDir = new File(new Path(baseDir, "journal").toUri().getPath());
+    journalDir.mkdirs();
+
+    config = new Config()
+        .setDatasource("test")
+        .setSrcDir(new Path(baseDir, "in"))
+        .setWorkDir(new Path(baseDir, "work"))
+        .setCompleteDir(new Path(baseDir, "complete"))
+        .setErrorDir(new Path(baseDir, "error"))
+        .setDestStagingDir(new Path(baseDir, "stage"))
+        .setDestDir(new Path(baseDir, "dest"))
+        .setJournalDir(journalDir)
+        .setNumThreads(4)
+        .setSrcFs(fs)
+        .setDestFs(fs)
+        .setConfig(conf);
+  }
+
+  private Path write(String path, String contents) throws Exception {
+    Path p = new Path(baseDir, path);
+    FSDataOutputStream out = fs.create(p);
+    out.write(contents.getBytes("UTF-8"));
+    out.close();
+    return p;
+  }
+
+  @Test
+  public void testReplayKeepsFilesInFlight() throws Exception {
+    Journal journal = Journal.create(config);
+    assertTrue(journal.open().isEmpty());
+
+    Path a = new Path(baseDir, "work/a");
+    Path b = new Path(baseDir, "work/b");
+    journal.record(Journal.State.CLAIMED, a);
+    journal.record(Journal.State.CLAIMED, b);
+    journal.record(Journal.State.STAGED, a, new Path(baseDir, "stage/1"), new Path(baseDir, "dest/a"));
+    journal.record(Journal.State.COMMITTED, b, new Path(baseDir, "stage/2"), new Path(baseDir, "dest/b"));
+    journal.record(Journal.State.FINALIZED, b);
+    journal.close();
+
+    // a record which was only partly written when the process died
+    //
+    FileWriter torn = new FileWriter(new File(journalDir, "test.journal"), true);
+    torn.write("COMMITTED\tfile:/tm");
+    torn.close();
+
+    journal = Journal.create(config);
+    List<Journal.Entry> entries = journal.open();
+    assertEquals(1, entries.size());
+    assertEquals(Journal.State.STAGED, entries.get(0).getState());
+    assertEquals(a, entries.get(0).getSrc());
+    assertEquals(new Path(baseDir, "dest/a"), entries.get(0).getDest());
+    journal.close();
+
+    // opening the journal rewrote it with just the file in flight
+    //
+    assertEquals(1, Journal.create(config).open().size());
+  }
+
+  @Test
+  public void testRecovery() throws Exception {
+    Journal journal = Journal.create(config);
+    journal.open();
+
+    // committed, but the source file wasn't finalized
+    //
+    Path committed = write("work/committed", "committed");
+    write("dest/committed", "committed");
+    journal.record(Journal.State.COMMITTED, committed, new Path(baseDir, "stage/1"), new Path(baseDir, "dest/committed"));
+
+    // staged, and the staging file is intact
+    //
+    Path staged = write("work/staged", "staged");
+    journal.record(Journal.State.STAGED, staged, write("stage/2", "staged"), new Path(baseDir, "dest/staged"));
+
+    // staged, but the staging file doesn't match
+    //
+    Path corrupt = write("work/corrupt", "corrupt");
+    journal.record(Journal.State.STAGED, corrupt, write("stage/3", "corrupted"), new Path(baseDir, "dest/corrupt"));
+
+    Path claimed = write("work/claimed", "claimed");
+    journal.record(Journal.State.CLAIMED, claimed);
+
+    // moved into the complete directory just before the process died
+    //
+    journal.record(Journal.State.CLAIMED, new Path(baseDir, "work/gone"));
+
+    write("work/unknown", "unknown");
+    journal.close();
+
+    FileSystemManager fsm = new FileSystemManager(config);
+    fsm.recoverWorkFiles();
+
+    assertTrue(fs.exists(new Path(baseDir, "complete/committed")));
+    assertTrue(fs.exists(new Path(baseDir, "complete/staged")));
+    assertTrue(fs.exists(new Path(baseDir, "dest/staged")));
+    assertFalse(fs.exists(new Path(baseDir, "stage/2")));
+    assertTrue(fs.exists(new Path(baseDir, "in/corrupt")));
+    assertFalse(fs.exists(new Path(baseDir, "stage/3")));
+    assertTrue(fs.exists(new Path(baseDir, "in/claimed")));
+    assertTrue(fs.exists(new Path(baseDir, "error/unknown")));
+    assertEquals(0, fs.listStatus(new Path(baseDir, "work")).length);
+    assertEquals(0, fsm.getJournal().getInFlight());
+    fsm.close();
+
+    assertTrue(Journal.create(config).open().isEmpty());
+  }
+
+  @Test
+  public void testStagingFileMovedBeforeCommitWasRecorded() throws Exception {
+    Journal journal = Journal.create(config);
+    journal.open();
+
+    // the staging file was renamed into the destination, and the process died before it was recorded
+    //
+    Path renamed = write("work/renamed", "renamed");
+    write("dest/renamed", "renamed");
+    journal.record(Journal.State.VERIFIED, renamed, new Path(baseDir, "stage/1"), new Path(baseDir, "dest/renamed"));
+
+    // the destination is left over from an earlier copy of a different file
+    //
+    Path stale = write("work/stale", "stale");
+    write("dest/stale", "an older file");
+    journal.record(Journal.State.STAGED, stale, new Path(baseDir, "stage/2"), new Path(baseDir, "dest/stale"));
+    journal.close();
+
+    FileSystemManager fsm = new FileSystemManager(config);
+    Map<JournalRecovery.Outcome, Integer> outcomes =
+        new JournalRecovery(config, fsm).run(fsm.getJournal().open());
+    assertEquals(1, (int) outcomes.get(JournalRecovery.Outcome.COMMITTED));
+    assertEquals(1, (int) outcomes.get(JournalRecovery.Outcome.RETURNED));
+    assertTrue(fs.exists(new Path(baseDir, "complete/renamed")));
+    assertTrue(fs.exists(new Path(baseDir, "in/stale")));
+    fsm.close();
+  }
+
+  @Test
+  public void testRecordFailsIfJournalCantBeRewritten() throws Exception {
+    // the rewritten journal can't be created
+    //
+    assertTrue(new File(journalDir, "test.journal.tmp").mkdirs());
+
+    Journal journal = Journal.create(config);
+    try {
+      journal.open();
+      fail("Expected the journal to fail to open");
+    } catch (IOException e) {
+      // expected
+    }
+    try {
+      journal.record(Journal.State.CLAIMED, new Path(baseDir, "work/a"));
+      fail("Expected the record to fail");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testRecoveryOutcomes() throws Exception {
+    Journal journal = Journal.create(config);
+    journal.open();
+    for (int i = 0; i < 20; i++) {
+      journal.record(Journal.State.CLAIMED, write("work/file-" + i, "data"));
+    }
+    journal.close();
+
+    FileSystemManager fsm = new FileSystemManager(config);
+    Map<JournalRecovery.Outcome, Integer> outcomes =
+        new JournalRecovery(config, fsm).run(fsm.getJournal().open());
+    assertEquals(20, (int) outcomes.get(JournalRecovery.Outcome.RETURNED));
+    assertEquals(20, fs.listStatus(new Path(baseDir, "in")).length);
+    fsm.close();
+  }
+}
@@ -0,0 +1,162 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class LzoIndexingOutputStreamTest {
+
+  private static String TEST_ROOT_DIR =
+      new Path(System.getProperty("test.build.data", "/tmp")).toString().replace(' ', '+');
+
+  private static final byte[] MAGIC = {(byte) 0x89, 'L', 'Z', 'O', 0x00, '\r', '\n', 0x1a, '\n'};
+
+  /**
+   * Builds an lzop stream with the same header as hadoop-lzo writes, and blocks of junk.
+   */
+  private static class LzopStream {
+    final DataOutputBuffer out = new DataOutputBuffer();
+    final List<Long> offsets = new ArrayList<Long>();
+    final int flags;
+
+    LzopStream(int flags, String name) throws IOException {
+      this.flags = flags;
+      out.write(MAGIC);
+      out.writeShort(0x1010);
+      out.writeShort(0x2050);
+      out.writeShort(0x0940);
+      out.writeByte(1);
+      out.writeByte(5);
+      out.writeInt(flags);
+      out.writeInt(0x81A4);
+      out.writeInt(0);
+      out.writeInt(0);
+      out.writeByte(name.length());
+      out.writeBytes(name);
+      out.writeInt(0);
+    }
+
+    LzopStream block(int uncompressed, int compressed) throws IOException {
+      offsets.add((long) out.getLength());
+      out.writeInt(uncompressed);
+      out.writeInt(compressed);
+      int checksums = Integer.bitCount(flags & 0x101);
+      if (compressed < uncompressed) {
+        checksums += Integer.bitCount(flags & 0x202);
+      }
+      for (int i = 0; i < checksums; i++) {
+        out.writeInt(0x12345678);
+      }
+      for (int i = 0; i < compressed; i++) {
+        out.writeByte(i);
+      }
+      return this;
+    }
+
+    LzopStream end() throws IOException {
+      out.writeInt(0);
+      return this;
+    }
+
+    byte[] toByteArray() {
+      byte[] b = new byte[out.getLength()];
+      System.arraycopy(out.getData(), 0, b, 0, b.length);
+      return b;
+    }
+  }
+
+  private static LzoIndexingOutputStream writeInChunks(byte[] data, int chunk) throws IOException {
+    ByteArrayOutputStream copy = new ByteArrayOutputStream();
+    LzoIndexingOutputStream os = new LzoIndexingOutputStream(copy);
+    for (int i = 0; i < data.length; i += chunk) {
+      os.write(data, i, Math.min(chunk, data.length - i));
+    }
+    os.close();
+    assertEquals(data.length, copy.size());
+    return os;
+  }
+
+  private static List<Long> readIndex(FileSystem fs, Path path) throws IOException {
+    List<Long> offsets = new ArrayList<Long>();
+    FSDataInputStream is = fs.open(path);
+    try {
+      for (long i = 0; i < fs.getFileStatus(path).getLen() / 8; i++) {
+        offsets.add(is.readLong());
+      }
+    } finally {
+      is.close();
+    }
+    return offsets;
+  }
+
+  @Test
+  public void testOffsets() throws Exception {
+    FileSystem fs = FileSystem.getLocal(new Configuration());
+    Path index = new Path(TEST_ROOT_DIR, "test-lzo-index/file.lzo.index");
+
+    LzopStream lzop = new LzopStream(0, "").block(256 * 1024, 1000).block(256 * 1024, 70000).block(10, 10).end();
+    byte[] data = lzop.toByteArray();
+
+    // the offsets don't depend on how the writes are split up
+    //
+    for (int chunk : new int[]{1, 3, 7, 4096, data.length}) {
+      LzoIndexingOutputStream os = writeInChunks(data, chunk);
+      assertTrue(os.isComplete());
+      assertEquals(3, os.getBlockCount());
+      os.writeIndex(fs, index);
+      assertEquals(lzop.offsets, readIndex(fs, index));
+    }
+  }
+
+  @Test
+  public void testChecksumsAndFileName() throws Exception {
+    // adler32 and crc32 of the uncompressed data, and adler32 of the compressed data, which is
+    // left out of blocks which were stored uncompressed
+    //
+    LzopStream lzop = new LzopStream(0x01 | 0x100 | 0x02, "access.log")
+        .block(1000, 500).block(20, 20).block(1000, 999).end();
+
+    LzoIndexingOutputStream os = writeInChunks(lzop.toByteArray(), 5);
+    assertTrue(os.isComplete());
+    assertEquals(3, os.getBlockCount());
+  }
+
+  @Test
+  public void testEmptyStream() throws Exception {
+    LzoIndexingOutputStream os = writeInChunks(new LzopStream(0, "").end().toByteArray(), 2);
+    assertTrue(os.isComplete());
+    assertEquals(0, os.getBlockCount());
+  }
+
+  @Test
+  public void testIncompleteStreams() throws Exception {
+    // no end-of-stream marker
+    //
+    assertFalse(writeInChunks(new LzopStream(0, "").block(100, 50).toByteArray(), 10).isComplete());
+
+    // trailing data
+    //
+    byte[] data = new LzopStream(0, "").block(100, 50).end().block(100, 50).end().toByteArray();
+    assertFalse(writeInChunks(data, 10).isComplete());
+
+    // not lzop
+    //
+    LzoIndexingOutputStream os = new LzoIndexingOutputStream(new NullOutputStream());
+    os.write(new byte[1024]);
+    os.close();
+    assertFalse(os.isComplete());
+  }
+}
@@ -0,0 +1,167 @@
+package com.alexholmes.hdfsslurper;
+
+import com.hadoop.compression.lzo.LzoCodec;
+import com.hadoop.compression.lzo.LzoIndex;
+import com.hadoop.compression.lzo.LzoIndexer;
+import com.hadoop.compression.lzo.LzopCodec;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class ParallelCompressionOutputStreamTest {
+
+  private static String TEST_ROOT_DIR =
+      new Path(System.getProperty("test.build.data", "/tmp")).toString().replace(' ', '+');
+
+  private static byte[] roundTrip(CompressionCodec codec, byte[] data) throws Exception {
+    Config config = new Config().setCodec(codec).setCompressionThreads(4).setCompressionBlockSize(1000);
+    CompressionStreamFactory factory = new CompressionStreamFactory(config);
+    assertTrue(factory.isParallel());
+
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    OutputStream os = factory.createOutputStream(compressed);
+
+    // uneven writes which straddle the block boundaries
+    //
+    for (int off = 0; off < data.length; off += 777) {
+      os.write(data, off, Math.min(777, data.length - off));
+    }
+    os.close();
+
+    InputStream is = codec.createInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+    ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+    org.apache.commons.io.IOUtils.copy(is, decompressed);
+    is.close();
+    return decompressed.toByteArray();
+  }
+
+  private static byte[] newData() {
+    byte[] data = new byte[100 * 1000 + 17];
+    Random random = new Random(42);
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) ('a' + random.nextInt(4));
+    }
+    return data;
+  }
+
+  private static List<Long> readIndex(FileSystem fs, Path path) throws IOException {
+    List<Long> offsets = new ArrayList<Long>();
+    FSDataInputStream is = fs.open(path);
+    try {
+      for (long i = 0; i < fs.getFileStatus(path).getLen() / 8; i++) {
+        offsets.add(is.readLong());
+      }
+    } finally {
+      is.close();
+    }
+    return offsets;
+  }
+
+  @Test
+  public void testConcatenatedCodecs() throws Exception {
+    Configuration conf = new Configuration();
+    byte[] data = newData();
+
+    for (CompressionCodec codec : new CompressionCodec[]{
+        ReflectionUtils.newInstance(GzipCodec.class, conf),
+        ReflectionUtils.newInstance(DefaultCodec.class, conf)}) {
+      String name = codec.getClass().getSimpleName();
+      assertTrue(name, Arrays.equals(data, roundTrip(codec, data)));
+      assertEquals(name, 0, roundTrip(codec, new byte[0]).length);
+    }
+  }
+
+  @Test
+  public void testUnsupportedCodecIsSerial() throws Exception {
+    CompressionCodec codec = ReflectionUtils.newInstance(BZip2Codec.class, new Configuration());
+    assertFalse(CompressionStreamFactory.isParallelizable(codec));
+    assertFalse(new CompressionStreamFactory(new Config().setCodec(codec).setCompressionThreads(4)).isParallel());
+  }
+
+  /**
+   * Behaves like Snappy and LZ4 do when the native library isn't loaded.
+   */
+  public static class NativeOnlyCodec extends DefaultCodec {
+    @Override
+    public Decompressor createDecompressor() {
+      throw new RuntimeException("native library not available");
+    }
+  }
+
+  @Test
+  public void testCodecWithoutNativeLibraryIsSerial() throws Exception {
+    CompressionCodec codec = ReflectionUtils.newInstance(NativeOnlyCodec.class, new Configuration());
+    assertFalse(CompressionStreamFactory.isParallelizable(codec));
+    assertFalse(new CompressionStreamFactory(new Config().setCodec(codec).setCompressionThreads(4)).isParallel());
+  }
+
+  @Test
+  public void testLzopIsIndexable() throws Exception {
+    Configuration conf = new Configuration();
+    Assume.assumeTrue(LzoCodec.isNativeLzoLoaded(conf));
+    conf.set("io.compression.codecs", LzopCodec.class.getName());
+
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path dir = fs.makeQualified(new Path(TEST_ROOT_DIR, "test-slurper-parallel-lzop"));
+    fs.delete(dir, true);
+    Path file = new Path(dir, "file.lzo");
+    Path streamIndex = new Path(dir, "stream" + LzoIndex.LZO_INDEX_SUFFIX);
+
+    // the same stack of streams as a worker uses, with the index built from the compressed blocks as
+    // they're written
+    //
+    LzopCodec codec = ReflectionUtils.newInstance(LzopCodec.class, conf);
+    Config config = new Config().setCodec(codec).setCompressionThreads(4).setCompressionBlockSize(1000);
+    CompressionStreamFactory factory = new CompressionStreamFactory(config);
+    assertTrue(factory.isParallel());
+
+    byte[] data = newData();
+    LzoIndexingOutputStream indexingStream = new LzoIndexingOutputStream(fs.create(file));
+    OutputStream os = factory.createOutputStream(indexingStream);
+    for (int off = 0; off < data.length; off += 777) {
+      os.write(data, off, Math.min(777, data.length - off));
+    }
+    os.close();
+
+    // one lzop stream, with a block for each of the parallel blocks
+    //
+    assertTrue(indexingStream.isComplete());
+    assertTrue(indexingStream.getBlockCount() >= data.length / 1000);
+    indexingStream.writeIndex(fs, streamIndex);
+
+    InputStream is = codec.createInputStream(fs.open(file));
+    ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+    org.apache.commons.io.IOUtils.copy(is, decompressed);
+    is.close();
+    assertTrue(Arrays.equals(data, decompressed.toByteArray()));
+
+    // hadoop-lzo finds the same block offsets when it reads the file back
+    //
+    new LzoIndexer(conf).index(file);
+    Path lzoIndex = new Path(file.toString() + LzoIndex.LZO_INDEX_SUFFIX);
+    assertEquals(readIndex(fs, lzoIndex), readIndex(fs, streamIndex));
+  }
+}
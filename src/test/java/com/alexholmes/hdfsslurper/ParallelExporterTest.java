@@ -0,0 +1,149 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class ParallelExporterTest {
+
+  private static String TEST_ROOT_DIR =
+      new Path(System.getProperty("test.build.data", "/tmp")).toString().replace(' ', '+');
+
+  private static final int BLOCK_SIZE = 64 * 1024;
+
+  private static BlockLocation block(long offset, long length, String host) {
+    return new BlockLocation(new String[]{host + ":50010"}, new String[]{host}, offset, length);
+  }
+
+  @Test
+  public void testSplit() throws Exception {
+    BlockLocation[] blocks = {
+        block(0, 100, "dn1"), block(100, 100, "dn1"), block(200, 100, "dn2"), block(300, 50, "dn3")
+    };
+
+    // ranges never cross a block, and are taken from each DataNode in turn
+    //
+    List<ParallelExporter.Range> ranges = ParallelExporter.split(blocks, 350, 2);
+    assertEquals(4, ranges.size());
+    long[] offsets = {0, 200, 300, 100};
+    for (int i = 0; i < offsets.length; i++) {
+      assertEquals(offsets[i], ranges.get(i).getOffset());
+    }
+
+    // a single block is split so that every thread has something to read
+    //
+    ranges = ParallelExporter.split(new BlockLocation[]{block(0, 1000, "dn1")}, 1000, 3);
+    assertEquals(3, ranges.size());
+    assertEquals(334, ranges.get(0).getLength());
+    assertEquals(332, ranges.get(2).getLength());
+  }
+
+  @Test(expected = IOException.class)
+  public void testMissingBlock() throws Exception {
+    ParallelExporter.split(new BlockLocation[]{block(0, 100, "dn1")}, 200, 2);
+  }
+
+  @Test
+  public void testExport() throws Exception {
+    FileSystem fs = FileSystem.getLocal(new Configuration());
+    Path dir = fs.makeQualified(new Path(TEST_ROOT_DIR, "test-slurper-export"));
+    fs.delete(dir, true);
+    Path src = new Path(dir, "src");
+    Path staging = new Path(dir, "staging");
+
+    byte[] data = new byte[1024 * 1024 + 17];
+    new Random(0).nextBytes(data);
+    FSDataOutputStream out = fs.create(src);
+    out.write(data);
+    out.close();
+
+    // a stale staging file which is longer than the source
+    //
+    out = fs.create(staging);
+    out.write(new byte[2 * data.length]);
+    out.close();
+
+    Config config = new Config().setExportThreshold(1).setExportThreads(4).setCopyBufferSize(4096);
+    ParallelExporter exporter = new ParallelExporter(config, "test", null);
+    FileStatus status = fs.getFileStatus(src);
+
+    // both ends are local, so this file would be copied as a stream
+    //
+    assertFalse(exporter.accept(status, fs, fs));
+
+    exporter.export(fs, status, fs, staging, true);
+    exporter.shutdown();
+
+    assertEquals(data.length, fs.getFileStatus(staging).getLen());
+    assertEquals(WorkerThreadTest.hdfsFileCRC32(fs, null, src), WorkerThreadTest.hdfsFileCRC32(fs, null, staging));
+  }
+
+  @Test
+  public void testExportFromDfs() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, 0);
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    try {
+      FileSystem dfs = cluster.getFileSystem();
+      FileSystem localFs = FileSystem.getLocal(conf);
+      Path localDir = localFs.makeQualified(new Path(TEST_ROOT_DIR, "test-slurper-export-dfs"));
+      localFs.delete(localDir, true);
+
+      Config c = new Config()
+          .setSrcDir(dfs.makeQualified(new Path("/in")))
+          .setWorkDir(dfs.makeQualified(new Path("/work")))
+          .setErrorDir(dfs.makeQualified(new Path("/error")))
+          .setCompleteDir(dfs.makeQualified(new Path("/complete")))
+          .setDestDir(new Path(localDir, "dest"))
+          .setDestStagingDir(new Path(localDir, "stage"))
+          .setExportThreshold(BLOCK_SIZE)
+          .setExportThreads(4)
+          .setVerify(true)
+          .setSrcFs(dfs)
+          .setDestFs(localFs)
+          .setConfig(dfs.getConf());
+      dfs.mkdirs(c.getCompleteDir());
+
+      // a size which spans several blocks, and doesn't end on a block boundary
+      //
+      Path workFile = new Path(c.getWorkDir(), "large-file");
+      WorkerThreadTest.TestFile inFile = new WorkerThreadTest.TestFile(dfs, workFile, 5 * BLOCK_SIZE + 123);
+      FileStatus status = dfs.getFileStatus(workFile);
+      assertEquals(6, dfs.getFileBlockLocations(status, 0, status.getLen()).length);
+      assertTrue(new ParallelExporter(c, "test", null).accept(status, dfs, localFs));
+
+      FileSystemManager fsm = new FileSystemManager(c);
+      WorkerThread wt = new WorkerThread(c, fsm, TimeUnit.MILLISECONDS, 1);
+      try {
+        wt.copy(status);
+      } finally {
+        wt.close();
+        fsm.close();
+      }
+
+      Path destFile = new Path(c.getDestDir(), "large-file");
+      assertEquals(status.getLen(), localFs.getFileStatus(destFile).getLen());
+      assertEquals(inFile.getCRC32(), WorkerThreadTest.hdfsFileCRC32(localFs, null, destFile));
+      assertTrue(dfs.exists(new Path(c.getCompleteDir(), "large-file")));
+      assertEquals(0, localFs.listStatus(c.getDestStagingDir()).length);
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.fail;
+
+public class PipelinedCopierTest {
+
+  private static String TEST_ROOT_DIR =
+      new Path(System.getProperty("test.build.data", "/tmp")).toString().replace(' ', '+');
+
+  @Test
+  public void testPipelinedCompression() throws Exception {
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path dir = fs.makeQualified(new Path(TEST_ROOT_DIR, "test-slurper-pipeline"));
+    fs.delete(dir, true);
+    CompressionCodec codec = ReflectionUtils.newInstance(GzipCodec.class, conf);
+
+    // small buffers so that the ring wraps around many times
+    //
+    Config config = new Config().setCodec(codec).setCopyBufferSize(1024).setPipelineBuffers(2);
+    PipelinedCopier copier = new PipelinedCopier(config, new CompressionStreamFactory(config), "test");
+    CopyEngine engine = CopyEngine.create(CopyEngine.Type.STREAM, new byte[1024]);
+
+    // the pipes are reused for every file
+    //
+    for (int i = 0; i < 3; i++) {
+      Path src = new Path(dir, "src-" + i);
+      Path dest = new Path(dir, "dest-" + i + codec.getDefaultExtension());
+      WorkerThreadTest.TestFile inFile = new WorkerThreadTest.TestFile(fs, src, 100 * 1024 + i);
+
+      CRC32 crc = new CRC32();
+      OutputStream out = fs.create(dest);
+      long bytes;
+      try {
+        bytes = copier.copy(engine, fs, src, out, crc);
+      } finally {
+        out.close();
+      }
+
+      assertEquals(100 * 1024 + i, bytes);
+      assertEquals(inFile.getCRC32(), crc.getValue());
+      assertEquals(inFile.getCRC32(), WorkerThreadTest.hdfsFileCRC32(fs, codec, dest));
+    }
+    copier.shutdown();
+  }
+
+  @Test(timeout = 60000)
+  public void testWriteFailureAbortsPipeline() throws Exception {
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path dir = fs.makeQualified(new Path(TEST_ROOT_DIR, "test-slurper-pipeline"));
+    Path src = new Path(dir, "src-fail");
+    WorkerThreadTest.TestFile inFile = new WorkerThreadTest.TestFile(fs, src, 100 * 1024);
+
+    CompressionCodec codec = ReflectionUtils.newInstance(GzipCodec.class, conf);
+    Config config = new Config().setCodec(codec).setCopyBufferSize(1024).setPipelineBuffers(2);
+    PipelinedCopier copier = new PipelinedCopier(config, new CompressionStreamFactory(config), "test");
+    CopyEngine engine = CopyEngine.create(CopyEngine.Type.STREAM, new byte[1024]);
+
+    OutputStream failing = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("disk full");
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        throw new IOException("disk full");
+      }
+    };
+
+    // more failures than there are buffers, since each failure leaves buffers behind in the stages
+    //
+    for (int i = 0; i < 5; i++) {
+      try {
+        copier.copy(engine, fs, src, failing, null);
+        fail("Expected the write failure to be propagated");
+      } catch (IOException e) {
+        // expected
+      }
+    }
+
+    // the same pipes still copy a file once they've been reset
+    //
+    Path dest = new Path(dir, "dest-after-fail" + codec.getDefaultExtension());
+    CRC32 crc = new CRC32();
+    OutputStream out = fs.create(dest);
+    try {
+      assertEquals(100 * 1024, copier.copy(engine, fs, src, out, crc));
+    } finally {
+      out.close();
+    }
+    assertEquals(inFile.getCRC32(), crc.getValue());
+    assertEquals(inFile.getCRC32(), WorkerThreadTest.hdfsFileCRC32(fs, codec, dest));
+
+    copier.shutdown();
+  }
+}
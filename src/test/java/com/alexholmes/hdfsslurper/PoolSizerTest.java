@@ -0,0 +1,97 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+
+public class PoolSizerTest {
+
+  private static String TEST_ROOT_DIR =
+      new Path(System.getProperty("test.build.data", "/tmp")).toString().replace(' ', '+');
+
+  @Test
+  public void testClimbsWhileThroughputRises() {
+    PoolSizer sizer = new PoolSizer(1, 8);
+
+    assertEquals(1, sizer.adjust(1, 100, 10));
+    assertEquals(1, sizer.adjust(2, 150, 20));
+    assertEquals(1, sizer.adjust(3, 200, 30));
+
+    // the fourth thread didn't help, so it's retired and the size holds
+    //
+    assertEquals(-1, sizer.adjust(4, 250, 30));
+    assertEquals(0, sizer.adjust(3, 300, 30));
+    for (int i = 1; i < PoolSizer.HOLD_ROUNDS; i++) {
+      assertEquals(0, sizer.adjust(3, 300, 30));
+    }
+
+    // then it probes upwards again
+    //
+    assertEquals(1, sizer.adjust(3, 300, 30));
+  }
+
+  @Test
+  public void testRestoresThreadWhenRetiringHurts() {
+    PoolSizer sizer = new PoolSizer(1, 8);
+    assertEquals(1, sizer.adjust(3, 100, 30));
+    assertEquals(-1, sizer.adjust(4, 100, 30));
+    assertEquals(1, sizer.adjust(3, 100, 20));
+  }
+
+  @Test
+  public void testShrinksWhenIdleAndStaysInBounds() {
+    PoolSizer sizer = new PoolSizer(2, 3);
+    assertEquals(-1, sizer.adjust(3, 0, 0));
+    assertEquals(0, sizer.adjust(2, 0, 0));
+
+    // the backlog is being worked off, so there's no need for more threads
+    //
+    assertEquals(1, sizer.adjust(2, 100, 50));
+    assertEquals(0, sizer.adjust(3, 50, 100));
+    assertEquals(0, sizer.adjust(3, 60, 200));
+  }
+
+  @Test
+  public void testPoolRetiresIdleThreads() throws Exception {
+    FileSystem fs = FileSystem.getLocal(new Configuration());
+    Path baseDir = fs.makeQualified(new Path(TEST_ROOT_DIR, "test-slurper-pool"));
+    fs.delete(baseDir, true);
+    fs.mkdirs(new Path(baseDir, "in"));
+    fs.mkdirs(new Path(baseDir, "work"));
+
+    Config config = new Config()
+        .setSrcDir(new Path(baseDir, "in"))
+        .setWorkDir(new Path(baseDir, "work"))
+        .setErrorDir(new Path(baseDir, "error"))
+        .setCompleteDir(new Path(baseDir, "complete"))
+        .setDestDir(new Path(baseDir, "dest"))
+        .setDestStagingDir(new Path(baseDir, "stage"))
+        .setPollSleepPeriodMillis(50)
+        .setNumThreads(3)
+        .setMinThreads(1)
+        .setMaxThreads(4)
+        .setPoolAdjustMillis(50)
+        .setSrcFs(fs)
+        .setDestFs(fs)
+        .setConfig(fs.getConf());
+
+    FileSystemManager fsm = new FileSystemManager(config);
+    fsm.start();
+    WorkerPool pool = new WorkerPool(config, fsm, null);
+    pool.start();
+    try {
+      assertEquals(3, pool.size());
+      for (int i = 0; i < 100 && pool.size() > 1; i++) {
+        Thread.sleep(50);
+      }
+      assertEquals(1, pool.size());
+      assertEquals(1, fsm.getMetrics().getWorkers());
+    } finally {
+      pool.shutdown();
+      fsm.shutdown();
+    }
+  }
+}
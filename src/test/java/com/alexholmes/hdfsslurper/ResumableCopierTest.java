@@ -0,0 +1,223 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.util.Progressable;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class ResumableCopierTest {
+
+  private static String TEST_ROOT_DIR =
+      new Path(System.getProperty("test.build.data", "/tmp")).toString().replace(' ', '+');
+
+  private static final int FILE_SIZE = 1024 * 1024;
+
+  /**
+   * Remembers whether the staging file was appended to, since the local file system which the test
+   * uses for the source doesn't support appends.
+   */
+  private static class AppendTrackingFileSystem extends FilterFileSystem {
+    private boolean appended;
+
+    private AppendTrackingFileSystem(FileSystem fs) {
+      super(fs);
+    }
+
+    @Override
+    public FSDataOutputStream append(Path f, int bufferSize, Progressable progress) throws IOException {
+      appended = true;
+      return super.append(f, bufferSize, progress);
+    }
+  }
+
+  private FileSystem srcFs;
+  private AppendTrackingFileSystem destFs;
+  private Config config;
+  private Path src;
+  private Path stagingFile;
+  private byte[] data;
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration conf = new Configuration();
+    srcFs = FileSystem.getLocal(conf);
+    RawLocalFileSystem raw = new RawLocalFileSystem();
+    raw.initialize(srcFs.getUri(), conf);
+    destFs = new AppendTrackingFileSystem(raw);
+
+    Path baseDir = srcFs.makeQualified(new Path(TEST_ROOT_DIR, "test-slurper-resume"));
+    srcFs.delete(baseDir, true);
+    src = new Path(baseDir, "work/file");
+    stagingFile = new Path(baseDir, "stage/file");
+
+    data = new byte[FILE_SIZE];
+    new Random(0).nextBytes(data);
+    FSDataOutputStream out = srcFs.create(src);
+    out.write(data);
+    out.close();
+
+    config = new Config().setResumable(true).setCheckpointBytes(64 * 1024);
+  }
+
+  private ResumableCopier copier() {
+    return new ResumableCopier(config, new byte[16 * 1024], new Throttler(config, new SlurperMetrics("test")));
+  }
+
+  private static long crc(byte[] b, int off, int len) {
+    CRC32 crc = new CRC32();
+    crc.update(b, off, len);
+    return crc.getValue();
+  }
+
+  /**
+   * Leaves the staging file and checkpoint behind as if the process had died part way through a copy.
+   */
+  private void interrupt(byte[] staged, long checkpointOffset) throws IOException {
+    FSDataOutputStream out = destFs.create(stagingFile, true);
+    out.write(staged);
+    out.close();
+    FileStatus status = srcFs.getFileStatus(src);
+    new TransferCheckpoint(status, stagingFile, checkpointOffset, crc(data, 0, (int) checkpointOffset))
+        .save(srcFs, src);
+  }
+
+  private byte[] readStaging() throws IOException {
+    InputStream is = destFs.open(stagingFile);
+    try {
+      return IOUtils.toByteArray(is);
+    } finally {
+      is.close();
+    }
+  }
+
+  @Test
+  public void testCrc32Combine() {
+    for (int split : new int[]{0, 1, 1000, FILE_SIZE / 2, FILE_SIZE - 1, FILE_SIZE}) {
+      long combined = TransferCheckpoint.crc32Combine(crc(data, 0, split), crc(data, split, FILE_SIZE - split),
+          FILE_SIZE - split);
+      assertEquals(crc(data, 0, FILE_SIZE), combined);
+    }
+  }
+
+  @Test
+  public void testCopyLeavesCheckpoint() throws Exception {
+    FileStatus status = srcFs.getFileStatus(src);
+    long crc = copier().copy(srcFs, status, destFs, stagingFile);
+
+    assertEquals(crc(data, 0, FILE_SIZE), crc);
+    assertTrue(Arrays.equals(data, readStaging()));
+    assertFalse(destFs.appended);
+
+    TransferCheckpoint checkpoint = TransferCheckpoint.load(srcFs, src);
+    assertEquals(FILE_SIZE, checkpoint.getOffset());
+    assertTrue(checkpoint.matches(status, stagingFile));
+
+    ResumableCopier.discard(srcFs, src);
+    assertNull(TransferCheckpoint.load(srcFs, src));
+  }
+
+  @Test
+  public void testResumeAfterCheckpoint() throws Exception {
+    // bytes made it to the staging file after the last checkpoint, and are kept because they match
+    //
+    interrupt(Arrays.copyOf(data, 300 * 1024), 256 * 1024);
+
+    long crc = copier().copy(srcFs, srcFs.getFileStatus(src), destFs, stagingFile);
+
+    assertTrue(destFs.appended);
+    assertEquals(crc(data, 0, FILE_SIZE), crc);
+    assertTrue(Arrays.equals(data, readStaging()));
+  }
+
+  @Test
+  public void testMismatchedStagingFileStartsOver() throws Exception {
+    byte[] staged = Arrays.copyOf(data, 300 * 1024);
+    staged[staged.length - 1]++;
+    interrupt(staged, 256 * 1024);
+
+    long crc = copier().copy(srcFs, srcFs.getFileStatus(src), destFs, stagingFile);
+
+    assertFalse(destFs.appended);
+    assertEquals(crc(data, 0, FILE_SIZE), crc);
+    assertTrue(Arrays.equals(data, readStaging()));
+  }
+
+  @Test
+  public void testSmallFileIsNotResumable() throws Exception {
+    FileStatus status = srcFs.getFileStatus(src);
+    assertTrue(copier().accept(status));
+    config.setCheckpointBytes(FILE_SIZE);
+    assertFalse(copier().accept(status));
+
+    Path baseDir = src.getParent().getParent();
+    config.setSrcDir(new Path(baseDir, "in"))
+        .setWorkDir(src.getParent())
+        .setErrorDir(new Path(baseDir, "error"))
+        .setCompleteDir(new Path(baseDir, "complete"))
+        .setDestDir(new Path(baseDir, "dest"))
+        .setDestStagingDir(stagingFile.getParent())
+        .setSrcFs(srcFs)
+        .setDestFs(srcFs)
+        .setConfig(srcFs.getConf());
+    srcFs.mkdirs(config.getCompleteDir());
+
+    // the file goes through the configured engine, and never has a checkpoint
+    //
+    long bytesBefore = CopyEngine.getStats(config.getCopyEngine()).getBytes();
+    FileSystemManager fsm = new FileSystemManager(config);
+    WorkerThread wt = new WorkerThread(config, fsm, TimeUnit.MILLISECONDS, 1);
+    try {
+      wt.copy(status);
+    } finally {
+      wt.close();
+      fsm.close();
+    }
+
+    assertEquals(FILE_SIZE, CopyEngine.getStats(config.getCopyEngine()).getBytes() - bytesBefore);
+    assertFalse(TransferCheckpoint.exists(srcFs, src));
+    assertFalse(TransferCheckpoint.exists(srcFs, new Path(config.getCompleteDir(), "file")));
+    assertEquals(crc(data, 0, FILE_SIZE),
+        WorkerThreadTest.hdfsFileCRC32(srcFs, null, new Path(config.getDestDir(), "file")));
+  }
+
+  @Test
+  public void testInterruptedCopyReturnedToSource() throws Exception {
+    Path srcDir = new Path(src.getParent().getParent(), "in");
+    Path errorDir = new Path(src.getParent().getParent(), "error");
+    srcFs.mkdirs(srcDir);
+    srcFs.mkdirs(errorDir);
+    interrupt(Arrays.copyOf(data, 128 * 1024), 128 * 1024);
+
+    Config fsmConfig = new Config()
+        .setResumable(true)
+        .setSrcDir(srcDir)
+        .setWorkDir(src.getParent())
+        .setErrorDir(errorDir)
+        .setSrcFs(srcFs)
+        .setConfig(srcFs.getConf());
+    new FileSystemManager(fsmConfig).moveWorkFilesToError();
+
+    assertTrue(srcFs.exists(new Path(srcDir, "file")));
+    assertFalse(srcFs.exists(new Path(errorDir, "file")));
+    assertTrue(TransferCheckpoint.exists(srcFs, src));
+  }
+}
@@ -0,0 +1,75 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.fail;
+
+public class ScriptCoprocessTest {
+
+  private static String TEST_ROOT_DIR =
+      new Path(System.getProperty("test.build.data", "/tmp")).toString().replace(' ', '+');
+
+  private ScriptCoprocess coprocess;
+
+  @Before
+  public void setUp() throws Exception {
+    // echoes each line back with a prefix, exits on "exit" and ignores "hang"
+    //
+    File script = new File(TEST_ROOT_DIR, "test-slurper-coprocess.sh");
+    FileUtils.writeStringToFile(script,
+        "while read line; do\n" +
+            "  if [ \"$line\" = \"exit\" ]; then exit 1; fi\n" +
+            "  if [ \"$line\" != \"hang\" ]; then echo \"dest:$line\"; fi\n" +
+            "done\n");
+    coprocess = new ScriptCoprocess("/bin/sh " + script.getAbsolutePath(), "test");
+  }
+
+  @After
+  public void tearDown() {
+    coprocess.close();
+  }
+
+  @Test
+  public void testRequests() throws Exception {
+    assertEquals("dest:file:/a", coprocess.execute("file:/a", 10, TimeUnit.SECONDS));
+    assertEquals("dest:file:/b", coprocess.execute("file:/b", 10, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("dest:1", "dest:2", "dest:3"),
+        coprocess.execute(Arrays.asList("1", "2", "3"), 10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testRestartAfterExit() throws Exception {
+    assertEquals("dest:a", coprocess.execute("a", 10, TimeUnit.SECONDS));
+    try {
+      coprocess.execute("exit", 10, TimeUnit.SECONDS);
+      fail("Expected the script to exit");
+    } catch (IOException e) {
+      // expected
+    }
+    assertEquals("dest:b", coprocess.execute("b", 10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testRestartAfterTimeout() throws Exception {
+    try {
+      coprocess.execute("hang", 200, TimeUnit.MILLISECONDS);
+      fail("Expected the request to time out");
+    } catch (IOException e) {
+      // expected
+    }
+
+    // the response to the timed-out request mustn't be mistaken for this one
+    //
+    assertEquals("dest:c", coprocess.execute("c", 10, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,163 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class SequenceFilePackerTest {
+
+  private static String TEST_ROOT_DIR =
+      new Path(System.getProperty("test.build.data", "/tmp")).toString().replace(' ', '+');
+
+  private FileSystem fs;
+  private Path inDir;
+  private Path completeDir;
+  private Path destDir;
+  private Config config;
+  private FileSystemManager fsm;
+  private SequenceFilePacker packer;
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration conf = new Configuration();
+    fs = FileSystem.getLocal(conf);
+
+    Path baseDir = fs.makeQualified(new Path(TEST_ROOT_DIR, "test-slurper-pack"));
+    fs.delete(baseDir, true);
+
+    inDir = new Path(baseDir, "in");
+    completeDir = new Path(baseDir, "complete");
+    destDir = new Path(baseDir, "dest");
+    fs.mkdirs(inDir);
+    fs.mkdirs(new Path(baseDir, "work"));
+    fs.mkdirs(completeDir);
+
+    config = new Config()
+        .setSrcDir(inDir)
+        .setWorkDir(new Path(baseDir, "work"))
+        .setErrorDir(new Path(baseDir, "error"))
+        .setCompleteDir(completeDir)
+        .setDestDir(destDir)
+        .setDestStagingDir(new Path(baseDir, "stage"))
+        .setPollSleepPeriodMillis(100)
+        .setVerify(true)
+        .setPack(true)
+        .setSrcFs(fs)
+        .setDestFs(fs)
+        .setConfig(conf);
+  }
+
+  /**
+   * Writes a file outside of the source directory and then moves it in, so that it isn't claimed
+   * while it's being written.
+   */
+  private long createInboundFile(Path file, int size) throws Exception {
+    Path landing = new Path(inDir.getParent(), "landing");
+    long crc = new WorkerThreadTest.TestFile(fs, new Path(landing, file.getName()), size).getCRC32();
+    fs.rename(new Path(landing, file.getName()), file);
+    return crc;
+  }
+
+  private Map<String, Long> readContainers() throws Exception {
+    Map<String, Long> records = new HashMap<String, Long>();
+    for (FileStatus container : fs.listStatus(destDir)) {
+      if (!container.getPath().getName().endsWith(".seq")) {
+        continue;
+      }
+      SequenceFile.Reader reader = new SequenceFile.Reader(config.getConfig(),
+          SequenceFile.Reader.file(container.getPath()));
+      Text key = new Text();
+      BytesWritable value = new BytesWritable();
+      while (reader.next(key, value)) {
+        CRC32 crc = new CRC32();
+        crc.update(value.getBytes(), 0, value.getLength());
+        records.put(key.toString(), crc.getValue());
+      }
+      reader.close();
+    }
+    return records;
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (packer != null) {
+      packer.close();
+    }
+    if (fsm != null) {
+      fsm.shutdown();
+    }
+  }
+
+  private WorkerThread startWorker() throws Exception {
+    fsm = new FileSystemManager(config);
+    fsm.start();
+    packer = new SequenceFilePacker(config, fsm);
+    return new WorkerThread(config, fsm, TimeUnit.MILLISECONDS, 1, packer);
+  }
+
+  @Test
+  public void testPackAndRollBySize() throws Exception {
+    config.setPackRollSize(2 * 1000).setPackMaxFileSize(2000).setPackRollMillis(60 * 1000);
+    WorkerThread wt = startWorker();
+
+    Map<String, Long> expected = new HashMap<String, Long>();
+    for (int i = 0; i < 3; i++) {
+      Path file = new Path(inDir, "small-" + i);
+      expected.put(file.toString(), createInboundFile(file, 1000));
+      wt.doWork();
+    }
+
+    // the first two files filled a container, the third is still waiting for its container to commit
+    //
+    assertEquals(2, readContainers().size());
+    assertTrue(fs.exists(new Path(completeDir, "small-0")));
+    assertFalse(fs.exists(new Path(completeDir, "small-2")));
+    assertEquals(2, fsm.getMetrics().getFiles());
+
+    packer.close();
+
+    assertEquals(expected, readContainers());
+    assertTrue(fs.exists(new Path(completeDir, "small-2")));
+    assertEquals(3, fsm.getMetrics().getFiles());
+  }
+
+  @Test
+  public void testRollByAgeAndLargeFilesCopied() throws Exception {
+    config.setPackMaxFileSize(2000).setPackRollMillis(100);
+    WorkerThread wt = startWorker();
+
+    Path small = new Path(inDir, "small");
+    long smallCRC = createInboundFile(small, 1000);
+    wt.doWork();
+
+    Path large = new Path(inDir, "large");
+    long largeCRC = createInboundFile(large, 3000);
+    wt.doWork();
+
+    // the large file is copied as-is
+    //
+    assertEquals(largeCRC, WorkerThreadTest.hdfsFileCRC32(fs, null, new Path(destDir, "large")));
+
+    for (int i = 0; i < 50 && !fs.exists(new Path(completeDir, "small")); i++) {
+      Thread.sleep(100);
+    }
+    assertTrue(fs.exists(new Path(completeDir, "small")));
+    assertEquals(smallCRC, (long) readContainers().get(small.toString()));
+  }
+}
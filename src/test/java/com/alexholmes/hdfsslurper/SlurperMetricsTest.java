@@ -0,0 +1,63 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class SlurperMetricsTest {
+
+  @Test
+  public void testHistogram() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 99; i++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(100));
+
+    assertEquals(100, histogram.getCount());
+    assertEquals(100.0, histogram.getMaxMillis());
+    assertEquals(1.99, histogram.getMeanMillis(), 0.001);
+
+    // percentiles are rounded up to the next power-of-two microseconds
+    //
+    assertEquals(1.024, histogram.getPercentileMillis(50));
+    assertEquals(1.024, histogram.getPercentileMillis(99));
+    assertEquals(100.0, histogram.getPercentileMillis(100));
+    assertEquals(0.0, new LatencyHistogram().getPercentileMillis(99));
+  }
+
+  @Test
+  public void testPublishedOverJmx() throws Exception {
+    SlurperMetrics metrics = new SlurperMetrics("jmx-test");
+    metrics.fileCopied(100);
+    metrics.fileCopied(50);
+    metrics.fileFailed();
+    metrics.copyStarted();
+    metrics.record(SlurperMetrics.Stage.COPY, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(5));
+
+    // the JMX attributes are a cached snapshot, which is first taken when the source is registered
+    //
+    metrics.register();
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("Hadoop:service=Slurper,name=Slurper-jmx-test");
+
+      assertEquals(2L, ((Number) server.getAttribute(name, "FilesCopied")).longValue());
+      assertEquals(150L, ((Number) server.getAttribute(name, "BytesCopied")).longValue());
+      assertEquals(1L, ((Number) server.getAttribute(name, "Errors")).longValue());
+      assertEquals(1, ((Number) server.getAttribute(name, "InFlight")).intValue());
+      assertEquals(1L, ((Number) server.getAttribute(name, "CopyNumOps")).longValue());
+      assertTrue(((Number) server.getAttribute(name, "CopyMaxMillis")).doubleValue() >= 5);
+      assertEquals("jmx-test", server.getAttribute(name, "tag.Datasource"));
+    } finally {
+      DefaultMetricsSystem.shutdown();
+    }
+  }
+}
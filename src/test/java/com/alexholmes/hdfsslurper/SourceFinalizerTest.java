@@ -0,0 +1,112 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class SourceFinalizerTest {
+
+  private static String TEST_ROOT_DIR =
+      new Path(System.getProperty("test.build.data", "/tmp")).toString().replace(' ', '+');
+
+  private FileSystem fs;
+  private Path baseDir;
+  private Config config;
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration conf = new Configuration();
+    fs = FileSystem.getLocal(conf);
+    baseDir = fs.makeQualified(new Path(TEST_ROOT_DIR, "test-slurper-finalizer"));
+    fs.delete(baseDir, true);
+    for (String dir : new String[]{"in", "work", "complete", "error", "stage", "dest"}) {
+      fs.mkdirs(new Path(baseDir, dir));
+    }
+    File journalDir = new File(new Path(baseDir, "journal").toUri().getPath());
+    journalDir.mkdirs();
+
+    config = new Config()
+        .setDatasource("test")
+        .setSrcDir(new Path(baseDir, "in"))
+        .setWorkDir(new Path(baseDir, "work"))
+        .setCompleteDir(new Path(baseDir, "complete"))
+        .setErrorDir(new Path(baseDir, "error"))
+        .setDestStagingDir(new Path(baseDir, "stage"))
+        .setDestDir(new Path(baseDir, "dest"))
+        .setJournalDir(journalDir)
+        .setSrcFs(fs)
+        .setDestFs(fs)
+        .setConfig(conf);
+  }
+
+  private FileStatus workFile(FileSystemManager fsm, String name) throws Exception {
+    Path p = new Path(baseDir, "work/" + name);
+    FSDataOutputStream out = fs.create(p);
+    out.write(name.getBytes("UTF-8"));
+    out.close();
+    fsm.getJournal().record(Journal.State.CLAIMED, p);
+    fsm.getJournal().record(Journal.State.COMMITTED, p, null, new Path(baseDir, "dest/" + name));
+    return fs.getFileStatus(p);
+  }
+
+  @Test
+  public void testQueuedFilesAreFinalizedOnClose() throws Exception {
+    config.setFinalizeThreads(2).setFinalizeBatchSize(8);
+    FileSystemManager fsm = new FileSystemManager(config);
+    fsm.getJournal().open();
+    SourceFinalizer finalizer = fsm.getSourceFinalizer();
+    assertTrue(finalizer.isAsync());
+
+    // nothing is finalized until the threads are started, so the files queue up
+    //
+    for (int i = 0; i < 20; i++) {
+      FileStatus status = workFile(fsm, "file-" + i);
+      if (i % 4 == 0) {
+        finalizer.fail(status);
+      } else {
+        finalizer.complete(status);
+      }
+    }
+    assertEquals(20, finalizer.getQueueDepth());
+    assertEquals(20, fsm.getMetrics().getFinalizeQueueDepth());
+    assertEquals(20, fs.listStatus(new Path(baseDir, "work")).length);
+
+    finalizer.start();
+    fsm.close();
+
+    assertEquals(0, finalizer.getQueueDepth());
+    assertEquals(0, fsm.getMetrics().getFinalizeQueueDepth());
+    assertEquals(0, fs.listStatus(new Path(baseDir, "work")).length);
+    assertEquals(15, fs.listStatus(new Path(baseDir, "complete")).length);
+    assertEquals(5, fs.listStatus(new Path(baseDir, "error")).length);
+    assertTrue(fs.exists(new Path(baseDir, "error/file-0")));
+
+    // every file reached a terminal state in the journal
+    //
+    assertEquals(0, fsm.getJournal().getInFlight());
+  }
+
+  @Test
+  public void testInlineFinalization() throws Exception {
+    FileSystemManager fsm = new FileSystemManager(config.setRemove(true).setCompleteDir(null));
+    fsm.getJournal().open();
+    SourceFinalizer finalizer = fsm.getSourceFinalizer();
+    assertFalse(finalizer.isAsync());
+
+    FileStatus status = workFile(fsm, "file");
+    finalizer.complete(status);
+    assertFalse(fs.exists(status.getPath()));
+    assertEquals(0, fsm.getJournal().getInFlight());
+    fsm.close();
+  }
+}
@@ -0,0 +1,92 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.fail;
+
+public class TeeVerifierTest {
+
+  private static Config newConfig() {
+    CompressionCodec codec = ReflectionUtils.newInstance(GzipCodec.class, new Configuration());
+
+    // small buffers so that the writer has to wait for the verifier
+    //
+    return new Config().setCodec(codec).setCopyBufferSize(1024).setPipelineBuffers(2);
+  }
+
+  @Test
+  public void testVerify() throws Exception {
+    Config config = newConfig();
+    TeeVerifier verifier = new TeeVerifier(config, "test");
+    Random random = new Random(0);
+
+    // the pipe is reused for every file
+    //
+    for (int i = 0; i < 3; i++) {
+      byte[] data = new byte[100 * 1024 + i];
+      random.nextBytes(data);
+      CRC32 crc = new CRC32();
+      crc.update(data);
+
+      ByteArrayOutputStream dest = new ByteArrayOutputStream();
+      OutputStream os = config.getCodec().createOutputStream(verifier.tee(dest));
+      os.write(data);
+      os.close();
+
+      assertEquals(crc.getValue(), verifier.finish());
+
+      // and the destination got the same bytes
+      //
+      CRC32 destCrc = new CRC32();
+      InputStream in = new CheckedInputStream(
+          config.getCodec().createInputStream(new ByteArrayInputStream(dest.toByteArray())), destCrc);
+      IOUtils.copy(in, new NullOutputStream());
+      assertEquals(crc.getValue(), destCrc.getValue());
+    }
+    verifier.shutdown();
+  }
+
+  @Test
+  public void testCorruptOutput() throws Exception {
+    TeeVerifier verifier = new TeeVerifier(newConfig(), "test");
+
+    OutputStream os = verifier.tee(new ByteArrayOutputStream());
+    try {
+      os.write(new byte[64 * 1024]);
+      os.close();
+      verifier.finish();
+      fail("Expected the output not to decompress");
+    } catch (IOException e) {
+      // expected, either from the write once the verifier has given up or from finish
+    } finally {
+      verifier.cancel();
+    }
+
+    // a failed file doesn't affect the next one
+    //
+    ByteArrayOutputStream dest = new ByteArrayOutputStream();
+    os = newConfig().getCodec().createOutputStream(verifier.tee(dest));
+    os.write(new byte[]{1, 2, 3});
+    os.close();
+    CRC32 crc = new CRC32();
+    crc.update(new byte[]{1, 2, 3});
+    assertEquals(crc.getValue(), verifier.finish());
+    verifier.shutdown();
+  }
+}
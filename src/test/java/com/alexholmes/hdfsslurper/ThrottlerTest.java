@@ -0,0 +1,111 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.util.Calendar;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class ThrottlerTest {
+
+  private static Calendar at(int hour, int minute) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.set(Calendar.HOUR_OF_DAY, hour);
+    calendar.set(Calendar.MINUTE, minute);
+    return calendar;
+  }
+
+  @Test
+  public void testSchedule() {
+    List<Throttler.Window> schedule = Throttler.Window.parseList("09:00-18:00=10m, 22:30-06:00=0");
+    Throttler throttler = new Throttler(new Config()
+        .setThrottleBytesPerSec(1024)
+        .setThrottleSchedule(schedule), new SlurperMetrics("test"));
+
+    assertEquals(1024, throttler.getScheduledBytesPerSecond(at(8, 59)));
+    assertEquals(10 * 1024 * 1024, throttler.getScheduledBytesPerSecond(at(9, 0)));
+    assertEquals(1024, throttler.getScheduledBytesPerSecond(at(18, 0)));
+
+    // wraps around midnight
+    //
+    assertEquals(0, throttler.getScheduledBytesPerSecond(at(23, 0)));
+    assertEquals(0, throttler.getScheduledBytesPerSecond(at(5, 59)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSchedule() {
+    Throttler.Window.parseList("25:00-18:00=10m");
+  }
+
+  @Test
+  public void testUnthrottledStreamIsNotWrapped() throws Exception {
+    Throttler throttler = new Throttler(new Config(), new SlurperMetrics("test"));
+    OutputStream out = new NullOutputStream();
+    assertSame(out, throttler.wrap(out, FileSystem.getLocal(new Configuration())));
+  }
+
+  @Test
+  public void testDestFsLimit() throws Exception {
+    SlurperMetrics metrics = new SlurperMetrics("test");
+    Throttler throttler = new Throttler(new Config()
+        .setThrottleDestFsBytesPerSec(Collections.singletonMap("file:///", 4L * 1024 * 1024)), metrics);
+    FileSystem localFs = FileSystem.getLocal(new Configuration());
+    TokenBucket bucket = throttler.getDestFsBucket(localFs);
+
+    // the bucket starts empty, so 1MB at 4MB/s has to wait for a quarter of a second, less whatever the
+    // bucket refilled since it was created, which is at most a tenth of a second's worth
+    //
+    long waitMillis = TimeUnit.NANOSECONDS.toMillis(throttler.reserve(bucket, 1024 * 1024));
+    assertTrue("Waiting " + waitMillis + "ms", waitMillis > 150 && waitMillis <= 250);
+
+    // writes through the stream wait on the same bucket, which is now in debt
+    //
+    OutputStream out = throttler.wrap(new NullOutputStream(), localFs);
+    out.write(new byte[1024]);
+    assertTrue(metrics.getThrottleWaitNanos() > 0);
+  }
+
+  @Test
+  public void testDestFsLimitSharedByDatasources() throws Exception {
+    Config a = new Config().setThrottleDestFsBytesPerSec(Collections.singletonMap("file:///", 8L * 1024 * 1024));
+    Config b = new Config().setThrottleDestFsBytesPerSec(Collections.singletonMap("file:///", 4L * 1024 * 1024));
+    Map<String, TokenBucket> buckets = Throttler.createDestFsBuckets(Arrays.asList(a, b));
+    Throttler throttlerA = new Throttler(a, new SlurperMetrics("a"), buckets);
+    Throttler throttlerB = new Throttler(b, new SlurperMetrics("b"), buckets);
+    FileSystem localFs = FileSystem.getLocal(new Configuration());
+
+    // the lowest limit is used, and what one datasource writes is charged to the other
+    //
+    assertSame(throttlerA.getDestFsBucket(localFs), throttlerB.getDestFsBucket(localFs));
+    assertEquals(4L * 1024 * 1024, throttlerA.getDestFsBucket(localFs).getBytesPerSecond());
+    long first = throttlerA.reserve(throttlerA.getDestFsBucket(localFs), 1024 * 1024);
+    long second = throttlerB.reserve(throttlerB.getDestFsBucket(localFs), 1024 * 1024);
+    assertTrue(second - first > TimeUnit.MILLISECONDS.toNanos(200));
+  }
+
+  @Test
+  public void testTokenBucketDebt() {
+    TokenBucket bucket = new TokenBucket(1000);
+
+    // callers queue up behind each other's debt
+    //
+    long first = bucket.reserve(500);
+    long second = bucket.reserve(500);
+    assertTrue(first > TimeUnit.MILLISECONDS.toNanos(400));
+    assertTrue(second - first > TimeUnit.MILLISECONDS.toNanos(400));
+
+    bucket.setBytesPerSecond(0);
+    assertEquals(0, bucket.reserve(1000000));
+  }
+}
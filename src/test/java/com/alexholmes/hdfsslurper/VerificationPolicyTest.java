@@ -0,0 +1,120 @@
+package com.alexholmes.hdfsslurper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class VerificationPolicyTest {
+
+  private static String TEST_ROOT_DIR =
+      new Path(System.getProperty("test.build.data", "/tmp")).toString().replace(' ', '+');
+
+  private static FileStatus file(String name, long len) {
+    return new FileStatus(len, false, 1, 1024, 0, new Path("file:/tmp/in", name));
+  }
+
+  @Test
+  public void testRules() {
+    Config config = new Config()
+        .setVerifyPolicy(VerificationPolicy.Level.SIZE)
+        .setVerifyRules(VerificationPolicy.Rule.parseList("critical-*=FULL, >=1g=SPOT, <1k=full"));
+    VerificationPolicy policy = new VerificationPolicy(config);
+
+    // the first rule which matches wins
+    //
+    assertEquals(VerificationPolicy.Level.FULL, policy.choose(file("critical-1.log", 2L << 30)));
+    assertEquals(VerificationPolicy.Level.SPOT, policy.choose(file("access.log", 1L << 30)));
+    assertEquals(VerificationPolicy.Level.SIZE, policy.choose(file("access.log", (1L << 30) - 1)));
+    assertEquals(VerificationPolicy.Level.SIZE, policy.choose(file("access.log", 1024)));
+    assertEquals(VerificationPolicy.Level.FULL, policy.choose(file("access.log", 1023)));
+
+    // byte ranges can't be compared once the data is compressed
+    //
+    config.setCodec(ReflectionUtils.newInstance(GzipCodec.class, new Configuration()));
+    assertEquals(VerificationPolicy.Level.FULL, policy.choose(file("access.log", 1L << 30)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidRule() {
+    VerificationPolicy.Rule.parseList("*.log=SOMETIMES");
+  }
+
+  @Test
+  public void testSample() {
+    VerificationPolicy policy = new VerificationPolicy(new Config()
+        .setVerifyPolicy(VerificationPolicy.Level.SAMPLE)
+        .setVerifySampleFraction(0.1), new Random(0));
+
+    int full = 0;
+    for (int i = 0; i < 10000; i++) {
+      VerificationPolicy.Level level = policy.choose(file("file-" + i, 100));
+      if (level == VerificationPolicy.Level.FULL) {
+        full++;
+      } else {
+        assertEquals(VerificationPolicy.Level.SIZE, level);
+      }
+    }
+    assertTrue("Verified " + full + " files in full", full > 900 && full < 1100);
+  }
+
+  @Test
+  public void testSpotCheck() throws Exception {
+    FileSystem fs = FileSystem.getLocal(new Configuration());
+    Path dir = fs.makeQualified(new Path(TEST_ROOT_DIR, "test-slurper-verify"));
+    fs.delete(dir, true);
+    Path src = new Path(dir, "src");
+    Path staging = new Path(dir, "staging");
+
+    byte[] data = new byte[1024 * 1024];
+    new Random(0).nextBytes(data);
+    write(fs, src, data);
+    write(fs, staging, data);
+
+    VerificationPolicy policy = new VerificationPolicy(new Config()
+        .setVerifySpotChecks(8)
+        .setVerifySpotCheckBytes(4096), new Random(0));
+    policy.verifySize(fs, staging, data.length);
+    policy.verifySpots(fs, src, fs, staging, data.length);
+
+    // small files are compared in full, so a single flipped byte is always found
+    //
+    byte[] small = new byte[10000];
+    write(fs, src, small);
+    small[9999] = 1;
+    write(fs, staging, small);
+    try {
+      policy.verifySpots(fs, src, fs, staging, small.length);
+      fail("Expected the spot check to fail");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("offset 9999"));
+    }
+
+    try {
+      policy.verifySize(fs, staging, small.length + 1);
+      fail("Expected the size check to fail");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  private static void write(FileSystem fs, Path path, byte[] data) throws IOException {
+    FSDataOutputStream out = fs.create(path, true);
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+  }
+}
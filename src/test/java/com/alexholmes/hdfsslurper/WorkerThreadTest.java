@@ -5,13 +5,16 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.commons.logging.impl.Log4JLogger;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.log4j.Level;
 import org.junit.Test;
 
 import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Random;
@@ -20,6 +23,8 @@ import java.util.zip.CRC32;
 import java.util.zip.CheckedInputStream;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 
 public class WorkerThreadTest {
@@ -41,18 +46,24 @@ public class WorkerThreadTest {
   public static class TestFile {
     protected Path path;
     private final FileSystem fs;
+    private final int size;
     private long crc;
 
     public TestFile(FileSystem fs, Path path) throws IOException {
+      this(fs, path, 1024 + RAN.nextInt(1024));
+    }
+
+    public TestFile(FileSystem fs, Path path, int size) throws IOException {
       this.fs = fs;
       this.path = path;
+      this.size = size;
       create();
     }
 
     private void create() throws IOException {
       FSDataOutputStream out = fs.create(path);
       try {
-        byte[] b = new byte[1024 + RAN.nextInt(1024)];
+        byte[] b = new byte[size];
         RAN.nextBytes(b);
         out.write(b);
       } finally {
@@ -129,6 +140,7 @@ public class WorkerThreadTest {
 
 
       FileSystemManager fsm = new FileSystemManager(c);
+      fsm.start();
 
       WorkerThread wt = new WorkerThread(c, fsm, TimeUnit.MILLISECONDS, 1);
 
@@ -142,5 +154,137 @@ public class WorkerThreadTest {
     }
   }
 
+  @Test
+  public void testShortReadIsAnError() throws Exception {
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path baseDir = fs.makeQualified(new Path(TEST_ROOT_DIR, "test-slurper-short-read"));
+    fs.delete(baseDir, true);
+
+    Config c = new Config()
+        .setSrcDir(new Path(baseDir, "in"))
+        .setWorkDir(new Path(baseDir, "work"))
+        .setErrorDir(new Path(baseDir, "error"))
+        .setCompleteDir(new Path(baseDir, "complete"))
+        .setDestDir(new Path(baseDir, "dest"))
+        .setDestStagingDir(new Path(baseDir, "stage"))
+        .setSrcFs(fs)
+        .setDestFs(fs)
+        .setConfig(conf);
+    fs.mkdirs(c.getErrorDir());
+
+    // the file is truncated after it was claimed, so the copy reads less than the claimed length
+    //
+    Path workFile = new Path(c.getWorkDir(), "short-file");
+    new TestFile(fs, workFile, 2048);
+    FileStatus claimed = fs.getFileStatus(workFile);
+    new TestFile(fs, workFile, 1024);
+
+    FileSystemManager fsm = new FileSystemManager(c);
+    WorkerThread wt = new WorkerThread(c, fsm, TimeUnit.MILLISECONDS, 1);
+    try {
+      wt.copy(claimed);
+    } finally {
+      wt.close();
+    }
+
+    assertTrue(fs.exists(new Path(c.getErrorDir(), "short-file")));
+    assertFalse(fs.exists(new Path(c.getDestDir(), "short-file")));
+    assertEquals(0, fsm.getMetrics().getFiles());
+  }
+
+  @Test
+  public void testCopyKeepsInterrupt() throws Exception {
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path baseDir = fs.makeQualified(new Path(TEST_ROOT_DIR, "test-slurper-interrupt"));
+    fs.delete(baseDir, true);
+
+    Config c = new Config()
+        .setSrcDir(new Path(baseDir, "in"))
+        .setWorkDir(new Path(baseDir, "work"))
+        .setErrorDir(new Path(baseDir, "error"))
+        .setCompleteDir(new Path(baseDir, "complete"))
+        .setDestDir(new Path(baseDir, "dest"))
+        .setDestStagingDir(new Path(baseDir, "stage"))
+        .setSrcFs(fs)
+        .setDestFs(fs)
+        .setConfig(conf);
+    Path workFile = new Path(c.getWorkDir(), "file");
+    new TestFile(fs, workFile);
+
+    // a host thread which was interrupted to shut it down copies nothing, and is still interrupted afterwards
+    //
+    FileSystemManager fsm = new FileSystemManager(c);
+    WorkerThread wt = new WorkerThread(c, fsm, TimeUnit.MILLISECONDS, 1);
+    try {
+      Thread.currentThread().interrupt();
+      wt.copy(fs.getFileStatus(workFile));
+      assertTrue(Thread.interrupted());
+    } finally {
+      wt.close();
+    }
+    assertTrue(fs.exists(workFile));
+    assertFalse(fs.exists(new Path(c.getDestDir(), "file")));
+  }
 
+  @Test
+  public void testDuplicateIsNotCopied() throws Exception {
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path baseDir = fs.makeQualified(new Path(TEST_ROOT_DIR, "test-slurper-dedupe-copy"));
+    fs.delete(baseDir, true);
+
+    Config c = new Config()
+        .setSrcDir(new Path(baseDir, "in"))
+        .setWorkDir(new Path(baseDir, "work"))
+        .setErrorDir(new Path(baseDir, "error"))
+        .setCompleteDir(new Path(baseDir, "complete"))
+        .setDestDir(new Path(baseDir, "dest"))
+        .setDestStagingDir(new Path(baseDir, "stage"))
+        .setDedupeDir(new File(new Path(baseDir, "dedupe").toUri().getPath()))
+        .setSrcFs(fs)
+        .setDestFs(fs)
+        .setConfig(conf);
+    fs.mkdirs(c.getCompleteDir());
+
+    Path workFile = new Path(c.getWorkDir(), "file");
+    Path completeFile = new Path(c.getCompleteDir(), "file");
+    Path destFile = new Path(c.getDestDir(), "file");
+    TestFile inFile = new TestFile(fs, workFile);
+
+    FileSystemManager fsm = new FileSystemManager(c);
+    WorkerThread wt = new WorkerThread(c, fsm, TimeUnit.MILLISECONDS, 1);
+    try {
+      wt.copy(fs.getFileStatus(workFile));
+      assertEquals(inFile.getCRC32(), hdfsFileCRC32(fs, null, destFile));
+
+      // the hash taken as the file was streamed is the same as hashing the file on its own
+      //
+      String hash = ContentHash.of(fs, completeFile, new byte[4096]);
+      DedupeIndex.Entry entry = fsm.getDedupeIndex().lookup(hash, fs.getFileStatus(completeFile).getLen(),
+          fs.makeQualified(destFile));
+      assertNotNull(entry);
+
+      // the same file arrives again, and is finalized without the destination being written
+      //
+      assertTrue(fs.rename(completeFile, workFile));
+      assertTrue(fs.delete(destFile, false));
+      wt.copy(fs.getFileStatus(workFile));
+      assertTrue(fs.exists(completeFile));
+      assertFalse(fs.exists(destFile));
+      assertEquals(1, fsm.getMetrics().getDeduplicated());
+
+      // the same contents under another name go to another destination, so they're copied
+      //
+      Path otherFile = new Path(c.getWorkDir(), "other");
+      FileUtil.copy(fs, completeFile, fs, otherFile, false, conf);
+      wt.copy(fs.getFileStatus(otherFile));
+      assertEquals(inFile.getCRC32(), hdfsFileCRC32(fs, null, new Path(c.getDestDir(), "other")));
+      assertEquals(1, fsm.getMetrics().getDeduplicated());
+    } finally {
+      wt.close();
+      fsm.close();
+    }
+  }
 }